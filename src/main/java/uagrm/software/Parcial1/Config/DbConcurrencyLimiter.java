@@ -0,0 +1,159 @@
+package uagrm.software.Parcial1.Config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Límite de concurrencia contra la base de datos para el modo de hilos virtuales.
+ *
+ * Con hilos de plataforma la concurrencia la acotan los pools (10-50 hilos por
+ * canal, 200 de Tomcat). Con hilos virtuales no hay techo: miles de sesiones
+ * pueden pedir conexión a la vez. El DataSource se envuelve para que cada
+ * conexión tome un permiso de un semáforo justo del tamaño del pool de Hikari
+ * ({@code diagram.db.max-concurrency}, 0 = maximum-pool-size): los que sobran
+ * esperan estacionados en orden de llegada, sin ocupar un hilo de plataforma,
+ * y fallan como Hikari si pasa {@code connection-timeout}.
+ *
+ * Solo actúa si {@code spring.threads.virtual.enabled=true} en un JDK 21+.
+ */
+@Slf4j
+@Component
+public class DbConcurrencyLimiter implements BeanPostProcessor, EnvironmentAware {
+
+    private Environment environment;
+    private Semaphore permits;
+    private int maxConcurrency;
+    private long timeoutMillis;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder waited = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof HikariDataSource hikari) || !Threading.VIRTUAL.isActive(environment)) {
+            return bean;
+        }
+        int configured = environment.getProperty("diagram.db.max-concurrency", Integer.class, 0);
+        maxConcurrency = configured > 0 ? configured : hikari.getMaximumPoolSize();
+        timeoutMillis = hikari.getConnectionTimeout();
+        permits = new Semaphore(maxConcurrency, true);
+        log.info("Hilos virtuales: acceso a la base limitado a {} conexiones concurrentes", maxConcurrency);
+        return new LimitedDataSource(hikari);
+    }
+
+    /** Hilos esperando permiso (0 si el límite no está activo). */
+    public int waiting() {
+        return permits != null ? permits.getQueueLength() : 0;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", permits != null);
+        if (permits != null) {
+            stats.put("maxConcurrency", maxConcurrency);
+            stats.put("inUse", maxConcurrency - permits.availablePermits());
+            stats.put("waiting", permits.getQueueLength());
+            stats.put("acquired", acquired.sum());
+            stats.put("waited", waited.sum());
+            stats.put("timeouts", timeouts.sum());
+        }
+        return stats;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private Connection limited(ConnectionSource source) throws SQLException {
+        if (!permits.tryAcquire()) {
+            waited.increment();
+            try {
+                if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    timeouts.increment();
+                    throw new SQLTransientConnectionException(
+                            "Sin conexión disponible tras " + timeoutMillis + "ms (" + maxConcurrency + " en uso)");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLTransientConnectionException("Interrumpido esperando conexión", e);
+            }
+        }
+        acquired.increment();
+        Connection target;
+        try {
+            target = source.get();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        return releasingOnClose(target);
+    }
+
+    /** El permiso se devuelve una sola vez, en el primer close(). */
+    private Connection releasingOnClose(Connection target) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("close") && method.getParameterCount() == 0) {
+                        try {
+                            target.close();
+                        } finally {
+                            if (released.compareAndSet(false, true)) permits.release();
+                        }
+                        return null;
+                    }
+                    try {
+                        return method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    @FunctionalInterface
+    private interface ConnectionSource {
+        Connection get() throws SQLException;
+    }
+
+    private final class LimitedDataSource extends DelegatingDataSource {
+
+        LimitedDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return limited(() -> obtainTargetDataSource().getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return limited(() -> obtainTargetDataSource().getConnection(username, password));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package uagrm.software.Parcial1.Config;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Ajustes de esquema para el listado paginado de proyectos que ddl-auto no
+ * cubre (no hay migraciones de Flyway en este proyecto):
+ *
+ * - Completa last_edited_at en proyectos antiguos; con NULL quedarían fuera
+ *   del keyset (last_edited_at, id).
+ * - Índice de expresión para el filtro por prefijo (lower(name) LIKE 'abc%').
+ *
+ * Ambas sentencias son idempotentes; si fallan se registra y la aplicación
+ * sigue funcionando (solo más lenta).
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ProjectListingSchema {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void apply() {
+        try {
+            int filled = jdbcTemplate.update(
+                    "update projects set last_edited_at = coalesce(updated_at, created_at, now()) "
+                            + "where last_edited_at is null");
+            if (filled > 0) log.info("last_edited_at completado en {} proyectos", filled);
+        } catch (Exception e) {
+            log.warn("No se pudo completar last_edited_at: {}", e.getMessage());
+        }
+        try {
+            jdbcTemplate.execute("create index if not exists idx_projects_name_prefix "
+                    + "on projects (lower(name) text_pattern_ops)");
+        } catch (Exception e) {
+            log.warn("No se pudo crear el índice por prefijo de nombre: {}", e.getMessage());
+        }
+    }
+}
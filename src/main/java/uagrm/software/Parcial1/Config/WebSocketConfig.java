@@ -3,13 +3,26 @@ package uagrm.software.Parcial1.Config;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.thread.Threading;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
 import org.springframework.messaging.simp.config.ChannelRegistration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.concurrent.SimpleAsyncTaskScheduler;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.web.socket.config.annotation.*;
 import org.springframework.web.socket.server.standard.ServletServerContainerFactoryBean;
+import uagrm.software.Parcial1.Services.AdmissionControl;
+import uagrm.software.Parcial1.Services.ClusterBus;
+import uagrm.software.Parcial1.Services.OutboundConflator;
+import uagrm.software.Parcial1.Services.RoomBroker;
+import uagrm.software.Parcial1.Services.SessionExpiry;
 
 /**
  * Configuración profesional de WebSocket con SockJS
@@ -18,8 +31,14 @@ import org.springframework.web.socket.server.standard.ServletServerContainerFact
  * - Heartbeat automático cada 10 segundos
  * - Reconexión automática del cliente
  * - Buffer de 5MB para mensajes grandes
- * - Pool de threads escalable (10-50)
+ * - Pool de threads escalable (10-50), o hilos virtuales con spring.threads.virtual.enabled=true
+ *   en JDK 21+ (canales, heartbeats y Tomcat; la base la acota {@link DbConcurrencyLimiter})
  * - Timeouts configurados para prevenir bloqueos
+ * - Suscriptores de los tópicos de sala (/topic/projects/{id}...) indexados por {@link RoomBroker}
+ * - Cola de salida por sesión con conflación ({@link OutboundConflator})
+ * - Control de admisión bajo saturación ({@link AdmissionControl})
+ * - Vencimiento de sesiones sin heartbeats ni mensajes ({@link SessionExpiry})
+ * - Modo cluster: los tópicos de sala se reenvían entre instancias ({@link ClusterBus})
  */
 @Configuration
 @EnableWebSocketMessageBroker
@@ -27,6 +46,21 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
   private static final Logger logger = LoggerFactory.getLogger(WebSocketConfig.class);
 
+  private final OutboundConflator outboundConflator;
+  private final AdmissionControl admission;
+  private final SessionExpiry sessionExpiry;
+  private final ClusterBus clusterBus;
+  private final boolean virtualThreads;
+
+  public WebSocketConfig(OutboundConflator outboundConflator, AdmissionControl admission,
+                         SessionExpiry sessionExpiry, ClusterBus clusterBus, Environment environment) {
+    this.outboundConflator = outboundConflator;
+    this.admission = admission;
+    this.sessionExpiry = sessionExpiry;
+    this.clusterBus = clusterBus;
+    this.virtualThreads = Threading.VIRTUAL.isActive(environment);
+  }
+
   @Override
   public void registerStompEndpoints(StompEndpointRegistry registry) {
     logger.info("🔌 Registrando endpoint WebSocket en /ws con SockJS");
@@ -45,23 +79,22 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
   public void configureMessageBroker(MessageBrokerRegistry registry) {
     logger.info("📡 Configurando message broker con heartbeat");
     
-    // Scheduler para heartbeats
-    ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
-    scheduler.setPoolSize(10);
-    scheduler.setThreadNamePrefix("ws-heartbeat-");
-    scheduler.setRemoveOnCancelPolicy(true);
-    scheduler.initialize();
-    
     registry.setApplicationDestinationPrefixes("/app");
     registry.enableSimpleBroker("/topic", "/queue")
-            .setTaskScheduler(scheduler)
+            .setTaskScheduler(heartbeatScheduler())
             .setHeartbeatValue(new long[]{10000, 10000}); // Heartbeat bidireccional cada 10s
+
+    // Modo cluster: publica los mensajes de sala a las otras instancias (no los consume)
+    registry.configureBrokerChannel().interceptors(clusterBus.brokerInterceptor());
     
     logger.info("✅ Message broker configurado con heartbeat activo");
   }
 
   @Override
   public void configureWebSocketTransport(WebSocketTransportRegistration r) {
+    // Con conflación activa cada sesión tiene un solo emisor: los límites de buffer/tiempo
+    // efectivos son los de diagram.outbound.*
+    r.addDecoratorFactory(outboundConflator.decoratorFactory());
     r.setMessageSizeLimit(2 * 1024 * 1024)      // 2MB max mensaje
      .setSendBufferSizeLimit(5 * 1024 * 1024)   // 5MB buffer de envío
      .setSendTimeLimit(30_000)                   // 30 segundos timeout
@@ -70,6 +103,13 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
   @Override
   public void configureClientInboundChannel(ChannelRegistration registration) {
+    // Los heartbeats STOMP también entran por aquí: renuevan la actividad de la sesión
+    registration.interceptors(admission.inboundInterceptor(),
+            sessionExpiry.activityInterceptor());
+    if (virtualThreads) {
+      registration.executor(virtualExecutor("ws-in-"));
+      return;
+    }
     registration.taskExecutor()
             .corePoolSize(10)
             .maxPoolSize(50)
@@ -78,12 +118,57 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
   @Override
   public void configureClientOutboundChannel(ChannelRegistration registration) {
+    registration.interceptors(outboundConflator.outboundInterceptor());
+    if (virtualThreads) {
+      registration.executor(virtualExecutor("ws-out-channel-"));
+      return;
+    }
     registration.taskExecutor()
             .corePoolSize(10)
             .maxPoolSize(50)
             .queueCapacity(1000);
   }
 
+  /** Scheduler para heartbeats: un hilo virtual por disparo, o un pool de 10. */
+  private TaskScheduler heartbeatScheduler() {
+    if (virtualThreads) {
+      SimpleAsyncTaskScheduler scheduler = new SimpleAsyncTaskScheduler();
+      scheduler.setVirtualThreads(true);
+      scheduler.setThreadNamePrefix("ws-heartbeat-");
+      return scheduler;
+    }
+    ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    scheduler.setPoolSize(10);
+    scheduler.setThreadNamePrefix("ws-heartbeat-");
+    scheduler.setRemoveOnCancelPolicy(true);
+    scheduler.initialize();
+    return scheduler;
+  }
+
+  /** Un hilo virtual por mensaje: una sesión bloqueada en I/O no ocupa un hilo del pool. */
+  private static SimpleAsyncTaskExecutor virtualExecutor(String prefix) {
+    SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(prefix);
+    executor.setVirtualThreads(true);
+    return executor;
+  }
+
+  /**
+   * Los tópicos de sala se buscan en el índice por proyecto de {@link RoomBroker}; el resto
+   * sigue en el registro de suscripciones que trae el SimpleBroker.
+   */
+  @Bean
+  static BeanPostProcessor roomSubscriptionRegistry(ObjectProvider<RoomBroker> roomBroker) {
+    return new BeanPostProcessor() {
+      @Override
+      public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof SimpleBrokerMessageHandler broker) {
+          broker.setSubscriptionRegistry(roomBroker.getObject().registry(broker.getSubscriptionRegistry()));
+        }
+        return bean;
+      }
+    };
+  }
+
   /**
    * Configuración adicional del contenedor WebSocket
    */
@@ -3,15 +3,12 @@ package uagrm.software.Parcial1.Config;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.context.event.EventListener;
-import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.messaging.simp.stomp.StompHeaderAccessor;
 import org.springframework.stereotype.Component;
 import org.springframework.web.socket.messaging.*;
 import uagrm.software.Parcial1.Services.PresenceService;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Maneja eventos del ciclo de vida de WebSocket para mejorar la robustez:
@@ -26,7 +23,6 @@ import java.util.Map;
 public class WebSocketPresenceEvents {
 
     private final PresenceService presenceService;
-    private final SimpMessagingTemplate messaging;
 
     /**
      * Evento cuando un cliente se conecta exitosamente
@@ -64,21 +60,9 @@ public class WebSocketPresenceEvents {
         log.info("WebSocket desconectado - sessionId: {}, estado: {}", sessionId, closeStatus);
         
         try {
+            // Las bajas salen agrupadas por sala en el próximo frame de presencia
             List<Long> affected = presenceService.removeSessionFromAll(sessionId);
-            long ts = System.currentTimeMillis();
-
-            for (Long projectId : affected) {
-                int online = presenceService.count(projectId);
-                Map<String, Object> evt = new HashMap<>();
-                evt.put("__system", "presence");
-                evt.put("action", "disconnect");
-                evt.put("projectId", projectId);
-                evt.put("online", online);
-                evt.put("serverTs", ts);
-                
-                messaging.convertAndSend("/topic/projects/" + projectId + "/presence", evt);
-                log.debug("Presencia actualizada para proyecto {}: {} usuarios online", projectId, online);
-            }
+            log.debug("Sesión {} removida de {} salas", sessionId, affected.size());
         } catch (Exception e) {
             log.error("Error manejando desconexión de sessionId: {}", sessionId, e);
         }
@@ -1,11 +1,14 @@
 package uagrm.software.Parcial1.Controllers;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
 
-import uagrm.software.Parcial1.Models.DiagramEntity;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
 import uagrm.software.Parcial1.Services.DiagramService;
 
 @RestController
@@ -14,10 +17,18 @@ import uagrm.software.Parcial1.Services.DiagramService;
 public class DiagramController {
     private final DiagramService diagramService;
 
+    /** GET condicional: con If-None-Match de la versión actual responde 304 sin cargar el contenido */
     @GetMapping("/{id}")
-    public DiagramEntity get(@PathVariable Long id) {
-        DiagramEntity d = diagramService.buscarPorId(id);
+    public ResponseEntity<DiagramSnapshot> get(@PathVariable Long id, WebRequest request) {
+        Integer version = diagramService.version(id);
+        if (version != null && request.checkNotModified(DiagramSnapshot.etag(id, version))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(DiagramSnapshot.etag(id, version)).build();
+        }
+        DiagramSnapshot d = diagramService.buscarPorId(id);
         if (d == null) throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Diagrama no encontrado");
-        return d;
+        return ResponseEntity.ok()
+                .eTag(DiagramSnapshot.etag(id, d.version()))
+                .cacheControl(CacheControl.noCache())
+                .body(d);
     }
 }
@@ -2,24 +2,44 @@ package uagrm.software.Parcial1.Controllers;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.MessageHeaders;
 import org.springframework.messaging.handler.annotation.DestinationVariable;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageExceptionHandler;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
 import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.messaging.simp.annotation.SendToUser;
 import org.springframework.stereotype.Controller;
-import org.springframework.transaction.annotation.Transactional;
 
-import uagrm.software.Parcial1.Models.DiagramEntity;
-import uagrm.software.Parcial1.Models.ProjectEntity;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
 import uagrm.software.Parcial1.Repository.ProjectRepository;
+import uagrm.software.Parcial1.Services.AdmissionControl;
+import uagrm.software.Parcial1.Services.ClusterBus;
+import uagrm.software.Parcial1.Services.CursorAggregator;
+import uagrm.software.Parcial1.Services.DiagramEventEncoder;
+import uagrm.software.Parcial1.Services.DiagramMergeEngine;
+import uagrm.software.Parcial1.Services.DiagramPatchService;
+import uagrm.software.Parcial1.Services.DiagramPatchService.PatchResult;
+import uagrm.software.Parcial1.Services.DiagramRoom.PatchOutcome;
+import uagrm.software.Parcial1.Services.DiagramRoomService;
+import uagrm.software.Parcial1.Services.DiagramRoomService.MergedSnapshot;
+import uagrm.software.Parcial1.Services.GenerationJob;
+import uagrm.software.Parcial1.Services.GenerationJobService;
 import uagrm.software.Parcial1.Services.PresenceService;
+import uagrm.software.Parcial1.Services.ProjectLanes;
+import uagrm.software.Parcial1.Services.RateLimiter;
+import uagrm.software.Parcial1.Services.RateLimiter.Traffic;
+import uagrm.software.Parcial1.Services.RoomOwnership;
+import uagrm.software.Parcial1.Services.WriteAcks;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Objects;
 
 /**
  * WebSocket/STOMP "sockend" para edición en vivo de diagramas + presencia.
@@ -27,16 +47,24 @@ import java.util.Objects;
  *
  * Canales:
  *  - Cliente -> Servidor (publish):
- *      /app/projects/{projectId}/update     (persistente: guarda y broadcastea snapshot)
+ *      /app/projects/{projectId}/update     (persistente write-behind: snapshot completo o patch con "ops")
  *      /app/projects/{projectId}/cursor     (efímero: posición durante drag)
  *      /app/projects/{projectId}/presence.enter
  *      /app/projects/{projectId}/presence.leave
+ *      /app/projects/{projectId}/presence.status (qué elemento se está editando)
+ *      /app/projects/{projectId}/generate   (encola la generación de código)
  *
  *  - Servidor -> Clientes (subscribe):
- *      /topic/projects/{projectId}          (snapshots)
- *      /topic/projects/{projectId}/cursors  (movimientos efímeros)
- *      /topic/projects/{projectId}/presence (conteo de conectados)
+ *      /topic/projects/{projectId}          (snapshots y deltas "type":"patch")
+ *      /topic/projects/{projectId}/cursors  (movimientos efímeros, agrupados por tick)
+ *      /topic/projects/{projectId}/presence (diffs de presencia agrupados: altas, bajas, estado)
+ *      /user/queue/presence                 (lista completa de la sala al entrar)
+ *      /user/queue/generation               (progreso de la generación de código)
+ *      /user/queue/acks                     (confirmación de persistencia de cada update)
  *      /user/queue/errors                   (errores específicos del usuario)
+ *
+ * En modo cluster cada proyecto tiene una instancia dueña ({@link RoomOwnership}): los
+ * updates que llegan a otra se reenvían a la dueña, que los aplica y responde por el bus.
  */
 @Slf4j
 @Controller
@@ -46,11 +74,21 @@ public class DiagramWsController {
     private final ProjectRepository projectRepository;
     private final SimpMessagingTemplate messaging;
     private final PresenceService presenceService; // contador de conexiones por proyecto
+    private final DiagramPatchService patchService;
+    private final DiagramRoomService diagramRooms;    // estado en memoria + write-behind
+    private final CursorAggregator cursorAggregator;  // coalescencia de movimientos por tick
+    private final GenerationJobService generationJobs; // generación de código en segundo plano
+    private final DiagramEventEncoder eventEncoder;    // snapshots codificados a bytes una vez por versión
+    private final ProjectLanes lanes;                  // escrituras en orden por proyecto
+    private final AdmissionControl admission;          // descarte de carga bajo saturación
+    private final WriteAcks writeAcks;                 // confirmación de persistencia por escritura
+    private final RateLimiter rateLimiter;             // token buckets por sesión y por proyecto
+    private final RoomOwnership ownership;             // instancia dueña de cada proyecto
+    private final ClusterBus clusterBus;               // reenvío de updates a la dueña
     
     // Constantes para validación
     private static final int MAX_NAME_LENGTH = 255;
-    private static final int MAX_JSON_LENGTH = 5_000_000; // 5MB aprox
-    private static final long RATE_LIMIT_MILLIS = 100; // mínimo 100ms entre updates del mismo cliente
+    private static final int MAX_JSON_LENGTH = DiagramPatchService.MAX_JSON_LENGTH; // bytes UTF-8
 
     /* =========================================================
      *                EDICIÓN / SNAPSHOT PERSISTENTE
@@ -69,76 +107,79 @@ public class DiagramWsController {
      * }
      *
      * Emite a /topic/projects/{id} con:
-     * { projectId, clientId, name, nodes, edges, viewport, version, serverTs, conflict }
+     * { projectId, clientId, name, nodes, edges, viewport, version, serverTs, conflict, keptFromServer }
+     *
+     * El snapshot se fusiona a nivel de nodo/arista contra baseVersion (ver {@link DiagramMergeEngine}):
+     * las ediciones concurrentes de otros clientes se conservan y el resultado emitido ya es el estado
+     * fusionado, así que "conflict" es siempre false y el cliente no necesita hacer /sync.
+     *
+     * Modo patch: si el payload trae "ops" (ver {@link DiagramPatchService}) en lugar de
+     * nodes/edges, se aplican las operaciones sobre la versión actual y solo se emite el delta:
+     * { type:"patch", projectId, clientId, baseVersion, ops, name?, viewport?, version, serverTs, conflict, rejected }
+     * Las ops que harían superar {@code MAX_JSON_LENGTH} a los nodos o a las aristas se rechazan.
+     *
+     * La aplicación y el broadcast corren en el carril del proyecto ({@link ProjectLanes}): en orden
+     * y sin bloquear hilos de entrada. Sus errores también llegan a /user/queue/errors.
+     *
+     * Si el proyecto es de otra instancia el update se le reenvía tal cual; el ack, los errores
+     * y el broadcast vuelven por {@link ClusterBus}. Un update ya reenviado trae el encabezado
+     * {@link ClusterBus#HOPS_HEADER} (no llega desde clientes: no es un encabezado nativo STOMP).
      */
     @MessageMapping("/projects/{projectId}/update")
-    @Transactional
     public void onUpdate(@DestinationVariable Long projectId,
                          @Payload Map<String, Object> payload,
-                         @Header("simpSessionId") String sessionId) {
+                         @Header("simpSessionId") String sessionId,
+                         MessageHeaders headers) {
 
         try {
             // Validaciones de entrada
             validatePayload(payload, sessionId);
             
-            // Rate limiting
-            if (!presenceService.checkRateLimit(sessionId, RATE_LIMIT_MILLIS)) {
+            Integer hops = headers.get(ClusterBus.HOPS_HEADER, Integer.class);
+            int forwarded = hops != null ? hops : 0;
+
+            // Rate limiting: admite ráfagas cortas (p. ej. deshacer varios pasos) por sesión,
+            // con un tope conjunto por proyecto. Un update reenviado ya pasó por el de su instancia
+            if (forwarded == 0 && !rateLimiter.tryAcquire(Traffic.UPDATE, sessionId, projectId)) {
                 log.warn("Rate limit excedido para sessionId: {} en proyecto: {}", sessionId, projectId);
                 throw new IllegalStateException("Demasiadas actualizaciones. Por favor, espera un momento.");
             }
 
-            ProjectEntity p = projectRepository.findById(projectId)
-                    .orElseThrow(() -> new IllegalArgumentException("Proyecto no encontrado: " + projectId));
-
-            DiagramEntity d = p.getDiagram();
-            if (d == null) {
-                throw new IllegalStateException("Diagrama no encontrado para proyecto " + projectId);
-            }
-
-            String clientId = asString(payload.get("clientId"));
-            Integer baseVers = asInteger(payload.get("baseVersion"));
-            String name      = asString(payload.get("name"));
-            String nodes     = asString(payload.get("nodes"));
-            String edges     = asString(payload.get("edges"));
-            String viewport  = asString(payload.get("viewport"));
-
-            // Validaciones adicionales
-            if (name != null && name.length() > MAX_NAME_LENGTH) {
-                throw new IllegalArgumentException("Nombre demasiado largo (max " + MAX_NAME_LENGTH + " caracteres)");
-            }
-            if (nodes != null && nodes.length() > MAX_JSON_LENGTH) {
-                throw new IllegalArgumentException("Datos de nodos demasiado grandes");
-            }
-            if (edges != null && edges.length() > MAX_JSON_LENGTH) {
-                throw new IllegalArgumentException("Datos de aristas demasiado grandes");
+            // Un solo escritor por proyecto: si la sala es de otra instancia, se le reenvía
+            String owner = ownership.ownerOf(projectId);
+            if (!ownership.isLocal(owner)) {
+                if (forwarded >= 2) {
+                    // La concesión cambió de manos mientras viajaba: que el cliente reintente
+                    throw new IllegalStateException("El proyecto está cambiando de servidor. Reintenta en unos segundos.");
+                }
+                clusterBus.forwardInbound(owner, "/app/projects/" + projectId + "/update", sessionId, payload, forwarded);
+                log.debug("Update reenviado a {} - proyecto: {}, sessionId: {}", owner, projectId, sessionId);
+                return;
             }
 
-            boolean conflict = (baseVers != null && !Objects.equals(baseVers, d.getVersion()));
-
-            if (name != null)     d.setName(name);
-            if (nodes != null)    d.setNodes(nodes);
-            if (edges != null)    d.setEdges(edges);
-            if (viewport != null) d.setViewport(viewport);
-
-            // Guardar y forzar flush para obtener nueva @Version
-            projectRepository.saveAndFlush(p);
-
-            Map<String, Object> evt = new HashMap<>();
-            evt.put("projectId", projectId);
-            evt.put("clientId", clientId);
-            evt.put("name", d.getName());
-            evt.put("nodes", d.getNodes());
-            evt.put("edges", d.getEdges());
-            evt.put("viewport", d.getViewport());
-            evt.put("version", d.getVersion());
-            evt.put("serverTs", System.currentTimeMillis());
-            evt.put("conflict", conflict);
-            evt.put("success", true);
-
-            messaging.convertAndSend("/topic/projects/" + projectId, evt);
-            
-            log.debug("Diagrama actualizado - proyecto: {}, versión: {}, conflicto: {}", 
-                     projectId, d.getVersion(), conflict);
+            long received = System.nanoTime();
+            lanes.execute(projectId, () -> {
+                try {
+                    int version = payload.get("ops") != null
+                            ? onPatch(projectId, payload)
+                            : onSnapshot(projectId, payload);
+                    writeAcks.expect(projectId, sessionId, version);
+                } catch (DiagramRoomService.RoomReleasedException e) {
+                    // La sala se cedió mientras esperaba en el carril: sigue a la nueva dueña
+                    String next = ownership.ownerOf(projectId);
+                    if (!ownership.isLocal(next) && forwarded < 2) {
+                        clusterBus.forwardInbound(next, "/app/projects/" + projectId + "/update", sessionId, payload, forwarded);
+                        log.debug("Update reenviado tras ceder la sala a {} - proyecto: {}", next, projectId);
+                    } else {
+                        sendError(sessionId, e);
+                    }
+                } catch (Exception e) {
+                    log.error("Error en onUpdate - proyecto: {}, sessionId: {}", projectId, sessionId, e);
+                    sendError(sessionId, e);
+                } finally {
+                    admission.recordUpdate(System.nanoTime() - received);
+                }
+            });
 
         } catch (Exception e) {
             log.error("Error en onUpdate - proyecto: {}, sessionId: {}", projectId, sessionId, e);
@@ -146,6 +187,91 @@ public class DiagramWsController {
         }
     }
 
+    /**
+     * Fusiona un snapshot completo y emite el estado resultante. Devuelve la versión asignada.
+     */
+    private int onSnapshot(Long projectId, Map<String, Object> payload) {
+        String clientId = asString(payload.get("clientId"));
+        Integer baseVers = asInteger(payload.get("baseVersion"));
+        String name      = asString(payload.get("name"));
+        String nodes     = asString(payload.get("nodes"));
+        String edges     = asString(payload.get("edges"));
+        String viewport  = asString(payload.get("viewport"));
+
+        // Validaciones adicionales
+        if (name != null && name.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Nombre demasiado largo (max " + MAX_NAME_LENGTH + " caracteres)");
+        }
+        // Misma medida (bytes UTF-8) que el presupuesto de los patches
+        if (nodes != null && DiagramPatchService.jsonBytes(nodes) > MAX_JSON_LENGTH) {
+            throw new IllegalArgumentException("Datos de nodos demasiado grandes");
+        }
+        if (edges != null && DiagramPatchService.jsonBytes(edges) > MAX_JSON_LENGTH) {
+            throw new IllegalArgumentException("Datos de aristas demasiado grandes");
+        }
+
+        // Se fusiona en memoria (DiagramMergeEngine); la persistencia es write-behind
+        MergedSnapshot merged = diagramRooms.applySnapshot(projectId, clientId, baseVers, name, nodes, edges, viewport);
+        DiagramSnapshot d = merged.snapshot();
+
+        // name/nodes/edges/viewport/version los agrega el encoder desde el snapshot
+        Map<String, Object> meta = new LinkedHashMap<>();
+        meta.put("projectId", projectId);
+        meta.put("clientId", clientId);
+        meta.put("serverTs", System.currentTimeMillis());
+        meta.put("conflict", false); // el merge del servidor ya resolvió la concurrencia
+        meta.put("keptFromServer", merged.keptFromServer());
+        meta.put("success", true);
+
+        messaging.send("/topic/projects/" + projectId, eventEncoder.snapshotEvent(meta, d, null));
+
+        log.debug("Diagrama actualizado - proyecto: {}, versión: {}, cambios concurrentes conservados: {}",
+                 projectId, d.version(), merged.keptFromServer());
+        return d.version();
+    }
+
+    /**
+     * Aplica un patch de operaciones por nodo/arista y emite solo el delta. Devuelve la versión resultante.
+     */
+    private int onPatch(Long projectId, Map<String, Object> payload) {
+        String clientId = asString(payload.get("clientId"));
+        Integer baseVers = asInteger(payload.get("baseVersion"));
+        String name      = asString(payload.get("name"));
+        String viewport  = asString(payload.get("viewport"));
+
+        if (name != null && name.length() > MAX_NAME_LENGTH) {
+            throw new IllegalArgumentException("Nombre demasiado largo (max " + MAX_NAME_LENGTH + " caracteres)");
+        }
+
+        ArrayNode ops = patchService.toOps(payload.get("ops"));
+        PatchOutcome outcome = diagramRooms.applyPatch(projectId, clientId, ops, name, viewport);
+        PatchResult result = outcome.result();
+
+        if (result.isEmpty() && name == null && viewport == null) {
+            throw new IllegalStateException("Ninguna operación aplicable: " + result.rejected());
+        }
+
+        Map<String, Object> evt = new HashMap<>();
+        evt.put("type", "patch");
+        evt.put("projectId", projectId);
+        evt.put("clientId", clientId);
+        evt.put("baseVersion", baseVers);
+        evt.put("ops", result.applied());
+        if (name != null)     evt.put("name", outcome.name());
+        if (viewport != null) evt.put("viewport", outcome.viewport());
+        evt.put("version", outcome.version());
+        evt.put("serverTs", System.currentTimeMillis());
+        evt.put("conflict", !result.rejected().isEmpty());
+        evt.put("rejected", result.rejected());
+        evt.put("success", true);
+
+        messaging.convertAndSend("/topic/projects/" + projectId, evt);
+
+        log.debug("Patch aplicado - proyecto: {}, versión: {}, ops: {}, rechazadas: {}",
+                 projectId, outcome.version(), result.applied().size(), result.rejected().size());
+        return outcome.version();
+    }
+
     /* =========================================================
      *                    MOVIMIENTO EN VIVO
      * ========================================================= */
@@ -154,6 +280,9 @@ public class DiagramWsController {
      * Rebota sin persistir. Útil para posiciones en tiempo real durante el drag.
      * Payload típico:
      * { "type":"diagram.move", "clientId":"...", "id":"nodeId", "x": 120.5, "y": 60.0, "ts": 1234567, "seq": 42 }
+     *
+     * No se reenvía uno a uno: {@link CursorAggregator} guarda la última posición por
+     * (clientId, id) y emite un frame por sala en cada tick con { __system:"cursors", moves:[...] }.
      */
     @MessageMapping("/projects/{projectId}/cursor")
     public void onCursor(@DestinationVariable Long projectId,
@@ -167,15 +296,25 @@ public class DiagramWsController {
                 return;
             }
 
+            // Bajo saturación los cursores son lo primero que se descarta
+            if (admission.shedCursor()) {
+                return;
+            }
+
             // Verificar que el usuario está en el proyecto
             if (!presenceService.isInRoom(projectId, sessionId)) {
                 log.warn("Usuario no está en la sala - sessionId: {}, proyecto: {}", sessionId, projectId);
                 return;
             }
 
+            // Sobre la tasa de la sesión o del proyecto el movimiento se descarta sin aviso
+            if (!rateLimiter.tryAcquire(Traffic.CURSOR, sessionId, projectId)) {
+                return;
+            }
+
             // Asegura timestamp del servidor
             payload.putIfAbsent("serverTs", System.currentTimeMillis());
-            messaging.convertAndSend("/topic/projects/" + projectId + "/cursors", payload);
+            cursorAggregator.offer(projectId, payload);
             
         } catch (Exception e) {
             log.error("Error en onCursor - proyecto: {}, sessionId: {}", projectId, sessionId, e);
@@ -187,33 +326,29 @@ public class DiagramWsController {
      *                          PRESENCIA
      * ========================================================= */
 
-    private void broadcastPresence(Long projectId, int online, String action) {
-        try {
-            Map<String, Object> evt = new HashMap<>();
-            evt.put("__system", "presence");
-            evt.put("action", action);
-            evt.put("projectId", projectId);
-            evt.put("online", online);
-            evt.put("serverTs", System.currentTimeMillis());
-            messaging.convertAndSend("/topic/projects/" + projectId + "/presence", evt);
-            log.debug("Presencia broadcast - proyecto: {}, online: {}, acción: {}", projectId, online, action);
-        } catch (Exception e) {
-            log.error("Error broadcasting presencia - proyecto: {}", projectId, e);
-        }
-    }
-
-    /** Cliente anuncia que entra a la "sala" del proyecto. */
+    /**
+     * Cliente anuncia que entra a la "sala" del proyecto. Se rechaza si el servidor está saturado.
+     * Payload opcional con la identidad a mostrar: { "userId":"...", "name":"...", "color":"#..." }
+     *
+     * El que entra recibe la lista completa en /user/queue/presence; el resto de la sala ve
+     * el alta en el próximo frame "diff" de /topic/projects/{id}/presence ({@link PresenceService}).
+     */
     @MessageMapping("/projects/{projectId}/presence.enter")
     public void presenceEnter(@DestinationVariable Long projectId,
+                              @Payload(required = false) Map<String, Object> identity,
                               @Header("simpSessionId") String sessionId) {
         try {
+            if (admission.rejectEnter()) {
+                throw new IllegalStateException("Servidor saturado. Intenta entrar de nuevo en unos segundos.");
+            }
+
             // Verificar que el proyecto existe
             if (!projectRepository.existsById(projectId)) {
                 throw new IllegalArgumentException("Proyecto no encontrado: " + projectId);
             }
 
-            int online = presenceService.enter(projectId, sessionId);
-            broadcastPresence(projectId, online, "enter");
+            int online = presenceService.enter(projectId, sessionId, identity);
+            presenceService.sendRoster(projectId, sessionId);
             log.info("Usuario entró - proyecto: {}, sessionId: {}, total online: {}", 
                     projectId, sessionId, online);
                     
@@ -229,7 +364,6 @@ public class DiagramWsController {
                               @Header("simpSessionId") String sessionId) {
         try {
             int online = presenceService.leave(projectId, sessionId);
-            broadcastPresence(projectId, online, "leave");
             log.info("Usuario salió - proyecto: {}, sessionId: {}, total online: {}", 
                     projectId, sessionId, online);
                     
@@ -239,36 +373,47 @@ public class DiagramWsController {
         }
     }
     
+    /**
+     * Estado de edición del usuario: { "editing": "nodeId" } o { "editing": null } al soltarlo.
+     * Se agrupa con el resto de cambios de presencia de la sala.
+     */
+    @MessageMapping("/projects/{projectId}/presence.status")
+    public void presenceStatus(@DestinationVariable Long projectId,
+                               @Payload Map<String, Object> payload,
+                               @Header("simpSessionId") String sessionId) {
+        try {
+            if (!presenceService.setEditing(projectId, sessionId, asString(payload.get("editing")))) {
+                log.warn("Usuario no está en la sala - sessionId: {}, proyecto: {}", sessionId, projectId);
+            }
+        } catch (Exception e) {
+            log.error("Error en presenceStatus - proyecto: {}, sessionId: {}", projectId, sessionId, e);
+        }
+    }
+
     /**
      * Permite al cliente solicitar el estado actual del diagrama
      */
     @MessageMapping("/projects/{projectId}/sync")
-    @Transactional(readOnly = true)
     public void syncDiagram(@DestinationVariable Long projectId,
                            @Header("simpSessionId") String sessionId) {
         try {
-            ProjectEntity p = projectRepository.findById(projectId)
-                    .orElseThrow(() -> new IllegalArgumentException("Proyecto no encontrado: " + projectId));
-
-            DiagramEntity d = p.getDiagram();
+            DiagramSnapshot d = diagramRooms.snapshot(projectId);
             if (d == null) {
+                if (!projectRepository.existsById(projectId)) {
+                    throw new IllegalArgumentException("Proyecto no encontrado: " + projectId);
+                }
                 throw new IllegalStateException("Diagrama no encontrado para proyecto " + projectId);
             }
 
-            Map<String, Object> evt = new HashMap<>();
-            evt.put("__system", "sync");
-            evt.put("projectId", projectId);
-            evt.put("name", d.getName());
-            evt.put("nodes", d.getNodes());
-            evt.put("edges", d.getEdges());
-            evt.put("viewport", d.getViewport());
-            evt.put("version", d.getVersion());
-            evt.put("serverTs", System.currentTimeMillis());
-
-            // Enviar solo al cliente que lo solicitó
-            messaging.convertAndSendToUser(sessionId, "/queue/sync", evt);
+            Map<String, Object> meta = new LinkedHashMap<>();
+            meta.put("__system", "sync");
+            meta.put("projectId", projectId);
+            meta.put("serverTs", System.currentTimeMillis());
+
+            // Enviar solo al cliente que lo solicitó (sin Principal: por id de sesión)
+            messaging.send("/user/" + sessionId + "/queue/sync", eventEncoder.snapshotEvent(meta, d, sessionId));
             log.debug("Sync enviado - proyecto: {}, versión: {}, sessionId: {}", 
-                     projectId, d.getVersion(), sessionId);
+                     projectId, d.version(), sessionId);
                      
         } catch (Exception e) {
             log.error("Error en syncDiagram - proyecto: {}, sessionId: {}", projectId, sessionId, e);
@@ -276,6 +421,24 @@ public class DiagramWsController {
         }
     }
 
+    /* =========================================================
+     *                    GENERACIÓN DE CÓDIGO
+     * ========================================================= */
+
+    /**
+     * Encola la generación de código de la versión actual del diagrama.
+     * El progreso y el enlace de descarga llegan a /user/queue/generation.
+     */
+    @MessageMapping("/projects/{projectId}/generate")
+    public void generate(@DestinationVariable Long projectId,
+                         @Header("simpSessionId") String sessionId) {
+        GenerationJob job = generationJobs.submit(projectId, sessionId);
+        if (job == null) {
+            throw new IllegalArgumentException("Proyecto no encontrado: " + projectId);
+        }
+        log.debug("Generación solicitada - proyecto: {}, job: {}, sessionId: {}", projectId, job.getId(), sessionId);
+    }
+
     /* =========================================================
      *                         ERRORES
      * ========================================================= */
@@ -286,6 +449,19 @@ public class DiagramWsController {
     @MessageExceptionHandler
     @SendToUser("/queue/errors")
     public Map<String, Object> onError(Exception ex) {
+        return errorPayload(ex);
+    }
+
+    /** Error producido fuera del hilo del mensaje (p. ej. en el carril del proyecto). */
+    private void sendError(String sessionId, Exception ex) {
+        try {
+            messaging.convertAndSendToUser(sessionId, "/queue/errors", errorPayload(ex), sessionHeaders(sessionId));
+        } catch (Exception e) {
+            log.debug("No se pudo enviar el error a la sesión {}", sessionId, e);
+        }
+    }
+
+    private Map<String, Object> errorPayload(Exception ex) {
         Map<String, Object> err = new HashMap<>();
         err.put("error", ex.getClass().getSimpleName());
         err.put("message", ex.getMessage());
@@ -324,6 +500,14 @@ public class DiagramWsController {
         }
     }
 
+    /** Sin Principal, el destino de usuario se resuelve por id de sesión. */
+    private static MessageHeaders sessionHeaders(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setLeaveMutable(true);
+        return accessor.getMessageHeaders();
+    }
+
     private static String asString(Object o) {
         return (o == null) ? null : String.valueOf(o);
     }
@@ -1,10 +1,29 @@
 package uagrm.software.Parcial1.Controllers;
 
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import uagrm.software.Parcial1.Config.DbConcurrencyLimiter;
+import uagrm.software.Parcial1.Services.AdmissionControl;
+import uagrm.software.Parcial1.Services.ClusterBus;
+import uagrm.software.Parcial1.Services.CodeGenerationService;
+import uagrm.software.Parcial1.Services.CursorAggregator;
+import uagrm.software.Parcial1.Services.DiagramEventEncoder;
+import uagrm.software.Parcial1.Services.DiagramRoomService;
+import uagrm.software.Parcial1.Services.DiagramSnapshotCache;
+import uagrm.software.Parcial1.Services.GenerationJobService;
+import uagrm.software.Parcial1.Services.OutboundConflator;
+import uagrm.software.Parcial1.Services.PresenceService;
+import uagrm.software.Parcial1.Services.ProjectLanes;
+import uagrm.software.Parcial1.Services.ProjectStatsService;
+import uagrm.software.Parcial1.Services.RateLimiter;
+import uagrm.software.Parcial1.Services.RoomBroker;
+import uagrm.software.Parcial1.Services.RoomOwnership;
+
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
@@ -15,8 +34,26 @@ import java.util.Map;
  */
 @RestController
 @RequestMapping("/health")
+@RequiredArgsConstructor
 public class HealthController {
 
+    private final DiagramSnapshotCache snapshotCache;
+    private final DiagramRoomService diagramRooms;
+    private final CursorAggregator cursorAggregator;
+    private final CodeGenerationService codeGenerator;
+    private final GenerationJobService generationJobs;
+    private final ProjectStatsService projectStats;
+    private final DiagramEventEncoder eventEncoder;
+    private final RoomBroker roomBroker;
+    private final OutboundConflator outboundConflator;
+    private final ProjectLanes projectLanes;
+    private final DbConcurrencyLimiter dbLimiter;
+    private final AdmissionControl admission;
+    private final PresenceService presenceService;
+    private final RateLimiter rateLimiter;
+    private final ClusterBus clusterBus;
+    private final RoomOwnership roomOwnership;
+
     private final LocalDateTime startTime = LocalDateTime.now();
 
     /**
@@ -36,13 +73,26 @@ public class HealthController {
     }
 
     /**
-     * Readiness check (para Kubernetes)
+     * Readiness check (para Kubernetes / balanceador)
      * GET /health/ready
+     *
+     * READY sin presión, DEGRADED mientras se descarta carga (cursores, write-behind)
+     * y SATURATED con 503 cuando ya se rechazan entradas nuevas: el balanceador debe
+     * mandar las sesiones a otra instancia.
      */
     @GetMapping("/ready")
-    public ResponseEntity<Map<String, String>> ready() {
-        Map<String, String> status = new HashMap<>();
-        status.put("status", "READY");
+    public ResponseEntity<Map<String, Object>> ready() {
+        AdmissionControl.Level level = admission.level();
+        Map<String, Object> status = new HashMap<>();
+        status.put("status", switch (level) {
+            case NORMAL -> "READY";
+            case REJECT_ENTER -> "SATURATED";
+            default -> "DEGRADED";
+        });
+        status.put("level", level.name());
+        if (level == AdmissionControl.Level.REJECT_ENTER) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(status);
+        }
         return ResponseEntity.ok(status);
     }
 
@@ -56,4 +106,49 @@ public class HealthController {
         status.put("status", "ALIVE");
         return ResponseEntity.ok(status);
     }
+
+    /**
+     * Estadísticas de la caché de diagramas y de las salas en memoria
+     * GET /health/cache
+     */
+    @GetMapping("/cache")
+    public ResponseEntity<Map<String, Object>> cache() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("snapshots", snapshotCache.getStats());
+        stats.put("rooms", diagramRooms.getStats());
+        stats.put("projectStats", projectStats.getStats());
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * Estadísticas del tráfico en tiempo real
+     * GET /health/realtime
+     */
+    @GetMapping("/realtime")
+    public ResponseEntity<Map<String, Object>> realtime() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("cursors", cursorAggregator.getStats());
+        stats.put("snapshots", eventEncoder.getStats());
+        stats.put("broker", roomBroker.getStats());
+        stats.put("outbound", outboundConflator.getStats());
+        stats.put("lanes", projectLanes.getStats());
+        stats.put("db", dbLimiter.getStats());
+        stats.put("admission", admission.getStats());
+        stats.put("presence", presenceService.getStats());
+        stats.put("rateLimit", rateLimiter.getStats());
+        stats.put("cluster", clusterBus.getStats());
+        stats.put("ownership", roomOwnership.getStats());
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * Estadísticas del generador de código
+     * GET /health/codegen
+     */
+    @GetMapping("/codegen")
+    public ResponseEntity<Map<String, Object>> codegen() {
+        Map<String, Object> stats = new HashMap<>(codeGenerator.getStats());
+        stats.put("jobs", generationJobs.getStats());
+        return ResponseEntity.ok(stats);
+    }
 }
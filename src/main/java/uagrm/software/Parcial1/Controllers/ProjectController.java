@@ -1,15 +1,33 @@
 package uagrm.software.Parcial1.Controllers;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import uagrm.software.Parcial1.Models.ClassModel;
 import uagrm.software.Parcial1.Models.DiagramEntity;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
 import uagrm.software.Parcial1.Models.ProjectEntity;
+import uagrm.software.Parcial1.Models.ProjectSummary;
+import uagrm.software.Parcial1.Services.CodeGenerationService;
+import uagrm.software.Parcial1.Services.DiagramRoomService;
+import uagrm.software.Parcial1.Services.GenerationArtifactStore.Artifact;
+import uagrm.software.Parcial1.Services.GenerationJob;
+import uagrm.software.Parcial1.Services.GenerationJobService;
 import uagrm.software.Parcial1.Services.ProjectService;
+import uagrm.software.Parcial1.Services.RoomOwnership;
 
 @RestController
 @RequestMapping("/api/projects")
@@ -17,14 +35,27 @@ import uagrm.software.Parcial1.Services.ProjectService;
 public class ProjectController {
 
     private final ProjectService projectService;
+    private final CodeGenerationService codeGenerator;
+    private final GenerationJobService generationJobs;
 
     // --- CRUD Proyectos ---
 
     @GetMapping
-    public List<ProjectEntity> list() {
+    public List<ProjectSummary> list() {
         return projectService.listarProyectos();
     }
 
+    /**
+     * Listado paginado: /api/projects/page?limit=20&cursor=...&q=prefijo
+     * Para la siguiente página se reenvía el {@code nextCursor} recibido.
+     */
+    @GetMapping("/page")
+    public ProjectService.ProjectPage page(@RequestParam(defaultValue = "20") int limit,
+                                           @RequestParam(required = false) String cursor,
+                                           @RequestParam(required = false) String q) {
+        return projectService.listarPagina(limit, cursor, q);
+    }
+
     @GetMapping("/{id}")
     public ProjectEntity get(@PathVariable Long id) {
         ProjectEntity p = projectService.buscarPorId(id);
@@ -46,33 +77,110 @@ public class ProjectController {
 
     // --- ENDPOINTS para el único diagrama del proyecto ---
 
-    /** Devuelve el diagrama asociado al proyecto */
+    /**
+     * Devuelve el diagrama asociado al proyecto.
+     * GET condicional: con If-None-Match de la versión actual responde 304 sin cargar el contenido
+     */
     @GetMapping("/{id}/diagram")
-    public DiagramEntity getDiagram(@PathVariable Long id) {
-        ProjectEntity p = projectService.buscarPorId(id);
-        if (p == null)
-            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Proyecto no encontrado");
-
-        DiagramEntity d = p.getDiagram();
-        if (d == null)
+    public ResponseEntity<DiagramSnapshot> getDiagram(@PathVariable Long id, WebRequest request) {
+        Integer version = projectService.versionDiagrama(id);
+        if (version != null && request.checkNotModified(DiagramSnapshot.etag(id, version))) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(DiagramSnapshot.etag(id, version)).build();
+        }
+        DiagramSnapshot d = projectService.buscarDiagrama(id);
+        if (d == null) {
+            if (projectService.buscarPorId(id) == null)
+                throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Proyecto no encontrado");
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Diagrama no encontrado");
-        return d;
+        }
+        return ResponseEntity.ok()
+                .eTag(DiagramSnapshot.etag(id, d.version()))
+                .cacheControl(CacheControl.noCache())
+                .body(d);
     }
 
     /** Back-compat: devuelve lista con 1 diagrama */
     @GetMapping("/{id}/diagrams")
-    public List<DiagramEntity> getDiagramAsList(@PathVariable Long id) {
-        ProjectEntity p = projectService.buscarPorId(id);
-        if (p == null)
+    public List<DiagramSnapshot> getDiagramAsList(@PathVariable Long id) {
+        DiagramSnapshot d = projectService.buscarDiagrama(id);
+        if (d == null && projectService.buscarPorId(id) == null)
             throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Proyecto no encontrado");
-
-        DiagramEntity d = p.getDiagram();
         return d == null ? List.of() : List.of(d);
     }
 
     @PutMapping("/{id}/diagram")
-    public DiagramEntity updateDiagram(@PathVariable Long id, @RequestBody DiagramEntity body) {
-        return projectService.actualizarDiagrama(id, body);
+    public DiagramSnapshot updateDiagram(@PathVariable Long id, @RequestBody DiagramEntity body) {
+        try {
+            return projectService.actualizarDiagrama(id, body);
+        } catch (RoomOwnership.NotOwnerException | DiagramRoomService.RoomReleasedException e) {
+            // Otra instancia tiene la sala: escribir aquí crearía un segundo escritor
+            throw new ResponseStatusException(HttpStatus.CONFLICT, e.getMessage());
+        } catch (DiagramRoomService.PersistFailedException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, e.getMessage());
+        }
+    }
+
+    // --- Generación de código ---
+
+    /** Genera el proyecto Spring Boot del diagrama y lo descarga como ZIP (streaming) */
+    @GetMapping("/{id}/generate")
+    public ResponseEntity<StreamingResponseBody> generate(@PathVariable Long id) {
+        ClassModel model = codeGenerator.buildModel(id);
+        if (model == null)
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Proyecto no encontrado");
+
+        StreamingResponseBody body = out -> codeGenerator.writeZip(model, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(model.artifactId() + ".zip").build().toString())
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(body);
+    }
+
+    /**
+     * Encola la generación en segundo plano (o reutiliza la de la misma versión).
+     * Con {@code sessionId} (sesión STOMP) el progreso llega a /user/queue/generation.
+     */
+    @PostMapping("/{id}/generate/jobs")
+    public ResponseEntity<Map<String, Object>> submitGeneration(@PathVariable Long id,
+                                                                @RequestParam(required = false) String sessionId) {
+        GenerationJob job;
+        try {
+            job = generationJobs.submit(id, sessionId);
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, e.getMessage());
+        }
+        if (job == null)
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Proyecto no encontrado");
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(job.toMap());
     }
 
+    @GetMapping("/{id}/generate/jobs/{jobId}")
+    public Map<String, Object> generationStatus(@PathVariable Long id, @PathVariable String jobId) {
+        return findJob(id, jobId).toMap();
+    }
+
+    @GetMapping("/{id}/generate/jobs/{jobId}/download")
+    public ResponseEntity<byte[]> downloadGeneration(@PathVariable Long id, @PathVariable String jobId) {
+        GenerationJob job = findJob(id, jobId);
+        if (job.getState() != GenerationJob.State.DONE)
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "La generación no terminó: " + job.getState());
+        Artifact artifact = generationJobs.artifact(job);
+        if (artifact == null)
+            throw new ResponseStatusException(HttpStatus.GONE, "El archivo ya no está disponible, vuelva a generarlo");
+
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        ContentDisposition.attachment().filename(artifact.fileName()).build().toString())
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .contentLength(artifact.bytes().length)
+                .body(artifact.bytes());
+    }
+
+    private GenerationJob findJob(Long projectId, String jobId) {
+        GenerationJob job = generationJobs.get(jobId);
+        if (job == null || !job.getProjectId().equals(projectId))
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Trabajo de generación no encontrado");
+        return job;
+    }
 }
@@ -0,0 +1,51 @@
+package uagrm.software.Parcial1.Models;
+
+import java.util.List;
+
+/**
+ * Modelo de clases extraído de un diagrama, listo para generar código.
+ * No es una entidad JPA: se construye a partir de los nodos/aristas de un
+ * {@link DiagramSnapshot}.
+ *
+ * Las relaciones ya vienen resueltas por lado: cada clase conoce los campos
+ * que debe declarar hacia otras clases (con su cardinalidad JPA).
+ * {@code version} es la versión del diagrama del que se extrajo.
+ */
+public record ClassModel(Long projectId, Integer version, String projectName, String artifactId, String basePackage,
+                         List<ClassDef> classes) {
+
+    public enum ClassKind { CLASS, ABSTRACT, INTERFACE, ENUM }
+
+    public enum Cardinality { ONE_TO_ONE, ONE_TO_MANY, MANY_TO_ONE, MANY_TO_MANY }
+
+    /**
+     * Una clase del diagrama. {@code nodeId} es el id del nodo de origen;
+     * {@code superClass} e {@code interfaces} contienen nombres de otras clases.
+     */
+    public record ClassDef(String nodeId, String name, ClassKind kind, List<Field> fields, List<Method> methods,
+                           List<String> enumValues, String superClass, List<String> interfaces,
+                           List<Relation> relations) {
+
+        public boolean isPersistent() {
+            return kind == ClassKind.CLASS;
+        }
+    }
+
+    public record Field(String name, String type, String visibility) {
+    }
+
+    public record Method(String name, String returnType, String params, String visibility) {
+    }
+
+    /**
+     * Campo de relación hacia {@code target}. {@code mappedBy} es null en el lado
+     * dueño; {@code cascade} se activa para composiciones.
+     */
+    public record Relation(String edgeId, Cardinality cardinality, String target, String fieldName,
+                           String mappedBy, boolean cascade) {
+
+        public boolean isCollection() {
+            return cardinality == Cardinality.ONE_TO_MANY || cardinality == Cardinality.MANY_TO_MANY;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package uagrm.software.Parcial1.Models;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.time.LocalDateTime;
+
+/**
+ * Evento del bus entre instancias demasiado grande para ir dentro de un NOTIFY
+ * (límite de 8000 bytes de Postgres): la notificación lleva solo su id.
+ * Se borran pasado {@code diagram.cluster.event-retention-ms}.
+ */
+@Entity
+@Table(name = "cluster_events")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterEventEntity {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String payload;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+}
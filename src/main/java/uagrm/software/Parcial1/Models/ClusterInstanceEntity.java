@@ -0,0 +1,25 @@
+package uagrm.software.Parcial1.Models;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Instancia viva del cluster: se considera caída si su latido tiene más de
+ * {@code diagram.cluster.lease-ttl-ms}.
+ */
+@Entity
+@Table(name = "cluster_instances")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ClusterInstanceEntity {
+
+    @Id
+    @Column(name = "instance_id", length = 64)
+    private String instanceId;
+
+    @Column(name = "heartbeat_at", nullable = false)
+    private OffsetDateTime heartbeatAt;
+}
@@ -0,0 +1,170 @@
+package uagrm.software.Parcial1.Models;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Vista en memoria de un diagrama: nodos y aristas indexados por su "id".
+ * No es una entidad JPA; se construye a partir de las columnas TEXT de
+ * {@link DiagramEntity} y permite aplicar operaciones a nivel de elemento
+ * sin reescribir todo el JSON.
+ *
+ * Se conserva el orden de inserción para que la serialización sea estable.
+ *
+ * Además guarda, por elemento y por campo, la versión del diagrama que lo
+ * modificó por última vez, y lápidas de los elementos eliminados. El motor de
+ * merge las usa para distinguir ediciones concurrentes. Lo cargado desde BD no
+ * tiene historia: con {@link #setBaseline} todo reloj vale al menos la versión
+ * cargada, así un cliente con una base anterior no pisa lo guardado. Las lápidas
+ * no: un id sin lápida se trata como nuevo y se acepta (no se distingue de un
+ * elemento que el cliente acaba de crear).
+ */
+public class DiagramDocument {
+
+    public enum Kind {
+        NODE, EDGE;
+
+        /** "node" / "edge" (insensible a mayúsculas). Devuelve null si no coincide. */
+        public static Kind parse(String s) {
+            if (s == null) return null;
+            switch (s.trim().toLowerCase()) {
+                case "node":
+                case "nodes":
+                    return NODE;
+                case "edge":
+                case "edges":
+                    return EDGE;
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /** Máximo de lápidas recordadas por tipo; las más viejas se olvidan. */
+    private static final int MAX_TOMBSTONES = 10_000;
+
+    private final Map<String, ObjectNode> nodes = new LinkedHashMap<>();
+    private final Map<String, ObjectNode> edges = new LinkedHashMap<>();
+
+    // id -> (campo -> versión de la última modificación)
+    private final Map<String, Map<String, Integer>> nodeClocks = new HashMap<>();
+    private final Map<String, Map<String, Integer>> edgeClocks = new HashMap<>();
+
+    // id -> versión en la que se eliminó
+    private final Map<String, Integer> nodeTombstones = tombstoneMap();
+    private final Map<String, Integer> edgeTombstones = tombstoneMap();
+
+    // Versión con la que se cargó el documento: piso de los relojes
+    private int baseline;
+
+    public Map<String, ObjectNode> elements(Kind kind) {
+        return kind == Kind.NODE ? nodes : edges;
+    }
+
+    public ObjectNode get(Kind kind, String id) {
+        return elements(kind).get(id);
+    }
+
+    public boolean contains(Kind kind, String id) {
+        return elements(kind).containsKey(id);
+    }
+
+    public void put(Kind kind, String id, ObjectNode element) {
+        elements(kind).put(id, element);
+    }
+
+    public ObjectNode remove(Kind kind, String id) {
+        return elements(kind).remove(id);
+    }
+
+    public Collection<ObjectNode> nodes() {
+        return nodes.values();
+    }
+
+    public Collection<ObjectNode> edges() {
+        return edges.values();
+    }
+
+    public int nodeCount() {
+        return nodes.size();
+    }
+
+    public int edgeCount() {
+        return edges.size();
+    }
+
+    /* =========================================================
+     *                  RELOJES POR CAMPO / LÁPIDAS
+     * ========================================================= */
+
+    /**
+     * El documento se cargó en {@code version} sin historia: cualquier elemento o campo
+     * pudo cambiar (o eliminarse) hasta esa versión.
+     */
+    public void setBaseline(int version) {
+        this.baseline = version;
+    }
+
+    public int getBaseline() {
+        return baseline;
+    }
+
+    /** Versión en que se modificó por última vez el campo (la base de carga si no se conoce). */
+    public int fieldClock(Kind kind, String id, String field) {
+        Map<String, Integer> fields = clocks(kind).get(id);
+        return fields == null ? baseline : Math.max(baseline, fields.getOrDefault(field, 0));
+    }
+
+    /** Versión de la última modificación de cualquier campo del elemento. */
+    public int elementClock(Kind kind, String id) {
+        Map<String, Integer> fields = clocks(kind).get(id);
+        int max = baseline;
+        if (fields == null) return max;
+        for (int v : fields.values()) max = Math.max(max, v);
+        return max;
+    }
+
+    public void stampField(Kind kind, String id, String field, int version) {
+        clocks(kind).computeIfAbsent(id, k -> new HashMap<>()).put(field, version);
+    }
+
+    /** Marca todos los campos del elemento (alta o reemplazo completo). */
+    public void stampElement(Kind kind, String id, int version) {
+        ObjectNode el = get(kind, id);
+        Map<String, Integer> fields = new HashMap<>();
+        if (el != null) el.fieldNames().forEachRemaining(f -> fields.put(f, version));
+        clocks(kind).put(id, fields);
+        tombstones(kind).remove(id);
+    }
+
+    public void markRemoved(Kind kind, String id, int version) {
+        clocks(kind).remove(id);
+        tombstones(kind).put(id, version);
+    }
+
+    /** Versión en que se eliminó el elemento, o 0 si no hay lápida (nunca existió o se eliminó antes de cargar). */
+    public int tombstone(Kind kind, String id) {
+        return tombstones(kind).getOrDefault(id, 0);
+    }
+
+    private Map<String, Map<String, Integer>> clocks(Kind kind) {
+        return kind == Kind.NODE ? nodeClocks : edgeClocks;
+    }
+
+    private Map<String, Integer> tombstones(Kind kind) {
+        return kind == Kind.NODE ? nodeTombstones : edgeTombstones;
+    }
+
+    private static Map<String, Integer> tombstoneMap() {
+        return new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+                return size() > MAX_TOMBSTONES;
+            }
+        };
+    }
+}
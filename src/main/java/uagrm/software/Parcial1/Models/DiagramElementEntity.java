@@ -0,0 +1,55 @@
+package uagrm.software.Parcial1.Models;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.io.Serializable;
+
+/**
+ * Un nodo o arista de un diagrama almacenado en su propia fila (modo "elements").
+ * El contenido es el JSON del elemento tal cual lo envía el cliente.
+ */
+@Entity
+@Table(name = "diagram_elements",
+       indexes = @Index(name = "idx_diagram_elements_order", columnList = "diagram_id, kind, ordinal"))
+@IdClass(DiagramElementEntity.Key.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DiagramElementEntity {
+
+    public static final String NODE = "N";
+    public static final String EDGE = "E";
+
+    @Id
+    @Column(name = "diagram_id")
+    private Long diagramId;
+
+    @Id
+    @Column(length = 1)
+    private String kind; // "N" nodo, "E" arista
+
+    @Id
+    @Column(name = "element_id", length = 255)
+    private String elementId;
+
+    // Orden del elemento dentro del arreglo nodes/edges
+    @Column(nullable = false)
+    private Integer ordinal;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String content;
+
+    // Versión del diagrama que escribió esta fila por última vez
+    @Column(nullable = false)
+    private Integer version;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long diagramId;
+        private String kind;
+        private String elementId;
+    }
+}
@@ -0,0 +1,46 @@
+package uagrm.software.Parcial1.Models;
+
+import jakarta.persistence.*;
+import lombok.*;
+import org.hibernate.annotations.CreationTimestamp;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+/**
+ * Registro append-only del log de operaciones de un diagrama.
+ * Una fila por versión con las ops efectivas serializadas como arreglo JSON.
+ */
+@Entity
+@Table(name = "diagram_ops")
+@IdClass(DiagramOpEntity.Key.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class DiagramOpEntity {
+
+    @Id
+    @Column(name = "project_id")
+    private Long projectId;
+
+    @Id
+    private Integer version;
+
+    @Column(columnDefinition = "TEXT", nullable = false)
+    private String ops;
+
+    @Column(name = "client_id", length = 100)
+    private String clientId;
+
+    @CreationTimestamp
+    @Column(name = "created_at", updatable = false)
+    private LocalDateTime createdAt;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Long projectId;
+        private Integer version;
+    }
+}
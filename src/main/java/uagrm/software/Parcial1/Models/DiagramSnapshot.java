@@ -0,0 +1,33 @@
+package uagrm.software.Parcial1.Models;
+
+import java.time.LocalDateTime;
+
+/**
+ * Copia inmutable del estado de un diagrama en una versión concreta.
+ * Se serializa con los mismos campos que {@link DiagramEntity} para que los
+ * endpoints REST mantengan su contrato JSON.
+ */
+public record DiagramSnapshot(
+        Long id,
+        String name,
+        String nodes,
+        String edges,
+        String viewport,
+        LocalDateTime createdAt,
+        LocalDateTime updatedAt,
+        Integer version
+) {
+
+    public static DiagramSnapshot of(DiagramEntity d) {
+        return new DiagramSnapshot(d.getId(), d.getName(), d.getNodes(), d.getEdges(), d.getViewport(),
+                d.getCreatedAt(), d.getUpdatedAt(), d.getVersion());
+    }
+
+    /**
+     * ETag fuerte del diagrama en una versión. Solo depende de (id, versión),
+     * así que se puede comparar con If-None-Match sin leer las columnas TEXT.
+     */
+    public static String etag(Long id, Integer version) {
+        return "\"d" + id + "-v" + version + "\"";
+    }
+}
@@ -10,7 +10,8 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "projects")
+@Table(name = "projects",
+       indexes = @Index(name = "idx_projects_last_edited", columnList = "last_edited_at, id"))
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -47,6 +48,12 @@ public class ProjectEntity {
     @ToString.Exclude
     private DiagramEntity diagram;
 
+    // Sin fecha de edición el proyecto quedaría fuera del listado paginado
+    @PrePersist
+    void prePersist() {
+        if (lastEditedAt == null) lastEditedAt = LocalDateTime.now();
+    }
+
     /** (Opcional) Exponer solo el id del diagrama en JSON del proyecto */
     @Transient
     public Long getDiagramId() {
@@ -0,0 +1,54 @@
+package uagrm.software.Parcial1.Models;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Resumen precalculado del diagrama de un proyecto (conteos, tamaño y último
+ * editor) para los listados. Se actualiza en cada escritura del diagrama con
+ * los conteos que la sala mantiene en memoria; nunca se calcula desde el JSON
+ * al listar.
+ */
+@Entity
+@Table(name = "project_stats")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ProjectStatsEntity {
+
+    @Id
+    @Column(name = "project_id")
+    private Long projectId;
+
+    // Versión del diagrama a la que corresponden los conteos
+    @Column(nullable = false)
+    private Integer version;
+
+    @Column(name = "node_count", nullable = false)
+    private Integer nodeCount;
+
+    @Column(name = "edge_count", nullable = false)
+    private Integer edgeCount;
+
+    @Column(name = "class_count", nullable = false)
+    private Integer classCount;
+
+    @Column(name = "interface_count", nullable = false)
+    private Integer interfaceCount;
+
+    @Column(name = "enum_count", nullable = false)
+    private Integer enumCount;
+
+    // Tamaño en bytes del JSON de nodes + edges
+    @Column(name = "diagram_bytes", nullable = false)
+    private Long diagramBytes;
+
+    // clientId de la última edición
+    @Column(name = "last_editor", length = 255)
+    private String lastEditor;
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt;
+}
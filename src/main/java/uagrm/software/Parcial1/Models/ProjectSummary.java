@@ -0,0 +1,30 @@
+package uagrm.software.Parcial1.Models;
+
+import java.time.LocalDateTime;
+
+/**
+ * Proyección liviana de un proyecto para los listados. Se arma directamente
+ * en la consulta (sin cargar {@link ProjectEntity} ni tocar "diagrams") y se
+ * serializa con los mismos campos que la entidad.
+ * {@code diagramId} coincide con el id del proyecto (PK compartida).
+ *
+ * Los conteos vienen de {@link ProjectStatsEntity}; son null si el proyecto
+ * aún no tiene resumen.
+ */
+public record ProjectSummary(
+        Long id,
+        String name,
+        String packageBase,
+        LocalDateTime createdAt,
+        LocalDateTime updatedAt,
+        LocalDateTime lastEditedAt,
+        Long diagramId,
+        Integer nodeCount,
+        Integer edgeCount,
+        Integer classCount,
+        Integer interfaceCount,
+        Integer enumCount,
+        Long diagramBytes,
+        String lastEditor
+) {
+}
@@ -0,0 +1,28 @@
+package uagrm.software.Parcial1.Models;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Concesión de un proyecto a la instancia que escribe su diagrama (modo cluster).
+ * La dueña la renueva mientras tenga la sala activa; vencida, otra puede tomarla.
+ */
+@Entity
+@Table(name = "room_leases")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class RoomLeaseEntity {
+
+    @Id
+    @Column(name = "project_id")
+    private Long projectId;
+
+    @Column(nullable = false, length = 64)
+    private String owner;
+
+    @Column(name = "expires_at", nullable = false)
+    private OffsetDateTime expiresAt;
+}
@@ -0,0 +1,37 @@
+package uagrm.software.Parcial1.Repository;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import uagrm.software.Parcial1.Models.DiagramOpEntity;
+
+@Repository
+public interface DiagramOpRepository extends JpaRepository<DiagramOpEntity, DiagramOpEntity.Key> {
+
+    // Cola del log posterior al snapshot, en orden de aplicación
+    List<DiagramOpEntity> findByProjectIdAndVersionGreaterThanOrderByVersionAsc(Long projectId, Integer version);
+
+    @Query("select max(o.version) from DiagramOpEntity o where o.projectId = :projectId")
+    Integer findMaxVersion(@Param("projectId") Long projectId);
+
+    // Proyectos cuya cola supera el umbral (candidatos a compactar)
+    @Query(value = "select o.project_id from diagram_ops o join diagrams d on d.id = o.project_id "
+            + "where o.version > d.version group by o.project_id having count(*) >= :minOps",
+            nativeQuery = true)
+    List<Long> findProjectsWithTailAtLeast(@Param("minOps") int minOps);
+
+    @Modifying
+    @Query("delete from DiagramOpEntity o where o.projectId = :projectId and o.version <= :version")
+    int deleteUpTo(@Param("projectId") Long projectId, @Param("version") Integer version);
+
+    // Poda global: conserva solo "retain" versiones de historia antes de cada snapshot
+    @Modifying
+    @Query(value = "delete from diagram_ops o using diagrams d "
+            + "where o.project_id = d.id and o.version <= d.version - :retain",
+            nativeQuery = true)
+    int pruneBeforeSnapshots(@Param("retain") int retain);
+}
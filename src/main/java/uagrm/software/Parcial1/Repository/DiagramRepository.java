@@ -1,7 +1,12 @@
 package uagrm.software.Parcial1.Repository;
 
 import java.util.List;
+import java.util.Optional;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import uagrm.software.Parcial1.Models.DiagramEntity;
 
@@ -10,4 +15,42 @@ public interface DiagramRepository extends JpaRepository<DiagramEntity, Long> {
 
     // Buscar el diagrama de un proyecto en específico
     List<DiagramEntity> findByProject_Id(Long projectId);
+
+    // Solo la versión (no toca las columnas TEXT)
+    @Query("select d.version from DiagramEntity d where d.id = :id")
+    Optional<Integer> findVersionById(@Param("id") Long id);
+
+    // Cerca del modo cluster (LeaseFence): con owner, solo escribe quien tiene la concesión vigente
+    String LEASE_FENCE = " and (:owner is null or exists (select 1 from RoomLeaseEntity l "
+            + "where l.projectId = d.id and l.owner = :owner and l.expiresAt > CURRENT_TIMESTAMP))";
+
+    /**
+     * Escritura write-behind: fija la versión explícitamente (la lleva la sala en memoria)
+     * y solo aplica si la BD sigue en la versión esperada y, con {@code owner}, si esa
+     * instancia tiene la concesión del proyecto.
+     * Devuelve 0 si otro escritor cambió el diagrama o la concesión es de otra instancia.
+     */
+    @Modifying(clearAutomatically = true)
+    @Query("update DiagramEntity d set d.name = :name, d.nodes = :nodes, d.edges = :edges, "
+            + "d.viewport = :viewport, d.version = :version, d.updatedAt = CURRENT_TIMESTAMP "
+            + "where d.id = :id and d.version = :expected" + LEASE_FENCE)
+    int writeSnapshot(@Param("id") Long id,
+                      @Param("name") String name,
+                      @Param("nodes") String nodes,
+                      @Param("edges") String edges,
+                      @Param("viewport") String viewport,
+                      @Param("version") Integer version,
+                      @Param("expected") Integer expected,
+                      @Param("owner") String owner);
+
+    /** Actualiza solo la cabecera (nombre, viewport, versión) sin tocar las columnas TEXT. */
+    @Modifying(clearAutomatically = true)
+    @Query("update DiagramEntity d set d.name = :name, d.viewport = :viewport, d.version = :version, "
+            + "d.updatedAt = CURRENT_TIMESTAMP where d.id = :id and d.version = :expected" + LEASE_FENCE)
+    int writeHeader(@Param("id") Long id,
+                    @Param("name") String name,
+                    @Param("viewport") String viewport,
+                    @Param("version") Integer version,
+                    @Param("expected") Integer expected,
+                    @Param("owner") String owner);
 }
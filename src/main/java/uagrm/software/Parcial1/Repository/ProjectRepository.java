@@ -1,9 +1,46 @@
 package uagrm.software.Parcial1.Repository;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import uagrm.software.Parcial1.Models.ProjectEntity;
+import uagrm.software.Parcial1.Models.ProjectSummary;
 
 @Repository
 public interface ProjectRepository extends JpaRepository<ProjectEntity, Long> {
+
+    // Marca la última edición sin cargar el proyecto
+    @Modifying
+    @Query("update ProjectEntity p set p.lastEditedAt = :ts where p.id = :id")
+    int touchLastEdited(@Param("id") Long id, @Param("ts") LocalDateTime ts);
+
+    // Listado completo sin cargar entidades ni diagramas (más reciente primero)
+    @Query("select new uagrm.software.Parcial1.Models.ProjectSummary("
+            + "p.id, p.name, p.packageBase, p.createdAt, p.updatedAt, p.lastEditedAt, p.id, "
+            + "s.nodeCount, s.edgeCount, s.classCount, s.interfaceCount, s.enumCount, s.diagramBytes, s.lastEditor) "
+            + "from ProjectEntity p left join ProjectStatsEntity s on s.projectId = p.id order by p.lastEditedAt desc, p.id desc")
+    List<ProjectSummary> findAllSummaries();
+
+    /**
+     * Página por keyset sobre (last_edited_at, id) descendente: devuelve los
+     * proyectos estrictamente posteriores al cursor (ts, id). {@code pattern}
+     * es un LIKE en minúsculas ya escapado ("%" para no filtrar).
+     */
+    @Query("select new uagrm.software.Parcial1.Models.ProjectSummary("
+            + "p.id, p.name, p.packageBase, p.createdAt, p.updatedAt, p.lastEditedAt, p.id, "
+            + "s.nodeCount, s.edgeCount, s.classCount, s.interfaceCount, s.enumCount, s.diagramBytes, s.lastEditor) "
+            + "from ProjectEntity p left join ProjectStatsEntity s on s.projectId = p.id "
+            + "where lower(p.name) like :pattern escape '\\' "
+            + "and (p.lastEditedAt < :ts or (p.lastEditedAt = :ts and p.id < :id)) "
+            + "order by p.lastEditedAt desc, p.id desc")
+    List<ProjectSummary> findPage(@Param("pattern") String pattern,
+                                  @Param("ts") LocalDateTime ts,
+                                  @Param("id") Long id,
+                                  Limit limit);
 }
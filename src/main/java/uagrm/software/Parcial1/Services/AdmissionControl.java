@@ -0,0 +1,264 @@
+package uagrm.software.Parcial1.Services;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import uagrm.software.Parcial1.Config.DbConcurrencyLimiter;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Control de admisión del pipeline WebSocket.
+ *
+ * Cada {@code diagram.admission.tick-ms} se miden cuatro señales y se dividen
+ * por su umbral ("alto"):
+ *
+ * - Cola de entrada STOMP (tareas encoladas + handlers en curso).
+ * - Mensajes pendientes en las colas de salida por sesión ({@link OutboundConflator}).
+ * - Hilos esperando conexión a la BD (Hikari y {@link DbConcurrencyLimiter}).
+ * - Latencia de los updates: de la recepción al broadcast, en el carril del proyecto.
+ *
+ * La mayor de esas razones es la presión, y de ella sale el nivel. Cada nivel
+ * incluye las medidas de los anteriores:
+ *
+ *   presión >= 1  SHED_CURSORS       se descartan los movimientos de cursor
+ *   presión >= 2  DEFER_PERSISTENCE  se pospone el write-behind (máx. {@code max-defer-ms})
+ *   presión >= 3  REJECT_ENTER       se rechazan nuevos presence.enter y /health/ready da 503
+ *
+ * Para bajar de nivel la presión debe caer un 20% por debajo del umbral, así
+ * el estado no oscila en el borde.
+ */
+@Slf4j
+@Service
+public class AdmissionControl {
+
+    public enum Level { NORMAL, SHED_CURSORS, DEFER_PERSISTENCE, REJECT_ENTER }
+
+    private static final double HYSTERESIS = 0.8;
+
+    private final OutboundConflator outbound;
+    private final DbConcurrencyLimiter dbLimiter;
+    private final DataSource dataSource;
+    private final ObjectProvider<Executor> inboundExecutor;
+
+    private final AtomicInteger inboundActive = new AtomicInteger();
+    private final LongAdder updateNanos = new LongAdder();
+    private final LongAdder updateCount = new LongAdder();
+
+    private final LongAdder cursorsShed = new LongAdder();
+    private final LongAdder flushesDeferred = new LongAdder();
+    private final LongAdder entersRejected = new LongAdder();
+    private final LongAdder transitions = new LongAdder();
+
+    private volatile Level level = Level.NORMAL;
+    private volatile double pressure;
+    private volatile Map<String, Object> signals = Map.of();
+    private volatile long levelSince = System.currentTimeMillis();
+    private double latencyEwmaMillis;
+    private long lastFlushAt = System.currentTimeMillis();
+    private HikariPoolMXBean hikariPool;
+
+    @Value("${diagram.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${diagram.admission.inbound-high:500}")
+    private int inboundHigh;
+
+    @Value("${diagram.admission.outbound-high:10000}")
+    private long outboundHigh;
+
+    @Value("${diagram.admission.db-pending-high:10}")
+    private int dbPendingHigh;
+
+    @Value("${diagram.admission.update-latency-high-ms:500}")
+    private long latencyHighMillis;
+
+    @Value("${diagram.admission.max-defer-ms:30000}")
+    private long maxDeferMillis;
+
+    public AdmissionControl(OutboundConflator outbound,
+                            DbConcurrencyLimiter dbLimiter,
+                            DataSource dataSource,
+                            @Qualifier("clientInboundChannelExecutor") ObjectProvider<Executor> inboundExecutor) {
+        // Proveedor perezoso: el executor lo crea la configuración STOMP que registra el interceptor
+        this.outbound = outbound;
+        this.dbLimiter = dbLimiter;
+        this.dataSource = dataSource;
+        this.inboundExecutor = inboundExecutor;
+    }
+
+    /* =========================================================
+     *                       INTEGRACIÓN
+     * ========================================================= */
+
+    /** Cuenta los handlers de entrada en curso (con hilos virtuales no hay cola que medir). */
+    public ExecutorChannelInterceptor inboundInterceptor() {
+        return new ExecutorChannelInterceptor() {
+            @Override
+            public Message<?> beforeHandle(Message<?> message, MessageChannel channel, MessageHandler handler) {
+                inboundActive.incrementAndGet();
+                return message;
+            }
+
+            @Override
+            public void afterMessageHandled(Message<?> message, MessageChannel channel, MessageHandler handler,
+                                            Exception ex) {
+                inboundActive.decrementAndGet();
+            }
+        };
+    }
+
+    /** Tiempo desde la recepción de un update hasta su broadcast. */
+    public void recordUpdate(long nanos) {
+        updateNanos.add(nanos);
+        updateCount.increment();
+    }
+
+    /* =========================================================
+     *                        DECISIONES
+     * ========================================================= */
+
+    /** true si el movimiento de cursor debe descartarse. */
+    public boolean shedCursor() {
+        if (level.compareTo(Level.SHED_CURSORS) < 0) return false;
+        cursorsShed.increment();
+        return true;
+    }
+
+    /**
+     * true si esta ronda de write-behind debe saltarse. Nunca se pospone más de
+     * {@code max-defer-ms} seguidos: los cambios siguen en memoria y no se pueden acumular sin límite.
+     */
+    public synchronized boolean deferFlush() {
+        long now = System.currentTimeMillis();
+        if (level.compareTo(Level.DEFER_PERSISTENCE) >= 0 && now - lastFlushAt < maxDeferMillis) {
+            flushesDeferred.increment();
+            return true;
+        }
+        lastFlushAt = now;
+        return false;
+    }
+
+    /** true si hay que rechazar un presence.enter (nuevas sesiones en la sala). */
+    public boolean rejectEnter() {
+        if (level != Level.REJECT_ENTER) return false;
+        entersRejected.increment();
+        return true;
+    }
+
+    public Level level() {
+        return level;
+    }
+
+    /* =========================================================
+     *                        EVALUACIÓN
+     * ========================================================= */
+
+    @Scheduled(fixedDelayString = "${diagram.admission.tick-ms:250}")
+    public synchronized void evaluate() {
+        if (!enabled) return;
+
+        int inbound = inboundQueued() + inboundActive.get();
+        long outboundQueued = outbound.backlog();
+        int dbPending = dbPending();
+
+        // Promedio del tick suavizado; un tick sin updates cuenta como latencia 0
+        long count = updateCount.sumThenReset();
+        long nanos = updateNanos.sumThenReset();
+        double tickMillis = count > 0 ? nanos / 1e6 / count : 0;
+        latencyEwmaMillis = 0.5 * latencyEwmaMillis + 0.5 * tickMillis;
+
+        double p = Math.max(
+                Math.max((double) inbound / inboundHigh, (double) outboundQueued / outboundHigh),
+                Math.max((double) dbPending / dbPendingHigh, latencyEwmaMillis / latencyHighMillis));
+
+        Map<String, Object> s = new LinkedHashMap<>();
+        s.put("inbound", inbound);
+        s.put("outboundQueued", outboundQueued);
+        s.put("dbPending", dbPending);
+        s.put("updateLatencyMs", Math.round(latencyEwmaMillis * 10) / 10.0);
+        signals = s;
+        pressure = p;
+
+        Level next = next(level, p);
+        if (next != level) {
+            if (next.compareTo(level) > 0) {
+                log.warn("Admisión: {} -> {} (presión {}, señales {})", level, next, String.format("%.2f", p), s);
+            } else {
+                log.info("Admisión: {} -> {} (presión {})", level, next, String.format("%.2f", p));
+            }
+            level = next;
+            levelSince = System.currentTimeMillis();
+            transitions.increment();
+        }
+    }
+
+    /** Nivel siguiente según la presión: sube de inmediato, baja con histéresis. */
+    static Level next(Level current, double pressure) {
+        Level up = levelFor(pressure);
+        if (up.compareTo(current) >= 0) return up;
+        Level down = levelFor(pressure / HYSTERESIS);
+        return down.compareTo(current) < 0 ? down : current;
+    }
+
+    private static Level levelFor(double pressure) {
+        Level[] levels = Level.values();
+        int i = (int) Math.min(Math.max(pressure, 0), levels.length - 1);
+        return levels[i];
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("level", level.name());
+        stats.put("levelSinceMs", System.currentTimeMillis() - levelSince);
+        stats.put("pressure", Math.round(pressure * 100) / 100.0);
+        stats.put("signals", signals);
+        stats.put("cursorsShed", cursorsShed.sum());
+        stats.put("flushesDeferred", flushesDeferred.sum());
+        stats.put("entersRejected", entersRejected.sum());
+        stats.put("transitions", transitions.sum());
+        return stats;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private int inboundQueued() {
+        Executor executor = inboundExecutor.getIfAvailable();
+        if (executor instanceof ThreadPoolTaskExecutor pool && pool.getThreadPoolExecutor() != null) {
+            return pool.getThreadPoolExecutor().getQueue().size();
+        }
+        return 0;
+    }
+
+    private int dbPending() {
+        int pending = dbLimiter.waiting();
+        if (hikariPool == null) {
+            try {
+                // Null hasta que el pool arranca
+                hikariPool = dataSource.unwrap(HikariDataSource.class).getHikariPoolMXBean();
+            } catch (Exception e) {
+                return pending;
+            }
+        }
+        return hikariPool != null ? pending + hikariPool.getThreadsAwaitingConnection() : pending;
+    }
+}
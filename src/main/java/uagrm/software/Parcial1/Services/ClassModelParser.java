@@ -0,0 +1,473 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import uagrm.software.Parcial1.Models.ClassModel;
+import uagrm.software.Parcial1.Models.ClassModel.Cardinality;
+import uagrm.software.Parcial1.Models.ClassModel.ClassDef;
+import uagrm.software.Parcial1.Models.ClassModel.ClassKind;
+import uagrm.software.Parcial1.Models.ClassModel.Field;
+import uagrm.software.Parcial1.Models.ClassModel.Method;
+import uagrm.software.Parcial1.Models.ClassModel.Relation;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Convierte los nodos/aristas de un diagrama en un {@link ClassModel}.
+ *
+ * Es tolerante con el formato del editor: el nombre, atributos y métodos se
+ * buscan en {@code data} o en la raíz del nodo, y pueden venir como texto UML
+ * ("- nombre: String", "+ total(x: int): double") o como objetos
+ * { name, type, visibility }.
+ *
+ * Aristas: herencia (extends), realización (implements), composición,
+ * agregación y asociación. Las multiplicidades ("1", "0..1", "*", "1..*")
+ * definen la cardinalidad JPA de cada lado. Las dependencias se ignoran.
+ */
+@Service
+@RequiredArgsConstructor
+public class ClassModelParser {
+
+    private static final Pattern ATTRIBUTE =
+            Pattern.compile("^\\s*([+\\-#~])?\\s*([\\p{L}_$][\\p{L}\\p{N}_$]*)\\s*(?::\\s*(.+?))?\\s*(?:=.*)?$");
+    private static final Pattern METHOD =
+            Pattern.compile("^\\s*([+\\-#~])?\\s*([\\p{L}_$][\\p{L}\\p{N}_$]*)\\s*\\(([^)]*)\\)\\s*(?::\\s*(.+?))?\\s*$");
+    private static final Pattern PACKAGE = Pattern.compile("[a-z_][a-z0-9_]*(\\.[a-z_][a-z0-9_]*)*");
+
+    private static final Map<String, String> TYPES = Map.ofEntries(
+            Map.entry("string", "String"), Map.entry("str", "String"), Map.entry("text", "String"),
+            Map.entry("varchar", "String"), Map.entry("char", "String"), Map.entry("character", "String"),
+            Map.entry("int", "Integer"), Map.entry("integer", "Integer"), Map.entry("short", "Integer"),
+            Map.entry("long", "Long"), Map.entry("bigint", "Long"),
+            Map.entry("double", "Double"), Map.entry("float", "Double"), Map.entry("decimal", "Double"),
+            Map.entry("number", "Double"), Map.entry("real", "Double"), Map.entry("bigdecimal", "Double"),
+            Map.entry("boolean", "Boolean"), Map.entry("bool", "Boolean"),
+            Map.entry("date", "LocalDate"), Map.entry("localdate", "LocalDate"),
+            Map.entry("datetime", "LocalDateTime"), Map.entry("localdatetime", "LocalDateTime"),
+            Map.entry("timestamp", "LocalDateTime"), Map.entry("time", "LocalTime"),
+            Map.entry("localtime", "LocalTime"));
+
+    private static final Set<String> RESERVED = Set.of(
+            "abstract", "assert", "boolean", "break", "byte", "case", "catch", "char", "class", "const",
+            "continue", "default", "do", "double", "else", "enum", "extends", "final", "finally", "float",
+            "for", "goto", "if", "implements", "import", "instanceof", "int", "interface", "long", "native",
+            "new", "package", "private", "protected", "public", "return", "short", "static", "strictfp",
+            "super", "switch", "synchronized", "this", "throw", "throws", "transient", "try", "void",
+            "volatile", "while", "var", "record", "yield", "true", "false", "null");
+
+    private final ObjectMapper objectMapper;
+
+    private enum EdgeKind { INHERITANCE, REALIZATION, COMPOSITION, AGGREGATION, ASSOCIATION, DEPENDENCY }
+
+    /** Clase en construcción (mutable hasta armar el modelo). */
+    private static final class Draft {
+        final String nodeId;
+        final String name;
+        final ClassKind kind;
+        final List<Field> fields = new ArrayList<>();
+        final List<Method> methods = new ArrayList<>();
+        final List<String> enumValues = new ArrayList<>();
+        final List<String> interfaces = new ArrayList<>();
+        final List<Relation> relations = new ArrayList<>();
+        final Set<String> memberNames = new HashSet<>();
+        String superClass;
+
+        Draft(String nodeId, String name, ClassKind kind) {
+            this.nodeId = nodeId;
+            this.name = name;
+            this.kind = kind;
+            memberNames.add("id");
+        }
+
+        String uniqueMember(String base) {
+            String n = base;
+            for (int i = 2; !memberNames.add(n); i++) n = base + i;
+            return n;
+        }
+    }
+
+    /* =========================================================
+     *                          API
+     * ========================================================= */
+
+    public ClassModel parse(Long projectId, Integer version, String projectName, String packageBase,
+                            String nodesJson, String edgesJson) {
+        String artifactId = artifactId(projectName, projectId);
+        String basePackage = packageBase != null && PACKAGE.matcher(packageBase.trim()).matches()
+                ? packageBase.trim()
+                : "com.example." + artifactId.replace("-", "");
+
+        // nodeId -> clase (en orden del diagrama)
+        Map<String, Draft> byNode = new LinkedHashMap<>();
+        Set<String> names = new HashSet<>();
+        for (JsonNode node : readArray(nodesJson)) {
+            Draft d = readNode(node, names);
+            if (d != null) byNode.put(d.nodeId, d);
+        }
+
+        Map<String, ClassKind> kinds = new HashMap<>();
+        byNode.values().forEach(d -> kinds.put(d.name, d.kind));
+        for (Draft d : byNode.values()) {
+            d.fields.replaceAll(f -> new Field(f.name(), resolveType(f.type(), kinds), f.visibility()));
+        }
+
+        for (JsonNode edge : readArray(edgesJson)) {
+            readEdge(edge, byNode);
+        }
+
+        List<ClassDef> classes = new ArrayList<>(byNode.size());
+        for (Draft d : byNode.values()) {
+            classes.add(new ClassDef(d.nodeId, d.name, d.kind, List.copyOf(d.fields), List.copyOf(d.methods),
+                    List.copyOf(d.enumValues), d.superClass, List.copyOf(d.interfaces), List.copyOf(d.relations)));
+        }
+        return new ClassModel(projectId, version, projectName, artifactId, basePackage, classes);
+    }
+
+    /* =========================================================
+     *                          NODOS
+     * ========================================================= */
+
+    /**
+     * Tipo de clase que representa un nodo según sus pistas ("stereotype",
+     * "kind", "type"...). Null si no es una clase (notas, comentarios).
+     */
+    public static ClassKind nodeKind(JsonNode node) {
+        if (!node.isObject()) return null;
+        JsonNode data = node.path("data");
+        String kindHint = (text(data, "stereotype", "kind", "classType", "type") + " " + text(node, "type"))
+                .toLowerCase(Locale.ROOT);
+        if (kindHint.contains("note") || kindHint.contains("comment")) return null;
+
+        if (kindHint.contains("interface")) return ClassKind.INTERFACE;
+        if (kindHint.contains("enum")) return ClassKind.ENUM;
+        if (kindHint.contains("abstract") || data.path("isAbstract").asBoolean(false)
+                || data.path("abstract").asBoolean(false)) return ClassKind.ABSTRACT;
+        return ClassKind.CLASS;
+    }
+
+    private Draft readNode(JsonNode node, Set<String> names) {
+        ClassKind kind = nodeKind(node);
+        if (kind == null) return null;
+        JsonNode data = node.path("data");
+
+        String rawName = text(data, "name", "label", "title", "className");
+        if (rawName.isEmpty()) rawName = text(node, "name", "label");
+        String name = typeName(rawName);
+        if (name.isEmpty()) return null;
+        String base = name;
+        for (int i = 2; !names.add(name); i++) name = base + i;
+
+        Draft d = new Draft(node.path("id").asText(name), name, kind);
+        JsonNode attributes = first(data, node, "attributes", "attrs", "fields", "values", "literals");
+        for (JsonNode a : attributes) {
+            Field f = readAttribute(a);
+            if (f == null) continue;
+            if (kind == ClassKind.ENUM) {
+                d.enumValues.add(constantName(f.name()));
+            } else if (!"id".equalsIgnoreCase(f.name())) {
+                d.fields.add(new Field(d.uniqueMember(f.name()), f.type(), f.visibility()));
+            }
+        }
+        for (JsonNode m : first(data, node, "methods", "operations")) {
+            Method method = readMethod(m);
+            if (method != null) d.methods.add(method);
+        }
+        return d;
+    }
+
+    private Field readAttribute(JsonNode a) {
+        if (a.isTextual()) {
+            Matcher m = ATTRIBUTE.matcher(a.asText());
+            if (!m.matches()) return null;
+            return new Field(memberName(m.group(2)), m.group(3), visibility(m.group(1)));
+        }
+        if (a.isObject()) {
+            String name = memberName(text(a, "name", "label"));
+            if (name.isEmpty()) return null;
+            return new Field(name, text(a, "type", "dataType"), visibility(text(a, "visibility")));
+        }
+        return null;
+    }
+
+    private Method readMethod(JsonNode m) {
+        String name, params, returnType, vis;
+        if (m.isTextual()) {
+            Matcher mm = METHOD.matcher(m.asText());
+            if (!mm.matches()) return null;
+            name = mm.group(2);
+            params = mm.group(3);
+            returnType = mm.group(4);
+            vis = mm.group(1);
+        } else if (m.isObject()) {
+            name = text(m, "name", "label");
+            returnType = text(m, "returnType", "type", "return");
+            vis = text(m, "visibility");
+            JsonNode p = m.has("params") ? m.get("params") : m.path("parameters");
+            if (p.isArray()) {
+                List<String> parts = new ArrayList<>();
+                for (JsonNode x : p) {
+                    parts.add(x.isTextual() ? x.asText() : text(x, "name") + ": " + text(x, "type"));
+                }
+                params = String.join(", ", parts);
+            } else {
+                params = p.asText("");
+            }
+        } else {
+            return null;
+        }
+        name = memberName(name);
+        if (name.isEmpty()) return null;
+        return new Method(name, javaType(returnType, "void"), javaParams(params), visibility(vis));
+    }
+
+    /* =========================================================
+     *                         ARISTAS
+     * ========================================================= */
+
+    private void readEdge(JsonNode edge, Map<String, Draft> byNode) {
+        if (!edge.isObject()) return;
+        Draft src = byNode.get(edge.path("source").asText(null));
+        Draft dst = byNode.get(edge.path("target").asText(null));
+        if (src == null || dst == null) return;
+        JsonNode data = edge.path("data");
+        String edgeId = edge.path("id").asText(src.name + "-" + dst.name);
+
+        EdgeKind kind = edgeKind(text(data, "type", "relationType", "relation", "kind") + " " + text(edge, "type", "label"));
+        switch (kind) {
+            case INHERITANCE -> {
+                if (dst.kind == ClassKind.INTERFACE) {
+                    if (src.kind == ClassKind.INTERFACE || !src.interfaces.contains(dst.name)) src.interfaces.add(dst.name);
+                } else if (src.superClass == null && src.kind != ClassKind.ENUM && dst.kind != ClassKind.ENUM
+                        && !inherits(byNode, dst, src.name)) {
+                    src.superClass = dst.name;
+                }
+            }
+            case REALIZATION -> {
+                if (dst.kind == ClassKind.INTERFACE && !src.interfaces.contains(dst.name)) src.interfaces.add(dst.name);
+            }
+            case COMPOSITION, AGGREGATION, ASSOCIATION -> {
+                if (src.kind != ClassKind.CLASS || dst.kind != ClassKind.CLASS) return;
+                boolean whole = kind == EdgeKind.COMPOSITION || kind == EdgeKind.AGGREGATION;
+                String srcMult = text(data, "sourceMultiplicity", "multiplicitySource", "sourceCardinality", "sourceLabel");
+                String dstMult = text(data, "targetMultiplicity", "multiplicityTarget", "targetCardinality", "targetLabel");
+                // Sin multiplicidades: el todo (origen) tiene muchas partes; en asociación, muchos origen -> un destino
+                boolean srcMany = srcMult.isEmpty() ? !whole : isMany(srcMult);
+                boolean dstMany = dstMult.isEmpty() ? whole : isMany(dstMult);
+                relate(edgeId, src, dst, srcMany, dstMany, kind == EdgeKind.COMPOSITION);
+            }
+            default -> { }
+        }
+    }
+
+    /** Declara el campo en cada extremo según la cardinalidad. El lado "muchos" es el dueño. */
+    private void relate(String edgeId, Draft a, Draft b, boolean aMany, boolean bMany, boolean cascade) {
+        String one = decapitalize(b.name);
+        String many = plural(decapitalize(b.name));
+        String backOne = decapitalize(a.name);
+        String backMany = plural(decapitalize(a.name));
+
+        if (!aMany && bMany) {
+            // a 1 --- * b : b es dueño (FK en b)
+            String fa = a.uniqueMember(many);
+            String fb = b.uniqueMember(backOne);
+            b.relations.add(new Relation(edgeId, Cardinality.MANY_TO_ONE, a.name, fb, null, false));
+            a.relations.add(new Relation(edgeId, Cardinality.ONE_TO_MANY, b.name, fa, fb, cascade));
+        } else if (aMany && !bMany) {
+            String fa = a.uniqueMember(one);
+            String fb = b.uniqueMember(backMany);
+            a.relations.add(new Relation(edgeId, Cardinality.MANY_TO_ONE, b.name, fa, null, false));
+            b.relations.add(new Relation(edgeId, Cardinality.ONE_TO_MANY, a.name, fb, fa, false));
+        } else if (aMany) {
+            String fa = a.uniqueMember(many);
+            String fb = b.uniqueMember(backMany);
+            a.relations.add(new Relation(edgeId, Cardinality.MANY_TO_MANY, b.name, fa, null, false));
+            b.relations.add(new Relation(edgeId, Cardinality.MANY_TO_MANY, a.name, fb, fa, false));
+        } else {
+            String fa = a.uniqueMember(one);
+            String fb = b.uniqueMember(backOne);
+            a.relations.add(new Relation(edgeId, Cardinality.ONE_TO_ONE, b.name, fa, null, cascade));
+            b.relations.add(new Relation(edgeId, Cardinality.ONE_TO_ONE, a.name, fb, fa, false));
+        }
+    }
+
+    /** true si {@code from} ya hereda (directa o indirectamente) de {@code name}; evita ciclos. */
+    private static boolean inherits(Map<String, Draft> byNode, Draft from, String name) {
+        Map<String, Draft> byName = new HashMap<>();
+        byNode.values().forEach(d -> byName.put(d.name, d));
+        Set<String> seen = new HashSet<>();
+        for (Draft d = from; d != null && seen.add(d.name); d = d.superClass == null ? null : byName.get(d.superClass)) {
+            if (d.name.equals(name)) return true;
+        }
+        return false;
+    }
+
+    private static EdgeKind edgeKind(String hint) {
+        String h = hint.toLowerCase(Locale.ROOT);
+        if (h.contains("inherit") || h.contains("generaliz") || h.contains("extends") || h.contains("herencia")) {
+            return EdgeKind.INHERITANCE;
+        }
+        if (h.contains("implement") || h.contains("realiz")) return EdgeKind.REALIZATION;
+        if (h.contains("compos")) return EdgeKind.COMPOSITION;
+        if (h.contains("aggreg") || h.contains("agreg")) return EdgeKind.AGGREGATION;
+        if (h.contains("depend")) return EdgeKind.DEPENDENCY;
+        return EdgeKind.ASSOCIATION;
+    }
+
+    private static boolean isMany(String multiplicity) {
+        String m = multiplicity.trim().toLowerCase(Locale.ROOT);
+        if (m.contains("*") || m.endsWith("n") || m.contains("many")) return true;
+        int dots = m.lastIndexOf("..");
+        String upper = dots >= 0 ? m.substring(dots + 2) : m;
+        try {
+            return Integer.parseInt(upper.trim()) > 1;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /* =========================================================
+     *                          TIPOS
+     * ========================================================= */
+
+    /** Tipo final de un atributo: primitivos conocidos, enums del diagrama o String. */
+    private static String resolveType(String raw, Map<String, ClassKind> kinds) {
+        String t = raw == null ? "" : raw.trim();
+        String known = TYPES.get(t.toLowerCase(Locale.ROOT));
+        if (known != null) return known;
+        String name = typeName(t);
+        if (kinds.get(name) == ClassKind.ENUM) return name;
+        return "String";
+    }
+
+    private static String javaType(String raw, String fallback) {
+        if (raw == null || raw.isBlank()) return fallback;
+        String t = raw.trim();
+        String known = TYPES.get(t.toLowerCase(Locale.ROOT));
+        if (known != null) return known;
+        if ("void".equalsIgnoreCase(t)) return "void";
+        String name = typeName(t);
+        return name.isEmpty() ? "Object" : name;
+    }
+
+    /** "x: int, nombre: String" -> "Integer x, String nombre". */
+    private static String javaParams(String raw) {
+        if (raw == null || raw.isBlank()) return "";
+        List<String> out = new ArrayList<>();
+        Set<String> seen = new HashSet<>();
+        int i = 0;
+        for (String p : raw.split(",")) {
+            String[] parts = p.split(":", 2);
+            String name = memberName(parts[0]);
+            if (name.isEmpty() || !seen.add(name)) name = "arg" + i;
+            String type = parts.length > 1 ? javaType(parts[1], "Object") : "Object";
+            if ("void".equals(type)) type = "Object";
+            out.add(type + " " + name);
+            i++;
+        }
+        return String.join(", ", out);
+    }
+
+    private static String visibility(String symbol) {
+        if (symbol == null) return "private";
+        return switch (symbol.trim().toLowerCase(Locale.ROOT)) {
+            case "+", "public" -> "public";
+            case "#", "protected" -> "protected";
+            case "~", "package" -> "";
+            default -> "private";
+        };
+    }
+
+    /* =========================================================
+     *                        NOMBRES
+     * ========================================================= */
+
+    static String artifactId(String projectName, Long projectId) {
+        String s = ascii(projectName).toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9]+", "-").replaceAll("^-+|-+$", "");
+        if (s.isEmpty() || !Character.isLetter(s.charAt(0))) s = "proyecto-" + projectId;
+        return s;
+    }
+
+    /** "detalle de venta" -> "DetalleDeVenta". */
+    private static String typeName(String raw) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : ascii(raw).split("[^A-Za-z0-9_]+")) {
+            if (part.isEmpty()) continue;
+            sb.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+        }
+        if (sb.length() > 0 && Character.isDigit(sb.charAt(0))) sb.insert(0, 'C');
+        return sb.toString();
+    }
+
+    private static String memberName(String raw) {
+        String n = typeName(raw);
+        if (n.isEmpty()) return n;
+        n = decapitalize(n);
+        return RESERVED.contains(n) ? n + "_" : n;
+    }
+
+    private static String constantName(String name) {
+        return name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toUpperCase(Locale.ROOT);
+    }
+
+    private static String decapitalize(String s) {
+        return s.isEmpty() ? s : Character.toLowerCase(s.charAt(0)) + s.substring(1);
+    }
+
+    private static String plural(String s) {
+        if (s.endsWith("s")) return s + "List";
+        if (s.endsWith("y") && s.length() > 1 && "aeiou".indexOf(s.charAt(s.length() - 2)) < 0) {
+            return s.substring(0, s.length() - 1) + "ies";
+        }
+        return s + "s";
+    }
+
+    private static String ascii(String s) {
+        if (s == null) return "";
+        return Normalizer.normalize(s, Normalizer.Form.NFD).replaceAll("\\p{M}", "");
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private JsonNode readArray(String json) {
+        if (json == null || json.isBlank()) return objectMapper.createArrayNode();
+        try {
+            JsonNode n = objectMapper.readTree(json);
+            return n != null && n.isArray() ? n : objectMapper.createArrayNode();
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("JSON del diagrama corrupto", e);
+        }
+    }
+
+    private static JsonNode first(JsonNode data, JsonNode node, String... fields) {
+        for (String f : fields) {
+            if (data.path(f).isArray()) return data.get(f);
+            if (node.path(f).isArray()) return node.get(f);
+        }
+        return MissingNode.getInstance();
+    }
+
+    private static String text(JsonNode node, String... fields) {
+        for (String f : fields) {
+            JsonNode v = node.path(f);
+            if (v.isValueNode() && !v.asText().isBlank()) return v.asText().trim();
+        }
+        return "";
+    }
+}
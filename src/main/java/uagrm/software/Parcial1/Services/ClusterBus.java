@@ -0,0 +1,452 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bus de eventos entre instancias sobre LISTEN/NOTIFY de Postgres (modo cluster,
+ * {@code diagram.cluster.enabled=true}).
+ *
+ * - Salida: todo mensaje local a /topic/projects/{id}[/cursors|/presence] que
+ *   entra al brokerChannel se encola y un hilo lo publica con pg_notify en el
+ *   canal {@code diagram.cluster.channel}. El envío STOMP local no espera a la base.
+ * - Payloads grandes: si el sobre supera {@code diagram.cluster.inline-max-bytes}
+ *   (NOTIFY admite 8000) se guarda en cluster_events y se notifica solo su id.
+ * - Entrada: una conexión dedicada (fuera del pool de Hikari) hace LISTEN; cada
+ *   notificación de otra instancia se reinyecta en el brokerChannel marcada con
+ *   {@link #RELAY_HEADER}, así se reparte a los suscriptores locales y no vuelve a salir.
+ * - Presencia: cada instancia publica sus conectados por sala; llegan como
+ *   {@link RemotePresenceEvent} para que {@link PresenceService} sume el total del cluster.
+ * - Escrituras reenviadas ({@link RoomOwnership}): un update para un proyecto de otra
+ *   instancia viaja a la dueña, que lo procesa como si su cliente estuviera conectado
+ *   ahí. Sus respuestas a /user/queue/... (acks, errores) vuelven a la instancia de origen.
+ *
+ * Sobre: { "o": instancia, "d": destino, "p": payload JSON, "snap"?: true } o { "o", "r": id en cluster_events };
+ * presencia { "o", "k":"presence", "full": bool, "c": { projectId: conectados } };
+ * escritura reenviada { "o", "k":"inbound", "t": dueña, "d": /app/..., "s": sesión, "h": saltos, "p" }
+ * y respuesta a una sesión remota { "o", "k":"user", "t": origen, "d": /queue/...-user{sesión}, "p" }.
+ * "snap" marca un diagrama completo: al reinyectarlo se restaura
+ * {@link DiagramEventEncoder#SNAPSHOT_HEADER}, así las colas de salida lo conflacionan igual que a uno local.
+ *
+ * Los eventos perdidos durante una reconexión del LISTEN no se recuperan: los
+ * clientes se ponen al día con la siguiente versión o con /sync.
+ */
+@Slf4j
+@Service
+public class ClusterBus {
+
+    public static final String RELAY_HEADER = "clusterRelay";
+    /** Veces que una escritura ya se reenvió (en mensajes entrantes reenviados). */
+    public static final String HOPS_HEADER = "clusterHops";
+
+    private static final String PREFIX = "/topic/projects/";
+    private static final long REMOTE_SESSION_TTL_MS = 600_000;
+    private static final String INSERT_EVENT =
+            "insert into cluster_events (payload, created_at) values (?, now()) returning id";
+
+    /** Sesión conectada a otra instancia que escribió a través de esta. */
+    private record RemoteSession(String instanceId, long lastSeen) {
+    }
+
+    /** Conectados por sala de otra instancia; {@code full}: la lista es completa (latido). */
+    public record RemotePresenceEvent(String instanceId, Map<Long, Integer> counts, boolean full) {
+    }
+
+    private final ObjectProvider<MessageChannel> brokerChannel;
+    private final ObjectProvider<MessageChannel> clientInboundChannel;
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSourceProperties dataSourceProperties;
+    private final ObjectMapper objectMapper;
+    private final ApplicationEventPublisher events;
+
+    private final String instanceId = UUID.randomUUID().toString().substring(0, 8);
+    // sessionId -> instancia donde está conectada (para devolverle acks y errores)
+    private final ConcurrentMap<String, RemoteSession> remoteSessions = new ConcurrentHashMap<>();
+    private BlockingQueue<String> outbox;
+    private ThreadPoolTaskExecutor executor;
+    private volatile boolean running;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder publishedByRef = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+    private final LongAdder forwarded = new LongAdder();
+    private final LongAdder repliesRelayed = new LongAdder();
+
+    @Value("${diagram.cluster.enabled:false}")
+    private boolean enabled;
+
+    @Value("${diagram.cluster.channel:diagram_events}")
+    private String channel;
+
+    @Value("${diagram.cluster.inline-max-bytes:7500}")
+    private int inlineMaxBytes;
+
+    @Value("${diagram.cluster.max-queued:10000}")
+    private int maxQueued;
+
+    @Value("${diagram.cluster.event-retention-ms:60000}")
+    private long retentionMillis;
+
+    public ClusterBus(@Qualifier("brokerChannel") ObjectProvider<MessageChannel> brokerChannel,
+                      @Qualifier("clientInboundChannel") ObjectProvider<MessageChannel> clientInboundChannel,
+                      JdbcTemplate jdbcTemplate,
+                      DataSourceProperties dataSourceProperties,
+                      ObjectMapper objectMapper,
+                      ApplicationEventPublisher events) {
+        // Proveedor perezoso: el canal lo crea la configuración STOMP que registra el interceptor
+        this.brokerChannel = brokerChannel;
+        this.clientInboundChannel = clientInboundChannel;
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSourceProperties = dataSourceProperties;
+        this.objectMapper = objectMapper;
+        this.events = events;
+    }
+
+    @PostConstruct
+    void start() {
+        if (!enabled) return;
+        if (!channel.matches("[a-z_][a-z0-9_]*")) {
+            throw new IllegalStateException("diagram.cluster.channel inválido: " + channel);
+        }
+        outbox = new ArrayBlockingQueue<>(maxQueued);
+        running = true;
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(2);
+        executor.setMaxPoolSize(2);
+        executor.setThreadNamePrefix("cluster-bus-");
+        executor.initialize();
+        executor.execute(this::publishLoop);
+        executor.execute(this::listenLoop);
+        log.info("Modo cluster activo - instancia: {}, canal: {}", instanceId, channel);
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        if (executor != null) executor.shutdown();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String instanceId() {
+        return instanceId;
+    }
+
+    /* =========================================================
+     *                          SALIDA
+     * ========================================================= */
+
+    /** Interceptor del brokerChannel: publica los mensajes de sala locales (no los consume). */
+    public ChannelInterceptor brokerInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                if (enabled && message.getHeaders().get(RELAY_HEADER) == null) relay(message);
+                return message;
+            }
+        };
+    }
+
+    /** Publica los conectados por sala de esta instancia. */
+    public void publishPresence(Map<Long, Integer> counts, boolean full) {
+        if (!enabled) return;
+        ObjectNode env = objectMapper.createObjectNode();
+        env.put("o", instanceId);
+        env.put("k", "presence");
+        env.put("full", full);
+        ObjectNode c = env.putObject("c");
+        counts.forEach((projectId, online) -> c.put(String.valueOf(projectId), online));
+        enqueue(env.toString());
+    }
+
+    /**
+     * Envía un mensaje entrante (SEND a /app/...) de una sesión local a la instancia
+     * dueña del proyecto. {@code hops}: reenvíos previos del mismo mensaje.
+     */
+    public void forwardInbound(String target, String destination, String sessionId, Object payload, int hops) {
+        ObjectNode env = objectMapper.createObjectNode();
+        env.put("o", instanceId);
+        env.put("k", "inbound");
+        env.put("t", target);
+        env.put("d", destination);
+        env.put("s", sessionId);
+        env.put("h", hops + 1);
+        env.put("p", payloadText(payload));
+        enqueue(env.toString());
+        forwarded.increment();
+    }
+
+    private void relay(Message<?> message) {
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) return;
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        if (destination == null) return;
+        ObjectNode env = objectMapper.createObjectNode();
+        env.put("o", instanceId);
+        if (!destination.startsWith(PREFIX)) {
+            // Destino de usuario ya resuelto (/queue/acks-user{sesión}) de una sesión remota
+            RemoteSession remote = remoteSessions.isEmpty() ? null : remoteSessions.get(userSession(destination));
+            if (remote == null) return;
+            env.put("k", "user");
+            env.put("t", remote.instanceId());
+        }
+        String payload = payloadText(message.getPayload());
+        if (payload == null) return;
+        env.put("d", destination);
+        env.put("p", payload);
+        if (Boolean.TRUE.equals(message.getHeaders().get(DiagramEventEncoder.SNAPSHOT_HEADER))) env.put("snap", true);
+        enqueue(env.toString());
+        if (env.has("t")) repliesRelayed.increment();
+    }
+
+    private void enqueue(String envelope) {
+        if (!outbox.offer(envelope)) {
+            dropped.increment();
+            log.debug("Cola del bus llena, evento descartado");
+        }
+    }
+
+    /** Drena la cola en lotes: un pg_notify por evento sobre una misma conexión del pool. */
+    private void publishLoop() {
+        List<String> batch = new ArrayList<>();
+        while (running) {
+            try {
+                String first = outbox.poll(500, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                outbox.drainTo(batch, 255);
+                jdbcTemplate.execute((Connection con) -> {
+                    try (PreparedStatement notify = con.prepareStatement("select pg_notify(?, ?)")) {
+                        for (String envelope : batch) {
+                            notify.setString(1, channel);
+                            notify.setString(2, inline(con, envelope));
+                            notify.execute();
+                            published.increment();
+                        }
+                    }
+                    return null;
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                failed.add(batch.size());
+                log.warn("No se pudo publicar en el bus ({} eventos): {}", batch.size(), e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /** El sobre tal cual si cabe en un NOTIFY; si no, se guarda (misma conexión) y se manda la referencia. */
+    private String inline(Connection con, String envelope) throws SQLException {
+        if (envelope.getBytes(StandardCharsets.UTF_8).length <= inlineMaxBytes) return envelope;
+        long id;
+        try (PreparedStatement insert = con.prepareStatement(INSERT_EVENT)) {
+            insert.setString(1, envelope);
+            try (ResultSet rs = insert.executeQuery()) {
+                rs.next();
+                id = rs.getLong(1);
+            }
+        }
+        publishedByRef.increment();
+        ObjectNode ref = objectMapper.createObjectNode();
+        ref.put("o", instanceId);
+        ref.put("r", id);
+        return ref.toString();
+    }
+
+    /* =========================================================
+     *                          ENTRADA
+     * ========================================================= */
+
+    private void listenLoop() {
+        long backoff = 500;
+        while (running) {
+            try (Connection con = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+                try (Statement st = con.createStatement()) {
+                    st.execute("LISTEN " + channel);
+                }
+                PGConnection pg = con.unwrap(PGConnection.class);
+                log.info("Escuchando el bus del cluster en '{}'", channel);
+                backoff = 500;
+                while (running) {
+                    PGNotification[] notifications = pg.getNotifications(1000);
+                    if (notifications == null) continue;
+                    for (PGNotification n : notifications) handle(n.getParameter());
+                }
+            } catch (Exception e) {
+                if (!running) return;
+                reconnects.increment();
+                log.warn("Conexión LISTEN perdida, reintentando en {} ms: {}", backoff, e.getMessage());
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoff = Math.min(backoff * 2, 10_000);
+            }
+        }
+    }
+
+    private void handle(String text) {
+        try {
+            JsonNode env = objectMapper.readTree(text);
+            if (instanceId.equals(env.path("o").asText())) return; // NOTIFY también llega al emisor
+            if (env.has("r")) {
+                String stored = jdbcTemplate.queryForObject(
+                        "select payload from cluster_events where id = ?", String.class, env.get("r").asLong());
+                env = objectMapper.readTree(stored);
+            }
+            String kind = env.path("k").asText();
+            // Mensajes dirigidos a otra instancia
+            if (env.has("t") && !instanceId.equals(env.get("t").asText())) return;
+            received.increment();
+            switch (kind) {
+                case "presence" -> {
+                    Map<Long, Integer> counts = new HashMap<>();
+                    env.path("c").properties().forEach(e -> counts.put(Long.valueOf(e.getKey()), e.getValue().asInt()));
+                    events.publishEvent(new RemotePresenceEvent(env.path("o").asText(), counts, env.path("full").asBoolean()));
+                }
+                case "inbound" -> deliverInbound(env);
+                case "user" -> deliver(env);
+                default -> {
+                    if (env.path("d").asText().startsWith(PREFIX)) deliver(env);
+                }
+            }
+        } catch (Exception e) {
+            failed.increment();
+            log.warn("Evento del bus inválido o no disponible: {}", e.getMessage());
+        }
+    }
+
+    /** Reinyecta en el brokerChannel local: lo reparte el SimpleBroker (salas vía {@link RoomBroker}). */
+    private void deliver(JsonNode env) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(env.path("d").asText());
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setHeader(RELAY_HEADER, Boolean.TRUE);
+        if (env.path("snap").asBoolean()) accessor.setHeader(DiagramEventEncoder.SNAPSHOT_HEADER, Boolean.TRUE);
+        accessor.setLeaveMutable(true);
+        brokerChannel.getObject().send(MessageBuilder.createMessage(
+                env.path("p").asText().getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders()));
+    }
+
+    /**
+     * Escritura reenviada: entra por clientInboundChannel como un SEND de la sesión
+     * remota, así pasa por el mismo @MessageMapping que una local.
+     */
+    private void deliverInbound(JsonNode env) {
+        String sessionId = env.path("s").asText();
+        remoteSessions.put(sessionId, new RemoteSession(env.path("o").asText(), System.currentTimeMillis()));
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(env.path("d").asText());
+        accessor.setSessionId(sessionId);
+        accessor.setSessionAttributes(new HashMap<>());
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        accessor.setHeader(HOPS_HEADER, env.path("h").asInt());
+        accessor.setLeaveMutable(true);
+        clientInboundChannel.getObject().send(MessageBuilder.createMessage(
+                env.path("p").asText().getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders()));
+    }
+
+    /* =========================================================
+     *                       MANTENIMIENTO
+     * ========================================================= */
+
+    @Scheduled(fixedDelayString = "${diagram.cluster.cleanup-interval-ms:30000}")
+    public void cleanup() {
+        if (!enabled) return;
+        long staleBefore = System.currentTimeMillis() - REMOTE_SESSION_TTL_MS;
+        remoteSessions.values().removeIf(remote -> remote.lastSeen() < staleBefore);
+        try {
+            int deleted = jdbcTemplate.update(
+                    "delete from cluster_events where created_at < now() - (? * interval '1 millisecond')",
+                    retentionMillis);
+            if (deleted > 0) log.debug("Eventos del bus purgados: {}", deleted);
+        } catch (Exception e) {
+            log.warn("No se pudieron purgar eventos del bus: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        if (!enabled) return stats;
+        stats.put("instanceId", instanceId);
+        stats.put("queued", outbox.size());
+        stats.put("published", published.sum());
+        stats.put("publishedByRef", publishedByRef.sum());
+        stats.put("received", received.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("failed", failed.sum());
+        stats.put("reconnects", reconnects.sum());
+        stats.put("forwarded", forwarded.sum());
+        stats.put("repliesRelayed", repliesRelayed.sum());
+        stats.put("remoteSessions", remoteSessions.size());
+        return stats;
+    }
+
+    /** Sesión de un destino de usuario resuelto ("/queue/acks-user{sesión}"); "" si no lo es. */
+    private static String userSession(String destination) {
+        int i = destination.lastIndexOf("-user");
+        return i < 0 ? "" : destination.substring(i + 5);
+    }
+
+    private String payloadText(Object payload) {
+        if (payload instanceof byte[] bytes) return new String(bytes, StandardCharsets.UTF_8);
+        if (payload instanceof String s) return s;
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package uagrm.software.Parcial1.Services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import uagrm.software.Parcial1.Models.ClassModel;
+import uagrm.software.Parcial1.Models.ClassModel.ClassDef;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Models.ProjectEntity;
+import uagrm.software.Parcial1.Repository.ProjectRepository;
+import uagrm.software.Parcial1.Services.JavaSourceRenderer.GeneratedFile;
+import uagrm.software.Parcial1.Services.JavaSourceRenderer.Index;
+import uagrm.software.Parcial1.Services.ZipStreamWriter.Entry;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+
+/**
+ * Genera un proyecto Spring Boot a partir del diagrama de un proyecto y lo
+ * escribe como ZIP directamente sobre la respuesta.
+ *
+ * - El diagrama se toma de la sala en memoria (o caché/BD) y se convierte en
+ *   un {@link ClassModel}.
+ * - Cada clase (entidad, repositorio, servicio, controlador) se renderiza y
+ *   comprime como una tarea en un {@link ForkJoinPool} propio.
+ * - Las entradas se escriben en orden a medida que terminan, con a lo sumo
+ *   {@code codegen.window} clases renderizadas en vuelo: el ZIP nunca se arma
+ *   completo en memoria.
+ * - Con {@link CodegenCache} solo se renderizan las clases cuyo hash cambió, y
+ *   si la versión del diagrama no cambió se reenvía el ZIP anterior tal cual.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CodeGenerationService {
+
+    private final ProjectRepository projectRepository;
+    private final DiagramRoomService diagramRooms;
+    private final ClassModelParser parser;
+    private final JavaSourceRenderer renderer;
+    private final CodegenCache cache;
+
+    private final LongAdder archives = new LongAdder();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder totalMillis = new LongAdder();
+    private final LongAdder rendered = new LongAdder();
+
+    private ForkJoinPool pool;
+
+    // 0 = un hilo por CPU
+    @Value("${codegen.parallelism:0}")
+    private int parallelism;
+
+    // 0 = 4 clases en vuelo por hilo
+    @Value("${codegen.window:0}")
+    private int window;
+
+    @PostConstruct
+    void start() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger seq = new AtomicInteger();
+        pool = new ForkJoinPool(threads, p -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            t.setName("codegen-" + seq.incrementAndGet());
+            return t;
+        }, null, false);
+        if (window <= 0) window = threads * 4;
+        log.info("Generador de código: {} hilos, ventana de {} clases", threads, window);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (pool != null) pool.shutdownNow();
+    }
+
+    /**
+     * Arma el modelo de clases del proyecto. Devuelve null si el proyecto o su
+     * diagrama no existen.
+     */
+    public ClassModel buildModel(Long projectId) {
+        ProjectEntity project = projectRepository.findById(projectId).orElse(null);
+        if (project == null) return null;
+        DiagramSnapshot diagram = diagramRooms.snapshot(projectId);
+        if (diagram == null) return null;
+        return parser.parse(projectId, diagram.version(), project.getName(), project.getPackageBase(),
+                diagram.nodes(), diagram.edges());
+    }
+
+    /** Clase pendiente de escribir: ya cacheada ({@code files}) o en render ({@code task}). */
+    private record Pending(String key, List<Entry> files, ForkJoinTask<List<Entry>> task) {
+
+        List<Entry> join() {
+            return files != null ? files : task.join();
+        }
+    }
+
+    /** Renderiza el modelo en paralelo y escribe el ZIP en {@code out} (no lo cierra). */
+    public void writeZip(ClassModel model, OutputStream out) throws IOException {
+        writeZip(model, out, done -> { });
+    }
+
+    /** Igual que {@link #writeZip(ClassModel, OutputStream)}, informando cuántas clases ya se escribieron. */
+    public void writeZip(ClassModel model, OutputStream out, IntConsumer progress) throws IOException {
+        long start = System.nanoTime();
+        byte[] cached = cache.getArchive(model);
+        if (cached != null) {
+            out.write(cached);
+            out.flush();
+            progress.accept(model.classes().size());
+            archives.increment();
+            log.info("Código generado - proyecto: {}, versión {} sin cambios: ZIP reutilizado", model.artifactId(),
+                    model.version());
+            return;
+        }
+
+        Index index = Index.of(model);
+        CapturingOutputStream capture = new CapturingOutputStream(out, cache.maxArchiveBytes());
+        ZipStreamWriter zip = new ZipStreamWriter(capture);
+        int written = 0;
+        int renderedNow = 0;
+        int classesDone = 0;
+
+        for (GeneratedFile f : renderer.renderScaffold(model)) {
+            zip.write(ZipStreamWriter.deflate(f));
+            written++;
+        }
+
+        Deque<Pending> inFlight = new ArrayDeque<>(window);
+        Iterator<ClassDef> it = model.classes().iterator();
+        try {
+            while (it.hasNext() || !inFlight.isEmpty()) {
+                while (it.hasNext() && inFlight.size() < window) {
+                    ClassDef c = it.next();
+                    String key = cache.classKey(model, index, c);
+                    List<Entry> hit = cache.getClass(key);
+                    inFlight.add(hit != null
+                            ? new Pending(key, hit, null)
+                            : new Pending(key, null, pool.submit(() -> render(model, index, c))));
+                }
+                Pending next = inFlight.poll();
+                List<Entry> classFiles = next.join();
+                if (next.task() != null) {
+                    cache.putClass(next.key(), classFiles);
+                    renderedNow++;
+                }
+                for (Entry f : classFiles) {
+                    zip.write(f);
+                    written++;
+                }
+                progress.accept(++classesDone);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Cliente desconectado o error de render: no seguir trabajando para nadie
+            inFlight.forEach(p -> {
+                if (p.task() != null) p.task().cancel(true);
+            });
+            if (e instanceof CancellationException) throw new IOException("Generación cancelada", e);
+            throw e;
+        }
+        zip.finish();
+        byte[] archive = capture.captured();
+        if (archive != null) cache.putArchive(model, archive);
+
+        long millis = (System.nanoTime() - start) / 1_000_000;
+        archives.increment();
+        files.add(written);
+        rendered.add(renderedNow);
+        totalMillis.add(millis);
+        log.info("Código generado - proyecto: {}, clases: {} ({} renderizadas), archivos: {}, {} ms",
+                model.artifactId(), model.classes().size(), renderedNow, written, millis);
+    }
+
+    public Map<String, Object> getStats() {
+        long n = archives.sum();
+        return Map.of(
+                "archives", n,
+                "files", files.sum(),
+                "renderedClasses", rendered.sum(),
+                "avgMillis", n == 0 ? 0 : totalMillis.sum() / n,
+                "parallelism", pool.getParallelism(),
+                "window", window,
+                "cache", cache.getStats());
+    }
+
+    private List<Entry> render(ClassModel model, Index index, ClassDef c) {
+        List<GeneratedFile> sources = renderer.renderClass(model, index, c);
+        List<Entry> entries = new ArrayList<>(sources.size());
+        for (GeneratedFile f : sources) entries.add(ZipStreamWriter.deflate(f));
+        return List.copyOf(entries);
+    }
+
+    /** Copia lo escrito para guardar el ZIP completo en caché, salvo que supere {@code limit}. */
+    private static final class CapturingOutputStream extends FilterOutputStream {
+
+        private final long limit;
+        private ByteArrayOutputStream copy = new ByteArrayOutputStream(64 * 1024);
+
+        CapturingOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (copy != null) {
+                copy.write(b);
+                if (copy.size() > limit) copy = null;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            if (copy != null) {
+                copy.write(b, off, len);
+                if (copy.size() > limit) copy = null;
+            }
+        }
+
+        byte[] captured() {
+            return copy == null ? null : copy.toByteArray();
+        }
+    }
+}
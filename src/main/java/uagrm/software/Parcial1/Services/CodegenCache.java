@@ -0,0 +1,187 @@
+package uagrm.software.Parcial1.Services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import uagrm.software.Parcial1.Models.ClassModel;
+import uagrm.software.Parcial1.Models.ClassModel.ClassDef;
+import uagrm.software.Parcial1.Services.JavaSourceRenderer.Index;
+import uagrm.software.Parcial1.Services.ZipStreamWriter.Entry;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caché incremental del generador de código, con dos niveles acotados por bytes (LRU):
+ *
+ * - Por clase: las entradas ZIP ya comprimidas de sus archivos. Clave = SHA-256 de todo lo que influye en su render, es decir la
+ *   clase ya resuelta (nodo + aristas incidentes: campos, relaciones con nombre
+ *   y cardinalidad de los vecinos, superclase, interfaces), si hereda o es
+ *   heredada, y el paquete/artifact del proyecto. Si un vecino cambia de nombre
+ *   o tipo, cambia la relación resuelta y por lo tanto el hash.
+ * - Por archivo completo: el último ZIP de cada proyecto, válido solo para la
+ *   misma {@code DiagramEntity.version} y los mismos datos del proyecto.
+ */
+@Service
+public class CodegenCache {
+
+    private static final long ENTRY_OVERHEAD = 128;
+
+    private final long classMaxBytes;
+    private final long archiveMaxBytes;
+
+    // access-order: el primero es el menos usado recientemente
+    private final LinkedHashMap<String, ClassEntry> classes = new LinkedHashMap<>(256, 0.75f, true);
+    private final LinkedHashMap<Long, Archive> archives = new LinkedHashMap<>(16, 0.75f, true);
+    private long classBytes;
+    private long archiveBytes;
+
+    private final LongAdder classHits = new LongAdder();
+    private final LongAdder classMisses = new LongAdder();
+    private final LongAdder archiveHits = new LongAdder();
+    private final LongAdder archiveMisses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private record ClassEntry(List<Entry> files, long bytes) {
+    }
+
+    /** ZIP completo de un proyecto en una versión; {@code settings} resume nombre/paquete. */
+    private record Archive(int version, String settings, byte[] bytes) {
+    }
+
+    public CodegenCache(@Value("${codegen.cache.class-max-bytes:33554432}") long classMaxBytes,
+                        @Value("${codegen.cache.archive-max-bytes:33554432}") long archiveMaxBytes) {
+        this.classMaxBytes = classMaxBytes;
+        this.archiveMaxBytes = archiveMaxBytes;
+    }
+
+    /* =========================================================
+     *                         POR CLASE
+     * ========================================================= */
+
+    /** Hash de contenido de una clase junto con el contexto que usa el renderer. */
+    public String classKey(ClassModel model, Index index, ClassDef c) {
+        String context = model.artifactId() + '|' + model.basePackage()
+                + '|' + (c.superClass() != null && index.byName().containsKey(c.superClass()))
+                + '|' + index.inheritedBy().contains(c.name()) + '|';
+        return sha256(context + c);
+    }
+
+    public List<Entry> getClass(String key) {
+        synchronized (classes) {
+            ClassEntry e = classes.get(key);
+            (e == null ? classMisses : classHits).increment();
+            return e == null ? null : e.files();
+        }
+    }
+
+    public void putClass(String key, List<Entry> files) {
+        long bytes = ENTRY_OVERHEAD;
+        for (Entry f : files) bytes += f.bytes();
+        synchronized (classes) {
+            ClassEntry prev = classes.put(key, new ClassEntry(files, bytes));
+            if (prev != null) classBytes -= prev.bytes();
+            classBytes += bytes;
+            Iterator<ClassEntry> it = classes.values().iterator();
+            while (classBytes > classMaxBytes && it.hasNext()) {
+                classBytes -= it.next().bytes();
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /* =========================================================
+     *                      ARCHIVO COMPLETO
+     * ========================================================= */
+
+    /** Límite para guardar un ZIP completo (mayores se regeneran siempre). */
+    public long maxArchiveBytes() {
+        return archiveMaxBytes / 4;
+    }
+
+    public byte[] getArchive(ClassModel model) {
+        synchronized (archives) {
+            Archive a = archives.get(model.projectId());
+            if (a == null || model.version() == null || a.version() != model.version()
+                    || !a.settings().equals(settings(model))) {
+                archiveMisses.increment();
+                return null;
+            }
+            archiveHits.increment();
+            return a.bytes();
+        }
+    }
+
+    public void putArchive(ClassModel model, byte[] bytes) {
+        if (model.projectId() == null || model.version() == null || bytes.length > maxArchiveBytes()) return;
+        synchronized (archives) {
+            Archive prev = archives.get(model.projectId());
+            // Nunca reemplazar por una versión más vieja
+            if (prev != null && prev.version() > model.version()) return;
+            if (prev != null) archiveBytes -= prev.bytes().length;
+            archives.put(model.projectId(), new Archive(model.version(), settings(model), bytes));
+            archiveBytes += bytes.length;
+            Iterator<Archive> it = archives.values().iterator();
+            while (archiveBytes > archiveMaxBytes && it.hasNext()) {
+                archiveBytes -= it.next().bytes().length;
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    public void invalidate(Long projectId) {
+        synchronized (archives) {
+            Archive a = archives.remove(projectId);
+            if (a != null) archiveBytes -= a.bytes().length;
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (classes) {
+            stats.put("classEntries", classes.size());
+            stats.put("classBytes", classBytes);
+        }
+        synchronized (archives) {
+            stats.put("archiveEntries", archives.size());
+            stats.put("archiveBytes", archiveBytes);
+        }
+        long h = classHits.sum();
+        long m = classMisses.sum();
+        stats.put("classHits", h);
+        stats.put("classMisses", m);
+        stats.put("classHitRatio", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("archiveHits", archiveHits.sum());
+        stats.put("archiveMisses", archiveMisses.sum());
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private static String settings(ClassModel model) {
+        return Objects.toString(model.projectName()) + '|' + model.artifactId() + '|' + model.basePackage();
+    }
+
+    private static String sha256(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+}
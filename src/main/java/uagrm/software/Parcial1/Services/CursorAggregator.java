@@ -0,0 +1,105 @@
+package uagrm.software.Parcial1.Services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Agrupa los movimientos efímeros (cursor/drag) por sala y los emite en un solo
+ * frame por tick.
+ *
+ * - Por cada (clientId, id de nodo) solo se conserva la última posición.
+ * - Cada {@code diagram.cursor.tick-ms} se envía a /topic/projects/{id}/cursors:
+ *   { "__system":"cursors", projectId, moves:[...], serverTs }
+ * - Así los mensajes salientes quedan acotados a ticks × suscriptores en lugar
+ *   de eventos × suscriptores.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CursorAggregator {
+
+    private final SimpMessagingTemplate messaging;
+
+    // projectId -> (clientId|nodeId -> último payload). Se muta solo dentro de compute()
+    private final ConcurrentMap<Long, Map<String, Map<String, Object>>> pending = new ConcurrentHashMap<>();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    @Value("${diagram.cursor.tick-ms:40}")
+    private long tickMillis;
+
+    @PostConstruct
+    void start() {
+        // Scheduler propio: el de @Scheduled es compartido con la persistencia
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("ws-cursor-tick-");
+        scheduler.initialize();
+        scheduler.scheduleAtFixedRate(this::flush, Duration.ofMillis(tickMillis));
+        log.info("Coalescencia de cursores activa: 1 frame por sala cada {} ms", tickMillis);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (scheduler != null) scheduler.shutdown();
+    }
+
+    /** Registra un movimiento; reemplaza al anterior del mismo cliente y nodo. */
+    public void offer(Long projectId, Map<String, Object> payload) {
+        String key = String.valueOf(payload.get("clientId")) + '|' + payload.get("id");
+        pending.compute(projectId, (k, moves) -> {
+            if (moves == null) moves = new LinkedHashMap<>();
+            moves.put(key, payload);
+            return moves;
+        });
+        received.increment();
+    }
+
+    /** Emite un frame por sala con los últimos movimientos pendientes. */
+    void flush() {
+        for (Long projectId : pending.keySet()) {
+            Map<String, Map<String, Object>> moves = pending.remove(projectId);
+            if (moves == null || moves.isEmpty()) continue;
+            try {
+                List<Map<String, Object>> batch = new ArrayList<>(moves.values());
+                Map<String, Object> evt = new HashMap<>();
+                evt.put("__system", "cursors");
+                evt.put("projectId", projectId);
+                evt.put("moves", batch);
+                evt.put("serverTs", System.currentTimeMillis());
+                messaging.convertAndSend("/topic/projects/" + projectId + "/cursors", evt);
+                framesSent.increment();
+            } catch (Exception e) {
+                log.error("Error emitiendo cursores - proyecto: {}", projectId, e);
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("tickMillis", tickMillis);
+        stats.put("eventsReceived", received.sum());
+        stats.put("framesSent", framesSent.sum());
+        stats.put("pendingRooms", pending.size());
+        return stats;
+    }
+}
@@ -0,0 +1,220 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MimeTypeUtils;
+
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Codifica los eventos con el diagrama completo (update en modo snapshot y
+ * sync) directamente a bytes UTF-8, sin pasar por un {@code Map} que Jackson
+ * vuelva a serializar.
+ *
+ * - nodes/edges/viewport ya son JSON. Su codificación se guarda por
+ *   (proyecto, versión) en una caché LRU acotada por bytes: la misma versión
+ *   enviada a varios destinos (broadcast + syncs) se copia, no se recodifica.
+ * - {@code diagram.broadcast.raw-json=false} (por defecto): se envían como
+ *   strings JSON, igual que antes; el escapado se hace una vez por versión.
+ * - {@code diagram.broadcast.raw-json=true}: se incrustan tal cual como
+ *   arreglos/objetos JSON ("nodes":[...]), sin escapado y con payloads más
+ *   chicos. El cliente debe aceptar ambos formatos. Antes de incrustarlo, cada
+ *   valor se valida completo una vez por (proyecto, versión), al codificarlo
+ *   para la caché: nodes/edges vienen de BD (/sync) y no solo del motor de
+ *   merge. Un valor inválido se envía como string.
+ */
+@Slf4j
+@Service
+public class DiagramEventEncoder {
+
+    /**
+     * Header interno (no viaja en el frame STOMP) que marca un evento con el
+     * diagrama completo: en colas de salida reemplaza a los anteriores del mismo destino.
+     */
+    public static final String SNAPSHOT_HEADER = "diagramSnapshot";
+
+    private static final long ENTRY_OVERHEAD = 256;
+
+    private final ObjectMapper objectMapper;
+    private final boolean rawJson;
+    private final long maxBytes;
+
+    // projectId -> codificación de la última versión enviada (access-order)
+    private final LinkedHashMap<Long, Encoded> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+
+    private final LongAdder events = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidRaw = new LongAdder();
+
+    /** Valor JSON ya codificado; {@code raw} indica si se incrusta sin comillas. */
+    private record Field(SerializedString value, boolean raw) {
+    }
+
+    private record Encoded(int version, Field nodes, Field edges, Field viewport, long bytes) {
+    }
+
+    public DiagramEventEncoder(ObjectMapper objectMapper,
+                               @Value("${diagram.broadcast.raw-json:false}") boolean rawJson,
+                               @Value("${diagram.broadcast.cache-max-bytes:16777216}") long maxBytes) {
+        this.objectMapper = objectMapper;
+        this.rawJson = rawJson;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Mensaje STOMP listo para enviar con {@code meta} (en orden) seguido de
+     * name, nodes, edges, viewport y version del snapshot.
+     * {@code sessionId} (opcional) dirige el mensaje a una sesión en destinos /user.
+     */
+    public Message<byte[]> snapshotEvent(Map<String, Object> meta, DiagramSnapshot d, String sessionId) {
+        Encoded enc = encoded(d);
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(Integer.MAX_VALUE - 8, enc.bytes() + 512));
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out)) {
+            gen.writeStartObject();
+            for (Map.Entry<String, Object> e : meta.entrySet()) {
+                gen.writeFieldName(e.getKey());
+                objectMapper.writeValue(gen, e.getValue());
+            }
+            gen.writeStringField("name", d.name());
+            write(gen, "nodes", enc.nodes());
+            write(gen, "edges", enc.edges());
+            write(gen, "viewport", enc.viewport());
+            if (d.version() == null) gen.writeNullField("version");
+            else gen.writeNumberField("version", d.version());
+            gen.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        byte[] payload = out.toByteArray();
+        events.increment();
+        bytesOut.add(payload.length);
+
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setContentType(MimeTypeUtils.APPLICATION_JSON);
+        if (sessionId != null) accessor.setSessionId(sessionId);
+        accessor.setHeader(SNAPSHOT_HEADER, Boolean.TRUE);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(payload, accessor.getMessageHeaders());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", currentBytes);
+        }
+        long n = events.sum();
+        stats.put("rawJson", rawJson);
+        stats.put("events", n);
+        stats.put("avgEventBytes", n == 0 ? 0 : bytesOut.sum() / n);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("invalidRaw", invalidRaw.sum());
+        return stats;
+    }
+
+    /* =========================================================
+     *                        CACHÉ
+     * ========================================================= */
+
+    private Encoded encoded(DiagramSnapshot d) {
+        Integer version = d.version();
+        if (version != null && d.id() != null) {
+            synchronized (entries) {
+                Encoded e = entries.get(d.id());
+                if (e != null && e.version() == version) {
+                    hits.increment();
+                    return e;
+                }
+            }
+        }
+        misses.increment();
+        Field nodes = field(d.nodes(), JsonToken.START_ARRAY);
+        Field edges = field(d.edges(), JsonToken.START_ARRAY);
+        Field viewport = field(d.viewport(), null);
+        // String (2 bytes por char) + sus bytes codificados
+        long bytes = ENTRY_OVERHEAD + 3L * (length(d.nodes()) + length(d.edges()) + length(d.viewport()));
+        Encoded fresh = new Encoded(version == null ? -1 : version, nodes, edges, viewport, bytes);
+        if (version != null && d.id() != null && bytes <= maxBytes / 4) put(d.id(), fresh);
+        return fresh;
+    }
+
+    private void put(Long projectId, Encoded e) {
+        synchronized (entries) {
+            Encoded prev = entries.get(projectId);
+            // Nunca reemplazar por una versión más vieja
+            if (prev != null && prev.version() > e.version()) return;
+            if (prev != null) currentBytes -= prev.bytes();
+            entries.put(projectId, e);
+            currentBytes += e.bytes();
+            Iterator<Encoded> it = entries.values().iterator();
+            while (currentBytes > maxBytes && it.hasNext()) {
+                currentBytes -= it.next().bytes();
+                it.remove();
+            }
+        }
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    /**
+     * Solo se llama al codificar una versión que no está en caché, así que la
+     * validación completa se paga una vez por versión y no por destino.
+     * nodes/edges deben ser un arreglo ({@code START_ARRAY}); el viewport,
+     * cualquier valor ({@code expected} null).
+     */
+    private Field field(String json, JsonToken expected) {
+        if (json == null) return null;
+        boolean raw = rawJson && isValidJson(json, expected);
+        if (rawJson && !raw) invalidRaw.increment();
+        return new Field(new SerializedString(json), raw);
+    }
+
+    /** SerializedString guarda sus bytes (escapados o no) tras el primer uso. */
+    private static void write(JsonGenerator gen, String name, Field f) throws IOException {
+        gen.writeFieldName(name);
+        if (f == null) gen.writeNull();
+        else if (f.raw()) gen.writeRawValue(f.value());
+        else gen.writeString(f.value());
+    }
+
+    /** Un único valor JSON completo, recorrido sin construir árbol. */
+    private boolean isValidJson(String json, JsonToken expected) {
+        try (JsonParser p = objectMapper.getFactory().createParser(json)) {
+            JsonToken first = p.nextToken();
+            if (first == null || expected != null && first != expected) return false;
+            p.skipChildren();
+            return p.nextToken() == null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static long length(String s) {
+        return s == null ? 0 : s.length();
+    }
+}
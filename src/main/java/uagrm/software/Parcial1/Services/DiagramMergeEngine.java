@@ -0,0 +1,228 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import uagrm.software.Parcial1.Models.DiagramDocument;
+import uagrm.software.Parcial1.Models.DiagramDocument.Kind;
+import uagrm.software.Parcial1.Services.DiagramPatchService.PatchResult;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Motor de merge del servidor a nivel de nodo/arista y de campo.
+ *
+ * El servidor es el secuenciador: cada cambio recibe una versión y todos los
+ * clientes aplican los deltas en ese orden, por lo que convergen. Para decidir
+ * qué hacer con ediciones concurrentes se usa un registro LWW por campo:
+ *
+ * - Patch (ops): se aplica en orden. Operaciones sobre elementos que otro
+ *   cliente eliminó se rechazan; el resto entra siempre.
+ * - Snapshot completo con {@code baseVersion}: se calcula el diff contra el
+ *   estado actual. Un campo que otro cliente cambió después de baseVersion se
+ *   conserva (gana el del servidor). Un elemento ausente en el cliente se elimina
+ *   solo si nadie lo tocó después de baseVersion. Un elemento nuevo se agrega,
+ *   salvo que otro cliente lo haya eliminado después de baseVersion.
+ *
+ * Así, dos clientes que editan clases distintas sobre la misma base ven sus
+ * cambios aplicados sin conflicto ni /sync.
+ */
+@Service
+@RequiredArgsConstructor
+public class DiagramMergeEngine {
+
+    private final DiagramPatchService patches;
+    private final ObjectMapper objectMapper;
+
+    /** Resultado de un merge: ops efectivas y cuántos campos/elementos del cliente se descartaron. */
+    public record MergeResult(PatchResult patch, int keptFromServer) {
+    }
+
+    /* =========================================================
+     *                        OPERACIONES
+     * ========================================================= */
+
+    /** Aplica un patch y marca los relojes con {@code newVersion}. */
+    public PatchResult applyPatch(DiagramDocument doc, ArrayNode ops, int newVersion) {
+        return applyPatch(doc, ops, newVersion, null);
+    }
+
+    /**
+     * Igual, rechazando las operaciones que excedan {@code bytesLeft}
+     * (ver {@link DiagramPatchService#apply(DiagramDocument, ArrayNode, long[])}).
+     */
+    public PatchResult applyPatch(DiagramDocument doc, ArrayNode ops, int newVersion, long[] bytesLeft) {
+        PatchResult result = patches.apply(doc, ops, bytesLeft);
+        stamp(doc, result.applied(), newVersion);
+        return result;
+    }
+
+    /**
+     * Fusiona un snapshot completo del cliente. {@code clientNodes}/{@code clientEdges}
+     * pueden ser null si el cliente no los envió. Si {@code baseVersion} es null el
+     * cliente gana en todo (último escritor).
+     */
+    public MergeResult mergeSnapshot(DiagramDocument doc, ArrayNode clientNodes, ArrayNode clientEdges,
+                                     Integer baseVersion, int currentVersion, int newVersion) {
+        int base = baseVersion == null ? currentVersion : baseVersion;
+        ArrayNode ops = objectMapper.createArrayNode();
+        int kept = 0;
+        if (clientNodes != null) kept += diff(doc, Kind.NODE, clientNodes, base, ops);
+        if (clientEdges != null) kept += diff(doc, Kind.EDGE, clientEdges, base, ops);
+
+        PatchResult result = applyPatch(doc, ops, newVersion);
+        return new MergeResult(result, kept);
+    }
+
+    /**
+     * Entrada del log de operaciones de una versión: las ops efectivas más, si
+     * cambiaron, un { "op":"meta", name?, viewport? }. Se devuelve serializada.
+     */
+    public String logEntry(ArrayNode applied, String name, String viewport) {
+        ArrayNode entry = objectMapper.createArrayNode();
+        if (applied != null) entry.addAll(applied);
+        if (name != null || viewport != null) {
+            ObjectNode meta = entry.addObject().put("op", "meta");
+            if (name != null)     meta.put("name", name);
+            if (viewport != null) meta.put("viewport", viewport);
+        }
+        return entry.toString();
+    }
+
+    /**
+     * Reaplica una entrada del log sobre un documento. Las ops "meta" actualizan
+     * {@code meta[0]} (name) y {@code meta[1]} (viewport); se devuelve el mismo arreglo.
+     */
+    public String[] replay(DiagramDocument doc, String logEntryJson, String[] meta) {
+        ArrayNode entry = readArray(logEntryJson);
+        ArrayNode ops = objectMapper.createArrayNode();
+        for (JsonNode op : entry) {
+            if ("meta".equals(op.path("op").asText())) {
+                if (op.has("name"))     meta[0] = op.get("name").asText();
+                if (op.has("viewport")) meta[1] = op.get("viewport").asText();
+            } else {
+                ops.add(op);
+            }
+        }
+        patches.replay(doc, ops);
+        return meta;
+    }
+
+    /* =========================================================
+     *                     PARSEO (delegado)
+     * ========================================================= */
+
+    public DiagramDocument parse(String nodesJson, String edgesJson) {
+        return patches.parse(nodesJson, edgesJson);
+    }
+
+    public String writeNodes(DiagramDocument doc) {
+        return patches.writeNodes(doc);
+    }
+
+    public String writeEdges(DiagramDocument doc) {
+        return patches.writeEdges(doc);
+    }
+
+    public ArrayNode readArray(String json) {
+        if (json == null) return null;
+        try {
+            JsonNode node = objectMapper.readTree(json);
+            if (node == null || !node.isArray()) throw new IllegalArgumentException("Se esperaba un arreglo JSON");
+            return (ArrayNode) node;
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("JSON inválido: " + e.getOriginalMessage());
+        }
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    /** Genera en {@code ops} las operaciones para llevar {@code kind} hacia el cliente. Devuelve lo descartado. */
+    private int diff(DiagramDocument doc, Kind kind, ArrayNode client, int base, ArrayNode ops) {
+        int kept = 0;
+        Set<String> seen = new HashSet<>();
+
+        for (JsonNode el : client) {
+            if (!el.isObject()) continue;
+            String id = el.path("id").asText(null);
+            if (id == null || !seen.add(id)) continue;
+
+            ObjectNode current = doc.get(kind, id);
+            if (current == null) {
+                if (doc.tombstone(kind, id) > base) {
+                    kept++; // otro cliente lo eliminó después de la base
+                } else {
+                    ops.add(op("add", kind, id).set("element", el));
+                }
+                continue;
+            }
+
+            ObjectNode fields = objectMapper.createObjectNode();
+            for (Map.Entry<String, JsonNode> f : el.properties()) {
+                if ("id".equals(f.getKey()) || f.getValue().equals(current.get(f.getKey()))) continue;
+                if (doc.fieldClock(kind, id, f.getKey()) > base) {
+                    kept++;
+                } else {
+                    fields.set(f.getKey(), f.getValue());
+                }
+            }
+            List<String> missing = new ArrayList<>();
+            current.fieldNames().forEachRemaining(name -> {
+                if (!el.has(name)) missing.add(name);
+            });
+            for (String name : missing) {
+                if (doc.fieldClock(kind, id, name) > base) {
+                    kept++;
+                } else {
+                    fields.putNull(name);
+                }
+            }
+            if (!fields.isEmpty()) {
+                ops.add(op("update", kind, id).set("fields", fields));
+            }
+        }
+
+        for (String id : new ArrayList<>(doc.elements(kind).keySet())) {
+            if (seen.contains(id) || id.startsWith("__idx_")) continue;
+            if (doc.elementClock(kind, id) > base) {
+                kept++; // agregado o editado por otro cliente después de la base
+            } else {
+                ops.add(op("remove", kind, id));
+            }
+        }
+        return kept;
+    }
+
+    private void stamp(DiagramDocument doc, ArrayNode applied, int version) {
+        for (JsonNode op : applied) {
+            Kind kind = Kind.parse(op.path("kind").asText());
+            String id = op.path("id").asText();
+            switch (op.path("op").asText()) {
+                case "add" -> doc.stampElement(kind, id, version);
+                case "move" -> doc.stampField(kind, id, "position", version);
+                case "update" -> op.path("fields").fieldNames()
+                        .forEachRemaining(f -> doc.stampField(kind, id, f, version));
+                case "remove" -> doc.markRemoved(kind, id, version);
+                default -> { }
+            }
+        }
+    }
+
+    private ObjectNode op(String type, Kind kind, String id) {
+        return objectMapper.createObjectNode()
+                .put("op", type)
+                .put("kind", kind == Kind.NODE ? "node" : "edge")
+                .put("id", id);
+    }
+}
@@ -0,0 +1,297 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import uagrm.software.Parcial1.Models.DiagramDocument;
+import uagrm.software.Parcial1.Models.DiagramDocument.Kind;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aplica operaciones a nivel de nodo/arista sobre un {@link DiagramDocument}.
+ *
+ * Formato de cada operación:
+ * <pre>
+ *   { "op": "add",    "kind": "node", "element": { "id": "n1", ... } }
+ *   { "op": "move",   "kind": "node", "id": "n1", "position": { "x": 10, "y": 20 } }
+ *   { "op": "update", "kind": "edge", "id": "e1", "fields": { "label": "1..*" } }
+ *   { "op": "remove", "kind": "node", "id": "n1" }
+ * </pre>
+ * "kind" es opcional y por defecto es "node". Un "add" con un id que ya existe
+ * se rechaza (para cambiarlo se usa "update"). En "update" un campo con valor
+ * null se elimina del elemento. Al eliminar un nodo también se eliminan las
+ * aristas que lo referencian (y se reportan como operaciones aplicadas).
+ *
+ * Con un presupuesto de bytes ({@link #apply(DiagramDocument, ArrayNode, long[])})
+ * se rechaza cada operación que haría crecer los nodos o las aristas más allá de
+ * {@link #MAX_JSON_LENGTH}; el elemento queda como estaba.
+ */
+@Service
+@RequiredArgsConstructor
+public class DiagramPatchService {
+
+    public static final int MAX_OPS_PER_PATCH = 1000;
+
+    /** Tamaño máximo del JSON de nodos y del de aristas, en bytes UTF-8 ({@link #jsonBytes}). */
+    public static final int MAX_JSON_LENGTH = 5_000_000;
+
+    private static final String TOO_LARGE = "el diagrama superaría el tamaño máximo";
+
+    private final ObjectMapper objectMapper;
+
+    /** Resultado de aplicar un patch: operaciones efectivas y rechazadas. */
+    public record PatchResult(ArrayNode applied, List<Map<String, Object>> rejected) {
+        public boolean isEmpty() {
+            return applied.isEmpty();
+        }
+    }
+
+    /* =========================================================
+     *                    PARSEO / SERIALIZACIÓN
+     * ========================================================= */
+
+    public DiagramDocument parse(String nodesJson, String edgesJson) {
+        DiagramDocument doc = new DiagramDocument();
+        readInto(doc, Kind.NODE, nodesJson);
+        readInto(doc, Kind.EDGE, edgesJson);
+        return doc;
+    }
+
+    public String writeNodes(DiagramDocument doc) {
+        return writeArray(doc.nodes());
+    }
+
+    public String writeEdges(DiagramDocument doc) {
+        return writeArray(doc.edges());
+    }
+
+    public ArrayNode toOps(Object raw) {
+        JsonNode node = objectMapper.valueToTree(raw);
+        if (node == null || !node.isArray()) {
+            throw new IllegalArgumentException("ops debe ser un arreglo");
+        }
+        if (node.size() > MAX_OPS_PER_PATCH) {
+            throw new IllegalArgumentException("Demasiadas operaciones (max " + MAX_OPS_PER_PATCH + ")");
+        }
+        return (ArrayNode) node;
+    }
+
+    /* =========================================================
+     *                        APLICACIÓN
+     * ========================================================= */
+
+    public PatchResult apply(DiagramDocument doc, ArrayNode ops) {
+        return apply(doc, ops, null);
+    }
+
+    /**
+     * Aplica las operaciones sin exceder {@code bytesLeft}: bytes que aún pueden crecer
+     * los nodos ({@code [0]}) y las aristas ({@code [1]}), indexado por {@link Kind#ordinal()}.
+     * Se descuenta lo que crece cada operación aplicada. null = sin límite.
+     */
+    public PatchResult apply(DiagramDocument doc, ArrayNode ops, long[] bytesLeft) {
+        return apply(doc, ops, bytesLeft, false);
+    }
+
+    /**
+     * Reaplica ops ya aceptadas (log de operaciones): un "add" sobre un id existente
+     * reemplaza el elemento en vez de rechazarse, para reproducir el log tal cual se escribió.
+     */
+    public PatchResult replay(DiagramDocument doc, ArrayNode ops) {
+        return apply(doc, ops, null, true);
+    }
+
+    private PatchResult apply(DiagramDocument doc, ArrayNode ops, long[] bytesLeft, boolean replaceOnAdd) {
+        ArrayNode applied = objectMapper.createArrayNode();
+        List<Map<String, Object>> rejected = new ArrayList<>();
+
+        for (int i = 0; i < ops.size(); i++) {
+            JsonNode op = ops.get(i);
+            String error = applyOne(doc, op, applied, bytesLeft, replaceOnAdd);
+            if (error != null) {
+                rejected.add(Map.of("index", i, "reason", error));
+            }
+        }
+        return new PatchResult(applied, rejected);
+    }
+
+    /** Aplica una operación. Devuelve null si se aplicó o el motivo del rechazo. */
+    private String applyOne(DiagramDocument doc, JsonNode op, ArrayNode applied, long[] bytesLeft,
+                            boolean replaceOnAdd) {
+        if (op == null || !op.isObject()) return "operación inválida";
+
+        String type = op.path("op").asText(null);
+        Kind kind = op.hasNonNull("kind") ? Kind.parse(op.get("kind").asText()) : Kind.NODE;
+        if (type == null) return "op es requerido";
+        if (kind == null) return "kind inválido";
+
+        switch (type) {
+            case "add": {
+                JsonNode el = op.get("element");
+                if (el == null || !el.isObject()) return "element es requerido";
+                String id = el.path("id").asText(null);
+                if (id == null || id.isEmpty()) return "element.id es requerido";
+                ObjectNode prev = doc.get(kind, id);
+                // Otro cliente ya creó ese id: pisarlo en silencio perdería su elemento
+                if (prev != null && !replaceOnAdd) return "el elemento ya existe: " + id;
+                ObjectNode copy = ((ObjectNode) el).deepCopy();
+                // Un elemento nuevo suma también su separador ","
+                if (!fits(bytesLeft, kind, prev == null ? length(copy) + 1 : length(copy) - length(prev))) {
+                    return TOO_LARGE;
+                }
+                doc.put(kind, id, copy);
+                applied.add(opNode("add", kind, id).set("element", copy));
+                return null;
+            }
+            case "move": {
+                String id = op.path("id").asText(null);
+                ObjectNode el = id == null ? null : doc.get(kind, id);
+                if (el == null) return "elemento no encontrado: " + id;
+                JsonNode pos = op.has("position") ? op.get("position") : op;
+                if (!pos.path("x").isNumber() || !pos.path("y").isNumber()) return "position inválida";
+                ObjectNode position = objectMapper.createObjectNode()
+                        .put("x", pos.get("x").asDouble())
+                        .put("y", pos.get("y").asDouble());
+                if (bytesLeft != null) {
+                    ObjectNode moved = el.deepCopy();
+                    moved.set("position", position);
+                    if (!fits(bytesLeft, kind, length(moved) - length(el))) return TOO_LARGE;
+                }
+                el.set("position", position);
+                applied.add(opNode("move", kind, id).set("position", position));
+                return null;
+            }
+            case "update": {
+                String id = op.path("id").asText(null);
+                ObjectNode el = id == null ? null : doc.get(kind, id);
+                if (el == null) return "elemento no encontrado: " + id;
+                JsonNode fields = op.get("fields");
+                if (fields == null || !fields.isObject()) return "fields es requerido";
+                // Con presupuesto se edita una copia y solo se publica si entra
+                ObjectNode original = el;
+                if (bytesLeft != null) el = el.deepCopy();
+                ObjectNode effective = objectMapper.createObjectNode();
+                for (Map.Entry<String, JsonNode> f : fields.properties()) {
+                    if ("id".equals(f.getKey())) continue; // el id no se puede cambiar
+                    if (f.getValue() == null || f.getValue().isNull()) {
+                        el.remove(f.getKey());
+                    } else {
+                        el.set(f.getKey(), f.getValue().deepCopy());
+                    }
+                    effective.set(f.getKey(), f.getValue());
+                }
+                if (el != original) {
+                    if (!fits(bytesLeft, kind, length(el) - length(original))) return TOO_LARGE;
+                    doc.put(kind, id, el);
+                }
+                applied.add(opNode("update", kind, id).set("fields", effective));
+                return null;
+            }
+            case "remove": {
+                String id = op.path("id").asText(null);
+                ObjectNode removed = id == null ? null : doc.remove(kind, id);
+                if (removed == null) return "elemento no encontrado: " + id;
+                fits(bytesLeft, kind, -(length(removed) + 1));
+                applied.add(opNode("remove", kind, id));
+                if (kind == Kind.NODE) {
+                    removeIncidentEdges(doc, id, applied);
+                }
+                return null;
+            }
+            default:
+                return "op desconocida: " + type;
+        }
+    }
+
+    private void removeIncidentEdges(DiagramDocument doc, String nodeId, ArrayNode applied) {
+        Iterator<Map.Entry<String, ObjectNode>> it = doc.elements(Kind.EDGE).entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, ObjectNode> e = it.next();
+            ObjectNode edge = e.getValue();
+            if (nodeId.equals(edge.path("source").asText(null)) || nodeId.equals(edge.path("target").asText(null))) {
+                it.remove();
+                applied.add(opNode("remove", Kind.EDGE, e.getKey()));
+            }
+        }
+    }
+
+    /** Descuenta {@code growth} del presupuesto de {@code kind}; false (sin descontar) si no alcanza. */
+    private static boolean fits(long[] bytesLeft, Kind kind, long growth) {
+        if (bytesLeft == null) return true;
+        if (growth > bytesLeft[kind.ordinal()]) return false;
+        bytesLeft[kind.ordinal()] -= growth;
+        return true;
+    }
+
+    private static long length(ObjectNode element) {
+        return jsonBytes(element.toString());
+    }
+
+    /**
+     * Tamaño en UTF-8 de un JSON, sin codificarlo. Es la medida de {@link #MAX_JSON_LENGTH}
+     * tanto para los snapshots como para el presupuesto de los patches ({@link DiagramStats}).
+     */
+    public static long jsonBytes(String s) {
+        long n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) n++;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c)) {
+                n += 4;
+                i++;
+            } else n += 3;
+        }
+        return n;
+    }
+
+    private ObjectNode opNode(String type, Kind kind, String id) {
+        return objectMapper.createObjectNode()
+                .put("op", type)
+                .put("kind", kind == Kind.NODE ? "node" : "edge")
+                .put("id", id);
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private void readInto(DiagramDocument doc, Kind kind, String json) {
+        if (json == null || json.isBlank()) return;
+        JsonNode arr;
+        try {
+            arr = objectMapper.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("JSON de " + kind + " corrupto en el diagrama", e);
+        }
+        if (arr == null || !arr.isArray()) return;
+
+        int idx = 0;
+        for (JsonNode el : arr) {
+            if (!el.isObject()) continue;
+            String id = el.path("id").asText(null);
+            // Elementos sin id se conservan con una clave sintética (no direccionables por ops)
+            doc.put(kind, id != null ? id : "__idx_" + idx, (ObjectNode) el);
+            idx++;
+        }
+    }
+
+    private String writeArray(Iterable<ObjectNode> elements) {
+        ArrayNode arr = objectMapper.createArrayNode();
+        for (ObjectNode el : elements) arr.add(el);
+        try {
+            return objectMapper.writeValueAsString(arr);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("No se pudo serializar el diagrama", e);
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import uagrm.software.Parcial1.Models.DiagramDocument;
+import uagrm.software.Parcial1.Models.DiagramDocument.Kind;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Services.DiagramMergeEngine.MergeResult;
+import uagrm.software.Parcial1.Services.DiagramPatchService.PatchResult;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Estado autoritativo en memoria de un diagrama con sala activa.
+ *
+ * - Mantiene el JSON serializado y/o el documento parseado; cada representación
+ *   se reconstruye de forma perezosa solo cuando hace falta.
+ * - {@code version} avanza con cada cambio; {@code persistedVersion} es la última
+ *   versión escrita en BD. La sala está "sucia" mientras sean distintas.
+ * - Las ediciones pasan por {@link DiagramMergeEngine}, que mantiene relojes por
+ *   campo en el documento para resolver ediciones concurrentes.
+ * - Cada versión deja sus operaciones efectivas en un log pendiente, que el
+ *   almacenamiento puede persistir en lugar del diagrama completo.
+ * - Todos los métodos de estado son synchronized; la escritura a BD se hace
+ *   fuera del monitor usando {@link #captureDirty}.
+ */
+public class DiagramRoom {
+
+    /**
+     * Datos a persistir capturados de forma consistente. {@code nodes}/{@code edges} son
+     * null cuando solo se captura el log; {@code ops} es null si el log está incompleto.
+     * {@code stats} son los conteos del diagrama en {@code version}.
+     */
+    public record FlushBatch(Long projectId, String name, String nodes, String edges, String viewport,
+                             int version, int expectedVersion, String lastClientId, List<VersionedOps> ops,
+                             List<ElementChange> elements, DiagramStats.Summary stats) {
+
+        public boolean hasFullState() {
+            return nodes != null && edges != null;
+        }
+    }
+
+    /**
+     * Contenido actual de un elemento cambiado ({@code json} null si se eliminó).
+     * En una captura completa la lista trae todos los elementos en orden.
+     */
+    public record ElementChange(Kind kind, String id, String json) {
+    }
+
+    /** Operaciones efectivas de una versión, ya serializadas como arreglo JSON. */
+    public record VersionedOps(int version, String json, String clientId) {
+    }
+
+    /** Resultado de fusionar un snapshot completo: versión y elementos/campos del servidor conservados. */
+    public record SnapshotOutcome(int version, int keptFromServer) {
+    }
+
+    /** Resultado de un patch aplicado dentro de la sala. */
+    public record PatchOutcome(PatchResult result, int version, String name, String viewport) {
+    }
+
+    private final Long projectId;
+    private final LocalDateTime createdAt;
+    /**
+     * Serializa flushes concurrentes (tick programado, salida de la sala, shutdown).
+     * El flush por lotes usa tryLock: una sala que ya se está escribiendo queda para el próximo tick.
+     */
+    final ReentrantLock flushLock = new ReentrantLock();
+
+    private String name;
+    private String viewport;
+    private String nodesJson;      // null => desactualizado respecto a doc
+    private String edgesJson;
+    private DiagramDocument doc;   // null => aún no parseado
+    private DiagramStats stats;    // se crea junto con doc
+    private int version;
+    private int persistedVersion;
+    private final int loadedVersion; // versión leída de BD: base de los relojes del documento
+    private LocalDateTime updatedAt;
+    private String lastClientId;
+    private long lastAccess = System.currentTimeMillis();
+    private boolean closed;
+
+    // Log de operaciones aún no persistidas (versiones persistedVersion+1 .. version)
+    private final List<VersionedOps> pendingOps = new ArrayList<>();
+    private long pendingBytes;
+
+    // Elementos cambiados desde persistedVersion: id -> versión del último cambio
+    private final Map<String, Integer> dirtyNodes = new HashMap<>();
+    private final Map<String, Integer> dirtyEdges = new HashMap<>();
+
+    private DiagramRoom(Long projectId, LocalDateTime createdAt, int loadedVersion) {
+        this.projectId = projectId;
+        this.createdAt = createdAt;
+        this.loadedVersion = loadedVersion;
+    }
+
+    public static DiagramRoom from(DiagramSnapshot s) {
+        DiagramRoom r = new DiagramRoom(s.id(), s.createdAt(), s.version() == null ? 0 : s.version());
+        r.name = s.name();
+        r.viewport = s.viewport();
+        r.nodesJson = s.nodes();
+        r.edgesJson = s.edges();
+        r.version = r.loadedVersion;
+        r.persistedVersion = r.version;
+        r.updatedAt = s.updatedAt();
+        return r;
+    }
+
+    public Long getProjectId() {
+        return projectId;
+    }
+
+    public synchronized int getVersion() {
+        return version;
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    public synchronized int getPersistedVersion() {
+        return persistedVersion;
+    }
+
+    public synchronized boolean isDirty() {
+        return version != persistedVersion;
+    }
+
+    public synchronized long getLastAccess() {
+        return lastAccess;
+    }
+
+    /* =========================================================
+     *                        ESCRITURAS
+     * ========================================================= */
+
+    /**
+     * Snapshot completo del cliente (modo legacy): se fusiona contra el estado actual
+     * con {@link DiagramMergeEngine#mergeSnapshot}. Devuelve la versión resultante
+     * (igual a la actual si no hubo cambios efectivos).
+     */
+    public synchronized SnapshotOutcome applySnapshot(String clientId, Integer baseVersion, String name, String nodes,
+                                                      String edges, String viewport, DiagramMergeEngine engine) {
+        ensureOpen();
+        MergeResult merge = null;
+        if (nodes != null || edges != null) {
+            merge = engine.mergeSnapshot(document(engine), engine.readArray(nodes), engine.readArray(edges),
+                    baseVersion, version, version + 1);
+            if (!merge.patch().isEmpty()) {
+                this.nodesJson = null;
+                this.edgesJson = null;
+            }
+        }
+        ArrayNode applied = merge == null ? null : merge.patch().applied();
+        String newName = (name != null && !name.equals(this.name)) ? name : null;
+        String newViewport = (viewport != null && !viewport.equals(this.viewport)) ? viewport : null;
+        boolean changed = (applied != null && !applied.isEmpty()) || newName != null || newViewport != null;
+        if (newName != null)     this.name = newName;
+        if (newViewport != null) this.viewport = newViewport;
+
+        int kept = merge == null ? 0 : merge.keptFromServer();
+        int v = changed ? bump(clientId, applied, engine.logEntry(applied, newName, newViewport)) : version;
+        return new SnapshotOutcome(v, kept);
+    }
+
+    /**
+     * Aplica operaciones por elemento sobre el documento en memoria. Las que harían pasar
+     * los nodos o las aristas de {@link DiagramPatchService#MAX_JSON_LENGTH} se rechazan.
+     */
+    public synchronized PatchOutcome applyPatch(String clientId, ArrayNode ops, String name, String viewport,
+                                                DiagramMergeEngine engine) {
+        ensureOpen();
+        DiagramDocument d = document(engine);
+        long[] bytesLeft = new long[Kind.values().length];
+        for (Kind kind : Kind.values()) {
+            bytesLeft[kind.ordinal()] = DiagramPatchService.MAX_JSON_LENGTH - stats.bytes(kind);
+        }
+        PatchResult result = engine.applyPatch(d, ops, version + 1, bytesLeft);
+        if (result.isEmpty() && name == null && viewport == null) {
+            return new PatchOutcome(result, version, this.name, this.viewport);
+        }
+        if (!result.isEmpty()) {
+            this.nodesJson = null;
+            this.edgesJson = null;
+        }
+        if (name != null)     this.name = name;
+        if (viewport != null) this.viewport = viewport;
+        int v = bump(clientId, result.applied(), engine.logEntry(result.applied(), name, viewport));
+        return new PatchOutcome(result, v, this.name, this.viewport);
+    }
+
+    private int bump(String clientId, ArrayNode applied, String logEntry) {
+        version++;
+        pendingOps.add(new VersionedOps(version, logEntry, clientId));
+        pendingBytes += logEntry.length();
+        if (applied != null) {
+            for (JsonNode op : applied) {
+                Kind kind = Kind.parse(op.path("kind").asText());
+                if (kind == null) continue;
+                String id = op.path("id").asText();
+                dirty(kind).put(id, version);
+                stats.update(kind, id, doc.get(kind, id));
+            }
+        }
+        lastClientId = clientId;
+        updatedAt = LocalDateTime.now();
+        lastAccess = System.currentTimeMillis();
+        return version;
+    }
+
+    /* =========================================================
+     *                         LECTURAS
+     * ========================================================= */
+
+    public synchronized DiagramSnapshot snapshot(DiagramMergeEngine engine) {
+        lastAccess = System.currentTimeMillis();
+        return new DiagramSnapshot(projectId, name, nodesJson(engine), edgesJson(engine), viewport,
+                createdAt, updatedAt, version);
+    }
+
+    private DiagramDocument document(DiagramMergeEngine engine) {
+        if (doc == null) {
+            doc = engine.parse(nodesJson, edgesJson);
+            // Sin historia previa a la carga: una base anterior pierde contra lo guardado
+            doc.setBaseline(loadedVersion);
+            stats = DiagramStats.of(doc);
+        }
+        return doc;
+    }
+
+    private String nodesJson(DiagramMergeEngine engine) {
+        if (nodesJson == null) nodesJson = engine.writeNodes(doc);
+        return nodesJson;
+    }
+
+    private String edgesJson(DiagramMergeEngine engine) {
+        if (edgesJson == null) edgesJson = engine.writeEdges(doc);
+        return edgesJson;
+    }
+
+    /* =========================================================
+     *                       PERSISTENCIA
+     * ========================================================= */
+
+    public synchronized int pendingOpCount() {
+        return pendingOps.size();
+    }
+
+    public synchronized long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * Captura el estado pendiente de escribir, o null si está limpio.
+     * Con {@code fullState} incluye nodes/edges
+     * serializados; si no, solo las operaciones desde la última versión persistida.
+     * Con {@code withElements} incluye además el contenido de los elementos cambiados
+     * (o de todos, si la captura es completa).
+     */
+    public synchronized FlushBatch captureDirty(DiagramMergeEngine engine, boolean fullState, boolean withElements) {
+        if (version == persistedVersion) return null;
+        List<ElementChange> elements = withElements ? elementChanges(engine, fullState) : null;
+        document(engine);
+        return new FlushBatch(projectId, name, fullState ? nodesJson(engine) : null, fullState ? edgesJson(engine) : null,
+                viewport, version, persistedVersion, lastClientId, List.copyOf(pendingOps), elements, stats.summary());
+    }
+
+    private List<ElementChange> elementChanges(DiagramMergeEngine engine, boolean full) {
+        List<ElementChange> changes = new ArrayList<>();
+        if (full) {
+            DiagramDocument d = document(engine);
+            for (Kind kind : Kind.values()) {
+                d.elements(kind).forEach((id, el) -> changes.add(new ElementChange(kind, id, el.toString())));
+            }
+            return changes;
+        }
+        for (Kind kind : Kind.values()) {
+            for (String id : dirty(kind).keySet()) {
+                ObjectNode el = doc == null ? null : doc.get(kind, id);
+                changes.add(new ElementChange(kind, id, el == null ? null : el.toString()));
+            }
+        }
+        return changes;
+    }
+
+    private Map<String, Integer> dirty(Kind kind) {
+        return kind == Kind.NODE ? dirtyNodes : dirtyEdges;
+    }
+
+    public synchronized void markPersisted(int writtenVersion) {
+        persistedVersion = Math.max(persistedVersion, writtenVersion);
+        while (!pendingOps.isEmpty() && pendingOps.get(0).version() <= writtenVersion) {
+            pendingBytes -= pendingOps.remove(0).json().length();
+        }
+        dirtyNodes.values().removeIf(v -> v <= writtenVersion);
+        dirtyEdges.values().removeIf(v -> v <= writtenVersion);
+    }
+
+    /** Cierra la sala si no tiene cambios pendientes. Una sala cerrada no acepta escrituras. */
+    public synchronized boolean closeIfClean() {
+        if (version != persistedVersion) return false;
+        closed = true;
+        return true;
+    }
+
+    public synchronized void close() {
+        closed = true;
+    }
+
+    private void ensureOpen() {
+        if (closed) throw new RoomClosedException();
+    }
+
+    /** Señal interna: la sala fue desalojada y hay que volver a cargarla. */
+    static class RoomClosedException extends RuntimeException {
+        RoomClosedException() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,425 @@
+package uagrm.software.Parcial1.Services;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Services.DiagramRoom.FlushBatch;
+import uagrm.software.Parcial1.Services.DiagramRoom.PatchOutcome;
+import uagrm.software.Parcial1.Services.DiagramRoom.RoomClosedException;
+import uagrm.software.Parcial1.Services.DiagramRoom.SnapshotOutcome;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Estado en memoria de las salas activas con persistencia write-behind.
+ *
+ * - Las ediciones se aplican sobre {@link DiagramRoom} y se emiten al instante.
+ * - Los diagramas sucios se escriben en BD cada {@code diagram.flush.interval-ms},
+ *   cuando sale el último editor ({@link RoomEmptyEvent}) y al apagar la aplicación.
+ *   Las salas de un mismo tick van juntas en {@link DiagramStore#writeAll} y cada
+ *   sesión que editó recibe su confirmación o error ({@link WriteAcks}).
+ * - La versión la asigna la sala; la BD solo se actualiza si sigue en la versión
+ *   esperada (y, en modo cluster, si la concesión es nuestra: {@link LeaseFence}),
+ *   de modo que las versiones nunca retroceden. Si no se aplica, la sala se suelta.
+ * - Cómo se escribe (snapshot completo, log de operaciones...) lo decide el
+ *   {@link DiagramStore} activo.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DiagramRoomService {
+
+    private final DiagramStore diagramStore;
+    private final DiagramMergeEngine mergeEngine;
+    private final DiagramSnapshotCache snapshotCache;
+    private final ProjectStatsService projectStats;
+    private final AdmissionControl admission;
+    private final WriteAcks writeAcks;
+    private final ProjectLanes lanes;
+    private final LeaseFence leaseFence;
+
+    // projectId -> sala activa
+    private final ConcurrentMap<Long, DiagramRoom> rooms = new ConcurrentHashMap<>();
+
+    // Proyectos cedidos a otra instancia: no se vuelven a cargar hasta recuperar la concesión
+    private final Set<Long> released = ConcurrentHashMap.newKeySet();
+
+    @Value("${diagram.room.idle-evict-ms:300000}")
+    private long idleEvictMillis;
+
+    private final LongAdder flushRounds = new LongAdder();
+    private final LongAdder roomsWritten = new LongAdder();
+    private final LongAdder batchFallbacks = new LongAdder();
+    private final LongAdder writeFailures = new LongAdder();
+    private volatile int largestBatch;
+
+    /* =========================================================
+     *                        ESCRITURAS
+     * ========================================================= */
+
+    /** La escritura directa en BD falló; los cambios siguen en la sala y se reintentan en el próximo tick. */
+    public static class PersistFailedException extends RuntimeException {
+        public PersistFailedException(String message) {
+            super(message);
+        }
+    }
+
+    /** El proyecto pasó a otra instancia ({@link #release}): la escritura debe ir a la nueva dueña. */
+    public static class RoomReleasedException extends RuntimeException {
+        public RoomReleasedException(Long projectId) {
+            super("El proyecto " + projectId + " pasó a otra instancia. Reintenta en unos segundos.");
+        }
+    }
+
+    /** Snapshot resultante de un merge y cuántos cambios concurrentes del servidor se conservaron. */
+    public record MergedSnapshot(DiagramSnapshot snapshot, int keptFromServer) {
+    }
+
+    /**
+     * Snapshot completo (modo legacy) fusionado contra el estado actual.
+     * {@code baseVersion} null equivale a último escritor gana.
+     */
+    public MergedSnapshot applySnapshot(Long projectId, String clientId, Integer baseVersion, String name,
+                                        String nodes, String edges, String viewport) {
+        return withRoom(projectId, room -> {
+            synchronized (room) {
+                SnapshotOutcome outcome = room.applySnapshot(clientId, baseVersion, name, nodes, edges, viewport,
+                        mergeEngine);
+                return new MergedSnapshot(room.snapshot(mergeEngine), outcome.keptFromServer());
+            }
+        });
+    }
+
+    /** Aplica un patch de operaciones por elemento. */
+    public PatchOutcome applyPatch(Long projectId, String clientId, ArrayNode ops, String name, String viewport) {
+        return withRoom(projectId, room -> room.applyPatch(clientId, ops, name, viewport, mergeEngine));
+    }
+
+    /* =========================================================
+     *                         LECTURAS
+     * ========================================================= */
+
+    /** Versión actual: la de la sala si está activa, si no la de BD (null si no existe). */
+    public Integer currentVersion(Long projectId) {
+        DiagramRoom room = rooms.get(projectId);
+        if (room != null && !room.isClosed()) return room.getVersion();
+        return diagramStore.currentVersion(projectId);
+    }
+
+    /**
+     * Snapshot actual sin abrir sala: memoria si existe, si no caché validada por
+     * versión y, en último caso, BD. Null si no existe.
+     */
+    public DiagramSnapshot snapshot(Long projectId) {
+        DiagramRoom room = rooms.get(projectId);
+        if (room != null && !room.isClosed()) return room.snapshot(mergeEngine);
+        return loadSnapshot(projectId);
+    }
+
+    public boolean isActive(Long projectId) {
+        DiagramRoom room = rooms.get(projectId);
+        return room != null && !room.isClosed();
+    }
+
+    /* =========================================================
+     *                     CICLO DE VIDA
+     * ========================================================= */
+
+    /**
+     * Persiste todas las salas sucias en un solo lote y desaloja las inactivas
+     * (se pospone bajo saturación).
+     */
+    @Scheduled(fixedDelayString = "${diagram.flush.interval-ms:2000}")
+    public void flushDirty() {
+        if (admission.deferFlush()) return;
+        long now = System.currentTimeMillis();
+        flushRooms(rooms.values(), false);
+        for (DiagramRoom room : rooms.values()) {
+            if (now - room.getLastAccess() > idleEvictMillis) {
+                evict(room);
+            }
+        }
+    }
+
+    /** Sale el último editor: persiste y libera la memoria de la sala. */
+    @EventListener
+    public void onRoomEmpty(RoomEmptyEvent event) {
+        DiagramRoom room = rooms.get(event.projectId());
+        if (room != null) {
+            flushRooms(List.of(room), true);
+            evict(room);
+        }
+    }
+
+    /**
+     * Escribe los cambios pendientes de un proyecto (p. ej. tras una escritura REST directa).
+     * false si quedaron cambios sin persistir (la escritura falló; se reintenta en el próximo tick).
+     */
+    public boolean flush(Long projectId) {
+        DiagramRoom room = rooms.get(projectId);
+        if (room == null) return true;
+        flushRooms(List.of(room), true);
+        return !room.isDirty();
+    }
+
+    /** Descarta la sala sin persistir (el proyecto fue eliminado). */
+    public void discard(Long projectId) {
+        DiagramRoom room = rooms.remove(projectId);
+        if (room != null) room.close();
+        snapshotCache.invalidate(projectId);
+        writeAcks.failed(projectId, "El proyecto fue eliminado", false);
+    }
+
+    /**
+     * Otra instancia pasó a ser dueña del proyecto ({@link RoomOwnership}): persiste lo
+     * pendiente y suelta la sala sin pasarla a la caché (la próxima lectura va a BD).
+     *
+     * Corre en el carril del proyecto, así ninguna escritura queda a medio aplicar, y
+     * cierra la sala antes del último flush: las escrituras que lleguen después reciben
+     * {@link RoomReleasedException} en vez de volver a cargarla, hasta {@link #reclaim}.
+     */
+    public void release(Long projectId) {
+        Runnable handoff = () -> {
+            released.add(projectId);
+            DiagramRoom room = rooms.get(projectId);
+            if (room == null) return;
+            room.close();
+            flushRooms(List.of(room), true);
+            drop(room);
+        };
+        try {
+            lanes.execute(projectId, handoff);
+        } catch (RejectedExecutionException e) {
+            // Carril lleno: se cierra igual; lo que siga en cola recibe RoomReleasedException
+            handoff.run();
+        }
+    }
+
+    /** Esta instancia volvió a obtener la concesión del proyecto: puede cargar su sala otra vez. */
+    public void reclaim(Long projectId) {
+        if (released.remove(projectId)) log.info("Proyecto recuperado - proyecto: {}", projectId);
+    }
+
+    /** Proyectos con sala en memoria en esta instancia. */
+    public Set<Long> activeProjects() {
+        return Set.copyOf(rooms.keySet());
+    }
+
+    @PreDestroy
+    public void flushAll() {
+        int flushed = flushRooms(rooms.values(), true);
+        log.info("Write-behind: {} diagramas persistidos al apagar", flushed);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("activeRooms", rooms.size());
+        stats.put("dirtyRooms", rooms.values().stream().filter(DiagramRoom::isDirty).count());
+        stats.put("flushRounds", flushRounds.sum());
+        stats.put("roomsWritten", roomsWritten.sum());
+        stats.put("largestBatch", largestBatch);
+        stats.put("batchFallbacks", batchFallbacks.sum());
+        stats.put("writeFailures", writeFailures.sum());
+        stats.put("acks", writeAcks.getStats());
+        return stats;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private <T> T withRoom(Long projectId, Function<DiagramRoom, T> action) {
+        while (true) {
+            DiagramRoom room = getOrLoad(projectId);
+            try {
+                return action.apply(room);
+            } catch (RoomClosedException e) {
+                if (released.contains(projectId)) throw new RoomReleasedException(projectId);
+                // La sala se desalojó entre get y apply: se vuelve a cargar desde BD
+                rooms.remove(projectId, room);
+            }
+        }
+    }
+
+    private DiagramRoom getOrLoad(Long projectId) {
+        DiagramRoom room = rooms.get(projectId);
+        if (room != null) return room;
+        if (released.contains(projectId)) throw new RoomReleasedException(projectId);
+
+        DiagramSnapshot s = loadSnapshot(projectId);
+        if (s == null) {
+            throw new IllegalArgumentException("Diagrama no encontrado para proyecto " + projectId);
+        }
+        DiagramRoom fresh = DiagramRoom.from(s);
+        DiagramRoom prev = rooms.putIfAbsent(projectId, fresh);
+        if (prev == null) {
+            // Mientras la sala esté activa la caché solo quedaría obsoleta
+            snapshotCache.invalidate(projectId);
+            log.debug("Sala cargada - proyecto: {}, versión: {}", projectId, fresh.getVersion());
+            return fresh;
+        }
+        return prev;
+    }
+
+    /** Caché validada con una consulta de solo versión; si falla, carga completa desde BD. */
+    private DiagramSnapshot loadSnapshot(Long projectId) {
+        Integer version = diagramStore.currentVersion(projectId);
+        if (version == null) return null;
+
+        DiagramSnapshot cached = snapshotCache.get(projectId, version);
+        if (cached != null) return cached;
+
+        DiagramSnapshot s = diagramStore.load(projectId);
+        snapshotCache.put(s);
+        return s;
+    }
+
+    /**
+     * Suelta una sala ya cerrada sin escribirla. Lo que no llegó a BD se pierde: se
+     * avisa a las sesiones que esperaban confirmación.
+     */
+    private void drop(DiagramRoom room) {
+        Long projectId = room.getProjectId();
+        room.close();
+        rooms.remove(projectId, room);
+        snapshotCache.invalidate(projectId);
+        if (room.isDirty()) {
+            log.warn("Sala liberada con cambios sin persistir - proyecto: {}, versión: {}, en BD: {}",
+                    projectId, room.getVersion(), room.getPersistedVersion());
+            writeAcks.failed(projectId, "El proyecto pasó a otra instancia antes de guardar los últimos cambios", false);
+        } else {
+            log.info("Sala liberada - proyecto: {}", projectId);
+        }
+    }
+
+    private void evict(DiagramRoom room) {
+        if (room.closeIfClean()) {
+            // La sala está limpia: su snapshot coincide con la BD y pasa a la caché
+            snapshotCache.put(room.snapshot(mergeEngine));
+            rooms.remove(room.getProjectId(), room);
+            log.debug("Sala desalojada - proyecto: {}", room.getProjectId());
+        }
+    }
+
+    /**
+     * Escribe las salas sucias con un solo {@link DiagramStore#writeAll}. Con {@code wait}
+     * espera el flushLock de cada sala; si no, salta las que ya se están escribiendo
+     * (nunca bloquea, así que no hay interbloqueo con los flushes que esperan).
+     * Confirma a cada sesión lo que quedó persistido; tras un fallo la
+     * confirmación espera a la escritura que lo cubra. Devuelve cuántas salas se escribieron.
+     */
+    private int flushRooms(Collection<DiagramRoom> candidates, boolean wait) {
+        List<DiagramRoom> locked = new ArrayList<>();
+        List<DiagramRoom> dirty = new ArrayList<>();
+        List<FlushBatch> batches = new ArrayList<>();
+        try {
+            for (DiagramRoom room : candidates) {
+                if (wait) {
+                    room.flushLock.lock();
+                } else if (!room.flushLock.tryLock()) {
+                    continue;
+                }
+                locked.add(room);
+                boolean full = diagramStore.needsFullState(room.getProjectId(), room.pendingOpCount(), room.pendingBytes());
+                FlushBatch batch = room.captureDirty(mergeEngine, full, diagramStore.tracksElements());
+                if (batch != null) {
+                    dirty.add(room);
+                    batches.add(batch);
+                } else {
+                    // Limpia: todo lo escrito hasta ahora ya está en BD
+                    writeAcks.persisted(room.getProjectId(), room.getPersistedVersion());
+                }
+            }
+            return batches.isEmpty() ? 0 : persist(dirty, batches);
+        } finally {
+            locked.forEach(room -> room.flushLock.unlock());
+        }
+    }
+
+    /** Escribe los lotes capturados (con los flushLock tomados) y aplica el resultado a cada sala. */
+    private int persist(List<DiagramRoom> dirty, List<FlushBatch> batches) {
+        flushRounds.increment();
+        if (batches.size() > largestBatch) largestBatch = batches.size();
+
+        // null = error (la sala sigue sucia y se reintenta en el próximo tick)
+        Boolean[] results = new Boolean[batches.size()];
+        try {
+            boolean[] written = diagramStore.writeAll(batches);
+            for (int i = 0; i < results.length; i++) results[i] = written[i];
+        } catch (Exception e) {
+            if (batches.size() == 1) {
+                writeFailed(batches.get(0), e);
+            } else {
+                // Una fila problemática no debe frenar al resto: se reintenta sala por sala
+                batchFallbacks.increment();
+                log.warn("Falló la escritura por lotes de {} diagramas, se reintenta por sala: {}",
+                        batches.size(), e.getMessage());
+                for (int i = 0; i < results.length; i++) {
+                    try {
+                        results[i] = diagramStore.write(batches.get(i));
+                    } catch (Exception ex) {
+                        writeFailed(batches.get(i), ex);
+                    }
+                }
+            }
+        }
+
+        List<FlushBatch> persisted = new ArrayList<>(batches.size());
+        for (int i = 0; i < results.length; i++) {
+            DiagramRoom room = dirty.get(i);
+            FlushBatch batch = batches.get(i);
+            if (results[i] == null) continue;
+            if (results[i]) {
+                room.markPersisted(batch.version());
+                writeAcks.persisted(batch.projectId(), batch.version());
+                persisted.add(batch);
+                log.debug("Write-behind - proyecto: {}, versión: {}, completo: {}",
+                        batch.projectId(), batch.version(), batch.hasFullState());
+            } else {
+                handleStaleWrite(room, batch);
+            }
+        }
+        projectStats.recordAll(persisted);
+        roomsWritten.add(persisted.size());
+        return persisted.size();
+    }
+
+    private void writeFailed(FlushBatch batch, Exception e) {
+        writeFailures.increment();
+        log.error("Error persistiendo diagrama - proyecto: {}", batch.projectId(), e);
+        writeAcks.failed(batch.projectId(), "No se pudo guardar el diagrama; se reintentará", true);
+    }
+
+    private void handleStaleWrite(DiagramRoom room, FlushBatch batch) {
+        Integer dbVersion = diagramStore.currentVersion(batch.projectId());
+        if (dbVersion == null) {
+            log.warn("Diagrama eliminado mientras la sala estaba activa - proyecto: {}", batch.projectId());
+            discard(batch.projectId());
+            return;
+        }
+        // Otro escritor (o la cerca de concesión) ganó: sobrescribirlo crearía dos escritores.
+        // Se suelta la sala y la próxima escritura va a la dueña o recarga desde BD
+        log.warn("Escritura rechazada - proyecto: {}, esperada: {}, BD: {}. Se suelta la sala.",
+                batch.projectId(), batch.expectedVersion(), dbVersion);
+        if (leaseFence.isActive()) released.add(batch.projectId());
+        drop(room);
+    }
+}
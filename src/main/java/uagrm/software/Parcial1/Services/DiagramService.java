@@ -2,16 +2,20 @@ package uagrm.software.Parcial1.Services;
 
 import org.springframework.stereotype.Service;
 import lombok.RequiredArgsConstructor;
-import uagrm.software.Parcial1.Models.DiagramEntity;
-import uagrm.software.Parcial1.Repository.DiagramRepository;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
 
 @Service
 @RequiredArgsConstructor
 public class DiagramService {
     
-    private final DiagramRepository diagramRepository;
+    private final DiagramRoomService diagramRooms;
 
-    public DiagramEntity buscarPorId(Long id) {
-        return diagramRepository.findById(id).orElse(null);
+    public DiagramSnapshot buscarPorId(Long id) {
+        return diagramRooms.snapshot(id);
+    }
+
+    /** Versión actual sin cargar nodes/edges (null si no existe). */
+    public Integer version(Long id) {
+        return diagramRooms.currentVersion(id);
     }
 }
@@ -0,0 +1,140 @@
+package uagrm.software.Parcial1.Services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caché LRU de snapshots de diagramas "calientes" acotada por bytes.
+ *
+ * - Clave: projectId (= id del diagrama). Una entrada solo es válida si su
+ *   versión coincide con la {@code @Version} actual, que el llamador obtiene con
+ *   una consulta que no toca las columnas TEXT.
+ * - El tamaño se estima a partir de la longitud de los JSON (2 bytes por char);
+ *   al superar {@code diagram.cache.max-bytes} se desalojan las menos usadas.
+ */
+@Slf4j
+@Service
+public class DiagramSnapshotCache {
+
+    private static final long ENTRY_OVERHEAD = 256;
+
+    private final long maxBytes;
+    private final long maxEntryBytes;
+
+    // access-order: el primero es el menos usado recientemente
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long currentBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private record Entry(DiagramSnapshot snapshot, long bytes) {
+    }
+
+    public DiagramSnapshotCache(@Value("${diagram.cache.max-bytes:67108864}") long maxBytes) {
+        this.maxBytes = maxBytes;
+        // Un diagrama que ocupe más de 1/4 de la caché no se guarda
+        this.maxEntryBytes = maxBytes / 4;
+    }
+
+    /** Devuelve el snapshot si está en caché y coincide con la versión indicada. */
+    public DiagramSnapshot get(Long projectId, Integer currentVersion) {
+        synchronized (entries) {
+            Entry e = entries.get(projectId);
+            if (e == null) {
+                misses.increment();
+                return null;
+            }
+            if (!Objects.equals(e.snapshot().version(), currentVersion)) {
+                removeLocked(projectId);
+                stale.increment();
+                misses.increment();
+                return null;
+            }
+            hits.increment();
+            return e.snapshot();
+        }
+    }
+
+    public void put(DiagramSnapshot snapshot) {
+        if (snapshot == null || snapshot.id() == null) return;
+        long bytes = estimate(snapshot);
+        synchronized (entries) {
+            Entry prev = entries.get(snapshot.id());
+            // Nunca reemplazar por una versión más vieja
+            if (prev != null && prev.snapshot().version() != null && snapshot.version() != null
+                    && prev.snapshot().version() > snapshot.version()) {
+                return;
+            }
+            removeLocked(snapshot.id());
+            if (bytes > maxEntryBytes) return;
+
+            entries.put(snapshot.id(), new Entry(snapshot, bytes));
+            currentBytes += bytes;
+            evictLocked();
+        }
+    }
+
+    public void invalidate(Long projectId) {
+        synchronized (entries) {
+            removeLocked(projectId);
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long h = hits.sum();
+        long m = misses.sum();
+        synchronized (entries) {
+            stats.put("entries", entries.size());
+            stats.put("bytes", currentBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("stale", stale.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("hitRatio", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        return stats;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private void removeLocked(Long projectId) {
+        Entry e = entries.remove(projectId);
+        if (e != null) currentBytes -= e.bytes();
+    }
+
+    private void evictLocked() {
+        Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator();
+        while (currentBytes > maxBytes && it.hasNext()) {
+            Map.Entry<Long, Entry> eldest = it.next();
+            currentBytes -= eldest.getValue().bytes();
+            it.remove();
+            evictions.increment();
+            log.debug("Caché de diagramas: desalojado proyecto {}", eldest.getKey());
+        }
+    }
+
+    private static long estimate(DiagramSnapshot s) {
+        return ENTRY_OVERHEAD + 2L * (len(s.name()) + len(s.nodes()) + len(s.edges()) + len(s.viewport()));
+    }
+
+    private static int len(String s) {
+        return s == null ? 0 : s.length();
+    }
+}
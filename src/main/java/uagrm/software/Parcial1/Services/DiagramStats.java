@@ -0,0 +1,86 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import uagrm.software.Parcial1.Models.ClassModel.ClassKind;
+import uagrm.software.Parcial1.Models.DiagramDocument;
+import uagrm.software.Parcial1.Models.DiagramDocument.Kind;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Conteos de un diagrama mantenidos de forma incremental por {@link DiagramRoom}.
+ *
+ * Se recuerda el aporte de cada elemento (tipo de clase y bytes de su JSON);
+ * al cambiar un elemento se resta su aporte anterior y se suma el nuevo, así
+ * que cada edición cuesta O(elementos cambiados) y no hay que volver a
+ * recorrer el diagrama. No es thread-safe: se usa bajo el monitor de la sala.
+ */
+public class DiagramStats {
+
+    // Aporte empaquetado: bytes << 3 | código de tipo
+    private static final int NONE = 0, CLASS = 1, INTERFACE = 2, ENUM = 3;
+
+    /** Resumen inmutable; {@code bytes} es el tamaño UTF-8 de los arreglos nodes + edges. */
+    public record Summary(int nodes, int edges, int classes, int interfaces, int enums, long bytes) {
+    }
+
+    private final Map<String, Long> nodes = new HashMap<>();
+    private final Map<String, Long> edges = new HashMap<>();
+    private final int[] byType = new int[4];
+    private long nodeBytes;
+    private long edgeBytes;
+
+    public static DiagramStats of(DiagramDocument doc) {
+        DiagramStats stats = new DiagramStats();
+        for (Kind kind : Kind.values()) {
+            doc.elements(kind).forEach((id, el) -> stats.update(kind, id, el));
+        }
+        return stats;
+    }
+
+    /** Registra el contenido actual de un elemento ({@code element} null si se eliminó). */
+    public void update(Kind kind, String id, ObjectNode element) {
+        Map<String, Long> contributions = kind == Kind.NODE ? nodes : edges;
+        Long prev = element == null ? contributions.remove(id) : contributions.put(id, contribution(kind, element));
+        if (prev != null) apply(kind, prev, -1);
+        if (element != null) apply(kind, contributions.get(id), 1);
+    }
+
+    public Summary summary() {
+        return new Summary(nodes.size(), edges.size(), byType[CLASS], byType[INTERFACE], byType[ENUM],
+                arrayBytes(nodeBytes, nodes.size()) + arrayBytes(edgeBytes, edges.size()));
+    }
+
+    /** Tamaño UTF-8 del arreglo JSON de {@code kind}. */
+    public long bytes(Kind kind) {
+        return kind == Kind.NODE ? arrayBytes(nodeBytes, nodes.size()) : arrayBytes(edgeBytes, edges.size());
+    }
+
+    private void apply(Kind kind, long packed, int sign) {
+        long bytes = packed >>> 3;
+        if (kind == Kind.NODE) {
+            nodeBytes += sign * bytes;
+            byType[(int) (packed & 7)] += sign;
+        } else {
+            edgeBytes += sign * bytes;
+        }
+    }
+
+    private static long contribution(Kind kind, ObjectNode element) {
+        int type = NONE;
+        if (kind == Kind.NODE) {
+            ClassKind k = ClassModelParser.nodeKind(element);
+            if (k == ClassKind.INTERFACE) type = INTERFACE;
+            else if (k == ClassKind.ENUM) type = ENUM;
+            else if (k != null) type = CLASS;
+        }
+        return (DiagramPatchService.jsonBytes(element.toString()) << 3) | type;
+    }
+
+    // "[" + elementos separados por "," + "]"
+    private static long arrayBytes(long elementBytes, int count) {
+        return elementBytes + Math.max(0, count - 1) + 2;
+    }
+}
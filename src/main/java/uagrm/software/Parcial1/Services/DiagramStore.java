@@ -0,0 +1,52 @@
+package uagrm.software.Parcial1.Services;
+
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Services.DiagramRoom.FlushBatch;
+
+import java.util.List;
+
+/**
+ * Estrategia de persistencia de diagramas usada por {@link DiagramRoomService}.
+ * Se elige con {@code diagram.persistence.mode}.
+ */
+public interface DiagramStore {
+
+    /** Estado completo actual, o null si el diagrama no existe. */
+    DiagramSnapshot load(Long projectId);
+
+    /** Versión actual sin leer el contenido, o null si el diagrama no existe. */
+    Integer currentVersion(Long projectId);
+
+    /**
+     * Persiste un lote capturado de una sala. Devuelve false si la versión en BD
+     * ya no era {@link FlushBatch#expectedVersion()} (otro escritor).
+     */
+    boolean write(FlushBatch batch);
+
+    /**
+     * Persiste los lotes de varias salas juntos. Devuelve, en el mismo orden, si
+     * cada uno se aplicó (false = la versión en BD ya no era la esperada).
+     * Por defecto uno por uno; los modos que pueden lo hacen en una sola sentencia.
+     */
+    default boolean[] writeAll(List<FlushBatch> batches) {
+        boolean[] written = new boolean[batches.size()];
+        for (int i = 0; i < written.length; i++) {
+            written[i] = write(batches.get(i));
+        }
+        return written;
+    }
+
+    /** Indica si la próxima escritura necesita nodes/edges completos o le basta el log. */
+    default boolean needsFullState(Long projectId, int pendingOps, long pendingBytes) {
+        return true;
+    }
+
+    /** Si es true, los lotes traen el contenido de cada elemento cambiado. */
+    default boolean tracksElements() {
+        return false;
+    }
+
+    /** Borra los datos propios del modo al eliminar el proyecto (la fila de "diagrams" cae en cascada). */
+    default void delete(Long projectId) {
+    }
+}
@@ -0,0 +1,232 @@
+package uagrm.software.Parcial1.Services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import uagrm.software.Parcial1.Models.DiagramDocument.Kind;
+import uagrm.software.Parcial1.Models.DiagramElementEntity;
+import uagrm.software.Parcial1.Models.DiagramEntity;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Repository.DiagramRepository;
+import uagrm.software.Parcial1.Repository.ProjectRepository;
+import uagrm.software.Parcial1.Services.DiagramRoom.ElementChange;
+import uagrm.software.Parcial1.Services.DiagramRoom.FlushBatch;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Modo "elements": cada nodo y arista vive en su fila de {@code diagram_elements}
+ * (clave: diagrama, tipo, id del elemento) con su JSON como contenido.
+ *
+ * - Escritura: upsert/borrado solo de los elementos cambiados + cabecera con
+ *   control de versión en "diagrams".
+ * - Lectura: se recorren las filas en orden con un cursor (fetch size) y se
+ *   concatena el JSON de cada una, sin parsearlo.
+ * - Migración: un diagrama que aún tiene su contenido en las columnas TEXT se
+ *   reescribe completo la primera vez; desde entonces esas columnas quedan en "[]".
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "diagram.persistence.mode", havingValue = "elements")
+public class ElementDiagramStore implements DiagramStore {
+
+    private static final int FETCH_SIZE = 500;
+
+    private static final String SELECT_ELEMENTS =
+            "select kind, content from diagram_elements where diagram_id = ? order by kind, ordinal";
+
+    // Un elemento existente conserva su ordinal; uno nuevo va al final de su tipo
+    private static final String UPSERT_ELEMENT =
+            "insert into diagram_elements (diagram_id, kind, element_id, ordinal, content, version) "
+            + "values (?, ?, ?, ?, ?, ?) "
+            + "on conflict (diagram_id, kind, element_id) do update "
+            + "set content = excluded.content, version = excluded.version";
+
+    // Siguiente ordinal de cada tipo: un salto al final de idx_diagram_elements_order por tipo
+    private static final String NEXT_ORDINALS =
+            "select (select coalesce(max(ordinal), -1) + 1 from diagram_elements where diagram_id = ? and kind = ?), "
+            + "(select coalesce(max(ordinal), -1) + 1 from diagram_elements where diagram_id = ? and kind = ?)";
+
+    private static final String INSERT_ELEMENT =
+            "insert into diagram_elements (diagram_id, kind, element_id, ordinal, content, version) "
+            + "values (?, ?, ?, ?, ?, ?)";
+
+    private static final String DELETE_ELEMENT =
+            "delete from diagram_elements where diagram_id = ? and kind = ? and element_id = ?";
+
+    private static final String DELETE_ALL = "delete from diagram_elements where diagram_id = ?";
+
+    private static final String IS_MIGRATED =
+            "select exists(select 1 from diagram_elements e where e.diagram_id = d.id) "
+            + "or (length(d.nodes) <= 2 and length(d.edges) <= 2) from diagrams d where d.id = ?";
+
+    private final DiagramRepository diagramRepository;
+    private final ProjectRepository projectRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final LeaseFence leaseFence;
+
+    // Diagramas cuyo contenido ya está en filas (no necesitan reescritura completa)
+    private final Set<Long> migrated = ConcurrentHashMap.newKeySet();
+
+    /* =========================================================
+     *                         LECTURA
+     * ========================================================= */
+
+    @Override
+    public DiagramSnapshot load(Long projectId) {
+        return transactionTemplate.execute(tx -> {
+            DiagramEntity d = diagramRepository.findById(projectId).orElse(null);
+            if (d == null) return null;
+
+            StringBuilder nodes = new StringBuilder(1024).append('[');
+            StringBuilder edges = new StringBuilder(1024).append('[');
+            int[] counts = new int[2];
+            jdbcTemplate.query(con -> {
+                var ps = con.prepareStatement(SELECT_ELEMENTS);
+                ps.setFetchSize(FETCH_SIZE);
+                ps.setLong(1, projectId);
+                return ps;
+            }, rs -> {
+                boolean node = DiagramElementEntity.NODE.equals(rs.getString(1));
+                StringBuilder out = node ? nodes : edges;
+                if (counts[node ? 0 : 1]++ > 0) out.append(',');
+                out.append(rs.getString(2));
+            });
+
+            if (counts[0] + counts[1] == 0) {
+                // Sin filas: vacío ya migrado o diagrama legacy con todo en TEXT
+                if (isEmptyJson(d.getNodes()) && isEmptyJson(d.getEdges())) migrated.add(projectId);
+                return DiagramSnapshot.of(d);
+            }
+            migrated.add(projectId);
+            return new DiagramSnapshot(d.getId(), d.getName(), nodes.append(']').toString(),
+                    edges.append(']').toString(), d.getViewport(), d.getCreatedAt(), d.getUpdatedAt(), d.getVersion());
+        });
+    }
+
+    @Override
+    public Integer currentVersion(Long projectId) {
+        return diagramRepository.findVersionById(projectId).orElse(null);
+    }
+
+    /* =========================================================
+     *                        ESCRITURA
+     * ========================================================= */
+
+    @Override
+    public boolean tracksElements() {
+        return true;
+    }
+
+    @Override
+    public boolean needsFullState(Long projectId, int pendingOps, long pendingBytes) {
+        if (migrated.contains(projectId)) return false;
+        Boolean done = jdbcTemplate.queryForObject(IS_MIGRATED, Boolean.class, projectId);
+        if (Boolean.TRUE.equals(done)) {
+            migrated.add(projectId);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean write(FlushBatch batch) {
+        Boolean ok = transactionTemplate.execute(tx -> {
+            Long id = batch.projectId();
+            // Primero la cabecera: si la versión (o la concesión) no coincide no se toca ninguna fila
+            int rows = batch.hasFullState()
+                    ? diagramRepository.writeSnapshot(id, batch.name(), "[]", "[]", batch.viewport(),
+                            batch.version(), batch.expectedVersion(), leaseFence.owner())
+                    : diagramRepository.writeHeader(id, batch.name(), batch.viewport(),
+                            batch.version(), batch.expectedVersion(), leaseFence.owner());
+            if (rows == 0) return false;
+
+            List<ElementChange> elements = batch.elements() == null ? List.of() : batch.elements();
+            if (batch.hasFullState()) {
+                replaceAll(id, elements, batch.version());
+            } else {
+                applyChanges(id, elements, batch.version());
+            }
+            projectRepository.touchLastEdited(id, LocalDateTime.now());
+            return true;
+        });
+        if (!Boolean.TRUE.equals(ok)) return false;
+
+        if (batch.hasFullState()) migrated.add(batch.projectId());
+        log.debug("Elementos escritos - proyecto: {}, filas: {}, completo: {}", batch.projectId(),
+                batch.elements() == null ? 0 : batch.elements().size(), batch.hasFullState());
+        return true;
+    }
+
+    @Override
+    public void delete(Long projectId) {
+        jdbcTemplate.update(DELETE_ALL, projectId);
+        migrated.remove(projectId);
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private void replaceAll(Long id, List<ElementChange> elements, int version) {
+        jdbcTemplate.update(DELETE_ALL, id);
+        int[] ordinal = new int[2];
+        jdbcTemplate.batchUpdate(INSERT_ELEMENT, elements, FETCH_SIZE, (ps, el) -> {
+            int k = el.kind() == Kind.NODE ? 0 : 1;
+            ps.setLong(1, id);
+            ps.setString(2, kindCode(el.kind()));
+            ps.setString(3, el.id());
+            ps.setInt(4, ordinal[k]++);
+            ps.setString(5, el.json());
+            ps.setInt(6, version);
+        });
+    }
+
+    private void applyChanges(Long id, List<ElementChange> elements, int version) {
+        List<ElementChange> upserts = new ArrayList<>();
+        List<ElementChange> deletes = new ArrayList<>();
+        for (ElementChange el : elements) {
+            (el.json() == null ? deletes : upserts).add(el);
+        }
+        if (!deletes.isEmpty()) {
+            jdbcTemplate.batchUpdate(DELETE_ELEMENT, deletes, deletes.size(), (ps, el) -> {
+                ps.setLong(1, id);
+                ps.setString(2, kindCode(el.kind()));
+                ps.setString(3, el.id());
+            });
+        }
+        if (!upserts.isEmpty()) {
+            // Se numera por tipo como en replaceAll; a los existentes el upsert no les cambia el ordinal
+            int[] ordinal = jdbcTemplate.queryForObject(NEXT_ORDINALS,
+                    (rs, i) -> new int[]{rs.getInt(1), rs.getInt(2)},
+                    id, DiagramElementEntity.NODE, id, DiagramElementEntity.EDGE);
+            jdbcTemplate.batchUpdate(UPSERT_ELEMENT, upserts, upserts.size(), (ps, el) -> {
+                int k = el.kind() == Kind.NODE ? 0 : 1;
+                ps.setLong(1, id);
+                ps.setString(2, kindCode(el.kind()));
+                ps.setString(3, el.id());
+                ps.setInt(4, ordinal[k]++);
+                ps.setString(5, el.json());
+                ps.setInt(6, version);
+            });
+        }
+    }
+
+    private static String kindCode(Kind kind) {
+        return kind == Kind.NODE ? DiagramElementEntity.NODE : DiagramElementEntity.EDGE;
+    }
+
+    private static boolean isEmptyJson(String json) {
+        return json == null || json.isBlank() || "[]".equals(json.trim());
+    }
+}
@@ -0,0 +1,84 @@
+package uagrm.software.Parcial1.Services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ZIPs terminados por los trabajos de generación, en memoria y acotados por
+ * bytes ({@code codegen.jobs.artifact-max-bytes}). Al superar el límite se
+ * desalojan los menos descargados recientemente; el cliente que pida uno
+ * desalojado debe volver a encolar el trabajo.
+ */
+@Slf4j
+@Service
+public class GenerationArtifactStore {
+
+    /** Archivo listo para descargar. */
+    public record Artifact(String fileName, byte[] bytes) {
+    }
+
+    private final long maxBytes;
+
+    // access-order: el primero es el menos usado recientemente
+    private final LinkedHashMap<String, Artifact> artifacts = new LinkedHashMap<>(32, 0.75f, true);
+    private long currentBytes;
+
+    private final LongAdder downloads = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public GenerationArtifactStore(@Value("${codegen.jobs.artifact-max-bytes:67108864}") long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public Artifact get(String key) {
+        synchronized (artifacts) {
+            Artifact a = artifacts.get(key);
+            if (a != null) downloads.increment();
+            return a;
+        }
+    }
+
+    public boolean contains(String key) {
+        synchronized (artifacts) {
+            return artifacts.containsKey(key);
+        }
+    }
+
+    /** Guarda el artefacto; devuelve false si por sí solo excede el límite. */
+    public boolean put(String key, Artifact artifact) {
+        if (artifact.bytes().length > maxBytes) return false;
+        synchronized (artifacts) {
+            Artifact prev = artifacts.put(key, artifact);
+            if (prev != null) currentBytes -= prev.bytes().length;
+            currentBytes += artifact.bytes().length;
+            Iterator<Map.Entry<String, Artifact>> it = artifacts.entrySet().iterator();
+            while (currentBytes > maxBytes && it.hasNext()) {
+                Map.Entry<String, Artifact> eldest = it.next();
+                currentBytes -= eldest.getValue().bytes().length;
+                it.remove();
+                evictions.increment();
+                log.debug("Artefactos de generación: desalojado {}", eldest.getKey());
+            }
+        }
+        return true;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (artifacts) {
+            stats.put("entries", artifacts.size());
+            stats.put("bytes", currentBytes);
+        }
+        stats.put("maxBytes", maxBytes);
+        stats.put("downloads", downloads.sum());
+        stats.put("evictions", evictions.sum());
+        return stats;
+    }
+}
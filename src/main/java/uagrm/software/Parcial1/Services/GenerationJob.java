@@ -0,0 +1,92 @@
+package uagrm.software.Parcial1.Services;
+
+import lombok.Getter;
+
+import uagrm.software.Parcial1.Models.ClassModel;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Trabajo asíncrono de generación de código para un (proyecto, versión de diagrama).
+ * Varias solicitudes de la misma versión comparten el mismo trabajo; cada sesión
+ * STOMP suscrita recibe su progreso en /user/queue/generation.
+ */
+@Getter
+public class GenerationJob {
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED }
+
+    private final String id;
+    private final Long projectId;
+    private final String key;
+    private final long createdAt = System.currentTimeMillis();
+
+    // Versión pedida; al arrancar, la del modelo realmente generado (igual o posterior)
+    private volatile Integer version;
+    private volatile int total;
+    private volatile State state = State.QUEUED;
+    private volatile int done;
+    private volatile String error;
+    private volatile long finishedAt;
+
+    private final Set<String> sessions = ConcurrentHashMap.newKeySet();
+
+    GenerationJob(String id, String key, Long projectId, Integer version) {
+        this.id = id;
+        this.projectId = projectId;
+        this.version = version;
+        this.key = key;
+    }
+
+    void subscribe(String sessionId) {
+        sessions.add(sessionId);
+    }
+
+    void start(ClassModel model) {
+        version = model.version();
+        total = model.classes().size();
+        state = State.RUNNING;
+    }
+
+    void progress(int classesDone) {
+        done = classesDone;
+    }
+
+    void complete() {
+        done = total;
+        finish(State.DONE, null);
+    }
+
+    void fail(String message) {
+        finish(State.FAILED, message);
+    }
+
+    private void finish(State s, String message) {
+        error = message;
+        finishedAt = System.currentTimeMillis();
+        state = s;
+    }
+
+    public boolean isFinished() {
+        return state == State.DONE || state == State.FAILED;
+    }
+
+    /** Estado serializable (REST y /user/queue/generation). */
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("jobId", id);
+        m.put("projectId", projectId);
+        m.put("version", version);
+        m.put("state", state.name());
+        m.put("done", done);
+        m.put("total", total);
+        if (error != null) m.put("error", error);
+        if (state == State.DONE) {
+            m.put("downloadUrl", "/api/projects/" + projectId + "/generate/jobs/" + id + "/download");
+        }
+        return m;
+    }
+}
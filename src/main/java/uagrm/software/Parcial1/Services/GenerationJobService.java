@@ -0,0 +1,286 @@
+package uagrm.software.Parcial1.Services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import uagrm.software.Parcial1.Models.ClassModel;
+import uagrm.software.Parcial1.Services.GenerationArtifactStore.Artifact;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cola de trabajos de generación de código fuera de los hilos de Tomcat.
+ *
+ * - Deduplicación: las solicitudes del mismo (projectId, versión del diagrama)
+ *   comparten un trabajo; si ya terminó y el ZIP sigue en
+ *   {@link GenerationArtifactStore}, se responde sin volver a generar.
+ * - Equidad: como mucho {@code codegen.jobs.workers} trabajos en paralelo, uno
+ *   por proyecto, y los proyectos con trabajos pendientes se atienden por turnos.
+ * - Cola acotada ({@code codegen.jobs.max-queued}); al llenarse se rechaza.
+ * - Progreso y fin se publican a cada sesión suscrita en /user/queue/generation:
+ *   { "__system":"generation", jobId, projectId, version, state, done, total, downloadUrl?, error? }
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class GenerationJobService {
+
+    private final CodeGenerationService codeGenerator;
+    private final DiagramRoomService diagramRooms;
+    private final GenerationArtifactStore artifacts;
+    private final SimpMessagingTemplate messaging;
+
+    private final Object lock = new Object();
+    // (projectId:versión) -> trabajo vigente, para deduplicar
+    private final Map<String, GenerationJob> byKey = new HashMap<>();
+    private final Map<String, GenerationJob> byId = new ConcurrentHashMap<>();
+    // Pendientes por proyecto y turno de atención
+    private final Map<Long, ArrayDeque<GenerationJob>> queues = new HashMap<>();
+    private final ArrayDeque<Long> turns = new ArrayDeque<>();
+    private final Set<Long> runningProjects = new HashSet<>();
+    private int queued;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private ThreadPoolTaskExecutor executor;
+
+    @Value("${codegen.jobs.workers:2}")
+    private int workers;
+
+    @Value("${codegen.jobs.max-queued:100}")
+    private int maxQueued;
+
+    @Value("${codegen.jobs.retention-ms:600000}")
+    private long retentionMillis;
+
+    @Value("${codegen.jobs.progress-interval-ms:250}")
+    private long progressIntervalMillis;
+
+    @PostConstruct
+    void start() {
+        // Nunca se envían más de 'workers' tareas: la cola real es la de este servicio
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(workers);
+        executor.setMaxPoolSize(workers);
+        executor.setQueueCapacity(workers);
+        executor.setThreadNamePrefix("codegen-job-");
+        executor.initialize();
+        log.info("Cola de generación: {} trabajos en paralelo, máximo {} en espera", workers, maxQueued);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (executor != null) executor.shutdown();
+    }
+
+    /* =========================================================
+     *                          API
+     * ========================================================= */
+
+    /**
+     * Encola (o reutiliza) el trabajo de la versión actual del diagrama.
+     * Devuelve null si el proyecto no existe. {@code sessionId} puede ser null
+     * (sin notificaciones por STOMP). Solo consulta la versión: el modelo se
+     * arma en el hilo del trabajo, no en el de quien lo pide.
+     *
+     * @throws RejectedExecutionException si la cola está llena
+     */
+    public GenerationJob submit(Long projectId, String sessionId) {
+        Integer version = diagramRooms.currentVersion(projectId);
+        if (version == null) return null;
+        String key = projectId + ":" + version;
+
+        GenerationJob job;
+        boolean created = false;
+        synchronized (lock) {
+            job = byKey.get(key);
+            if (job != null && (job.getState() == GenerationJob.State.FAILED
+                    || job.getState() == GenerationJob.State.DONE && !artifacts.contains(key))) {
+                byKey.remove(key);
+                job = null;
+            }
+            if (job == null) {
+                if (queued >= maxQueued) {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Cola de generación llena, intente más tarde");
+                }
+                job = new GenerationJob(UUID.randomUUID().toString(), key, projectId, version);
+                byKey.put(key, job);
+                byId.put(job.getId(), job);
+                queues.computeIfAbsent(projectId, p -> {
+                    turns.add(p);
+                    return new ArrayDeque<>();
+                }).add(job);
+                queued++;
+                created = true;
+            }
+            if (sessionId != null) job.subscribe(sessionId);
+            if (created) dispatchLocked();
+        }
+
+        if (created) {
+            submitted.increment();
+            log.info("Generación encolada - proyecto: {}, versión: {}, job: {}", projectId, version, job.getId());
+        } else {
+            deduplicated.increment();
+        }
+        if (sessionId != null) send(sessionId, job);
+        return job;
+    }
+
+    public GenerationJob get(String jobId) {
+        return byId.get(jobId);
+    }
+
+    /** ZIP de un trabajo terminado, o null si no terminó o ya fue desalojado. */
+    public Artifact artifact(GenerationJob job) {
+        return job.getState() == GenerationJob.State.DONE ? artifacts.get(job.getKey()) : null;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        synchronized (lock) {
+            stats.put("queued", queued);
+            stats.put("running", runningProjects.size());
+        }
+        stats.put("workers", workers);
+        stats.put("jobs", byId.size());
+        stats.put("submitted", submitted.sum());
+        stats.put("deduplicated", deduplicated.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("completed", completed.sum());
+        stats.put("failed", failed.sum());
+        stats.put("artifacts", artifacts.getStats());
+        return stats;
+    }
+
+    /** Olvida los trabajos terminados hace más de {@code codegen.jobs.retention-ms}. */
+    @Scheduled(fixedDelayString = "${codegen.jobs.cleanup-interval-ms:60000}")
+    public void cleanup() {
+        long cutoff = System.currentTimeMillis() - retentionMillis;
+        synchronized (lock) {
+            byId.values().removeIf(job -> {
+                if (!job.isFinished() || job.getFinishedAt() > cutoff) return false;
+                byKey.remove(job.getKey(), job);
+                return true;
+            });
+        }
+    }
+
+    /* =========================================================
+     *                       PLANIFICACIÓN
+     * ========================================================= */
+
+    /** Arranca trabajos mientras haya hilos libres: un proyecto por turno, sin repetir proyecto. */
+    private void dispatchLocked() {
+        while (runningProjects.size() < workers && !turns.isEmpty()) {
+            GenerationJob next = null;
+            for (int i = 0, n = turns.size(); i < n && next == null; i++) {
+                Long projectId = turns.poll();
+                if (runningProjects.contains(projectId)) {
+                    turns.add(projectId);
+                    continue;
+                }
+                ArrayDeque<GenerationJob> q = queues.get(projectId);
+                next = q.poll();
+                if (q.isEmpty()) {
+                    queues.remove(projectId);
+                } else {
+                    turns.add(projectId);
+                }
+            }
+            if (next == null) return;
+
+            queued--;
+            runningProjects.add(next.getProjectId());
+            GenerationJob job = next;
+            executor.execute(() -> run(job));
+        }
+    }
+
+    private void run(GenerationJob job) {
+        try {
+            ClassModel model = codeGenerator.buildModel(job.getProjectId());
+            if (model == null) throw new IllegalStateException("Proyecto no encontrado");
+            job.start(model);
+            notifySubscribers(job);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+            long[] lastSent = { System.currentTimeMillis() };
+            codeGenerator.writeZip(model, out, done -> {
+                job.progress(done);
+                long now = System.currentTimeMillis();
+                if (now - lastSent[0] >= progressIntervalMillis) {
+                    lastSent[0] = now;
+                    notifySubscribers(job);
+                }
+            });
+            if (!artifacts.put(job.getKey(), new Artifact(model.artifactId() + ".zip", out.toByteArray()))) {
+                throw new IllegalStateException("El ZIP generado excede el tamaño máximo almacenable");
+            }
+            job.complete();
+            completed.increment();
+        } catch (Exception e) {
+            log.error("Error generando código - proyecto: {}, job: {}", job.getProjectId(), job.getId(), e);
+            job.fail(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            failed.increment();
+        } finally {
+            synchronized (lock) {
+                runningProjects.remove(job.getProjectId());
+                dispatchLocked();
+            }
+        }
+        notifySubscribers(job);
+    }
+
+    /* =========================================================
+     *                      NOTIFICACIONES
+     * ========================================================= */
+
+    private void notifySubscribers(GenerationJob job) {
+        for (String sessionId : job.getSessions()) {
+            send(sessionId, job);
+        }
+    }
+
+    private void send(String sessionId, GenerationJob job) {
+        Map<String, Object> evt = job.toMap();
+        evt.put("__system", "generation");
+        evt.put("serverTs", System.currentTimeMillis());
+        try {
+            messaging.convertAndSendToUser(sessionId, "/queue/generation", evt, headers(sessionId));
+        } catch (Exception e) {
+            log.debug("No se pudo notificar la generación a la sesión {}", sessionId, e);
+        }
+    }
+
+    /** Sin Principal, el destino de usuario se resuelve por id de sesión. */
+    private static MessageHeaders headers(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setLeaveMutable(true);
+        return accessor.getMessageHeaders();
+    }
+}
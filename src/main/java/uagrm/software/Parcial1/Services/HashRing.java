@@ -0,0 +1,54 @@
+package uagrm.software.Parcial1.Services;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Anillo de hashing consistente: cada instancia ocupa {@code replicas} puntos
+ * del anillo y un proyecto corresponde a la primera instancia a partir de su hash.
+ * Al entrar o salir una instancia solo cambian de dueño ~1/N de los proyectos.
+ * Inmutable: cada cambio de miembros construye un anillo nuevo.
+ */
+final class HashRing {
+
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+
+    HashRing(Collection<String> instances, int replicas) {
+        for (String instance : instances) {
+            for (int i = 0; i < replicas; i++) {
+                points.put(hash(instance + '#' + i), instance);
+            }
+        }
+    }
+
+    /** Instancia preferida para el proyecto; null si el anillo está vacío. */
+    String lookup(long projectId) {
+        if (points.isEmpty()) return null;
+        Map.Entry<Long, String> e = points.ceilingEntry(mix(projectId));
+        return (e != null ? e : points.firstEntry()).getValue();
+    }
+
+    boolean isEmpty() {
+        return points.isEmpty();
+    }
+
+    /** FNV-1a de 64 bits con mezcla final: estable entre instancias y JVMs. */
+    private static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /** Finalizador de SplitMix64. */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,485 @@
+package uagrm.software.Parcial1.Services;
+
+import org.springframework.stereotype.Service;
+
+import uagrm.software.Parcial1.Models.ClassModel;
+import uagrm.software.Parcial1.Models.ClassModel.ClassDef;
+import uagrm.software.Parcial1.Models.ClassModel.ClassKind;
+import uagrm.software.Parcial1.Models.ClassModel.Field;
+import uagrm.software.Parcial1.Models.ClassModel.Method;
+import uagrm.software.Parcial1.Models.ClassModel.Relation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Genera el código fuente de un proyecto Spring Boot a partir de un {@link ClassModel}.
+ *
+ * Cada clase se renderiza de forma independiente (no hay estado compartido),
+ * por lo que {@link #renderClass} puede ejecutarse en paralelo:
+ * - clase persistente: entidad JPA + repositorio + servicio + controlador REST
+ * - clase abstracta: @MappedSuperclass
+ * - interfaz / enum: solo el tipo
+ *
+ * Estructura: {artifactId}/src/main/java/{paquete}/{models|repositories|services|controllers}.
+ */
+@Service
+public class JavaSourceRenderer {
+
+    /** Un archivo del proyecto generado, con su ruta relativa dentro del ZIP. */
+    public record GeneratedFile(String path, String content) {
+    }
+
+    /** Contexto de resolución compartido (solo lectura) entre todas las clases del modelo. */
+    public record Index(Map<String, ClassDef> byName, Set<String> inheritedBy) {
+
+        public static Index of(ClassModel model) {
+            Map<String, ClassDef> byName = new HashMap<>();
+            Set<String> inheritedBy = new TreeSet<>();
+            for (ClassDef c : model.classes()) {
+                byName.put(c.name(), c);
+                if (c.superClass() != null) inheritedBy.add(c.superClass());
+            }
+            return new Index(byName, inheritedBy);
+        }
+    }
+
+    /* =========================================================
+     *                     ESTRUCTURA DEL PROYECTO
+     * ========================================================= */
+
+    public List<GeneratedFile> renderScaffold(ClassModel model) {
+        String root = model.artifactId() + "/";
+        String app = appClassName(model);
+        List<GeneratedFile> files = new ArrayList<>();
+        files.add(new GeneratedFile(root + "pom.xml", pom(model)));
+        files.add(new GeneratedFile(root + "src/main/resources/application.properties", properties(model)));
+        files.add(new GeneratedFile(javaPath(model, null, app), """
+                package %s;
+
+                import org.springframework.boot.SpringApplication;
+                import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+                @SpringBootApplication
+                public class %s {
+
+                    public static void main(String[] args) {
+                        SpringApplication.run(%s.class, args);
+                    }
+                }
+                """.formatted(model.basePackage(), app, app)));
+        return files;
+    }
+
+    /* =========================================================
+     *                         POR CLASE
+     * ========================================================= */
+
+    public List<GeneratedFile> renderClass(ClassModel model, Index index, ClassDef c) {
+        List<GeneratedFile> files = new ArrayList<>(4);
+        switch (c.kind()) {
+            case INTERFACE -> files.add(new GeneratedFile(javaPath(model, "models", c.name()), renderInterface(model, c)));
+            case ENUM -> files.add(new GeneratedFile(javaPath(model, "models", c.name()), renderEnum(model, c)));
+            default -> {
+                files.add(new GeneratedFile(javaPath(model, "models", c.name()), renderEntity(model, index, c)));
+                if (c.isPersistent()) {
+                    files.add(new GeneratedFile(javaPath(model, "repositories", c.name() + "Repository"),
+                            renderRepository(model, c)));
+                    files.add(new GeneratedFile(javaPath(model, "services", c.name() + "Service"),
+                            renderService(model, c)));
+                    files.add(new GeneratedFile(javaPath(model, "controllers", c.name() + "Controller"),
+                            renderController(model, c)));
+                }
+            }
+        }
+        return files;
+    }
+
+    private String renderEntity(ClassModel model, Index index, ClassDef c) {
+        boolean hasParent = c.superClass() != null && index.byName().containsKey(c.superClass());
+        boolean isParent = c.isPersistent() && index.inheritedBy().contains(c.name());
+        Set<String> imports = new TreeSet<>();
+        imports.add("jakarta.persistence.*");
+        imports.add("lombok.Getter");
+        imports.add("lombok.Setter");
+        imports.add("lombok.NoArgsConstructor");
+        StringBuilder body = new StringBuilder();
+
+        if (!hasParent) {
+            body.append("    @Id\n    @GeneratedValue(strategy = GenerationType.IDENTITY)\n    private Long id;\n\n");
+        }
+        for (Field f : c.fields()) {
+            addTypeImport(imports, f.type());
+            if (index.byName().containsKey(f.type())) body.append("    @Enumerated(EnumType.STRING)\n");
+            body.append("    ").append(modifier(f.visibility())).append(f.type()).append(' ').append(f.name())
+                    .append(";\n\n");
+        }
+        for (Relation r : c.relations()) {
+            renderRelation(body, imports, r);
+        }
+        for (Method m : c.methods()) {
+            renderMethodStub(body, imports, m);
+        }
+
+        StringBuilder out = header(model, "models", imports);
+        if (c.kind() == ClassKind.ABSTRACT) {
+            out.append("@MappedSuperclass\n");
+        } else {
+            out.append("@Entity\n@Table(name = \"").append(plural(tableName(c.name()))).append("\")\n");
+            if (isParent) out.append("@Inheritance(strategy = InheritanceType.JOINED)\n");
+        }
+        out.append("@Getter\n@Setter\n@NoArgsConstructor\npublic ");
+        if (c.kind() == ClassKind.ABSTRACT) out.append("abstract ");
+        out.append("class ").append(c.name());
+        if (hasParent) out.append(" extends ").append(c.superClass());
+        if (!c.interfaces().isEmpty()) out.append(" implements ").append(String.join(", ", c.interfaces()));
+        out.append(" {\n\n").append(body);
+        trimBlankLine(out);
+        return out.append("}\n").toString();
+    }
+
+    private void renderRelation(StringBuilder body, Set<String> imports, Relation r) {
+        String annotation = switch (r.cardinality()) {
+            case ONE_TO_ONE -> "OneToOne";
+            case ONE_TO_MANY -> "OneToMany";
+            case MANY_TO_ONE -> "ManyToOne";
+            case MANY_TO_MANY -> "ManyToMany";
+        };
+        List<String> attrs = new ArrayList<>();
+        if (r.mappedBy() != null) attrs.add("mappedBy = \"" + r.mappedBy() + "\"");
+        if (r.cascade()) {
+            attrs.add("cascade = CascadeType.ALL");
+            attrs.add("orphanRemoval = true");
+        }
+        if (r.cardinality() != ClassModel.Cardinality.ONE_TO_MANY
+                && r.cardinality() != ClassModel.Cardinality.MANY_TO_MANY) {
+            attrs.add("fetch = FetchType.LAZY");
+        }
+        if (r.mappedBy() != null) {
+            // Lado inverso: se omite en JSON para evitar ciclos
+            imports.add("com.fasterxml.jackson.annotation.JsonIgnore");
+            body.append("    @JsonIgnore\n");
+        } else {
+            imports.add("com.fasterxml.jackson.annotation.JsonIgnoreProperties");
+            body.append("    @JsonIgnoreProperties({ \"hibernateLazyInitializer\", \"handler\" })\n");
+        }
+        body.append("    @").append(annotation);
+        if (!attrs.isEmpty()) body.append('(').append(String.join(", ", attrs)).append(')');
+        body.append('\n');
+        if (r.mappedBy() == null && r.cardinality() == ClassModel.Cardinality.MANY_TO_ONE) {
+            body.append("    @JoinColumn(name = \"").append(tableName(r.fieldName())).append("_id\")\n");
+        }
+        if (r.isCollection()) {
+            imports.add("java.util.ArrayList");
+            imports.add("java.util.List");
+            body.append("    private List<").append(r.target()).append("> ").append(r.fieldName())
+                    .append(" = new ArrayList<>();\n\n");
+        } else {
+            body.append("    private ").append(r.target()).append(' ').append(r.fieldName()).append(";\n\n");
+        }
+    }
+
+    private void renderMethodStub(StringBuilder body, Set<String> imports, Method m) {
+        addTypeImport(imports, m.returnType());
+        body.append("    ").append(modifier(m.visibility())).append(m.returnType()).append(' ').append(m.name())
+                .append('(').append(m.params()).append(") {\n");
+        body.append("        // TODO: implementar\n");
+        if (!"void".equals(m.returnType())) {
+            body.append("        throw new UnsupportedOperationException(\"").append(m.name())
+                    .append(" no implementado\");\n");
+        }
+        body.append("    }\n\n");
+    }
+
+    private String renderInterface(ClassModel model, ClassDef c) {
+        Set<String> imports = new TreeSet<>();
+        StringBuilder body = new StringBuilder();
+        for (Method m : c.methods()) {
+            addTypeImport(imports, m.returnType());
+            body.append("    ").append(m.returnType()).append(' ').append(m.name())
+                    .append('(').append(m.params()).append(");\n\n");
+        }
+        StringBuilder out = header(model, "models", imports).append("public interface ").append(c.name());
+        if (!c.interfaces().isEmpty()) out.append(" extends ").append(String.join(", ", c.interfaces()));
+        out.append(" {\n\n").append(body);
+        trimBlankLine(out);
+        return out.append("}\n").toString();
+    }
+
+    private String renderEnum(ClassModel model, ClassDef c) {
+        return header(model, "models", Set.of())
+                .append("public enum ").append(c.name()).append(" {\n")
+                .append(c.enumValues().isEmpty() ? "" : "    " + String.join(",\n    ", c.enumValues()) + "\n")
+                .append("}\n").toString();
+    }
+
+    /* =========================================================
+     *                    REPOSITORIO / SERVICIO / REST
+     * ========================================================= */
+
+    private String renderRepository(ClassModel model, ClassDef c) {
+        String pkg = model.basePackage();
+        return """
+                package %1$s.repositories;
+
+                import org.springframework.data.jpa.repository.JpaRepository;
+                import org.springframework.stereotype.Repository;
+
+                import %1$s.models.%2$s;
+
+                @Repository
+                public interface %2$sRepository extends JpaRepository<%2$s, Long> {
+                }
+                """.formatted(pkg, c.name());
+    }
+
+    private String renderService(ClassModel model, ClassDef c) {
+        String pkg = model.basePackage();
+        String var = decapitalize(c.name());
+        return """
+                package %1$s.services;
+
+                import java.util.List;
+                import java.util.Optional;
+
+                import org.springframework.stereotype.Service;
+                import org.springframework.transaction.annotation.Transactional;
+
+                import %1$s.models.%2$s;
+                import %1$s.repositories.%2$sRepository;
+
+                @Service
+                public class %2$sService {
+
+                    private final %2$sRepository repository;
+
+                    public %2$sService(%2$sRepository repository) {
+                        this.repository = repository;
+                    }
+
+                    @Transactional(readOnly = true)
+                    public List<%2$s> findAll() {
+                        return repository.findAll();
+                    }
+
+                    @Transactional(readOnly = true)
+                    public Optional<%2$s> findById(Long id) {
+                        return repository.findById(id);
+                    }
+
+                    @Transactional
+                    public %2$s save(%2$s %3$s) {
+                        return repository.save(%3$s);
+                    }
+
+                    @Transactional
+                    public Optional<%2$s> update(Long id, %2$s %3$s) {
+                        if (!repository.existsById(id)) return Optional.empty();
+                        %3$s.setId(id);
+                        return Optional.of(repository.save(%3$s));
+                    }
+
+                    @Transactional
+                    public boolean delete(Long id) {
+                        if (!repository.existsById(id)) return false;
+                        repository.deleteById(id);
+                        return true;
+                    }
+                }
+                """.formatted(pkg, c.name(), var);
+    }
+
+    private String renderController(ClassModel model, ClassDef c) {
+        String pkg = model.basePackage();
+        String var = decapitalize(c.name());
+        return """
+                package %1$s.controllers;
+
+                import java.util.List;
+
+                import org.springframework.http.HttpStatus;
+                import org.springframework.http.ResponseEntity;
+                import org.springframework.web.bind.annotation.*;
+
+                import %1$s.models.%2$s;
+                import %1$s.services.%2$sService;
+
+                @RestController
+                @RequestMapping("/api/%4$s")
+                public class %2$sController {
+
+                    private final %2$sService service;
+
+                    public %2$sController(%2$sService service) {
+                        this.service = service;
+                    }
+
+                    @GetMapping
+                    public List<%2$s> list() {
+                        return service.findAll();
+                    }
+
+                    @GetMapping("/{id}")
+                    public ResponseEntity<%2$s> get(@PathVariable Long id) {
+                        return ResponseEntity.of(service.findById(id));
+                    }
+
+                    @PostMapping
+                    public ResponseEntity<%2$s> create(@RequestBody %2$s %3$s) {
+                        return ResponseEntity.status(HttpStatus.CREATED).body(service.save(%3$s));
+                    }
+
+                    @PutMapping("/{id}")
+                    public ResponseEntity<%2$s> update(@PathVariable Long id, @RequestBody %2$s %3$s) {
+                        return ResponseEntity.of(service.update(id, %3$s));
+                    }
+
+                    @DeleteMapping("/{id}")
+                    public ResponseEntity<Void> delete(@PathVariable Long id) {
+                        return service.delete(id) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+                    }
+                }
+                """.formatted(pkg, c.name(), var, plural(tableName(c.name())).replace('_', '-'));
+    }
+
+    /* =========================================================
+     *                        ARCHIVOS BASE
+     * ========================================================= */
+
+    private String pom(ClassModel model) {
+        return """
+                <?xml version="1.0" encoding="UTF-8"?>
+                <project xmlns="http://maven.apache.org/POM/4.0.0"
+                         xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance"
+                         xsi:schemaLocation="http://maven.apache.org/POM/4.0.0 https://maven.apache.org/xsd/maven-4.0.0.xsd">
+                    <modelVersion>4.0.0</modelVersion>
+                    <parent>
+                        <groupId>org.springframework.boot</groupId>
+                        <artifactId>spring-boot-starter-parent</artifactId>
+                        <version>3.5.5</version>
+                        <relativePath/>
+                    </parent>
+                    <groupId>%s</groupId>
+                    <artifactId>%s</artifactId>
+                    <version>0.0.1-SNAPSHOT</version>
+                    <name>%s</name>
+                    <properties>
+                        <java.version>17</java.version>
+                    </properties>
+                    <dependencies>
+                        <dependency>
+                            <groupId>org.springframework.boot</groupId>
+                            <artifactId>spring-boot-starter-web</artifactId>
+                        </dependency>
+                        <dependency>
+                            <groupId>org.springframework.boot</groupId>
+                            <artifactId>spring-boot-starter-data-jpa</artifactId>
+                        </dependency>
+                        <dependency>
+                            <groupId>org.postgresql</groupId>
+                            <artifactId>postgresql</artifactId>
+                            <scope>runtime</scope>
+                        </dependency>
+                        <dependency>
+                            <groupId>com.h2database</groupId>
+                            <artifactId>h2</artifactId>
+                            <scope>runtime</scope>
+                        </dependency>
+                        <dependency>
+                            <groupId>org.projectlombok</groupId>
+                            <artifactId>lombok</artifactId>
+                            <optional>true</optional>
+                        </dependency>
+                    </dependencies>
+                    <build>
+                        <plugins>
+                            <plugin>
+                                <groupId>org.springframework.boot</groupId>
+                                <artifactId>spring-boot-maven-plugin</artifactId>
+                            </plugin>
+                        </plugins>
+                    </build>
+                </project>
+                """.formatted(model.basePackage(), model.artifactId(), xml(model.projectName()));
+    }
+
+    private String properties(ClassModel model) {
+        return """
+                spring.application.name=%s
+                # H2 en memoria por defecto; para PostgreSQL cambiar url/usuario/clave
+                spring.datasource.url=jdbc:h2:mem:%s
+                spring.jpa.hibernate.ddl-auto=update
+                spring.jpa.open-in-view=true
+                """.formatted(model.artifactId(), model.artifactId().replace("-", "_"));
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private StringBuilder header(ClassModel model, String subPackage, Set<String> imports) {
+        StringBuilder out = new StringBuilder(1024);
+        out.append("package ").append(model.basePackage()).append('.').append(subPackage).append(";\n\n");
+        if (!imports.isEmpty()) {
+            for (String imp : imports) out.append("import ").append(imp).append(";\n");
+            out.append('\n');
+        }
+        return out;
+    }
+
+    private static String javaPath(ClassModel model, String subPackage, String className) {
+        String pkg = model.basePackage().replace('.', '/');
+        return model.artifactId() + "/src/main/java/" + pkg + "/"
+                + (subPackage == null ? "" : subPackage + "/") + className + ".java";
+    }
+
+    private static void addTypeImport(Set<String> imports, String type) {
+        switch (type) {
+            case "LocalDate" -> imports.add("java.time.LocalDate");
+            case "LocalDateTime" -> imports.add("java.time.LocalDateTime");
+            case "LocalTime" -> imports.add("java.time.LocalTime");
+            default -> { }
+        }
+    }
+
+    private static String modifier(String visibility) {
+        return visibility == null || visibility.isEmpty() ? "" : visibility + " ";
+    }
+
+    private static void trimBlankLine(StringBuilder out) {
+        int n = out.length();
+        if (n >= 2 && out.charAt(n - 1) == '\n' && out.charAt(n - 2) == '\n') out.setLength(n - 1);
+    }
+
+    private static String appClassName(ClassModel model) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : model.artifactId().split("-")) {
+            if (!part.isEmpty()) sb.append(Character.toUpperCase(part.charAt(0))).append(part.substring(1));
+        }
+        return sb.append("Application").toString();
+    }
+
+    /** "DetalleVenta" -> "detalle_venta". */
+    private static String tableName(String name) {
+        return name.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toLowerCase(Locale.ROOT);
+    }
+
+    /** Plural simple para tablas y rutas (evita palabras reservadas como "user" u "order"). */
+    private static String plural(String s) {
+        return s.endsWith("s") ? s + "es" : s + "s";
+    }
+
+    private static String decapitalize(String s) {
+        return s.isEmpty() ? s : Character.toLowerCase(s.charAt(0)) + s.substring(1);
+    }
+
+    private static String xml(String s) {
+        if (s == null) return "";
+        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
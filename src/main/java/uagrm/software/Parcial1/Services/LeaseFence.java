@@ -0,0 +1,54 @@
+package uagrm.software.Parcial1.Services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cerca de las escrituras de diagramas en modo cluster: la BD solo acepta la
+ * escritura si esta instancia tiene la concesión vigente del proyecto en
+ * room_leases ({@link RoomOwnership}). Así una instancia que perdió la concesión
+ * sin enterarse (pausa larga, red cortada) no pisa lo que escribe la nueva dueña.
+ *
+ * Los UPDATE de "diagrams" llevan la condición con {@link #owner()} como parámetro
+ * (null = sin cluster, no se exige concesión).
+ */
+@Component
+public class LeaseFence {
+
+    /** Condición SQL sobre el alias {@code d} de "diagrams"; usa dos veces el dueño. */
+    public static final String CONDITION =
+            "(?::varchar is null or exists(select 1 from room_leases l where l.project_id = d.id "
+                    + "and l.owner = ? and l.expires_at > now()))";
+
+    private static final String HOLDS =
+            "select project_id from room_leases where project_id = ? and owner = ? and expires_at > now() for share";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final String owner;
+
+    public LeaseFence(ClusterBus cluster,
+                      JdbcTemplate jdbcTemplate,
+                      @Value("${diagram.cluster.ownership:true}") boolean ownership) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.owner = ownership && cluster.isEnabled() ? cluster.instanceId() : null;
+    }
+
+    /** Instancia que debe tener la concesión para escribir, o null si no hay cerca. */
+    public String owner() {
+        return owner;
+    }
+
+    public boolean isActive() {
+        return owner != null;
+    }
+
+    /**
+     * Dentro de una transacción: true si la concesión es nuestra, y la bloquea en modo
+     * compartido hasta el commit (nadie la toma mientras se escribe).
+     */
+    public boolean holds(Long projectId) {
+        if (owner == null) return true;
+        return !jdbcTemplate.queryForList(HOLDS, Long.class, projectId, owner).isEmpty();
+    }
+}
@@ -0,0 +1,193 @@
+package uagrm.software.Parcial1.Services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import uagrm.software.Parcial1.Models.DiagramDocument;
+import uagrm.software.Parcial1.Models.DiagramEntity;
+import uagrm.software.Parcial1.Models.DiagramOpEntity;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Repository.DiagramOpRepository;
+import uagrm.software.Parcial1.Repository.DiagramRepository;
+import uagrm.software.Parcial1.Repository.ProjectRepository;
+import uagrm.software.Parcial1.Services.DiagramRoom.FlushBatch;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Modo "oplog": cada versión agrega una fila pequeña a {@code diagram_ops} y el
+ * snapshot completo de "diagrams" solo se reescribe cada
+ * {@code diagram.oplog.snapshot-every-ops} operaciones o
+ * {@code diagram.oplog.snapshot-every-bytes} bytes.
+ *
+ * - Lectura: snapshot + replay de las ops con versión mayor.
+ * - Versión actual: la mayor entre la del snapshot y la última op.
+ * - Compactación periódica: consolida colas largas en un snapshot nuevo y poda
+ *   el log, conservando {@code diagram.oplog.retain-ops} versiones de historia.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "diagram.persistence.mode", havingValue = "oplog")
+public class OpLogDiagramStore implements DiagramStore {
+
+    private static final String INSERT_OP =
+            "insert into diagram_ops (project_id, version, ops, client_id, created_at) values (?, ?, ?, ?, now())";
+
+    private final DiagramRepository diagramRepository;
+    private final DiagramOpRepository opRepository;
+    private final ProjectRepository projectRepository;
+    private final DiagramMergeEngine mergeEngine;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final LeaseFence leaseFence;
+
+    /** Tamaño de la cola posterior al último snapshot. */
+    private record Tail(int ops, long bytes) {
+    }
+
+    // projectId -> cola conocida (se reinicia al escribir un snapshot)
+    private final ConcurrentMap<Long, Tail> tails = new ConcurrentHashMap<>();
+
+    @Value("${diagram.oplog.snapshot-every-ops:200}")
+    private int snapshotEveryOps;
+
+    @Value("${diagram.oplog.snapshot-every-bytes:1048576}")
+    private long snapshotEveryBytes;
+
+    @Value("${diagram.oplog.retain-ops:1000}")
+    private int retainOps;
+
+    /* =========================================================
+     *                         LECTURA
+     * ========================================================= */
+
+    @Override
+    public DiagramSnapshot load(Long projectId) {
+        DiagramEntity d = diagramRepository.findById(projectId).orElse(null);
+        if (d == null) return null;
+
+        List<DiagramOpEntity> tail = opRepository
+                .findByProjectIdAndVersionGreaterThanOrderByVersionAsc(projectId, d.getVersion());
+        if (tail.isEmpty()) {
+            tails.put(projectId, new Tail(0, 0));
+            return DiagramSnapshot.of(d);
+        }
+
+        DiagramDocument doc = mergeEngine.parse(d.getNodes(), d.getEdges());
+        String[] meta = { d.getName(), d.getViewport() };
+        long bytes = 0;
+        for (DiagramOpEntity op : tail) {
+            mergeEngine.replay(doc, op.getOps(), meta);
+            bytes += op.getOps().length();
+        }
+        tails.put(projectId, new Tail(tail.size(), bytes));
+
+        DiagramOpEntity last = tail.get(tail.size() - 1);
+        return new DiagramSnapshot(projectId, meta[0], mergeEngine.writeNodes(doc), mergeEngine.writeEdges(doc),
+                meta[1], d.getCreatedAt(), last.getCreatedAt(), last.getVersion());
+    }
+
+    @Override
+    public Integer currentVersion(Long projectId) {
+        Integer snapshot = diagramRepository.findVersionById(projectId).orElse(null);
+        if (snapshot == null) return null;
+        Integer lastOp = opRepository.findMaxVersion(projectId);
+        return lastOp == null ? snapshot : Math.max(snapshot, lastOp);
+    }
+
+    /* =========================================================
+     *                        ESCRITURA
+     * ========================================================= */
+
+    @Override
+    public boolean needsFullState(Long projectId, int pendingOps, long pendingBytes) {
+        Tail t = tails.getOrDefault(projectId, new Tail(0, 0));
+        return t.ops() + pendingOps >= snapshotEveryOps || t.bytes() + pendingBytes >= snapshotEveryBytes;
+    }
+
+    @Override
+    public boolean write(FlushBatch batch) {
+        Boolean ok = transactionTemplate.execute(tx -> {
+            // La concesión queda tomada hasta el commit: nadie más escribe el proyecto mientras tanto
+            if (!leaseFence.holds(batch.projectId())) return false;
+            Integer head = currentVersion(batch.projectId());
+            if (head == null || head != batch.expectedVersion()) return false;
+
+            if (batch.ops() != null && !batch.ops().isEmpty()) {
+                jdbcTemplate.batchUpdate(INSERT_OP, batch.ops(), batch.ops().size(), (ps, op) -> {
+                    ps.setLong(1, batch.projectId());
+                    ps.setInt(2, op.version());
+                    ps.setString(3, op.json());
+                    ps.setString(4, op.clientId());
+                });
+            }
+            if (batch.hasFullState()) {
+                writeSnapshot(batch.projectId(), batch.name(), batch.nodes(), batch.edges(), batch.viewport(),
+                        batch.version());
+            }
+            projectRepository.touchLastEdited(batch.projectId(), LocalDateTime.now());
+            return true;
+        });
+        if (!Boolean.TRUE.equals(ok)) return false;
+
+        if (batch.hasFullState()) {
+            tails.put(batch.projectId(), new Tail(0, 0));
+        } else if (batch.ops() != null) {
+            long bytes = batch.ops().stream().mapToLong(o -> o.json().length()).sum();
+            tails.merge(batch.projectId(), new Tail(batch.ops().size(), bytes),
+                    (a, b) -> new Tail(a.ops() + b.ops(), a.bytes() + b.bytes()));
+        }
+        return true;
+    }
+
+    @Override
+    public void delete(Long projectId) {
+        jdbcTemplate.update("delete from diagram_ops where project_id = ?", projectId);
+        tails.remove(projectId);
+    }
+
+    /* =========================================================
+     *                       COMPACTACIÓN
+     * ========================================================= */
+
+    /** Consolida colas largas (p. ej. de salas que se cerraron antes del umbral) y poda el log. */
+    @Scheduled(fixedDelayString = "${diagram.oplog.compaction-interval-ms:600000}")
+    public void compact() {
+        int compacted = 0;
+        for (Long projectId : opRepository.findProjectsWithTailAtLeast(snapshotEveryOps)) {
+            try {
+                DiagramSnapshot s = load(projectId);
+                if (s == null) continue;
+                transactionTemplate.executeWithoutResult(tx ->
+                        writeSnapshot(projectId, s.name(), s.nodes(), s.edges(), s.viewport(), s.version()));
+                tails.put(projectId, new Tail(0, 0));
+                compacted++;
+            } catch (Exception e) {
+                log.error("Error compactando log del proyecto {}", projectId, e);
+            }
+        }
+        Integer pruned = transactionTemplate.execute(tx -> opRepository.pruneBeforeSnapshots(retainOps));
+        if (compacted > 0 || (pruned != null && pruned > 0)) {
+            log.info("Compactación del log: {} snapshots nuevos, {} operaciones podadas", compacted, pruned);
+        }
+    }
+
+    /** Reescribe el snapshot en la versión indicada (debe ejecutarse dentro de una transacción). */
+    private void writeSnapshot(Long projectId, String name, String nodes, String edges, String viewport, int version) {
+        Integer snapshotVersion = diagramRepository.findVersionById(projectId).orElse(null);
+        if (snapshotVersion == null || snapshotVersion >= version) return;
+        // Sin cerca: o ya se verificó la concesión en write(), o la compactación reescribe versiones existentes
+        diagramRepository.writeSnapshot(projectId, name, nodes, edges, viewport, version, snapshotVersion, null);
+        opRepository.deleteUpTo(projectId, version - retainOps);
+    }
+}
@@ -0,0 +1,601 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.WebSocketHandlerDecorator;
+import org.springframework.web.socket.handler.WebSocketHandlerDecoratorFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Colas de salida por sesión con conflación "el último gana".
+ *
+ * Todo lo que va hacia una sesión (clientOutboundChannel) pasa por su cola y lo
+ * envía un único drenador a la vez, así que un cliente lento solo retiene su
+ * propio hilo de envío y nunca frena el reparto a los demás. Mientras espera:
+ *
+ * - Un snapshot completo ({@link DiagramEventEncoder#SNAPSHOT_HEADER}) descarta
+ *   los mensajes aún no enviados de la misma suscripción (snapshots y patches
+ *   anteriores: el nuevo ya los contiene).
+ * - Los frames de cursores pendientes del mismo destino se fusionan en uno,
+ *   conservando el último movimiento por (clientId, nodo).
+ * - Los frames de presencia pendientes del mismo destino se fusionan en un
+ *   solo diff (altas, bajas y cambios de estado por sesión; ver {@link PresenceService}).
+ *
+ * Si aun así la cola supera {@code diagram.outbound.max-queued} mensajes o
+ * {@code diagram.outbound.max-bytes}, o un envío lleva más de
+ * {@code diagram.outbound.send-time-limit-ms}, la sesión se cierra
+ * (SESSION_NOT_RELIABLE): el cliente reconecta y pide /sync. Con un solo
+ * emisor por sesión, los límites de ConcurrentWebSocketSessionDecorator ya no
+ * intervienen y estos son los que acotan la memoria.
+ *
+ * El envío al socket es bloqueante, así que un cliente lento retiene su hilo
+ * hasta que la escritura termina. Por eso el pool crece por encima de
+ * {@code diagram.outbound.threads} (hasta {@code diagram.outbound.max-threads})
+ * en lugar de encolar: una sesión sana nunca espera detrás de las trabadas.
+ * {@link #closeStalled()} corta las que superan el tiempo de envío aunque no
+ * llegue nada nuevo, y al cerrar el socket su hilo vuelve al pool.
+ *
+ * Se desactiva con {@code diagram.outbound.conflate=false}.
+ */
+@Slf4j
+@Service
+public class OutboundConflator {
+
+    private static final String CURSORS_SUFFIX = "/cursors";
+    private static final String PRESENCE_SUFFIX = "/presence";
+    private static final int DRAIN_BATCH = 64;
+    private static final int MAX_REPORTED_SESSIONS = 50;
+
+    private enum Kind { SNAPSHOT, CURSORS, PRESENCE, OTHER }
+
+    /** Mensaje en cola; {@code message} se reemplaza al fusionar cursores. */
+    private static final class Entry {
+        final Kind kind;
+        final String destination;
+        final String subscriptionId;
+        Message<?> message;
+        long bytes;
+
+        Entry(Kind kind, String destination, String subscriptionId, Message<?> message, long bytes) {
+            this.kind = kind;
+            this.destination = destination;
+            this.subscriptionId = subscriptionId;
+            this.message = message;
+            this.bytes = bytes;
+        }
+
+        boolean sameTarget(Entry other) {
+            return destination != null && destination.equals(other.destination)
+                    && Objects.equals(subscriptionId, other.subscriptionId);
+        }
+    }
+
+    /** Estado de una sesión conectada. Todo se modifica bajo su monitor. */
+    private static final class Outbox {
+        final WebSocketSession session;
+        final ArrayDeque<Entry> queue = new ArrayDeque<>();
+        long queuedBytes;
+        boolean draining;
+        boolean closed;
+        volatile long sendingSince;
+
+        long sent;
+        long superseded;
+        long conflatedCursors;
+        long dedupedPresence;
+        long dropped;
+
+        Outbox(WebSocketSession session) {
+            this.session = session;
+        }
+    }
+
+    private final ObjectProvider<WebSocketHandler> subProtocolHandler;
+    private final ObjectMapper objectMapper;
+    private final Environment environment;
+    private final ConcurrentMap<String, Outbox> outboxes = new ConcurrentHashMap<>();
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder superseded = new LongAdder();
+    private final LongAdder conflatedCursors = new LongAdder();
+    private final LongAdder dedupedPresence = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder slowClosed = new LongAdder();
+
+    private Executor executor;
+
+    @Value("${diagram.outbound.conflate:true}")
+    private boolean enabled;
+
+    @Value("${diagram.outbound.threads:32}")
+    private int threads;
+
+    @Value("${diagram.outbound.max-threads:1024}")
+    private int maxThreads;
+
+    @Value("${diagram.outbound.max-queued:1000}")
+    private int maxQueued;
+
+    @Value("${diagram.outbound.max-bytes:5242880}")
+    private long maxBytes;
+
+    @Value("${diagram.outbound.send-time-limit-ms:10000}")
+    private long sendTimeLimitMillis;
+
+    public OutboundConflator(@Qualifier("subProtocolWebSocketHandler") ObjectProvider<WebSocketHandler> subProtocolHandler,
+                             ObjectMapper objectMapper,
+                             Environment environment) {
+        // Proveedor perezoso: el handler lo crea la configuración STOMP que registra a este componente
+        this.subProtocolHandler = subProtocolHandler;
+        this.objectMapper = objectMapper;
+        this.environment = environment;
+    }
+
+    @PostConstruct
+    void start() {
+        if (Threading.VIRTUAL.isActive(environment)) {
+            // Un hilo virtual por drenador: un cliente lento no retiene un hilo de plataforma
+            SimpleAsyncTaskExecutor virtual = new SimpleAsyncTaskExecutor("ws-out-");
+            virtual.setVirtualThreads(true);
+            executor = virtual;
+            log.info("Colas de salida por sesión: conflación {}, envío en hilos virtuales", enabled ? "activa" : "inactiva");
+            return;
+        }
+        // Una tarea por sesión con mensajes pendientes y sin cola: si todos los hilos están
+        // enviando (p. ej. a clientes lentos) se abre otro en vez de esperar detrás de ellos
+        ThreadPoolTaskExecutor pool = new ThreadPoolTaskExecutor();
+        pool.setCorePoolSize(threads);
+        pool.setMaxPoolSize(Math.max(threads, maxThreads));
+        pool.setQueueCapacity(0);
+        pool.setKeepAliveSeconds(60);
+        pool.setThreadNamePrefix("ws-out-");
+        pool.initialize();
+        executor = pool;
+        log.info("Colas de salida por sesión: conflación {}, {}-{} hilos de envío, límite por envío {} ms",
+                enabled ? "activa" : "inactiva", threads, pool.getMaxPoolSize(), sendTimeLimitMillis);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (executor instanceof ThreadPoolTaskExecutor pool) pool.shutdown();
+        else if (executor instanceof SimpleAsyncTaskExecutor virtual) virtual.close();
+    }
+
+    /* =========================================================
+     *                       INTEGRACIÓN
+     * ========================================================= */
+
+    /** Registra las sesiones para poder cerrarlas y liberar su cola al desconectar. */
+    public WebSocketHandlerDecoratorFactory decoratorFactory() {
+        return handler -> new WebSocketHandlerDecorator(handler) {
+            @Override
+            public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+                outboxes.put(session.getId(), new Outbox(session));
+                super.afterConnectionEstablished(session);
+            }
+
+            @Override
+            public void afterConnectionClosed(WebSocketSession session, CloseStatus status) throws Exception {
+                discard(session.getId());
+                super.afterConnectionClosed(session, status);
+            }
+        };
+    }
+
+    /** Interceptor de clientOutboundChannel: encola y consume el mensaje. */
+    public ChannelInterceptor outboundInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                if (!enabled) return message;
+                String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+                Outbox box = sessionId == null ? null : outboxes.get(sessionId);
+                // Sesión desconocida (aún no registrada): camino normal
+                if (box == null) return message;
+                enqueue(box, message);
+                return null;
+            }
+        };
+    }
+
+    /* =========================================================
+     *                          COLA
+     * ========================================================= */
+
+    private void enqueue(Outbox box, Message<?> message) {
+        Entry entry = classify(message);
+        boolean schedule;
+        boolean overflow = false;
+        synchronized (box) {
+            if (box.closed) {
+                box.dropped++;
+                dropped.increment();
+                return;
+            }
+            switch (entry.kind) {
+                case SNAPSHOT -> supersede(box, entry);
+                case CURSORS -> {
+                    if (mergeCursors(box, entry)) return;
+                }
+                case PRESENCE -> {
+                    if (replacePresence(box, entry)) return;
+                }
+                default -> { }
+            }
+            box.queue.add(entry);
+            box.queuedBytes += entry.bytes;
+
+            long since = box.sendingSince;
+            if (box.queue.size() > maxQueued || box.queuedBytes > maxBytes
+                    || (since > 0 && System.currentTimeMillis() - since > sendTimeLimitMillis)) {
+                overflow = true;
+                schedule = false;
+            } else {
+                schedule = !box.draining;
+                box.draining = true;
+            }
+        }
+        if (overflow) {
+            closeSlow(box);
+        } else if (schedule) {
+            schedule(box);
+        }
+    }
+
+    private void schedule(Outbox box) {
+        try {
+            executor.execute(() -> drain(box));
+        } catch (RejectedExecutionException e) {
+            // max-threads envíos trabados a la vez: esta sesión no puede esperar un hilo
+            log.warn("Sin hilos de envío libres - sessionId: {}", box.session.getId());
+            closeSlow(box);
+        }
+    }
+
+    /** El snapshot nuevo contiene todo lo pendiente de la misma suscripción. */
+    private void supersede(Outbox box, Entry snapshot) {
+        Iterator<Entry> it = box.queue.iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (e.sameTarget(snapshot) && (e.kind == Kind.SNAPSHOT || e.kind == Kind.OTHER)) {
+                it.remove();
+                box.queuedBytes -= e.bytes;
+                box.superseded++;
+                superseded.increment();
+            }
+        }
+    }
+
+    /** Fusiona con un frame de cursores pendiente del mismo destino; true si se fusionó. */
+    private boolean mergeCursors(Outbox box, Entry fresh) {
+        Iterator<Entry> it = box.queue.descendingIterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (e.kind != Kind.CURSORS || !e.sameTarget(fresh)) continue;
+            byte[] merged = mergeMoves(e.message.getPayload(), fresh.message.getPayload());
+            if (merged == null) return false;
+            box.queuedBytes += merged.length - e.bytes;
+            e.message = MessageBuilder.createMessage(merged, fresh.message.getHeaders());
+            e.bytes = merged.length;
+            box.conflatedCursors++;
+            conflatedCursors.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /** Fusiona con un frame de presencia pendiente del mismo destino; true si lo había. */
+    private boolean replacePresence(Outbox box, Entry fresh) {
+        for (Entry e : box.queue) {
+            if (e.kind == Kind.PRESENCE && e.sameTarget(fresh)) {
+                byte[] merged = mergePresence(e.message.getPayload(), fresh.message.getPayload());
+                // Sin forma de diff (formato anterior): el frame nuevo reemplaza al pendiente
+                Message<?> next = merged == null ? fresh.message
+                        : MessageBuilder.createMessage(merged, fresh.message.getHeaders());
+                long bytes = merged == null ? fresh.bytes : merged.length;
+                box.queuedBytes += bytes - e.bytes;
+                e.message = next;
+                e.bytes = bytes;
+                box.dedupedPresence++;
+                dedupedPresence.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* =========================================================
+     *                          ENVÍO
+     * ========================================================= */
+
+    private void drain(Outbox box) {
+        MessageHandler handler = (MessageHandler) subProtocolHandler.getObject();
+        while (true) {
+            for (int i = 0; i < DRAIN_BATCH; i++) {
+                Entry next;
+                synchronized (box) {
+                    next = box.closed ? null : box.queue.poll();
+                    if (next == null) {
+                        box.draining = false;
+                        return;
+                    }
+                    box.queuedBytes -= next.bytes;
+                }
+                box.sendingSince = System.currentTimeMillis();
+                try {
+                    handler.handleMessage(next.message);
+                    synchronized (box) {
+                        box.sent++;
+                    }
+                    sent.increment();
+                } catch (Exception e) {
+                    log.debug("Error enviando a la sesión {}", box.session.getId(), e);
+                } finally {
+                    box.sendingSince = 0;
+                }
+            }
+            // Lote agotado: se cede el hilo a otras sesiones; si no hay hilos libres se sigue en este
+            try {
+                executor.execute(() -> drain(box));
+                return;
+            } catch (RejectedExecutionException e) {
+                // continúa con el siguiente lote
+            }
+        }
+    }
+
+    /**
+     * Cierra las sesiones con un envío en curso más largo que el límite, aunque no les
+     * llegue nada nuevo (el límite de {@link #enqueue} solo se mira al encolar).
+     */
+    @Scheduled(fixedDelayString = "#{${diagram.outbound.send-time-limit-ms:10000} / 4}")
+    public void closeStalled() {
+        long now = System.currentTimeMillis();
+        for (Outbox box : outboxes.values()) {
+            long since = box.sendingSince;
+            if (since > 0 && now - since > sendTimeLimitMillis) closeSlow(box);
+        }
+    }
+
+    private void closeSlow(Outbox box) {
+        synchronized (box) {
+            if (box.closed) return;
+            box.closed = true;
+            box.dropped += box.queue.size();
+            dropped.add(box.queue.size());
+            box.queue.clear();
+            box.queuedBytes = 0;
+        }
+        slowClosed.increment();
+        log.warn("Sesión lenta cerrada - sessionId: {}", box.session.getId());
+        // El cierre puede esperar a la escritura trabada: fuera del hilo que lo pide
+        try {
+            executor.execute(() -> closeSession(box));
+        } catch (RejectedExecutionException e) {
+            closeSession(box);
+        }
+    }
+
+    private void closeSession(Outbox box) {
+        try {
+            box.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (Exception e) {
+            log.debug("Error cerrando sesión lenta {}", box.session.getId(), e);
+        }
+    }
+
+    private void discard(String sessionId) {
+        Outbox box = outboxes.remove(sessionId);
+        if (box == null) return;
+        synchronized (box) {
+            box.closed = true;
+            box.queue.clear();
+            box.queuedBytes = 0;
+        }
+    }
+
+    /**
+     * Sesión sin heartbeats ({@link SessionExpiry}) cuyo socket sigue registrado: se
+     * cierra, y el cierre dispara la desconexión normal en el resto de componentes.
+     */
+    @EventListener
+    public void onSessionExpired(SessionExpiredEvent event) {
+        Outbox box = outboxes.get(event.sessionId());
+        if (box == null) return;
+        try {
+            box.session.close(CloseStatus.SESSION_NOT_RELIABLE);
+        } catch (Exception e) {
+            log.debug("Error cerrando sesión vencida {}", event.sessionId(), e);
+        }
+    }
+
+    /** Mensajes pendientes en todas las colas de salida. */
+    public long backlog() {
+        long total = 0;
+        for (Outbox box : outboxes.values()) {
+            synchronized (box) {
+                total += box.queue.size();
+            }
+        }
+        return total;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("sessions", outboxes.size());
+        stats.put("sent", sent.sum());
+        stats.put("superseded", superseded.sum());
+        stats.put("conflatedCursors", conflatedCursors.sum());
+        stats.put("dedupedPresence", dedupedPresence.sum());
+        stats.put("dropped", dropped.sum());
+        stats.put("slowClosed", slowClosed.sum());
+
+        // Sesiones con más mensajes descartados o fusionados
+        List<Map<String, Object>> perSession = new ArrayList<>();
+        for (Outbox box : outboxes.values()) {
+            synchronized (box) {
+                long conflated = box.superseded + box.conflatedCursors + box.dedupedPresence;
+                if (conflated == 0 && box.dropped == 0 && box.queue.isEmpty()) continue;
+                Map<String, Object> s = new LinkedHashMap<>();
+                s.put("sessionId", box.session.getId());
+                s.put("queued", box.queue.size());
+                s.put("queuedBytes", box.queuedBytes);
+                s.put("sent", box.sent);
+                s.put("superseded", box.superseded);
+                s.put("conflatedCursors", box.conflatedCursors);
+                s.put("dedupedPresence", box.dedupedPresence);
+                s.put("dropped", box.dropped);
+                perSession.add(s);
+            }
+        }
+        perSession.sort(Comparator.comparingLong((Map<String, Object> s) ->
+                (long) s.get("superseded") + (long) s.get("conflatedCursors")
+                        + (long) s.get("dedupedPresence") + (long) s.get("dropped")).reversed());
+        stats.put("topSessions", perSession.size() > MAX_REPORTED_SESSIONS
+                ? perSession.subList(0, MAX_REPORTED_SESSIONS) : perSession);
+        return stats;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private static Entry classify(Message<?> message) {
+        Object payload = message.getPayload();
+        long bytes = payload instanceof byte[] b ? b.length : 64;
+        if (SimpMessageHeaderAccessor.getMessageType(message.getHeaders()) != SimpMessageType.MESSAGE) {
+            return new Entry(Kind.OTHER, null, null, message, bytes);
+        }
+        String destination = SimpMessageHeaderAccessor.getDestination(message.getHeaders());
+        String subscriptionId = SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders());
+        Kind kind = Kind.OTHER;
+        if (Boolean.TRUE.equals(message.getHeaders().get(DiagramEventEncoder.SNAPSHOT_HEADER))) {
+            kind = Kind.SNAPSHOT;
+        } else if (destination != null && destination.endsWith(CURSORS_SUFFIX)) {
+            kind = Kind.CURSORS;
+        } else if (destination != null && destination.endsWith(PRESENCE_SUFFIX)) {
+            kind = Kind.PRESENCE;
+        }
+        return new Entry(kind, destination, subscriptionId, message, bytes);
+    }
+
+    /**
+     * Une dos frames { moves:[...] } conservando el último movimiento por
+     * (clientId, id). Devuelve null si alguno no tiene la forma esperada.
+     */
+    private byte[] mergeMoves(Object older, Object newer) {
+        if (!(older instanceof byte[] a) || !(newer instanceof byte[] b)) return null;
+        try {
+            JsonNode oldFrame = objectMapper.readTree(a);
+            JsonNode newFrame = objectMapper.readTree(b);
+            if (!(newFrame instanceof ObjectNode merged) || !oldFrame.path("moves").isArray()
+                    || !newFrame.path("moves").isArray()) {
+                return null;
+            }
+            Map<String, JsonNode> moves = new LinkedHashMap<>();
+            for (JsonNode m : oldFrame.get("moves")) moves.put(m.path("clientId").asText() + '|' + m.path("id").asText(), m);
+            for (JsonNode m : newFrame.get("moves")) {
+                String key = m.path("clientId").asText() + '|' + m.path("id").asText();
+                moves.remove(key);
+                moves.put(key, m);
+            }
+            ArrayNode all = merged.putArray("moves");
+            moves.values().forEach(all::add);
+            return objectMapper.writeValueAsBytes(merged);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Une dos diffs de presencia { joined, left, updated } en orden: un alta y una
+     * baja de la misma sesión se anulan y de cada sesión queda su último estado.
+     * Devuelve null si alguno no tiene la forma esperada.
+     */
+    private byte[] mergePresence(Object older, Object newer) {
+        if (!(older instanceof byte[] a) || !(newer instanceof byte[] b)) return null;
+        try {
+            JsonNode oldFrame = objectMapper.readTree(a);
+            JsonNode newFrame = objectMapper.readTree(b);
+            if (!(newFrame instanceof ObjectNode merged) || !isPresenceDiff(oldFrame) || !isPresenceDiff(newFrame)) {
+                return null;
+            }
+            Map<String, JsonNode> joined = new LinkedHashMap<>();
+            Map<String, JsonNode> updated = new LinkedHashMap<>();
+            Set<String> left = new LinkedHashSet<>();
+            for (JsonNode frame : List.of(oldFrame, newFrame)) {
+                for (JsonNode sid : frame.get("left")) {
+                    String id = sid.asText();
+                    if (joined.remove(id) == null) left.add(id);
+                    updated.remove(id);
+                }
+                for (JsonNode m : frame.get("joined")) {
+                    String id = m.path("sessionId").asText();
+                    left.remove(id);
+                    updated.remove(id);
+                    joined.put(id, m);
+                }
+                for (JsonNode m : frame.get("updated")) {
+                    String id = m.path("sessionId").asText();
+                    if (joined.containsKey(id)) joined.put(id, m);
+                    else updated.put(id, m);
+                }
+            }
+            ArrayNode j = merged.putArray("joined");
+            joined.values().forEach(j::add);
+            ArrayNode l = merged.putArray("left");
+            left.forEach(l::add);
+            ArrayNode u = merged.putArray("updated");
+            updated.values().forEach(u::add);
+            return objectMapper.writeValueAsBytes(merged);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static boolean isPresenceDiff(JsonNode frame) {
+        return frame.path("joined").isArray() && frame.path("left").isArray() && frame.path("updated").isArray();
+    }
+}
@@ -1,54 +1,178 @@
 package uagrm.software.Parcial1.Services;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * Servicio robusto de presencia con:
- * - Tracking de sesiones por proyecto
- * - Rate limiting por sesión
+ * - Tracking de sesiones por proyecto, con identidad (userId, nombre, color) y
+ *   el elemento que cada una está editando
+ * - Índice inverso sesión -> proyectos: una desconexión solo toca sus salas
  * - Timestamps de conexión
- * - Limpieza automática de sesiones obsoletas
+ * - Vencimiento de sesiones sin heartbeats ({@link SessionExpiry}): una desconexión
+ *   perdida no deja a la sesión "zombie" en sus salas
+ * - Aviso ({@link RoomEmptyEvent}) cuando una sala se queda vacía
+ * - En modo cluster ({@link ClusterBus}), "online" es el total de todas las
+ *   instancias: cada una publica sus conectados por sala al emitir un frame y
+ *   cada {@code diagram.cluster.presence-interval-ms}. La lista completa
+ *   (roster) sigue siendo la de esta instancia; los miembros de otras llegan en
+ *   sus frames "diff", que el bus reenvía.
+ *
+ * Los miembros de cada sala viven en un ConcurrentHashMap (lecturas sin lock);
+ * altas y bajas pasan por compute() sobre el mapa de salas, que bloquea solo el
+ * bucket de ese proyecto. Los cambios no se emiten uno a uno: se acumulan por
+ * sala y a los {@code diagram.presence.debounce-ms} sale un solo frame a
+ * /topic/projects/{id}/presence:
+ *   { __system:"presence", action:"diff", projectId, online, joined:[...], left:[...], updated:[...], serverTs }
+ * Quien entra recibe además la lista completa en /user/queue/presence (action:"roster").
  */
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class PresenceService {
 
-    // projectId -> set de sessionIds conectadas a ese proyecto
-    private final ConcurrentMap<Long, Set<String>> rooms = new ConcurrentHashMap<>();
-    
-    // sessionId -> último timestamp de actualización (para rate limiting)
-    private final ConcurrentMap<String, Long> lastUpdateTime = new ConcurrentHashMap<>();
-    
+    private static final int MAX_FIELD_LENGTH = 64;
+
+    /** Miembro de una sala. Inmutable: un cambio de estado lo reemplaza. */
+    public record Member(String sessionId, String userId, String name, String color, String editing, long joinedAt) {
+
+        Member withEditing(String elementId) {
+            return new Member(sessionId, userId, name, color, elementId, joinedAt);
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("sessionId", sessionId);
+            m.put("userId", userId);
+            m.put("name", name);
+            m.put("color", color);
+            m.put("editing", editing);
+            m.put("joinedAt", joinedAt);
+            return m;
+        }
+    }
+
+    /** Conectados por sala de otra instancia y cuándo se supo de ella por última vez. */
+    private static final class RemoteInstance {
+        final ConcurrentMap<Long, Integer> counts = new ConcurrentHashMap<>();
+        volatile long seenAt;
+    }
+
+    /** Cambios de una sala pendientes de emitir. Se muta solo dentro de compute(). */
+    private static final class Diff {
+        final Map<String, Member> joined = new LinkedHashMap<>();
+        final Set<String> left = new LinkedHashSet<>();
+        final Map<String, Member> updated = new LinkedHashMap<>();
+
+        boolean isEmpty() {
+            return joined.isEmpty() && left.isEmpty() && updated.isEmpty();
+        }
+    }
+
+    private final ApplicationEventPublisher events;
+    private final SimpMessagingTemplate messaging;
+    private final SessionExpiry expiry;
+    private final ClusterBus cluster;
+
+    // projectId -> (sessionId -> miembro). Altas y bajas dentro de rooms.compute()
+    private final ConcurrentMap<Long, Map<String, Member>> rooms = new ConcurrentHashMap<>();
+
+    // projectId -> cambios aún no emitidos
+    private final ConcurrentMap<Long, Diff> diffs = new ConcurrentHashMap<>();
+
     // sessionId -> timestamp de conexión
     private final ConcurrentMap<String, Long> connectionTime = new ConcurrentHashMap<>();
-    
-    // sessionId -> set de projectIds donde está presente
+
+    // sessionId -> set de projectIds donde está presente (índice inverso)
     private final ConcurrentMap<String, Set<Long>> sessionProjects = new ConcurrentHashMap<>();
 
+    // instanceId -> conectados por sala en otras instancias (modo cluster)
+    private final ConcurrentMap<String, RemoteInstance> remotes = new ConcurrentHashMap<>();
+
+    private final LongAdder changes = new LongAdder();
+    private final LongAdder framesSent = new LongAdder();
+    private final LongAdder rostersSent = new LongAdder();
+    private final LongAdder expiredSessions = new LongAdder();
+
+    private ThreadPoolTaskScheduler scheduler;
+
+    @Value("${diagram.presence.debounce-ms:100}")
+    private long debounceMillis;
+
+    @Value("${diagram.cluster.presence-interval-ms:5000}")
+    private long clusterIntervalMillis;
+
+    @PostConstruct
+    void start() {
+        scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("ws-presence-");
+        scheduler.initialize();
+    }
+
+    @PreDestroy
+    void stop() {
+        if (scheduler != null) scheduler.shutdown();
+    }
+
     /**
      * Registra una nueva conexión
      */
     public void recordConnection(String sessionId) {
         connectionTime.put(sessionId, System.currentTimeMillis());
+        expiry.track(sessionId);
         log.debug("Conexión registrada: {}", sessionId);
     }
 
     /**
-     * Usuario entra a un proyecto
+     * Usuario entra a un proyecto sin identidad (se muestra por sessionId)
      */
     public int enter(Long projectId, String sessionId) {
+        return enter(projectId, sessionId, null);
+    }
+
+    /**
+     * Usuario entra a un proyecto. {@code identity} (opcional) trae userId, name y color.
+     * Devuelve los conectados tras entrar.
+     */
+    public int enter(Long projectId, String sessionId, Map<String, Object> identity) {
         if (projectId == null || sessionId == null) {
             throw new IllegalArgumentException("projectId y sessionId no pueden ser null");
         }
-        
-        rooms.computeIfAbsent(projectId, k -> ConcurrentHashMap.newKeySet()).add(sessionId);
+        Member member = new Member(sessionId,
+                field(identity, "userId"), field(identity, "name"), field(identity, "color"),
+                null, System.currentTimeMillis());
+
+        rooms.compute(projectId, (id, members) -> {
+            if (members == null) members = new ConcurrentHashMap<>();
+            members.put(sessionId, member);
+            return members;
+        });
         sessionProjects.computeIfAbsent(sessionId, k -> ConcurrentHashMap.newKeySet()).add(projectId);
-        
+        record(projectId, d -> {
+            d.left.remove(sessionId);
+            d.updated.remove(sessionId);
+            d.joined.put(sessionId, member);
+        });
+
         int count = count(projectId);
         log.debug("Usuario entró - proyecto: {}, sessionId: {}, total: {}", projectId, sessionId, count);
         return count;
@@ -61,58 +185,70 @@ public class PresenceService {
         if (projectId == null || sessionId == null) {
             return 0;
         }
-        
-        Set<String> set = rooms.get(projectId);
-        if (set != null) {
-            set.remove(sessionId);
-            if (set.isEmpty()) {
-                rooms.remove(projectId);
-            }
-        }
-        
-        Set<Long> projects = sessionProjects.get(sessionId);
-        if (projects != null) {
+
+        removeMember(projectId, sessionId);
+        sessionProjects.computeIfPresent(sessionId, (sid, projects) -> {
             projects.remove(projectId);
-            if (projects.isEmpty()) {
-                sessionProjects.remove(sessionId);
-            }
-        }
-        
+            return projects.isEmpty() ? null : projects;
+        });
+
         int count = count(projectId);
         log.debug("Usuario salió - proyecto: {}, sessionId: {}, total: {}", projectId, sessionId, count);
         return count;
     }
 
     /**
-     * Elimina la sesión en todas las salas (por desconexión). 
+     * Marca qué elemento (nodo/arista) está editando la sesión; null = ninguno.
+     * Devuelve false si la sesión no está en la sala.
+     */
+    public boolean setEditing(Long projectId, String sessionId, String elementId) {
+        if (projectId == null || sessionId == null) return false;
+        String editing = truncate(elementId);
+        Member[] changed = new Member[1];
+        rooms.computeIfPresent(projectId, (id, members) -> {
+            Member current = members.get(sessionId);
+            if (current != null && !Objects.equals(current.editing(), editing)) {
+                changed[0] = current.withEditing(editing);
+                members.put(sessionId, changed[0]);
+            }
+            return members;
+        });
+        if (changed[0] == null) return isInRoom(projectId, sessionId);
+        Member member = changed[0];
+        record(projectId, d -> {
+            // Si entró en esta misma ventana basta con actualizar su alta
+            if (d.joined.containsKey(sessionId)) d.joined.put(sessionId, member);
+            else d.updated.put(sessionId, member);
+        });
+        return true;
+    }
+
+    /**
+     * Elimina la sesión en todas sus salas (por desconexión), usando el índice
+     * inverso: el costo depende de las salas de la sesión, no del total.
      * Devuelve los projectIds afectados.
      */
     public List<Long> removeSessionFromAll(String sessionId) {
         if (sessionId == null) {
             return Collections.emptyList();
         }
-        
+
+        Set<Long> projects = sessionProjects.remove(sessionId);
         List<Long> affected = new ArrayList<>();
-        
-        // Remover de todas las salas
-        for (Map.Entry<Long, Set<String>> e : rooms.entrySet()) {
-            if (e.getValue().remove(sessionId)) {
-                affected.add(e.getKey());
-                if (e.getValue().isEmpty()) {
-                    rooms.remove(e.getKey());
-                }
+        if (projects != null) {
+            for (Long projectId : projects) {
+                if (removeMember(projectId, sessionId)) affected.add(projectId);
             }
         }
-        
+
         // Limpiar datos de la sesión
-        sessionProjects.remove(sessionId);
-        lastUpdateTime.remove(sessionId);
+        expiry.cancel(sessionId);
         connectionTime.remove(sessionId);
-        
+
         if (!affected.isEmpty()) {
             log.info("Sesión {} removida de {} proyectos", sessionId, affected.size());
         }
-        
+
         return affected;
     }
 
@@ -121,7 +257,22 @@ public class PresenceService {
      */
     public int count(Long projectId) {
         if (projectId == null) return 0;
-        return rooms.getOrDefault(projectId, Collections.emptySet()).size();
+        Map<String, Member> members = rooms.get(projectId);
+        return members == null ? 0 : members.size();
+    }
+
+    /**
+     * Conectados a un proyecto en todo el cluster (igual a {@link #count} sin modo cluster).
+     * Las instancias que no publican en 3 intervalos dejan de contar.
+     */
+    public int clusterCount(Long projectId) {
+        int total = count(projectId);
+        if (projectId == null || remotes.isEmpty()) return total;
+        long staleBefore = System.currentTimeMillis() - 3 * clusterIntervalMillis;
+        for (RemoteInstance remote : remotes.values()) {
+            if (remote.seenAt >= staleBefore) total += remote.counts.getOrDefault(projectId, 0);
+        }
+        return total;
     }
 
     /**
@@ -129,25 +280,40 @@ public class PresenceService {
      */
     public boolean isInRoom(Long projectId, String sessionId) {
         if (projectId == null || sessionId == null) return false;
-        Set<String> set = rooms.get(projectId);
-        return set != null && set.contains(sessionId);
+        Map<String, Member> members = rooms.get(projectId);
+        return members != null && members.containsKey(sessionId);
     }
 
     /**
-     * Rate limiting: verifica si ha pasado suficiente tiempo desde la última actualización
+     * Miembros actuales de una sala (orden de llegada)
      */
-    public boolean checkRateLimit(String sessionId, long minIntervalMillis) {
-        if (sessionId == null) return false;
-        
-        long now = System.currentTimeMillis();
-        Long last = lastUpdateTime.get(sessionId);
-        
-        if (last == null || (now - last) >= minIntervalMillis) {
-            lastUpdateTime.put(sessionId, now);
-            return true;
+    public List<Member> members(Long projectId) {
+        Map<String, Member> members = rooms.get(projectId);
+        if (members == null) return List.of();
+        List<Member> list = new ArrayList<>(members.values());
+        list.sort(Comparator.comparingLong(Member::joinedAt));
+        return list;
+    }
+
+    /**
+     * Envía a una sesión la lista completa de la sala (al entrar, antes de los diffs).
+     */
+    public void sendRoster(Long projectId, String sessionId) {
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (Member m : members(projectId)) list.add(m.toMap());
+        Map<String, Object> evt = new HashMap<>();
+        evt.put("__system", "presence");
+        evt.put("action", "roster");
+        evt.put("projectId", projectId);
+        evt.put("online", clusterCount(projectId));
+        evt.put("members", list);
+        evt.put("serverTs", System.currentTimeMillis());
+        try {
+            messaging.convertAndSendToUser(sessionId, "/queue/presence", evt, sessionHeaders(sessionId));
+            rostersSent.increment();
+        } catch (Exception e) {
+            log.error("Error enviando lista de presencia - proyecto: {}, sessionId: {}", projectId, sessionId, e);
         }
-        
-        return false;
     }
 
     /**
@@ -173,45 +339,134 @@ public class PresenceService {
         stats.put("totalRooms", rooms.size());
         stats.put("totalSessions", connectionTime.size());
         stats.put("activeConnections", sessionProjects.size());
-        
+
         int totalUsers = rooms.values().stream()
-                .mapToInt(Set::size)
+                .mapToInt(Map::size)
                 .sum();
         stats.put("totalUserConnections", totalUsers);
-        
+        stats.put("pendingDiffs", diffs.size());
+        stats.put("changes", changes.sum());
+        stats.put("framesSent", framesSent.sum());
+        stats.put("rostersSent", rostersSent.sum());
+        stats.put("expiredSessions", expiredSessions.sum());
+        stats.put("expiry", expiry.getStats());
+        stats.put("remoteInstances", remotes.size());
+
         return stats;
     }
 
     /**
-     * Limpieza periódica de sesiones obsoletas (cada 5 minutos)
-     * Elimina entradas de sesiones que ya no están en ningún proyecto
+     * Sesión sin heartbeats ni mensajes ({@link SessionExpiry}): se trata como una
+     * desconexión, con sus bajas en el próximo frame de cada sala.
      */
-    @Scheduled(fixedRate = 300000) // 5 minutos
-    public void cleanupObsoleteSessions() {
-        long now = System.currentTimeMillis();
-        long maxAge = 3600000; // 1 hora
-        
-        int cleaned = 0;
-        List<String> toRemove = new ArrayList<>();
-        
-        for (Map.Entry<String, Long> entry : connectionTime.entrySet()) {
-            String sessionId = entry.getKey();
-            long connTime = entry.getValue();
-            
-            // Si la sesión no está en ningún proyecto y es antigua
-            if (!sessionProjects.containsKey(sessionId) && (now - connTime) > maxAge) {
-                toRemove.add(sessionId);
+    @EventListener
+    public void onSessionExpired(SessionExpiredEvent event) {
+        List<Long> affected = removeSessionFromAll(event.sessionId());
+        expiredSessions.increment();
+        log.info("Sesión vencida {} removida de {} salas", event.sessionId(), affected.size());
+    }
+
+    /** Conectados de otra instancia: un latido reemplaza su lista, un frame la actualiza. */
+    @EventListener
+    public void onRemotePresence(ClusterBus.RemotePresenceEvent event) {
+        RemoteInstance remote = remotes.computeIfAbsent(event.instanceId(), id -> new RemoteInstance());
+        if (event.full()) remote.counts.keySet().retainAll(event.counts().keySet());
+        event.counts().forEach((projectId, online) -> {
+            if (online > 0) remote.counts.put(projectId, online);
+            else remote.counts.remove(projectId);
+        });
+        remote.seenAt = System.currentTimeMillis();
+    }
+
+    /** Latido del cluster: conectados de todas las salas locales; olvida instancias caídas. */
+    @Scheduled(fixedDelayString = "${diagram.cluster.presence-interval-ms:5000}")
+    public void publishClusterPresence() {
+        if (!cluster.isEnabled()) return;
+        Map<Long, Integer> counts = new HashMap<>();
+        rooms.forEach((projectId, members) -> counts.put(projectId, members.size()));
+        cluster.publishPresence(counts, true);
+        long staleBefore = System.currentTimeMillis() - 10 * clusterIntervalMillis;
+        remotes.values().removeIf(remote -> remote.seenAt < staleBefore);
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    /** Quita al miembro; si la sala queda vacía la elimina y avisa. True si estaba. */
+    private boolean removeMember(Long projectId, String sessionId) {
+        boolean[] removed = new boolean[2]; // [estaba, sala vacía]
+        rooms.computeIfPresent(projectId, (id, members) -> {
+            removed[0] = members.remove(sessionId) != null;
+            removed[1] = members.isEmpty();
+            return members.isEmpty() ? null : members;
+        });
+        if (!removed[0]) return false;
+        record(projectId, d -> {
+            // Alta y baja en la misma ventana se anulan
+            if (d.joined.remove(sessionId) == null) d.left.add(sessionId);
+            d.updated.remove(sessionId);
+        });
+        if (removed[1]) events.publishEvent(new RoomEmptyEvent(projectId));
+        return true;
+    }
+
+    /** Acumula un cambio; el primero de la ventana agenda el envío. */
+    private void record(Long projectId, Consumer<Diff> change) {
+        boolean[] schedule = new boolean[1];
+        diffs.compute(projectId, (id, d) -> {
+            if (d == null) {
+                d = new Diff();
+                schedule[0] = true;
             }
+            change.accept(d);
+            return d;
+        });
+        changes.increment();
+        if (schedule[0]) {
+            scheduler.schedule(() -> flush(projectId), Instant.now().plusMillis(debounceMillis));
         }
-        
-        for (String sessionId : toRemove) {
-            connectionTime.remove(sessionId);
-            lastUpdateTime.remove(sessionId);
-            cleaned++;
-        }
-        
-        if (cleaned > 0) {
-            log.info("Limpieza automática: {} sesiones obsoletas removidas", cleaned);
+    }
+
+    /** Emite los cambios acumulados de la sala en un solo frame. */
+    void flush(Long projectId) {
+        Diff d = diffs.remove(projectId);
+        if (d == null || d.isEmpty()) return;
+        try {
+            // El conteo sale antes que el frame: las otras instancias lo suman al reenviarlo
+            cluster.publishPresence(Map.of(projectId, count(projectId)), false);
+            Map<String, Object> evt = new HashMap<>();
+            evt.put("__system", "presence");
+            evt.put("action", "diff");
+            evt.put("projectId", projectId);
+            evt.put("online", clusterCount(projectId));
+            evt.put("joined", d.joined.values().stream().map(Member::toMap).toList());
+            evt.put("left", List.copyOf(d.left));
+            evt.put("updated", d.updated.values().stream().map(Member::toMap).toList());
+            evt.put("serverTs", System.currentTimeMillis());
+            messaging.convertAndSend("/topic/projects/" + projectId + "/presence", evt);
+            framesSent.increment();
+            log.debug("Presencia - proyecto: {}, +{} -{} ~{}", projectId, d.joined.size(), d.left.size(), d.updated.size());
+        } catch (Exception e) {
+            log.error("Error emitiendo presencia - proyecto: {}", projectId, e);
         }
     }
+
+    private static String field(Map<String, Object> identity, String key) {
+        if (identity == null) return null;
+        Object v = identity.get(key);
+        return v == null ? null : truncate(v.toString());
+    }
+
+    private static String truncate(String s) {
+        return s == null || s.length() <= MAX_FIELD_LENGTH ? s : s.substring(0, MAX_FIELD_LENGTH);
+    }
+
+    /** Sin Principal, el destino de usuario se resuelve por id de sesión. */
+    private static MessageHeaders sessionHeaders(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setLeaveMutable(true);
+        return accessor.getMessageHeaders();
+    }
 }
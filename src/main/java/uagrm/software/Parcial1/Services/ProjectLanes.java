@@ -0,0 +1,167 @@
+package uagrm.software.Parcial1.Services;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Carriles de ejecución por proyecto: las escrituras de un mismo proyecto se
+ * ejecutan de a una y en orden de llegada; proyectos distintos corren en
+ * paralelo en {@code diagram.lanes.threads} hilos (0 = uno por CPU).
+ *
+ * - Cada carril es un buzón: el primero que encola lo agenda en el executor y
+ *   el hilo que lo atiende procesa hasta {@code BATCH} tareas antes de cederlo,
+ *   para que un proyecto muy activo no acapare un hilo.
+ * - Como nada más escribe la sala de un proyecto al mismo tiempo, los hilos de
+ *   entrada STOMP no se bloquean en su monitor y los broadcasts salen en el
+ *   mismo orden que las versiones.
+ * - Un carril con más de {@code diagram.lanes.max-pending} tareas rechaza con
+ *   {@link RejectedExecutionException}.
+ */
+@Slf4j
+@Service
+public class ProjectLanes {
+
+    private static final int BATCH = 32;
+
+    /**
+     * Buzón de un proyecto. {@code scheduled}: hay un hilo atendiéndolo o agendado.
+     * {@code retired}: se vació y salió del mapa; quien lo tenga debe buscar otro.
+     */
+    private static final class Lane {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        boolean scheduled;
+        boolean retired;
+    }
+
+    private final ConcurrentMap<Long, Lane> lanes = new ConcurrentHashMap<>();
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private volatile int maxDepth;
+
+    private ThreadPoolTaskExecutor executor;
+
+    @Value("${diagram.lanes.threads:0}")
+    private int threads;
+
+    @Value("${diagram.lanes.max-pending:1000}")
+    private int maxPending;
+
+    @PostConstruct
+    void start() {
+        int n = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        // Como mucho un turno agendado por proyecto: la cola del executor queda acotada por los proyectos activos
+        executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(n);
+        executor.setMaxPoolSize(n);
+        executor.setThreadNamePrefix("diagram-lane-");
+        executor.initialize();
+        threads = n;
+        log.info("Carriles por proyecto: {} hilos, máximo {} tareas pendientes por proyecto", n, maxPending);
+    }
+
+    @PreDestroy
+    void stop() {
+        if (executor != null) executor.shutdown();
+    }
+
+    /**
+     * Encola una tarea en el carril del proyecto.
+     *
+     * @throws RejectedExecutionException si el carril está lleno
+     */
+    public void execute(Long projectId, Runnable task) {
+        while (true) {
+            Lane lane = lanes.computeIfAbsent(projectId, p -> new Lane());
+            boolean schedule;
+            synchronized (lane) {
+                if (lane.retired) continue;
+                if (lane.tasks.size() >= maxPending) {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Demasiadas actualizaciones pendientes para el proyecto " + projectId);
+                }
+                lane.tasks.add(task);
+                if (lane.tasks.size() > maxDepth) maxDepth = lane.tasks.size();
+                schedule = !lane.scheduled;
+                lane.scheduled = true;
+            }
+            if (schedule) executor.execute(() -> drain(projectId, lane));
+            return;
+        }
+    }
+
+    /** Ejecuta en el carril y devuelve el resultado (para llamadas REST síncronas). */
+    public <T> CompletableFuture<T> submit(Long projectId, Callable<T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        execute(projectId, () -> {
+            try {
+                result.complete(task.call());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        int pending = 0;
+        for (Lane lane : lanes.values()) {
+            synchronized (lane) {
+                pending += lane.tasks.size();
+            }
+        }
+        stats.put("threads", threads);
+        stats.put("activeLanes", lanes.size());
+        stats.put("pending", pending);
+        stats.put("maxDepth", maxDepth);
+        stats.put("executed", executed.sum());
+        stats.put("rejected", rejected.sum());
+        stats.put("failed", failed.sum());
+        return stats;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    /** Atiende el carril; al vaciarse lo retira del mapa para no acumular proyectos inactivos. */
+    private void drain(Long projectId, Lane lane) {
+        for (int i = 0; i < BATCH; i++) {
+            Runnable task;
+            synchronized (lane) {
+                task = lane.tasks.poll();
+                if (task == null) {
+                    lane.scheduled = false;
+                    lane.retired = true;
+                    lanes.remove(projectId, lane);
+                    return;
+                }
+            }
+            try {
+                task.run();
+                executed.increment();
+            } catch (Exception e) {
+                failed.increment();
+                log.error("Error en carril - proyecto: {}", projectId, e);
+            }
+        }
+        // Turno agotado: se reagenda detrás de los demás proyectos
+        executor.execute(() -> drain(projectId, lane));
+    }
+}
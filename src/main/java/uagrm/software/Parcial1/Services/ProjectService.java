@@ -1,13 +1,21 @@
 package uagrm.software.Parcial1.Services;
 
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionException;
 
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import lombok.RequiredArgsConstructor;
 
 import uagrm.software.Parcial1.Models.ProjectEntity;
 import uagrm.software.Parcial1.Models.DiagramEntity;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Models.ProjectSummary;
 import uagrm.software.Parcial1.Repository.ProjectRepository;
 
 @Service
@@ -15,9 +23,70 @@ import uagrm.software.Parcial1.Repository.ProjectRepository;
 public class ProjectService {
 
     private final ProjectRepository projectRepository;
+    private final DiagramRoomService diagramRooms;
+    private final DiagramStore diagramStore;
+    private final CodegenCache codegenCache;
+    private final ProjectStatsService projectStats;
+    private final ProjectLanes lanes;
+    private final RoomOwnership ownership;
 
-    public List<ProjectEntity> listarProyectos() {
-        return projectRepository.findAll();
+    public static final int MAX_PAGE_SIZE = 100;
+
+    // Cursor de la primera página: posterior a cualquier fecha real
+    private static final LocalDateTime FIRST_TS = LocalDateTime.of(9999, 12, 31, 0, 0);
+
+    /** Página del listado; {@code nextCursor} es null en la última. */
+    public record ProjectPage(List<ProjectSummary> items, String nextCursor) {
+    }
+
+    /**
+     * Todos los proyectos (más reciente primero), sin cargar entidades ni
+     * diagramas. Los conteos vienen de "project_stats".
+     */
+    public List<ProjectSummary> listarProyectos() {
+        return projectRepository.findAllSummaries();
+    }
+
+    /**
+     * Listado paginado por keyset sobre (last_edited_at, id): el costo no depende
+     * de la página pedida. {@code cursor} es el {@code nextCursor} de la página
+     * anterior (null = primera) y {@code prefijo} filtra por inicio del nombre
+     * sin distinguir mayúsculas.
+     *
+     * @throws IllegalArgumentException si el cursor no es válido
+     */
+    public ProjectPage listarPagina(int limite, String cursor, String prefijo) {
+        int size = Math.max(1, Math.min(limite, MAX_PAGE_SIZE));
+        LocalDateTime ts = FIRST_TS;
+        long id = Long.MAX_VALUE;
+        if (cursor != null && !cursor.isBlank()) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int sep = raw.indexOf('|');
+                ts = LocalDateTime.parse(raw.substring(0, sep));
+                id = Long.parseLong(raw.substring(sep + 1));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Cursor de paginación inválido");
+            }
+        }
+
+        // Se pide uno de más para saber si hay página siguiente
+        List<ProjectSummary> rows = projectRepository.findPage(pattern(prefijo), ts, id, Limit.of(size + 1));
+        if (rows.size() <= size) return new ProjectPage(rows, null);
+
+        List<ProjectSummary> items = rows.subList(0, size);
+        ProjectSummary last = items.get(size - 1);
+        String next = Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((last.lastEditedAt() + "|" + last.id()).getBytes(StandardCharsets.UTF_8));
+        return new ProjectPage(List.copyOf(items), next);
+    }
+
+    /** Prefijo en minúsculas como patrón LIKE, escapando sus comodines. */
+    private static String pattern(String prefijo) {
+        if (prefijo == null || prefijo.isBlank()) return "%";
+        String escaped = prefijo.trim().toLowerCase(Locale.ROOT)
+                .replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+        return escaped + "%";
     }
 
     public ProjectEntity buscarPorId(Long id) {
@@ -37,39 +106,64 @@ public class ProjectService {
             proyecto.setDiagram(diagrama);
         }
 
-        return projectRepository.save(proyecto);
+        boolean nuevo = proyecto.getId() == null;
+        ProjectEntity saved = projectRepository.save(proyecto);
+        if (nuevo) projectStats.recordEmpty(saved.getId());
+        return saved;
     }
 
     /**
-     * Actualiza el diagrama de un proyecto existente
+     * Diagrama actual del proyecto (estado en memoria si la sala está activa)
      */
-    @Transactional
-    public DiagramEntity actualizarDiagrama(Long projectId, DiagramEntity nuevo) {
-        ProjectEntity p = projectRepository.findById(projectId)
-                .orElseThrow(() -> new RuntimeException("Proyecto no encontrado"));
+    public DiagramSnapshot buscarDiagrama(Long projectId) {
+        return diagramRooms.snapshot(projectId);
+    }
 
-        DiagramEntity d = p.getDiagram();
-        if (d == null) {
-            throw new RuntimeException("Diagrama no encontrado");
-        }
+    /** Versión actual del diagrama sin cargar nodes/edges (null si no existe). */
+    public Integer versionDiagrama(Long projectId) {
+        return diagramRooms.currentVersion(projectId);
+    }
 
-        // ✅ Copiar SOLO los campos editables
-        if (nuevo.getName() != null)
-            d.setName(nuevo.getName());
-        if (nuevo.getNodes() != null)
-            d.setNodes(nuevo.getNodes());
-        if (nuevo.getEdges() != null)
-            d.setEdges(nuevo.getEdges());
-        if (nuevo.getViewport() != null)
-            d.setViewport(nuevo.getViewport());
+    /**
+     * Actualiza el diagrama de un proyecto existente.
+     * El cambio pasa por la sala (merge + versión) para no pisar ediciones en vivo;
+     * si no había sala activa se persiste en el momento, como antes. En modo cluster
+     * solo escribe la instancia dueña del proyecto.
+     *
+     * @throws RoomOwnership.NotOwnerException si el proyecto lo atiende otra instancia
+     * @throws DiagramRoomService.PersistFailedException si no había sala y la escritura en BD falló
+     */
+    public DiagramSnapshot actualizarDiagrama(Long projectId, DiagramEntity nuevo) {
+        if (!projectRepository.existsById(projectId)) {
+            throw new RuntimeException("Proyecto no encontrado");
+        }
+        String owner = ownership.ownerOf(projectId);
+        if (!ownership.isLocal(owner)) throw new RoomOwnership.NotOwnerException(projectId, owner);
+        // En el carril del proyecto: queda ordenado con las ediciones que llegan por WebSocket
+        try {
+            return lanes.submit(projectId, () -> {
+                boolean wasActive = diagramRooms.isActive(projectId);
 
-        // Guardar en cascada (ya que diagram pertenece al proyecto)
-        projectRepository.save(p);
+                DiagramSnapshot snapshot = diagramRooms.applySnapshot(projectId, null, nuevo.getVersion(), nuevo.getName(),
+                        nuevo.getNodes(), nuevo.getEdges(), nuevo.getViewport()).snapshot();
 
-        return d;
+                if (!wasActive && !diagramRooms.flush(projectId)) {
+                    throw new DiagramRoomService.PersistFailedException(
+                            "No se pudo guardar el diagrama; se reintentará en segundo plano");
+                }
+                return snapshot;
+            }).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
     }
 
     public void eliminarProyecto(Long id) {
+        diagramRooms.discard(id);
+        diagramStore.delete(id);
+        codegenCache.invalidate(id);
+        projectStats.delete(id);
         projectRepository.deleteById(id);
     }
 }
@@ -0,0 +1,137 @@
+package uagrm.software.Parcial1.Services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Services.DiagramRoom.FlushBatch;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Mantiene la tabla "project_stats" ({@link uagrm.software.Parcial1.Models.ProjectStatsEntity}).
+ *
+ * - Cada escritura de una sala ({@link DiagramRoomService}) hace un upsert con
+ *   los conteos de {@link DiagramStats}, que la sala actualiza por elemento.
+ * - El upsert solo avanza: una versión más vieja no pisa una más nueva.
+ * - Al arrancar se calculan una vez los proyectos que aún no tienen fila
+ *   (diagramas anteriores a esta tabla).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ProjectStatsService {
+
+    private static final String UPSERT =
+            "insert into project_stats (project_id, version, node_count, edge_count, class_count, interface_count, "
+            + "enum_count, diagram_bytes, last_editor, updated_at) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?) "
+            + "on conflict (project_id) do update set version = excluded.version, "
+            + "node_count = excluded.node_count, edge_count = excluded.edge_count, "
+            + "class_count = excluded.class_count, interface_count = excluded.interface_count, "
+            + "enum_count = excluded.enum_count, diagram_bytes = excluded.diagram_bytes, "
+            + "last_editor = coalesce(excluded.last_editor, project_stats.last_editor), "
+            + "updated_at = excluded.updated_at "
+            + "where project_stats.version <= excluded.version";
+
+    private static final String MISSING =
+            "select p.id from projects p join diagrams d on d.id = p.id "
+            + "where not exists (select 1 from project_stats s where s.project_id = p.id)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DiagramStore diagramStore;
+    private final DiagramMergeEngine mergeEngine;
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    /** Registra los conteos de un lote ya persistido. Un fallo no afecta al diagrama. */
+    public void record(FlushBatch batch) {
+        try {
+            upsert(batch.projectId(), batch.version(), batch.stats(), batch.lastClientId());
+            updates.increment();
+        } catch (Exception e) {
+            failures.increment();
+            log.warn("No se pudo actualizar el resumen - proyecto: {}: {}", batch.projectId(), e.getMessage());
+        }
+    }
+
+    /** Igual que {@link #record} para los lotes de un flush completo, en un solo batch JDBC. */
+    public void recordAll(List<FlushBatch> batches) {
+        if (batches.isEmpty()) return;
+        try {
+            Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+            jdbcTemplate.batchUpdate(UPSERT, batches, batches.size(), (ps, b) -> {
+                DiagramStats.Summary s = b.stats();
+                ps.setLong(1, b.projectId());
+                ps.setInt(2, b.version());
+                ps.setInt(3, s.nodes());
+                ps.setInt(4, s.edges());
+                ps.setInt(5, s.classes());
+                ps.setInt(6, s.interfaces());
+                ps.setInt(7, s.enums());
+                ps.setLong(8, s.bytes());
+                ps.setString(9, b.lastClientId());
+                ps.setTimestamp(10, now);
+            });
+            updates.add(batches.size());
+        } catch (Exception e) {
+            failures.add(batches.size());
+            log.warn("No se pudo actualizar el resumen de {} proyectos: {}", batches.size(), e.getMessage());
+        }
+    }
+
+    /** Resumen de un proyecto recién creado (diagrama vacío). */
+    public void recordEmpty(Long projectId) {
+        upsert(projectId, 0, new DiagramStats().summary(), null);
+    }
+
+    public void delete(Long projectId) {
+        jdbcTemplate.update("delete from project_stats where project_id = ?", projectId);
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("updates", updates.sum());
+        stats.put("failures", failures.sum());
+        return stats;
+    }
+
+    /** Calcula una sola vez el resumen de los proyectos que todavía no lo tienen. */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfill() {
+        List<Long> missing;
+        try {
+            missing = jdbcTemplate.queryForList(MISSING, Long.class);
+        } catch (Exception e) {
+            log.warn("No se pudo consultar proyectos sin resumen: {}", e.getMessage());
+            return;
+        }
+        int done = 0;
+        for (Long projectId : missing) {
+            try {
+                DiagramSnapshot s = diagramStore.load(projectId);
+                if (s == null) continue;
+                DiagramStats stats = DiagramStats.of(mergeEngine.parse(s.nodes(), s.edges()));
+                upsert(projectId, s.version() == null ? 0 : s.version(), stats.summary(), null);
+                done++;
+            } catch (Exception e) {
+                log.warn("No se pudo calcular el resumen - proyecto: {}: {}", projectId, e.getMessage());
+            }
+        }
+        if (done > 0) log.info("Resumen calculado para {} proyectos existentes", done);
+    }
+
+    private void upsert(Long projectId, int version, DiagramStats.Summary s, String lastEditor) {
+        jdbcTemplate.update(UPSERT, projectId, version, s.nodes(), s.edges(), s.classes(), s.interfaces(),
+                s.enums(), s.bytes(), lastEditor, Timestamp.valueOf(LocalDateTime.now()));
+    }
+}
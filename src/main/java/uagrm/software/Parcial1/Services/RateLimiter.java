@@ -0,0 +1,198 @@
+package uagrm.software.Parcial1.Services;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.socket.messaging.SessionDisconnectEvent;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limitador de tráfico entrante con token buckets por sesión y por proyecto.
+ *
+ * Cada clase de tráfico ({@link Traffic}) tiene su tasa (mensajes/s) y su ráfaga
+ * (mensajes seguidos permitidos tras un rato sin enviar), por sesión y por proyecto:
+ *   diagram.ratelimit.{update|cursor}.{session|project}-rate / -burst  (rate 0 = sin límite)
+ *
+ * Un mensaje pasa si hay token en el bucket de la sesión y en el del proyecto;
+ * así una sesión puede deshacer varios pasos seguidos, pero muchas sesiones
+ * juntas no inundan un proyecto.
+ *
+ * Cada bucket es un solo long (algoritmo GCRA, equivalente a un token bucket):
+ * el instante teórico en que el bucket vuelve a estar lleno. Consumir es leer,
+ * comparar y un CAS; un rechazo no escribe nada. En el camino caliente no se
+ * reserva memoria: los buckets de una sesión o proyecto se crean la primera vez.
+ */
+@Slf4j
+@Service
+public class RateLimiter {
+
+    public enum Traffic { UPDATE, CURSOR }
+
+    private static final int SESSION = 0;
+    private static final int PROJECT = 1;
+
+    // Origen de tiempos: el "lleno desde" inicial (0) siempre queda en el pasado
+    private final long origin = System.nanoTime() - 1;
+
+    // sessionId -> un bucket por clase de tráfico
+    private final ConcurrentMap<String, AtomicLongArray> sessions = new ConcurrentHashMap<>();
+
+    // projectId -> un bucket por clase de tráfico
+    private final ConcurrentMap<Long, AtomicLongArray> projects = new ConcurrentHashMap<>();
+
+    // [clase][ámbito]: nanos por token y tolerancia (ráfaga × intervalo)
+    private final long[][] intervalNanos = new long[Traffic.values().length][2];
+    private final long[][] burstNanos = new long[Traffic.values().length][2];
+
+    private final LongAdder[][] allowed = adders();
+    private final LongAdder[][] rejected = adders();
+
+    @Value("${diagram.ratelimit.enabled:true}")
+    private boolean enabled;
+
+    @Value("${diagram.ratelimit.update.session-rate:10}")
+    private double updateSessionRate;
+
+    @Value("${diagram.ratelimit.update.session-burst:20}")
+    private int updateSessionBurst;
+
+    @Value("${diagram.ratelimit.update.project-rate:100}")
+    private double updateProjectRate;
+
+    @Value("${diagram.ratelimit.update.project-burst:200}")
+    private int updateProjectBurst;
+
+    @Value("${diagram.ratelimit.cursor.session-rate:60}")
+    private double cursorSessionRate;
+
+    @Value("${diagram.ratelimit.cursor.session-burst:60}")
+    private int cursorSessionBurst;
+
+    @Value("${diagram.ratelimit.cursor.project-rate:1000}")
+    private double cursorProjectRate;
+
+    @Value("${diagram.ratelimit.cursor.project-burst:1000}")
+    private int cursorProjectBurst;
+
+    @PostConstruct
+    void configure() {
+        configure(Traffic.UPDATE, SESSION, updateSessionRate, updateSessionBurst);
+        configure(Traffic.UPDATE, PROJECT, updateProjectRate, updateProjectBurst);
+        configure(Traffic.CURSOR, SESSION, cursorSessionRate, cursorSessionBurst);
+        configure(Traffic.CURSOR, PROJECT, cursorProjectRate, cursorProjectBurst);
+        log.info("Rate limit - update: {}/s (ráfaga {}) por sesión, {}/s (ráfaga {}) por proyecto; "
+                        + "cursor: {}/s (ráfaga {}) por sesión, {}/s (ráfaga {}) por proyecto",
+                updateSessionRate, updateSessionBurst, updateProjectRate, updateProjectBurst,
+                cursorSessionRate, cursorSessionBurst, cursorProjectRate, cursorProjectBurst);
+    }
+
+    /**
+     * Consume un token de la sesión y del proyecto. false si alguno está agotado
+     * (el token de la sesión se devuelve si el que falta es el del proyecto).
+     */
+    public boolean tryAcquire(Traffic traffic, String sessionId, Long projectId) {
+        if (!enabled || sessionId == null || projectId == null) return true;
+        int c = traffic.ordinal();
+        long now = System.nanoTime() - origin;
+
+        AtomicLongArray session = bucket(sessions, sessionId);
+        if (!acquire(session, c, SESSION, now)) {
+            rejected[c][SESSION].increment();
+            return false;
+        }
+        if (!acquire(bucket(projects, projectId), c, PROJECT, now)) {
+            refund(session, c, SESSION);
+            rejected[c][PROJECT].increment();
+            return false;
+        }
+        allowed[c][SESSION].increment();
+        return true;
+    }
+
+    /** Desconexión: se olvidan los buckets de la sesión. */
+    @EventListener
+    public void onDisconnect(SessionDisconnectEvent event) {
+        sessions.remove(event.getSessionId());
+    }
+
+    /** Sesión vencida sin desconexión ({@link SessionExpiry}). */
+    @EventListener
+    public void onSessionExpired(SessionExpiredEvent event) {
+        sessions.remove(event.sessionId());
+    }
+
+    /** Sala vacía: su bucket se recrea lleno si vuelve a haber tráfico. */
+    @EventListener
+    public void onRoomEmpty(RoomEmptyEvent event) {
+        projects.remove(event.projectId());
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("sessions", sessions.size());
+        stats.put("projects", projects.size());
+        for (Traffic t : Traffic.values()) {
+            int c = t.ordinal();
+            Map<String, Object> s = new LinkedHashMap<>();
+            s.put("allowed", allowed[c][SESSION].sum());
+            s.put("rejectedSession", rejected[c][SESSION].sum());
+            s.put("rejectedProject", rejected[c][PROJECT].sum());
+            stats.put(t.name().toLowerCase(), s);
+        }
+        return stats;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private void configure(Traffic traffic, int scope, double ratePerSecond, int burst) {
+        long interval = ratePerSecond > 0 ? Math.max(1, Math.round(1e9 / ratePerSecond)) : 0;
+        intervalNanos[traffic.ordinal()][scope] = interval;
+        burstNanos[traffic.ordinal()][scope] = interval * Math.max(1, burst);
+    }
+
+    /**
+     * GCRA: {@code tat} es cuándo el bucket vuelve a estar lleno. Consumir lo corre
+     * un intervalo; si eso lo deja más allá de la ráfaga, no hay token.
+     */
+    private boolean acquire(AtomicLongArray buckets, int c, int scope, long now) {
+        long interval = intervalNanos[c][scope];
+        if (interval == 0) return true;
+        long limit = now + burstNanos[c][scope];
+        while (true) {
+            long tat = buckets.get(c);
+            long next = Math.max(tat, now) + interval;
+            if (next > limit) return false;
+            if (buckets.compareAndSet(c, tat, next)) return true;
+        }
+    }
+
+    private void refund(AtomicLongArray buckets, int c, int scope) {
+        long interval = intervalNanos[c][scope];
+        if (interval != 0) buckets.addAndGet(c, -interval);
+    }
+
+    private static <K> AtomicLongArray bucket(ConcurrentMap<K, AtomicLongArray> map, K key) {
+        AtomicLongArray b = map.get(key);
+        return b != null ? b : map.computeIfAbsent(key, k -> new AtomicLongArray(Traffic.values().length));
+    }
+
+    private static LongAdder[][] adders() {
+        LongAdder[][] a = new LongAdder[Traffic.values().length][2];
+        for (LongAdder[] row : a) {
+            for (int i = 0; i < row.length; i++) row[i] = new LongAdder();
+        }
+        return a;
+    }
+}
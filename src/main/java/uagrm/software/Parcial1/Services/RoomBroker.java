@@ -0,0 +1,224 @@
+package uagrm.software.Parcial1.Services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.broker.SubscriptionRegistry;
+import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Índice de suscripciones de los tópicos de sala para el SimpleBroker:
+ *
+ *   /topic/projects/{id}            (DIAGRAM)
+ *   /topic/projects/{id}/cursors    (CURSORS)
+ *   /topic/projects/{id}/presence   (PRESENCE)
+ *
+ * - {@link #registry} envuelve el {@link SubscriptionRegistry} del SimpleBroker:
+ *   SUBSCRIBE / UNSUBSCRIBE / DISCONNECT de esos destinos se indexan por projectId
+ *   y la búsqueda de suscriptores de un mensaje de sala es una sola consulta por
+ *   projectId, sin recorrer ni cachear patrones: el costo no depende de cuántas
+ *   salas ni suscripciones haya en total. El resto de destinos (/queue y el resto
+ *   de /topic) sigue en el registro original.
+ * - El reparto lo hace el SimpleBroker como siempre: {@code brokerChannel.send}
+ *   devuelve true y el payload (ya serializado una vez a byte[]) es el mismo
+ *   objeto para todas las sesiones.
+ *
+ * Se desactiva con {@code diagram.broker.room-index=false}.
+ */
+@Service
+public class RoomBroker {
+
+    private static final String PREFIX = "/topic/projects/";
+    private static final MultiValueMap<String, String> EMPTY = CollectionUtils.unmodifiableMultiValueMap(new LinkedMultiValueMap<>());
+
+    public enum Channel { DIAGRAM, CURSORS, PRESENCE }
+
+    private record Key(long projectId, Channel channel) {
+    }
+
+    /** Suscriptores de una sala por canal: sessionId|subscriptionId -> suscripción. */
+    private static final class Room {
+        final ConcurrentMap<String, Sub>[] subs;
+
+        @SuppressWarnings("unchecked")
+        Room() {
+            subs = new ConcurrentMap[Channel.values().length];
+            for (int i = 0; i < subs.length; i++) subs[i] = new ConcurrentHashMap<>();
+        }
+
+        boolean isEmpty() {
+            for (ConcurrentMap<String, Sub> m : subs) if (!m.isEmpty()) return false;
+            return true;
+        }
+    }
+
+    private record Sub(String sessionId, String subscriptionId) {
+    }
+
+    private final boolean enabled;
+
+    private final ConcurrentMap<Long, Room> rooms = new ConcurrentHashMap<>();
+    // sessionId -> (subscriptionId -> sala/canal), para UNSUBSCRIBE y DISCONNECT
+    private final ConcurrentMap<String, ConcurrentMap<String, Key>> sessions = new ConcurrentHashMap<>();
+
+    private final LongAdder routed = new LongAdder();
+    private final LongAdder delivered = new LongAdder();
+
+    public RoomBroker(@Value("${diagram.broker.room-index:true}") boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /* =========================================================
+     *                        REGISTRO
+     * ========================================================= */
+
+    /**
+     * Registro para el SimpleBroker: los tópicos de sala van al índice por projectId
+     * y todo lo demás a {@code others} (el registro que traía el broker).
+     */
+    public SubscriptionRegistry registry(SubscriptionRegistry others) {
+        if (!enabled) return others;
+        return new SubscriptionRegistry() {
+            @Override
+            public void registerSubscription(Message<?> message) {
+                if (!subscribe(message)) others.registerSubscription(message);
+            }
+
+            @Override
+            public void unregisterSubscription(Message<?> message) {
+                if (!unsubscribe(message)) others.unregisterSubscription(message);
+            }
+
+            @Override
+            public void unregisterAllSubscriptions(String sessionId) {
+                dropSession(sessionId);
+                others.unregisterAllSubscriptions(sessionId);
+            }
+
+            @Override
+            public MultiValueMap<String, String> findSubscriptions(Message<?> message) {
+                Key key = parse(SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+                return key == null ? others.findSubscriptions(message) : subscribers(key);
+            }
+        };
+    }
+
+    /* =========================================================
+     *                        ÍNDICE
+     * ========================================================= */
+
+    /** true si era un tópico de sala (quedó en el índice). */
+    private boolean subscribe(Message<?> message) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        String subId = SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders());
+        Key key = parse(SimpMessageHeaderAccessor.getDestination(message.getHeaders()));
+        if (key == null || sessionId == null || subId == null) return false;
+        sessions.computeIfAbsent(sessionId, s -> new ConcurrentHashMap<>()).put(subId, key);
+        // compute: atómico frente a remove(), que descarta la sala al vaciarse
+        rooms.compute(key.projectId(), (p, room) -> {
+            if (room == null) room = new Room();
+            room.subs[key.channel().ordinal()].put(sessionId + '|' + subId, new Sub(sessionId, subId));
+            return room;
+        });
+        return true;
+    }
+
+    /** true si la suscripción era de un tópico de sala. */
+    private boolean unsubscribe(Message<?> message) {
+        String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+        String subId = SimpMessageHeaderAccessor.getSubscriptionId(message.getHeaders());
+        ConcurrentMap<String, Key> subs = sessionId == null ? null : sessions.get(sessionId);
+        Key key = subs == null || subId == null ? null : subs.remove(subId);
+        if (subs != null) sessions.computeIfPresent(sessionId, (s, m) -> m.isEmpty() ? null : m);
+        if (key == null) return false;
+        remove(key, sessionId, subId);
+        return true;
+    }
+
+    /** Sesión vencida sin DISCONNECT ({@link SessionExpiry}): se olvidan sus suscripciones. */
+    @EventListener
+    public void onSessionExpired(SessionExpiredEvent event) {
+        dropSession(event.sessionId());
+    }
+
+    private void dropSession(String sessionId) {
+        ConcurrentMap<String, Key> subs = sessions.remove(sessionId);
+        if (subs != null) subs.forEach((subId, key) -> remove(key, sessionId, subId));
+    }
+
+    private void remove(Key key, String sessionId, String subId) {
+        rooms.computeIfPresent(key.projectId(), (p, room) -> {
+            room.subs[key.channel().ordinal()].remove(sessionId + '|' + subId);
+            return room.isEmpty() ? null : room;
+        });
+    }
+
+    /* =========================================================
+     *                        REPARTO
+     * ========================================================= */
+
+    /** sessionId -> subscriptionIds de la sala y canal del mensaje (lo que espera el SimpleBroker). */
+    private MultiValueMap<String, String> subscribers(Key key) {
+        routed.increment();
+        Room room = rooms.get(key.projectId());
+        if (room == null) return EMPTY;
+        MultiValueMap<String, String> result = new LinkedMultiValueMap<>();
+        for (Sub sub : room.subs[key.channel().ordinal()].values()) {
+            result.add(sub.sessionId(), sub.subscriptionId());
+        }
+        delivered.add(result.size());
+        return result;
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        int subscriptions = 0;
+        for (Room room : rooms.values()) {
+            for (ConcurrentMap<String, Sub> m : room.subs) subscriptions += m.size();
+        }
+        long r = routed.sum();
+        stats.put("enabled", enabled);
+        stats.put("rooms", rooms.size());
+        stats.put("sessions", sessions.size());
+        stats.put("subscriptions", subscriptions);
+        stats.put("routed", r);
+        stats.put("delivered", delivered.sum());
+        stats.put("avgFanout", r == 0 ? 0.0 : (double) delivered.sum() / r);
+        return stats;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    /** "/topic/projects/{id}[/cursors|/presence]" -> clave, o null si es otro destino. */
+    private static Key parse(String destination) {
+        if (destination == null || !destination.startsWith(PREFIX)) return null;
+        int start = PREFIX.length();
+        int end = destination.indexOf('/', start);
+        String id = end < 0 ? destination.substring(start) : destination.substring(start, end);
+        if (id.isEmpty() || id.length() > 18) return null;
+        long projectId = 0;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') return null;
+            projectId = projectId * 10 + (c - '0');
+        }
+        if (end < 0) return new Key(projectId, Channel.DIAGRAM);
+        return switch (destination.substring(end)) {
+            case "/cursors" -> new Key(projectId, Channel.CURSORS);
+            case "/presence" -> new Key(projectId, Channel.PRESENCE);
+            default -> null;
+        };
+    }
+}
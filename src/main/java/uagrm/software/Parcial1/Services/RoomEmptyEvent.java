@@ -0,0 +1,8 @@
+package uagrm.software.Parcial1.Services;
+
+/**
+ * Se publica cuando la última sesión sale de la sala de un proyecto
+ * (salida explícita o desconexión).
+ */
+public record RoomEmptyEvent(Long projectId) {
+}
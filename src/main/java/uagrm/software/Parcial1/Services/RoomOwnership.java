@@ -0,0 +1,248 @@
+package uagrm.software.Parcial1.Services;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Dueño de cada proyecto activo en modo cluster: una sola instancia aplica y
+ * persiste sus escrituras, así no hay conflictos de versión entre nodos y la
+ * sala en memoria y su caché viven en un solo lugar.
+ *
+ * - Instancias vivas: cada una registra un latido en cluster_instances cada
+ *   {@code lease-ttl-ms}/3; las que pasan un TTL sin latido salen del anillo.
+ * - Dueño preferido: hashing consistente ({@link HashRing}) del proyecto sobre
+ *   las instancias vivas, así la capacidad total crece con las instancias.
+ * - Concesión: room_leases guarda el dueño hasta expires_at. Quien busca el dueño
+ *   de un proyecto sin concesión vigente la otorga a la instancia preferida (un
+ *   upsert que solo pisa concesiones vencidas: gana una sola). Las concesiones
+ *   vigentes se respetan aunque el anillo cambie: las salas no saltan de nodo
+ *   al entrar una instancia.
+ * - Renovación: la dueña renueva las de sus salas en memoria. Si una renovación
+ *   no vuelve (otra la tomó tras un vencimiento), persiste lo pendiente y suelta la sala.
+ * - Cerca: las escrituras de diagramas exigen en la misma sentencia que la
+ *   concesión sea de esta instancia ({@link LeaseFence}); si dejó de serlo sin
+ *   que se notara, la escritura no se aplica y la sala se suelta.
+ * - Failover: si la dueña cae, su concesión vence en a lo sumo un TTL y la
+ *   próxima escritura la otorga a la siguiente instancia del anillo.
+ *
+ * Los dueños se cachean localmente hasta un tercio de TTL antes del vencimiento.
+ * Sin modo cluster esta instancia es dueña de todo.
+ */
+@Slf4j
+@Service
+public class RoomOwnership {
+
+    private static final int RING_REPLICAS = 64;
+    private static final int CLAIM_ATTEMPTS = 3;
+
+    private static final String HEARTBEAT =
+            "insert into cluster_instances (instance_id, heartbeat_at) values (?, now()) "
+                    + "on conflict (instance_id) do update set heartbeat_at = excluded.heartbeat_at";
+    private static final String LIVE_INSTANCES =
+            "select instance_id from cluster_instances "
+                    + "where heartbeat_at > now() - (? * interval '1 millisecond')";
+    private static final String CLAIM =
+            "insert into room_leases (project_id, owner, expires_at) "
+                    + "values (?, ?, now() + (? * interval '1 millisecond')) "
+                    + "on conflict (project_id) do update set owner = excluded.owner, expires_at = excluded.expires_at "
+                    + "where room_leases.expires_at < now()";
+    // Tiempo restante medido por la BD: no depende del reloj de cada instancia
+    private static final String CURRENT =
+            "select owner, (extract(epoch from (expires_at - now())) * 1000)::bigint "
+                    + "from room_leases where project_id = ?";
+    private static final String RENEW =
+            "update room_leases set expires_at = now() + (? * interval '1 millisecond') "
+                    + "where owner = ? and project_id = any(?) returning project_id";
+
+    /** El proyecto lo atiende otra instancia: la escritura debe ir a {@link #getOwner()}. */
+    public static class NotOwnerException extends RuntimeException {
+        private final String owner;
+
+        public NotOwnerException(Long projectId, String owner) {
+            super("El proyecto " + projectId + " lo atiende la instancia " + owner);
+            this.owner = owner;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+    }
+
+    /** Dueño conocido y hasta cuándo se confía en él sin volver a consultar. */
+    private record Lease(String owner, long trustUntil) {
+    }
+
+    private final ClusterBus cluster;
+    private final DiagramRoomService diagramRooms;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final long ttlMillis;
+
+    private final ConcurrentMap<Long, Lease> leases = new ConcurrentHashMap<>();
+    private volatile HashRing ring = new HashRing(List.of(), RING_REPLICAS);
+    private volatile List<String> liveInstances = List.of();
+
+    private final LongAdder lookups = new LongAdder();
+    private final LongAdder claims = new LongAdder();
+    private final LongAdder released = new LongAdder();
+
+    public RoomOwnership(ClusterBus cluster,
+                         DiagramRoomService diagramRooms,
+                         JdbcTemplate jdbcTemplate,
+                         @Value("${diagram.cluster.ownership:true}") boolean ownership,
+                         @Value("${diagram.cluster.lease-ttl-ms:15000}") long ttlMillis) {
+        this.cluster = cluster;
+        this.diagramRooms = diagramRooms;
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = ownership && cluster.isEnabled();
+        this.ttlMillis = ttlMillis;
+    }
+
+    /** Instancia dueña del proyecto (la propia si no hay modo cluster). */
+    public String ownerOf(Long projectId) {
+        if (!enabled) return cluster.instanceId();
+        Lease lease = leases.get(projectId);
+        if (lease != null && lease.trustUntil() > System.currentTimeMillis()) return lease.owner();
+        lookups.increment();
+        return resolve(projectId).owner();
+    }
+
+    public boolean isLocal(String owner) {
+        return cluster.instanceId().equals(owner);
+    }
+
+    /* =========================================================
+     *                   LATIDOS Y RENOVACIÓN
+     * ========================================================= */
+
+    /** Latido propio, anillo con las instancias vivas y renovación de las concesiones. */
+    @Scheduled(fixedDelayString = "#{${diagram.cluster.lease-ttl-ms:15000} / 3}")
+    public void heartbeat() {
+        if (!enabled) return;
+        try {
+            jdbcTemplate.update(HEARTBEAT, cluster.instanceId());
+            List<String> live = jdbcTemplate.queryForList(LIVE_INSTANCES, String.class, ttlMillis);
+            if (!live.equals(liveInstances)) {
+                log.info("Instancias vivas en el cluster: {}", live);
+                liveInstances = List.copyOf(live);
+                ring = new HashRing(live, RING_REPLICAS);
+            }
+            renew();
+        } catch (Exception e) {
+            log.warn("No se pudo actualizar el latido del cluster: {}", e.getMessage());
+        }
+    }
+
+    private void renew() {
+        Set<Long> active = diagramRooms.activeProjects();
+        if (active.isEmpty()) return;
+        Set<Long> renewed = jdbcTemplate.execute((java.sql.Connection con) -> {
+            try (var ps = con.prepareStatement(RENEW)) {
+                ps.setLong(1, ttlMillis);
+                ps.setString(2, cluster.instanceId());
+                ps.setArray(3, con.createArrayOf("bigint", active.toArray()));
+                Set<Long> ids = new HashSet<>();
+                try (var rs = ps.executeQuery()) {
+                    while (rs.next()) ids.add(rs.getLong(1));
+                }
+                return ids;
+            }
+        });
+        long trustUntil = System.currentTimeMillis() + ttlMillis * 2 / 3;
+        for (Long projectId : renewed) leases.put(projectId, new Lease(cluster.instanceId(), trustUntil));
+        for (Long projectId : active) {
+            if (renewed.contains(projectId)) continue;
+            // Sala abierta sin concesión propia: la tomó otra instancia (o nunca fue nuestra)
+            String owner;
+            try {
+                owner = resolve(projectId).owner();
+            } catch (IllegalStateException e) {
+                // Sin dueño conocido tampoco se puede escribir (la cerca lo impide): se suelta igual
+                owner = null;
+            }
+            if (!isLocal(owner)) {
+                diagramRooms.release(projectId);
+                released.increment();
+                log.warn("Concesión del proyecto {} en manos de {}: sala liberada", projectId, owner);
+            }
+        }
+    }
+
+    /** Apagado ordenado: persiste las salas y cede las concesiones para que otra las tome ya. */
+    @PreDestroy
+    void shutdown() {
+        if (!enabled) return;
+        try {
+            diagramRooms.flushAll();
+            jdbcTemplate.update("delete from room_leases where owner = ?", cluster.instanceId());
+            jdbcTemplate.update("delete from cluster_instances where instance_id = ?", cluster.instanceId());
+        } catch (Exception e) {
+            log.warn("No se pudieron ceder las concesiones al apagar: {}", e.getMessage());
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("enabled", enabled);
+        if (!enabled) return stats;
+        String me = cluster.instanceId();
+        stats.put("instances", liveInstances);
+        stats.put("ownedLeases", leases.values().stream().filter(l -> me.equals(l.owner())).count());
+        stats.put("cachedLeases", leases.size());
+        stats.put("lookups", lookups.sum());
+        stats.put("claims", claims.sum());
+        stats.put("released", released.sum());
+        return stats;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    /**
+     * Concesión vigente; si no la hay, se otorga a la instancia preferida del anillo.
+     * Nunca se asume un dueño sin concesión en BD: sería un escritor sin cerca.
+     *
+     * @throws IllegalStateException si la concesión vence una y otra vez antes de leerla
+     */
+    private Lease resolve(Long projectId) {
+        for (int attempt = 0; attempt < CLAIM_ATTEMPTS; attempt++) {
+            Lease lease = current(projectId);
+            if (lease == null) {
+                String preferred = ring.lookup(projectId);
+                if (preferred == null) preferred = cluster.instanceId(); // aún sin latidos
+                if (jdbcTemplate.update(CLAIM, projectId, preferred, ttlMillis) > 0) claims.increment();
+                // Puede vencer entre el upsert y la lectura: se vuelve a intentar
+                lease = current(projectId);
+            }
+            if (lease != null) {
+                leases.put(projectId, lease);
+                if (isLocal(lease.owner())) diagramRooms.reclaim(projectId);
+                return lease;
+            }
+        }
+        throw new IllegalStateException("El proyecto está cambiando de servidor. Reintenta en unos segundos.");
+    }
+
+    private Lease current(Long projectId) {
+        List<Lease> rows = jdbcTemplate.query(CURRENT, (rs, i) -> {
+            long remaining = rs.getLong(2);
+            if (remaining <= 0) return null;
+            return new Lease(rs.getString(1), System.currentTimeMillis() + remaining - ttlMillis / 3);
+        }, projectId);
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+}
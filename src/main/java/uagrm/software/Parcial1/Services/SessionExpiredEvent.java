@@ -0,0 +1,8 @@
+package uagrm.software.Parcial1.Services;
+
+/**
+ * Se publica cuando una sesión pasa {@code diagram.presence.session-timeout-ms}
+ * sin heartbeats ni mensajes (desconexión perdida o cliente colgado).
+ */
+public record SessionExpiredEvent(String sessionId) {
+}
@@ -0,0 +1,94 @@
+package uagrm.software.Parcial1.Services;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.support.ChannelInterceptor;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Vencimiento de sesiones inactivas con una {@link SessionTimingWheel}.
+ *
+ * - Cada mensaje entrante de la sesión (incluidos los heartbeats STOMP, cada 10 s)
+ *   renueva su actividad: un acceso al mapa y una escritura, sin lock.
+ * - Cada {@code diagram.presence.wheel-tick-ms} avanza la rueda; las sesiones sin
+ *   actividad en {@code diagram.presence.session-timeout-ms} se publican como
+ *   {@link SessionExpiredEvent}: la presencia las saca de sus salas, el broker de
+ *   salas olvida sus suscripciones y, si el socket sigue abierto, se cierra.
+ *
+ * Así una desconexión perdida deja de inflar los conectados a lo sumo
+ * timeout + tick después del último latido.
+ */
+@Slf4j
+@Service
+public class SessionExpiry {
+
+    private final ApplicationEventPublisher events;
+    private final SessionTimingWheel wheel;
+    private final long timeoutMillis;
+    private final long tickMillis;
+
+    private final LongAdder expired = new LongAdder();
+
+    public SessionExpiry(ApplicationEventPublisher events,
+                         @Value("${diagram.presence.session-timeout-ms:60000}") long timeoutMillis,
+                         @Value("${diagram.presence.wheel-tick-ms:1000}") long tickMillis) {
+        this.events = events;
+        this.timeoutMillis = timeoutMillis;
+        this.tickMillis = tickMillis;
+        this.wheel = new SessionTimingWheel(timeoutMillis, tickMillis, System.currentTimeMillis());
+    }
+
+    /** Interceptor de clientInboundChannel: todo frame de la sesión cuenta como actividad. */
+    public ChannelInterceptor activityInterceptor() {
+        return new ChannelInterceptor() {
+            @Override
+            public Message<?> preSend(Message<?> message, MessageChannel channel) {
+                String sessionId = SimpMessageHeaderAccessor.getSessionId(message.getHeaders());
+                if (sessionId != null) wheel.touch(sessionId, System.currentTimeMillis());
+                return message;
+            }
+        };
+    }
+
+    public void track(String sessionId) {
+        if (sessionId != null) wheel.track(sessionId, System.currentTimeMillis());
+    }
+
+    public void cancel(String sessionId) {
+        if (sessionId != null) wheel.cancel(sessionId);
+    }
+
+    @Scheduled(fixedDelayString = "${diagram.presence.wheel-tick-ms:1000}")
+    public void tick() {
+        List<String> dead = wheel.advance(System.currentTimeMillis());
+        for (String sessionId : dead) {
+            expired.increment();
+            log.warn("Sesión sin actividad en {} ms, se da por desconectada - sessionId: {}", timeoutMillis, sessionId);
+            try {
+                events.publishEvent(new SessionExpiredEvent(sessionId));
+            } catch (Exception e) {
+                log.error("Error limpiando sesión vencida - sessionId: {}", sessionId, e);
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("tracked", wheel.size());
+        stats.put("expired", expired.sum());
+        stats.put("timeoutMs", timeoutMillis);
+        stats.put("tickMs", tickMillis);
+        stats.put("slots", wheel.slotCount());
+        return stats;
+    }
+}
@@ -0,0 +1,156 @@
+package uagrm.software.Parcial1.Services;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Rueda de tiempo con hash para vencer sesiones inactivas.
+ *
+ * La rueda tiene N ranuras (potencia de 2) de {@code tickMillis} cada una; una
+ * sesión vive en la lista doblemente enlazada de la ranura de su tick de
+ * vencimiento, así que agendar y cancelar son O(1). {@link #touch} solo escribe
+ * el último instante de actividad (sin lock): al llegar su ranura, si la sesión
+ * tuvo actividad se vuelve a agendar en vez de vencer. Cada tick recorre solo
+ * las sesiones de su ranura.
+ *
+ * Una sesión vence entre {@code timeoutMillis} y {@code timeoutMillis + tickMillis}
+ * después de su última actividad (más el retraso con que se llame a {@link #advance}).
+ */
+final class SessionTimingWheel {
+
+    private static final class Timeout {
+        final String sessionId;
+        volatile long lastSeen;
+        long tick;
+        Timeout prev;
+        Timeout next;
+        boolean linked;
+
+        Timeout(String sessionId, long now) {
+            this.sessionId = sessionId;
+            this.lastSeen = now;
+        }
+    }
+
+    private final long tickMillis;
+    private final long timeoutMillis;
+    private final long startedAt;
+    private final Timeout[] slots;
+    private final int mask;
+
+    // sessionId -> nodo en la rueda (lectura sin lock en touch)
+    private final ConcurrentMap<String, Timeout> sessions = new ConcurrentHashMap<>();
+
+    // Último tick procesado. Enlaces y currentTick se modifican bajo el monitor de la rueda
+    private long currentTick;
+
+    SessionTimingWheel(long timeoutMillis, long tickMillis, long now) {
+        if (tickMillis <= 0 || timeoutMillis <= 0) {
+            throw new IllegalArgumentException("timeout y tick deben ser positivos");
+        }
+        this.tickMillis = tickMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.startedAt = now;
+        // Una vuelta cubre el timeout completo: casi ninguna sesión espera vueltas extra
+        int size = Integer.highestOneBit((int) Math.min(1 << 20, timeoutMillis / tickMillis + 1)) << 1;
+        this.slots = new Timeout[size];
+        this.mask = size - 1;
+    }
+
+    /** Empieza a vigilar una sesión (o renueva su actividad si ya estaba). */
+    void track(String sessionId, long now) {
+        Timeout t = sessions.computeIfAbsent(sessionId, id -> new Timeout(id, now));
+        t.lastSeen = now;
+        synchronized (this) {
+            if (!t.linked && sessions.get(sessionId) == t) link(t, tickFor(now + timeoutMillis));
+        }
+    }
+
+    /** Actividad de la sesión (heartbeat o mensaje). Sin lock; false si no se vigila. */
+    boolean touch(String sessionId, long now) {
+        Timeout t = sessions.get(sessionId);
+        if (t == null) return false;
+        t.lastSeen = now;
+        return true;
+    }
+
+    /** Deja de vigilar la sesión. */
+    boolean cancel(String sessionId) {
+        Timeout t = sessions.remove(sessionId);
+        if (t == null) return false;
+        synchronized (this) {
+            if (t.linked) unlink(t);
+        }
+        return true;
+    }
+
+    /**
+     * Procesa los ticks transcurridos hasta {@code now}: reagenda las sesiones con
+     * actividad reciente y devuelve las vencidas (ya fuera de la rueda).
+     */
+    synchronized List<String> advance(long now) {
+        long target = (now - startedAt) / tickMillis;
+        if (target <= currentTick) return List.of();
+        List<String> expired = new ArrayList<>();
+        // Tras una pausa larga basta con una vuelta: cada ranura se recorre una vez
+        long steps = Math.min(target - currentTick, slots.length);
+        for (long i = 1; i <= steps; i++) {
+            int slot = (int) ((currentTick + i) & mask);
+            Timeout t = slots[slot];
+            while (t != null) {
+                Timeout next = t.next;
+                if (t.tick <= target) {
+                    unlink(t);
+                    long deadline = t.lastSeen + timeoutMillis;
+                    if (deadline > now) {
+                        link(t, tickFor(deadline));
+                    } else if (sessions.remove(t.sessionId, t)) {
+                        expired.add(t.sessionId);
+                    }
+                }
+                t = next;
+            }
+        }
+        currentTick = target;
+        return expired;
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    int slotCount() {
+        return slots.length;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    /** Primer tick que alcanza {@code deadline}, nunca el actual ni uno pasado. */
+    private long tickFor(long deadline) {
+        long tick = (deadline - startedAt + tickMillis - 1) / tickMillis;
+        return Math.max(tick, currentTick + 1);
+    }
+
+    private void link(Timeout t, long tick) {
+        int slot = (int) (tick & mask);
+        t.tick = tick;
+        t.prev = null;
+        t.next = slots[slot];
+        if (t.next != null) t.next.prev = t;
+        slots[slot] = t;
+        t.linked = true;
+    }
+
+    private void unlink(Timeout t) {
+        if (t.prev != null) t.prev.next = t.next;
+        else slots[(int) (t.tick & mask)] = t.next;
+        if (t.next != null) t.next.prev = t.prev;
+        t.prev = null;
+        t.next = null;
+        t.linked = false;
+    }
+}
@@ -0,0 +1,111 @@
+package uagrm.software.Parcial1.Services;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Repository.DiagramRepository;
+import uagrm.software.Parcial1.Repository.ProjectRepository;
+import uagrm.software.Parcial1.Services.DiagramRoom.FlushBatch;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Modo por defecto: el diagrama completo vive en las columnas TEXT de "diagrams"
+ * y cada escritura las reemplaza.
+ *
+ * Los lotes de varias salas se escriben con un único UPDATE ... FROM (VALUES ...)
+ * por cada {@code diagram.flush.batch-size} salas (una ida y vuelta a la BD en lugar
+ * de una transacción por sala). Cada fila conserva su condición de versión (y la
+ * de concesión en modo cluster, {@link LeaseFence}) y RETURNING indica cuáles se aplicaron.
+ */
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "diagram.persistence.mode", havingValue = "snapshot", matchIfMissing = true)
+public class SnapshotDiagramStore implements DiagramStore {
+
+    private final DiagramRepository diagramRepository;
+    private final ProjectRepository projectRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final LeaseFence leaseFence;
+
+    @Value("${diagram.flush.batch-size:50}")
+    private int batchSize;
+
+    @Override
+    public DiagramSnapshot load(Long projectId) {
+        return diagramRepository.findById(projectId).map(DiagramSnapshot::of).orElse(null);
+    }
+
+    @Override
+    public Integer currentVersion(Long projectId) {
+        return diagramRepository.findVersionById(projectId).orElse(null);
+    }
+
+    @Override
+    @Transactional
+    public boolean write(FlushBatch batch) {
+        int rows = diagramRepository.writeSnapshot(batch.projectId(), batch.name(), batch.nodes(),
+                batch.edges(), batch.viewport(), batch.version(), batch.expectedVersion(), leaseFence.owner());
+        if (rows == 0) return false;
+        projectRepository.touchLastEdited(batch.projectId(), LocalDateTime.now());
+        return true;
+    }
+
+    @Override
+    @Transactional
+    public boolean[] writeAll(List<FlushBatch> batches) {
+        Set<Long> applied = new HashSet<>();
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        for (int from = 0; from < batches.size(); from += batchSize) {
+            List<Long> ids = updateChunk(batches.subList(from, Math.min(from + batchSize, batches.size())));
+            if (ids.isEmpty()) continue;
+            List<Object> args = new ArrayList<>(ids.size() + 1);
+            args.add(now);
+            args.addAll(ids);
+            jdbcTemplate.update("update projects set last_edited_at = ? where id in ("
+                    + placeholders(ids.size()) + ")", args.toArray());
+            applied.addAll(ids);
+        }
+        boolean[] written = new boolean[batches.size()];
+        for (int i = 0; i < written.length; i++) {
+            written[i] = applied.contains(batches.get(i).projectId());
+        }
+        return written;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private List<Long> updateChunk(List<FlushBatch> chunk) {
+        StringBuilder sql = new StringBuilder("update diagrams d set name = v.name, nodes = v.nodes, "
+                + "edges = v.edges, viewport = v.viewport, version = v.version, updated_at = now() from (values ");
+        List<Object> args = new ArrayList<>(chunk.size() * 7);
+        for (int i = 0; i < chunk.size(); i++) {
+            FlushBatch b = chunk.get(i);
+            sql.append(i == 0 ? "" : ", ").append("(?::bigint, ?::varchar, ?::text, ?::text, ?::text, ?::int, ?::int)");
+            Collections.addAll(args, b.projectId(), b.name(), b.nodes(), b.edges(), b.viewport(),
+                    b.version(), b.expectedVersion());
+        }
+        sql.append(") as v(id, name, nodes, edges, viewport, version, expected) "
+                + "where d.id = v.id and d.version = v.expected and ").append(LeaseFence.CONDITION)
+                .append(" returning d.id");
+        Collections.addAll(args, leaseFence.owner(), leaseFence.owner());
+        return jdbcTemplate.queryForList(sql.toString(), Long.class, args.toArray());
+    }
+
+    private static String placeholders(int n) {
+        return String.join(", ", Collections.nCopies(n, "?"));
+    }
+}
@@ -0,0 +1,136 @@
+package uagrm.software.Parcial1.Services;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.messaging.MessageHeaders;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Confirmaciones de persistencia por escritura.
+ *
+ * El broadcast de un update sale en cuanto se aplica en memoria; la escritura a
+ * BD llega después, en el lote del write-behind. Cada sesión que editó recibe
+ * en /user/queue/acks:
+ *
+ *   { __system:"ack", projectId, version, persisted:true }                       ya está en BD
+ *   { __system:"ack", projectId, version, persisted:false, retrying, error }     falló la escritura
+ *
+ * Por sesión solo se guarda la versión más alta pendiente: confirmar v confirma
+ * todas las anteriores de esa sesión.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class WriteAcks {
+
+    private final SimpMessagingTemplate messaging;
+
+    // projectId -> (sessionId -> versión más alta aún no persistida)
+    private final ConcurrentMap<Long, Map<String, Integer>> pending = new ConcurrentHashMap<>();
+
+    private final LongAdder acked = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /** La sesión escribió {@code version} y espera su confirmación. */
+    public void expect(Long projectId, String sessionId, int version) {
+        pending.compute(projectId, (id, sessions) -> {
+            if (sessions == null) sessions = new HashMap<>();
+            sessions.merge(sessionId, version, Math::max);
+            return sessions;
+        });
+    }
+
+    /** Todo hasta {@code version} está en BD: confirma a quienes esperaban esas versiones. */
+    public void persisted(Long projectId, int version) {
+        if (!pending.containsKey(projectId)) return;
+        Map<String, Integer> done = new LinkedHashMap<>();
+        pending.computeIfPresent(projectId, (id, sessions) -> {
+            for (Iterator<Map.Entry<String, Integer>> it = sessions.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Integer> e = it.next();
+                if (e.getValue() <= version) {
+                    done.put(e.getKey(), e.getValue());
+                    it.remove();
+                }
+            }
+            return sessions.isEmpty() ? null : sessions;
+        });
+        done.forEach((sessionId, v) -> {
+            send(sessionId, ack(projectId, v, true));
+            acked.increment();
+        });
+    }
+
+    /**
+     * La escritura falló. Con {@code retrying} la sala sigue sucia y habrá
+     * confirmación cuando se reintente; si no, las esperas se descartan.
+     */
+    public void failed(Long projectId, String error, boolean retrying) {
+        // Los mapas internos solo se tocan dentro de compute (o ya fuera del mapa)
+        Map<String, Integer> sessions = new HashMap<>();
+        if (retrying) {
+            pending.computeIfPresent(projectId, (id, s) -> {
+                sessions.putAll(s);
+                return s;
+            });
+        } else {
+            Map<String, Integer> removed = pending.remove(projectId);
+            if (removed != null) sessions.putAll(removed);
+        }
+        sessions.forEach((sessionId, v) -> {
+            Map<String, Object> evt = ack(projectId, v, false);
+            evt.put("retrying", retrying);
+            evt.put("error", error);
+            send(sessionId, evt);
+            failed.increment();
+        });
+    }
+
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("pendingProjects", pending.size());
+        stats.put("acked", acked.sum());
+        stats.put("failed", failed.sum());
+        return stats;
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private static Map<String, Object> ack(Long projectId, int version, boolean persisted) {
+        Map<String, Object> evt = new HashMap<>();
+        evt.put("__system", "ack");
+        evt.put("projectId", projectId);
+        evt.put("version", version);
+        evt.put("persisted", persisted);
+        evt.put("serverTs", System.currentTimeMillis());
+        return evt;
+    }
+
+    private void send(String sessionId, Map<String, Object> evt) {
+        try {
+            messaging.convertAndSendToUser(sessionId, "/queue/acks", evt, headers(sessionId));
+        } catch (Exception e) {
+            log.debug("No se pudo enviar la confirmación a la sesión {}", sessionId, e);
+        }
+    }
+
+    /** Sin Principal, el destino de usuario se resuelve por id de sesión. */
+    private static MessageHeaders headers(String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setLeaveMutable(true);
+        return accessor.getMessageHeaders();
+    }
+}
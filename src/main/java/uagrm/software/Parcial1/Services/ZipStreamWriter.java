@@ -0,0 +1,140 @@
+package uagrm.software.Parcial1.Services;
+
+import uagrm.software.Parcial1.Services.JavaSourceRenderer.GeneratedFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Escritor ZIP secuencial para entradas ya comprimidas.
+ *
+ * {@link java.util.zip.ZipOutputStream} siempre comprime al escribir; aquí cada
+ * archivo se comprime una sola vez ({@link #deflate}, en el hilo que lo
+ * renderiza) y la {@link Entry} resultante se puede reutilizar desde caché: al
+ * escribir el ZIP solo se copian bytes. Solo se guarda en memoria el directorio
+ * central (nombre, CRC, tamaños y offset de cada entrada).
+ *
+ * Formato ZIP clásico (sin ZIP64): hasta 65535 entradas y 4 GB.
+ */
+public final class ZipStreamWriter {
+
+    // 1980-01-01 00:00 en formato DOS: el mismo contenido produce el mismo archivo
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = (1 << 5) | 1;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_DEFLATED = 8;
+
+    /** Archivo comprimido listo para escribir. */
+    public record Entry(byte[] name, long crc, long size, byte[] data) {
+
+        public long bytes() {
+            return name.length + data.length + 64L;
+        }
+    }
+
+    /** Registro del directorio central: sin los datos comprimidos, que no se retienen tras escribirlos. */
+    private record Written(byte[] name, long crc, long size, long compressedSize, long offset) {
+    }
+
+    private final OutputStream out;
+    private final List<Written> central = new ArrayList<>();
+    private long offset;
+
+    public ZipStreamWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /** Comprime un archivo generado (deflate crudo, como en ZIP). */
+    public static Entry deflate(GeneratedFile file) {
+        byte[] raw = file.content().getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(raw);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(Math.max(64, raw.length / 3));
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(chunk);
+                buf.write(chunk, 0, n);
+            }
+            return new Entry(file.path().getBytes(StandardCharsets.UTF_8), crc.getValue(), raw.length, buf.toByteArray());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public void write(Entry e) throws IOException {
+        if (central.size() == 0xFFFF || offset > 0xFFFFFFFFL) {
+            throw new IOException("El ZIP excede los límites del formato sin ZIP64");
+        }
+        byte[] h = new byte[30];
+        int32(h, 0, 0x04034b50);
+        int16(h, 4, 20);
+        int16(h, 6, FLAG_UTF8);
+        int16(h, 8, METHOD_DEFLATED);
+        int16(h, 10, DOS_TIME);
+        int16(h, 12, DOS_DATE);
+        int32(h, 14, e.crc());
+        int32(h, 18, e.data().length);
+        int32(h, 22, e.size());
+        int16(h, 26, e.name().length);
+        int16(h, 28, 0);
+        out.write(h);
+        out.write(e.name());
+        out.write(e.data());
+        central.add(new Written(e.name(), e.crc(), e.size(), e.data().length, offset));
+        offset += h.length + e.name().length + e.data().length;
+    }
+
+    /** Escribe el directorio central. No cierra el stream subyacente. */
+    public void finish() throws IOException {
+        long start = offset;
+        for (Written w : central) {
+            byte[] h = new byte[46];
+            int32(h, 0, 0x02014b50);
+            int16(h, 4, 20);
+            int16(h, 6, 20);
+            int16(h, 8, FLAG_UTF8);
+            int16(h, 10, METHOD_DEFLATED);
+            int16(h, 12, DOS_TIME);
+            int16(h, 14, DOS_DATE);
+            int32(h, 16, w.crc());
+            int32(h, 20, w.compressedSize());
+            int32(h, 24, w.size());
+            int16(h, 28, w.name().length);
+            // extra, comentario, disco, atributos internos/externos = 0
+            int32(h, 42, w.offset());
+            out.write(h);
+            out.write(w.name());
+            offset += h.length + w.name().length;
+        }
+        byte[] end = new byte[22];
+        int32(end, 0, 0x06054b50);
+        int16(end, 8, central.size());
+        int16(end, 10, central.size());
+        int32(end, 12, offset - start);
+        int32(end, 16, start);
+        out.write(end);
+        out.flush();
+    }
+
+    private static void int16(byte[] b, int i, int v) {
+        b[i] = (byte) v;
+        b[i + 1] = (byte) (v >>> 8);
+    }
+
+    private static void int32(byte[] b, int i, long v) {
+        b[i] = (byte) v;
+        b[i + 1] = (byte) (v >>> 8);
+        b[i + 2] = (byte) (v >>> 16);
+        b[i + 3] = (byte) (v >>> 24);
+    }
+}
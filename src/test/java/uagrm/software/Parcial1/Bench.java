@@ -0,0 +1,56 @@
+package uagrm.software.Parcial1;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Arnés mínimo para los benchmarks de src/test ({@code @Tag("benchmark")}, se corren
+ * con {@code mvn -Pbench test}). Sin JMH: rondas de calentamiento para que el JIT
+ * compile, rondas medidas y la mediana en ns por operación. El resultado de cada
+ * operación se acumula en un sumidero para que el JIT no la elimine.
+ *
+ * Los números sirven para comparar variantes en la misma máquina, no como valores absolutos.
+ */
+public final class Bench {
+
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    private static volatile long sink;
+
+    private Bench() {
+    }
+
+    /**
+     * Mide {@code op(i)} para i en [0, opsPerRound) y devuelve la mediana de ns por
+     * operación entre rondas. Imprime una línea con {@code name}.
+     */
+    public static double nsPerOp(String name, int opsPerRound, IntToLongFunction op) {
+        double[] rounds = new double[MEASURED_ROUNDS];
+        long acc = 0;
+        for (int r = 0; r < WARMUP_ROUNDS + MEASURED_ROUNDS; r++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < opsPerRound; i++) acc += op.applyAsLong(i);
+            long elapsed = System.nanoTime() - start;
+            if (r >= WARMUP_ROUNDS) rounds[r - WARMUP_ROUNDS] = (double) elapsed / opsPerRound;
+        }
+        sink += acc;
+        Arrays.sort(rounds);
+        double median = rounds[MEASURED_ROUNDS / 2];
+        report(name, "%.1f ns/op (min %.1f, max %.1f)", median, rounds[0], rounds[MEASURED_ROUNDS - 1]);
+        return median;
+    }
+
+    /** Imprime una línea de resultado con el formato común de los benchmarks. */
+    public static void report(String name, String format, Object... args) {
+        System.out.printf(Locale.ROOT, "[bench] %-48s " + format + "%n", prepend(name, args));
+    }
+
+    private static Object[] prepend(Object first, Object[] rest) {
+        Object[] all = new Object[rest.length + 1];
+        all[0] = first;
+        System.arraycopy(rest, 0, all, 1, rest.length);
+        return all;
+    }
+}
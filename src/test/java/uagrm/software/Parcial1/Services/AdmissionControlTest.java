@@ -0,0 +1,133 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.support.ExecutorChannelInterceptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import uagrm.software.Parcial1.Config.DbConcurrencyLimiter;
+import uagrm.software.Parcial1.Services.AdmissionControl.Level;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Arnés de sobrecarga: la clase real con señales sintéticas, evaluada tick a tick.
+ * Sube con backlog de salida, latencia de updates y cola de entrada, y vuelve en
+ * orden inverso.
+ */
+class AdmissionControlTest {
+
+    private final OutboundConflator outbound = mock(OutboundConflator.class);
+    private AdmissionControl admission;
+    private ExecutorChannelInterceptor inbound;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        admission = new AdmissionControl(outbound, mock(DbConcurrencyLimiter.class), mock(DataSource.class),
+                mock(ObjectProvider.class));
+        ReflectionTestUtils.setField(admission, "enabled", true);
+        ReflectionTestUtils.setField(admission, "inboundHigh", 500);
+        ReflectionTestUtils.setField(admission, "outboundHigh", 10_000L);
+        ReflectionTestUtils.setField(admission, "dbPendingHigh", 10);
+        ReflectionTestUtils.setField(admission, "latencyHighMillis", 500L);
+        ReflectionTestUtils.setField(admission, "maxDeferMillis", 300L);
+        inbound = admission.inboundInterceptor();
+    }
+
+    @Test
+    void levelsRiseWithLoadAndRecoverInReverse() {
+        List<Level> seen = new ArrayList<>();
+
+        when(outbound.backlog()).thenReturn(12_000L);
+        ticks(3, 0, seen);
+        assertEquals(Level.SHED_CURSORS, admission.level());
+        assertTrue(admission.shedCursor());
+        assertFalse(admission.rejectEnter());
+
+        ticks(6, 1100, seen);
+        assertEquals(Level.DEFER_PERSISTENCE, admission.level());
+
+        for (int i = 0; i < 1600; i++) inbound.beforeHandle(null, null, null);
+        ticks(2, 1100, seen);
+        assertEquals(Level.REJECT_ENTER, admission.level());
+        assertTrue(admission.rejectEnter());
+
+        for (int i = 0; i < 1600; i++) inbound.afterMessageHandled(null, null, null, null);
+        ticks(2, 1100, seen);
+        assertEquals(Level.DEFER_PERSISTENCE, admission.level());
+
+        ticks(6, 0, seen);
+        assertEquals(Level.SHED_CURSORS, admission.level());
+        assertFalse(admission.rejectEnter());
+
+        when(outbound.backlog()).thenReturn(0L);
+        ticks(6, 0, seen);
+        assertEquals(Level.NORMAL, admission.level());
+        assertFalse(admission.shedCursor());
+
+        assertEquals(List.of(Level.SHED_CURSORS, Level.DEFER_PERSISTENCE, Level.REJECT_ENTER,
+                Level.DEFER_PERSISTENCE, Level.SHED_CURSORS, Level.NORMAL), distinct(seen));
+    }
+
+    @Test
+    void levelsFallOnlyBelowHysteresis() {
+        assertEquals(Level.SHED_CURSORS, AdmissionControl.next(Level.NORMAL, 1.0));
+        assertEquals(Level.SHED_CURSORS, AdmissionControl.next(Level.SHED_CURSORS, 0.85));
+        assertEquals(Level.NORMAL, AdmissionControl.next(Level.SHED_CURSORS, 0.75));
+        assertEquals(Level.DEFER_PERSISTENCE, AdmissionControl.next(Level.REJECT_ENTER, 2.3));
+        assertEquals(Level.REJECT_ENTER, AdmissionControl.next(Level.SHED_CURSORS, 5));
+    }
+
+    /** Con DEFER sostenido, el write-behind igual corre al menos cada max-defer-ms. */
+    @Test
+    void deferredPersistenceIsCapped() throws Exception {
+        when(outbound.backlog()).thenReturn(25_000L);
+        admission.evaluate();
+        assertEquals(Level.DEFER_PERSISTENCE, admission.level());
+
+        int deferred = 0;
+        List<Long> flushedAt = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 1000) {
+            if (admission.deferFlush()) deferred++;
+            else flushedAt.add(System.currentTimeMillis());
+            Thread.sleep(20);
+        }
+
+        assertTrue(deferred > 0);
+        assertTrue(flushedAt.size() >= 2, "rondas ejecutadas: " + flushedAt.size());
+        for (int i = 1; i < flushedAt.size(); i++) {
+            assertTrue(flushedAt.get(i) - flushedAt.get(i - 1) < 300 + 200);
+        }
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    /** {@code n} ticks con un update de {@code latencyMillis} cada uno (0 = sin updates). */
+    private void ticks(int n, long latencyMillis, List<Level> seen) {
+        for (int i = 0; i < n; i++) {
+            if (latencyMillis > 0) admission.recordUpdate(latencyMillis * 1_000_000);
+            admission.evaluate();
+            seen.add(admission.level());
+        }
+    }
+
+    private static List<Level> distinct(List<Level> levels) {
+        List<Level> out = new ArrayList<>();
+        for (Level l : levels) if (out.isEmpty() || out.get(out.size() - 1) != l) out.add(l);
+        return out;
+    }
+}
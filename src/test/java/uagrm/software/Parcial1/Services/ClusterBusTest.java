@@ -0,0 +1,90 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Ida y vuelta de un sobre sin Postgres: lo que una instancia publica se entrega
+ * como si lo hubiera notificado otra. La prueba con dos instancias y BD real está
+ * en {@link ClusterTwoInstanceTest}.
+ */
+class ClusterBusTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final MessageChannel broker = mock(MessageChannel.class);
+    private final BlockingQueue<String> outbox = new ArrayBlockingQueue<>(10);
+    private ClusterBus bus;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        ObjectProvider<MessageChannel> brokerProvider = mock(ObjectProvider.class);
+        when(brokerProvider.getObject()).thenReturn(broker);
+        bus = new ClusterBus(brokerProvider, mock(ObjectProvider.class), mock(JdbcTemplate.class),
+                new DataSourceProperties(), mapper, mock(ApplicationEventPublisher.class));
+        ReflectionTestUtils.setField(bus, "enabled", true);
+        ReflectionTestUtils.setField(bus, "outbox", outbox);
+    }
+
+    @Test
+    void relayedSnapshotKeepsItsSnapshotHeader() throws Exception {
+        Message<?> delivered = roundTrip(message("{\"type\":\"update\",\"version\":3}", true));
+
+        assertEquals(Boolean.TRUE, delivered.getHeaders().get(DiagramEventEncoder.SNAPSHOT_HEADER));
+        assertEquals(Boolean.TRUE, delivered.getHeaders().get(ClusterBus.RELAY_HEADER));
+        assertEquals("/topic/projects/1", SimpMessageHeaderAccessor.getDestination(delivered.getHeaders()));
+        assertEquals("{\"type\":\"update\",\"version\":3}",
+                new String((byte[]) delivered.getPayload(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void relayedPatchIsNotMarkedAsSnapshot() throws Exception {
+        Message<?> delivered = roundTrip(message("{\"type\":\"patch\"}", false));
+
+        assertNull(delivered.getHeaders().get(DiagramEventEncoder.SNAPSHOT_HEADER));
+    }
+
+    /** Publica por el interceptor, cambia el origen del sobre y lo recibe. */
+    private Message<?> roundTrip(Message<?> message) throws Exception {
+        bus.brokerInterceptor().preSend(message, broker);
+        ObjectNode env = (ObjectNode) mapper.readTree(outbox.take());
+        env.put("o", "otra");
+        ReflectionTestUtils.invokeMethod(bus, "handle", env.toString());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Message<?>> sent = ArgumentCaptor.forClass(Message.class);
+        verify(broker).send(sent.capture());
+        return sent.getValue();
+    }
+
+    private static Message<byte[]> message(String json, boolean snapshot) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination("/topic/projects/1");
+        if (snapshot) accessor.setHeader(DiagramEventEncoder.SNAPSHOT_HEADER, Boolean.TRUE);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(json.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,198 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Dos instancias (dos {@link ClusterBus} + {@link RoomOwnership}) contra un Postgres
+ * real, en el mismo proceso pero cada una con su LISTEN y su instanceId. Se omite si
+ * no está {@code CLUSTER_TEST_DB_URL}. Para correrla:
+ *
+ * <pre>
+ *   docker run --rm -d -p 5432:5432 -e POSTGRES_PASSWORD=postgres --name pg-cluster postgres:16
+ *   CLUSTER_TEST_DB_URL=jdbc:postgresql://localhost:5432/postgres \
+ *   CLUSTER_TEST_DB_USER=postgres CLUSTER_TEST_DB_PASSWORD=postgres \
+ *   ./mvnw test -Dtest=ClusterTwoInstanceTest
+ * </pre>
+ *
+ * Usa un canal NOTIFY propio y proyectos con ids altos al azar; crea las tablas del
+ * cluster si no existen (en la aplicación las crea JPA).
+ */
+@EnabledIfEnvironmentVariable(named = "CLUSTER_TEST_DB_URL", matches = ".+")
+class ClusterTwoInstanceTest {
+
+    private static final long WAIT_SECONDS = 10;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final String channel = "diagram_it_" + Long.toHexString(ThreadLocalRandom.current().nextLong() >>> 4);
+    private final long firstProject = 1_000_000_000L + ThreadLocalRandom.current().nextLong(1_000_000_000L);
+
+    private JdbcTemplate jdbc;
+    private Instance a;
+    private Instance b;
+
+    /** Una instancia: su bus, su dueño de salas y lo que recibe por cada canal. */
+    private final class Instance {
+        final BlockingQueue<Message<?>> broker = new LinkedBlockingQueue<>();
+        final BlockingQueue<Message<?>> inbound = new LinkedBlockingQueue<>();
+        final ClusterBus bus;
+        final RoomOwnership ownership;
+
+        Instance(DataSourceProperties props) {
+            bus = new ClusterBus(capture(broker), capture(inbound), jdbc, props, mapper,
+                    mock(ApplicationEventPublisher.class));
+            ReflectionTestUtils.setField(bus, "enabled", true);
+            ReflectionTestUtils.setField(bus, "channel", channel);
+            ReflectionTestUtils.setField(bus, "inlineMaxBytes", 7500);
+            ReflectionTestUtils.setField(bus, "maxQueued", 1000);
+            ReflectionTestUtils.setField(bus, "retentionMillis", 60_000L);
+            bus.start();
+            DiagramRoomService rooms = mock(DiagramRoomService.class);
+            when(rooms.activeProjects()).thenReturn(Set.of());
+            ownership = new RoomOwnership(bus, rooms, jdbc, true, 5_000);
+        }
+
+        void stop() {
+            ownership.shutdown();
+            bus.stop();
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        DataSourceProperties props = new DataSourceProperties();
+        props.setUrl(System.getenv("CLUSTER_TEST_DB_URL"));
+        props.setUsername(System.getenv("CLUSTER_TEST_DB_USER"));
+        props.setPassword(System.getenv("CLUSTER_TEST_DB_PASSWORD"));
+        jdbc = new JdbcTemplate(new DriverManagerDataSource(props.getUrl(), props.getUsername(), props.getPassword()));
+        jdbc.execute("create table if not exists cluster_events (id bigserial primary key, payload text not null, "
+                + "created_at timestamp)");
+        jdbc.execute("create table if not exists room_leases (project_id bigint primary key, "
+                + "owner varchar(64) not null, expires_at timestamp with time zone not null)");
+        jdbc.execute("create table if not exists cluster_instances (instance_id varchar(64) primary key, "
+                + "heartbeat_at timestamp with time zone not null)");
+
+        a = new Instance(props);
+        b = new Instance(props);
+        // Los LISTEN se abren en segundo plano
+        Thread.sleep(1500);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (a != null) a.stop();
+        if (b != null) b.stop();
+        if (jdbc != null) {
+            jdbc.update("delete from room_leases where project_id between ? and ?", firstProject, firstProject + 100);
+        }
+    }
+
+    @Test
+    void snapshotsReachTheOtherInstanceStillMarkedAsSnapshots() throws Exception {
+        String big = "{\"type\":\"update\",\"nodes\":\"" + "x".repeat(20_000) + "\"}";
+        a.bus.brokerInterceptor().preSend(message("/topic/projects/1", "{\"type\":\"patch\"}", false), null);
+        a.bus.brokerInterceptor().preSend(message("/topic/projects/1", big, true), null);
+
+        Message<?> patch = b.broker.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+        Message<?> snapshot = b.broker.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+
+        assertNotNull(patch);
+        assertNull(patch.getHeaders().get(DiagramEventEncoder.SNAPSHOT_HEADER));
+        assertNotNull(snapshot);
+        assertEquals(Boolean.TRUE, snapshot.getHeaders().get(DiagramEventEncoder.SNAPSHOT_HEADER));
+        assertEquals(Boolean.TRUE, snapshot.getHeaders().get(ClusterBus.RELAY_HEADER));
+        // Más grande que un NOTIFY: viajó por referencia a cluster_events
+        assertEquals(big, new String((byte[]) snapshot.getPayload(), StandardCharsets.UTF_8));
+        assertTrue(a.broker.isEmpty());
+    }
+
+    @Test
+    void forwardedWriteArrivesOnlyAtTheTargetInstance() throws Exception {
+        a.bus.forwardInbound(b.bus.instanceId(), "/app/projects/1/update", "sess-1", "{\"ops\":[]}", 0);
+
+        Message<?> forwarded = b.inbound.poll(WAIT_SECONDS, TimeUnit.SECONDS);
+
+        assertNotNull(forwarded);
+        assertEquals("sess-1", SimpMessageHeaderAccessor.getSessionId(forwarded.getHeaders()));
+        assertEquals(1, forwarded.getHeaders().get(ClusterBus.HOPS_HEADER));
+        assertNull(a.inbound.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void bothInstancesAgreeOnOwnersAndShareTheProjects() {
+        a.ownership.heartbeat();
+        b.ownership.heartbeat();
+        a.ownership.heartbeat();
+
+        Set<String> owners = new HashSet<>();
+        for (long p = firstProject; p < firstProject + 20; p++) {
+            String owner = b.ownership.ownerOf(p);
+            assertEquals(owner, a.ownership.ownerOf(p));
+            owners.add(owner);
+        }
+        assertEquals(Set.of(a.bus.instanceId(), b.bus.instanceId()), owners);
+    }
+
+    /** Solo la dueña pasa la cerca; la otra instancia no puede escribir el proyecto. */
+    @Test
+    void onlyTheLeaseOwnerPassesTheFence() {
+        String owner = a.ownership.ownerOf(firstProject);
+        Instance holder = a.bus.instanceId().equals(owner) ? a : b;
+        Instance other = holder == a ? b : a;
+
+        assertTrue(new LeaseFence(holder.bus, jdbc, true).holds(firstProject));
+        assertFalse(new LeaseFence(other.bus, jdbc, true).holds(firstProject));
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    @SuppressWarnings("unchecked")
+    private static ObjectProvider<MessageChannel> capture(BlockingQueue<Message<?>> into) {
+        MessageChannel channel = mock(MessageChannel.class);
+        when(channel.send(any())).thenAnswer(inv -> into.add(inv.getArgument(0)));
+        ObjectProvider<MessageChannel> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(channel);
+        return provider;
+    }
+
+    private static Message<byte[]> message(String destination, String json, boolean snapshot) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setDestination(destination);
+        if (snapshot) accessor.setHeader(DiagramEventEncoder.SNAPSHOT_HEADER, Boolean.TRUE);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(json.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,52 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import uagrm.software.Parcial1.Bench;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+import static uagrm.software.Parcial1.Services.CodegenCacheTest.CLASSES;
+
+/**
+ * Regenerar el ZIP de un diagrama de 300 clases tras cambiar un atributo (cada
+ * operación es una versión nueva con otra clase cambiada), con la caché por clase
+ * frente a sin caché (límite 0: todo se renderiza). Incluye armar el modelo.
+ */
+@Tag("benchmark")
+class CodegenCacheBenchmark {
+
+    private final ClassModelParser parser = new ClassModelParser(new ObjectMapper());
+
+    @Test
+    void regenerateAfterOneAttributeChange() throws IOException {
+        run("con caché", new CodegenCache(64L << 20, 64L << 20), 20);
+        run("sin caché", new CodegenCache(0, 0), 3);
+    }
+
+    private void run(String name, CodegenCache cache, int opsPerRound) throws IOException {
+        CodeGenerationService generator = CodegenCacheTest.generator(parser, cache);
+        int[] version = { 1 };
+        try {
+            CodegenCacheTest.zip(generator, CodegenCacheTest.model(parser, version[0], -1));
+            Bench.nsPerOp("codegen/" + CLASSES + " clases/" + name, opsPerRound, i -> {
+                version[0]++;
+                try {
+                    return CodegenCacheTest.zip(generator,
+                            CodegenCacheTest.model(parser, version[0], version[0] % CLASSES)).length;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            Map<String, Object> stats = cache.getStats();
+            Bench.report("codegen/" + CLASSES + " clases/" + name + " (aciertos/fallos)", "%d / %d",
+                    stats.get("classHits"), stats.get("classMisses"));
+        } finally {
+            generator.stop();
+        }
+    }
+}
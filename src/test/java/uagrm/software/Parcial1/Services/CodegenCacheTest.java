@@ -0,0 +1,112 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import uagrm.software.Parcial1.Models.ClassModel;
+import uagrm.software.Parcial1.Repository.ProjectRepository;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Regeneración incremental a través de {@link CodeGenerationService#writeZip}: solo
+ * se renderiza lo que cambió desde el ZIP anterior.
+ */
+class CodegenCacheTest {
+
+    static final int CLASSES = 300;
+
+    private final ClassModelParser parser = new ClassModelParser(new ObjectMapper());
+    private final CodegenCache cache = new CodegenCache(64L << 20, 64L << 20);
+    private CodeGenerationService generator;
+
+    @BeforeEach
+    void setUp() {
+        generator = generator(parser, cache);
+    }
+
+    @AfterEach
+    void tearDown() {
+        generator.stop();
+    }
+
+    /** Cambiar el tipo de un atributo invalida solo esa clase: 1 fallo y 299 aciertos. */
+    @Test
+    void changingOneAttributeRendersOnlyThatClass() throws IOException {
+        zip(generator, model(parser, 1, -1));
+        long hits = stat("classHits");
+        long misses = stat("classMisses");
+
+        zip(generator, model(parser, 2, 150));
+
+        assertEquals(1, stat("classMisses") - misses);
+        assertEquals(CLASSES - 1, stat("classHits") - hits);
+    }
+
+    /** Misma versión del diagrama: se reenvía el ZIP anterior sin consultar las clases. */
+    @Test
+    void sameVersionReusesTheWholeArchive() throws IOException {
+        byte[] first = zip(generator, model(parser, 1, -1));
+        long lookups = stat("classHits") + stat("classMisses");
+
+        byte[] second = zip(generator, model(parser, 1, -1));
+
+        assertArrayEquals(first, second);
+        assertEquals(lookups, stat("classHits") + stat("classMisses"));
+        assertEquals(1L, cache.getStats().get("archiveHits"));
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private long stat(String name) {
+        return (Long) cache.getStats().get(name);
+    }
+
+    static CodeGenerationService generator(ClassModelParser parser, CodegenCache cache) {
+        CodeGenerationService generator = new CodeGenerationService(mock(ProjectRepository.class),
+                mock(DiagramRoomService.class), parser, new JavaSourceRenderer(), cache);
+        ReflectionTestUtils.setField(generator, "parallelism", 2);
+        generator.start();
+        return generator;
+    }
+
+    static byte[] zip(CodeGenerationService generator, ClassModel model) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        generator.writeZip(model, out);
+        return out.toByteArray();
+    }
+
+    /**
+     * {@link #CLASSES} clases encadenadas por asociaciones 1..*; la de índice
+     * {@code changed} (-1 = ninguna) tiene "nombre" como Integer en vez de String.
+     */
+    static ClassModel model(ClassModelParser parser, int version, int changed) {
+        StringBuilder nodes = new StringBuilder("[");
+        StringBuilder edges = new StringBuilder("[");
+        for (int i = 0; i < CLASSES; i++) {
+            if (i > 0) nodes.append(',');
+            nodes.append("{\"id\":\"n").append(i).append("\",\"type\":\"class\",\"data\":{\"name\":\"Clase")
+                    .append(i).append("\",\"attributes\":[\"- codigo: Long\",\"- nombre: ")
+                    .append(i == changed ? "Integer" : "String").append("\"]}}");
+            if (i > 0) {
+                if (i > 1) edges.append(',');
+                edges.append("{\"id\":\"e").append(i).append("\",\"source\":\"n").append(i - 1)
+                        .append("\",\"target\":\"n").append(i)
+                        .append("\",\"data\":{\"type\":\"association\",\"sourceMultiplicity\":\"1\",")
+                        .append("\"targetMultiplicity\":\"*\"}}");
+            }
+        }
+        return parser.parse(1L, version, "Bench", "com.example.bench",
+                nodes.append(']').toString(), edges.append(']').toString());
+    }
+}
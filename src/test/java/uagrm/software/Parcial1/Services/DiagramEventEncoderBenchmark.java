@@ -0,0 +1,75 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import uagrm.software.Parcial1.Bench;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Evento con el diagrama completo (3000 nodos, ~600 KB): camino anterior por
+ * {@code Map} + Jackson frente al encoder en modo compatible y raw con versión nueva
+ * (codifica y valida), y con la versión ya en caché.
+ */
+@Tag("benchmark")
+class DiagramEventEncoderBenchmark {
+
+    private static final int NODES = 3000;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void snapshotEvent() {
+        String nodes = nodes();
+        String edges = "[]";
+        Map<String, Object> meta = new LinkedHashMap<>();
+        meta.put("type", "update");
+        meta.put("clientId", "bench");
+
+        Bench.nsPerOp("encoder/map + jackson", 50, i -> {
+            Map<String, Object> evt = new LinkedHashMap<>(meta);
+            evt.put("name", "Bench");
+            evt.put("nodes", nodes);
+            evt.put("edges", edges);
+            evt.put("viewport", null);
+            evt.put("version", i);
+            try {
+                return mapper.writeValueAsBytes(evt).length;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        for (boolean raw : new boolean[] { false, true }) {
+            String mode = raw ? "raw" : "compat";
+            DiagramEventEncoder encoder = new DiagramEventEncoder(mapper, raw, 64L << 20);
+            int[] version = { 0 };
+            long[] bytes = new long[1];
+            Bench.nsPerOp("encoder/" + mode + ", versión nueva", 50, i -> {
+                DiagramSnapshot d = new DiagramSnapshot(1L, "Bench", nodes, edges, null, null, null, ++version[0]);
+                bytes[0] = encoder.snapshotEvent(meta, d, null).getPayload().length;
+                return bytes[0];
+            });
+            DiagramSnapshot cached = new DiagramSnapshot(1L, "Bench", nodes, edges, null, null, null, ++version[0]);
+            Bench.nsPerOp("encoder/" + mode + ", versión en caché", 200,
+                    i -> encoder.snapshotEvent(meta, cached, null).getPayload().length);
+            Bench.report("encoder/" + mode + " (bytes por evento)", "%d", bytes[0]);
+        }
+    }
+
+    private static String nodes() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < NODES; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"id\":\"n").append(i).append("\",\"type\":\"class\",\"position\":{\"x\":")
+                    .append(i).append(",\"y\":").append(i)
+                    .append("},\"data\":{\"name\":\"Clase").append(i)
+                    .append("\",\"attributes\":[{\"name\":\"id\",\"type\":\"Long\"},{\"name\":\"nombre\",\"type\":\"String\"}]}}");
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,76 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiagramEventEncoderTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void rawModeEmbedsValidArrays() throws Exception {
+        DiagramEventEncoder encoder = new DiagramEventEncoder(mapper, true, 1 << 20);
+
+        JsonNode event = encode(encoder, snapshot(1, "[{\"id\":\"a\"}]", "[]", "{\"zoom\":1}"));
+
+        assertTrue(event.get("nodes").isArray());
+        assertEquals("a", event.get("nodes").get(0).get("id").asText());
+        assertTrue(event.get("edges").isArray());
+        assertTrue(event.get("viewport").isObject());
+    }
+
+    /** Texto de BD con delimitadores correctos pero roto por dentro: no puede romper el frame. */
+    @Test
+    void rawModeSendsMalformedValuesAsStrings() throws Exception {
+        DiagramEventEncoder encoder = new DiagramEventEncoder(mapper, true, 1 << 20);
+        String broken = "[{\"id\":\"a\"}],\"injected\":[1]";
+        String notArray = "{\"id\":\"a\"}";
+
+        JsonNode event = encode(encoder, snapshot(1, broken, notArray, "{\"zoom\":"));
+
+        assertEquals(broken, event.get("nodes").asText());
+        assertEquals(notArray, event.get("edges").asText());
+        assertEquals("{\"zoom\":", event.get("viewport").asText());
+        assertEquals(3L, encoder.getStats().get("invalidRaw"));
+    }
+
+    @Test
+    void validatesOncePerVersion() throws Exception {
+        DiagramEventEncoder encoder = new DiagramEventEncoder(mapper, true, 1 << 20);
+        DiagramSnapshot d = snapshot(1, "[{\"id\":\"a\"}", "[]", null);
+
+        encode(encoder, d);
+        JsonNode second = encode(encoder, d);
+
+        assertEquals("[{\"id\":\"a\"}", second.get("nodes").asText());
+        assertEquals(1L, encoder.getStats().get("hits"));
+        assertEquals(1L, encoder.getStats().get("invalidRaw"));
+    }
+
+    @Test
+    void compatModeSendsStrings() throws Exception {
+        DiagramEventEncoder encoder = new DiagramEventEncoder(mapper, false, 1 << 20);
+
+        JsonNode event = encode(encoder, snapshot(1, "[{\"id\":\"a\"}]", "[]", null));
+
+        assertEquals("[{\"id\":\"a\"}]", event.get("nodes").asText());
+        assertTrue(event.get("viewport").isNull());
+        assertEquals(0L, encoder.getStats().get("invalidRaw"));
+    }
+
+    private JsonNode encode(DiagramEventEncoder encoder, DiagramSnapshot d) throws Exception {
+        return mapper.readTree(encoder.snapshotEvent(Map.of("type", "sync"), d, null).getPayload());
+    }
+
+    private static DiagramSnapshot snapshot(int version, String nodes, String edges, String viewport) {
+        return new DiagramSnapshot(1L, "D", nodes, edges, viewport, null, null, version);
+    }
+}
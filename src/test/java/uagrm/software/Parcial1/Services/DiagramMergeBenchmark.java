@@ -0,0 +1,116 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import uagrm.software.Parcial1.Bench;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Services.DiagramRoom.PatchOutcome;
+import uagrm.software.Parcial1.Services.DiagramRoom.SnapshotOutcome;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Varios escritores sobre una misma {@link DiagramRoom}: cada hilo alterna snapshots
+ * completos (con la base que vio en su última lectura, refrescada cada pocas
+ * operaciones) y patches de un campo, sobre nodos elegidos al azar entre todos.
+ * Se mide el throughput y se cuentan las escrituras que produjeron versión
+ * (fusionadas), los campos del servidor que un snapshot atrasado no pisó
+ * (conservados) y las operaciones de patch aplicadas.
+ *
+ * El tiempo incluye armar el JSON del cliente, como lo haría el controlador al recibirlo.
+ */
+@Tag("benchmark")
+class DiagramMergeBenchmark {
+
+    private static final int NODES = 200;
+    private static final int OPS_PER_THREAD = 2000;
+    private static final int REFRESH_EVERY = 8;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final DiagramMergeEngine engine = new DiagramMergeEngine(new DiagramPatchService(mapper), mapper);
+
+    @Test
+    void interleavedSnapshotsAndPatches() throws Exception {
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1; // la primera calienta el JIT
+            for (int threads : new int[] { 1, 4, 16 }) run(threads, report);
+        }
+    }
+
+    private void run(int threads, boolean report) throws Exception {
+        DiagramRoom room = DiagramRoom.from(new DiagramSnapshot(1L, "D", initialNodes(), "[]", null, null, null, 1));
+        LongAdder kept = new LongAdder();
+        LongAdder patched = new LongAdder();
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] writers = new Thread[threads];
+
+        for (int t = 0; t < threads; t++) {
+            int client = t;
+            writers[t] = new Thread(() -> {
+                awaitQuietly(go);
+                Random random = new Random(client);
+                String clientId = "c" + client;
+                ArrayNode seen = null;
+                int base = 0;
+                for (int i = 0; i < OPS_PER_THREAD; i++) {
+                    if (i % REFRESH_EVERY == 0) {
+                        DiagramSnapshot s = room.snapshot(engine);
+                        seen = engine.readArray(s.nodes());
+                        base = s.version();
+                    }
+                    String label = clientId + "-" + i;
+                    if (i % 2 == 0) {
+                        ArrayNode nodes = seen.deepCopy();
+                        ((ObjectNode) nodes.get(random.nextInt(NODES))).put("label", label);
+                        SnapshotOutcome out = room.applySnapshot(clientId, base, null, nodes.toString(), null,
+                                null, engine);
+                        kept.add(out.keptFromServer());
+                    } else {
+                        ArrayNode ops = mapper.createArrayNode();
+                        ops.addObject().put("op", "update").put("kind", "node").put("id", "n" + random.nextInt(NODES))
+                                .putObject("fields").put("label", label);
+                        PatchOutcome out = room.applyPatch(clientId, ops, null, null, engine);
+                        patched.add(out.result().applied().size());
+                    }
+                }
+            });
+            writers[t].start();
+        }
+
+        long start = System.nanoTime();
+        go.countDown();
+        for (Thread w : writers) w.join();
+        long elapsed = System.nanoTime() - start;
+
+        if (!report) return;
+        int total = threads * OPS_PER_THREAD;
+        String name = "merge/" + threads + " escritores";
+        Bench.report(name + " (ops/s)", "%.0f", total * 1e9 / elapsed);
+        Bench.report(name + " (fusionadas)", "%d de %d", room.getVersion() - 1, total);
+        Bench.report(name + " (campos conservados)", "%d", kept.sum());
+        Bench.report(name + " (ops de patch aplicadas)", "%d", patched.sum());
+    }
+
+    private String initialNodes() {
+        ArrayNode nodes = mapper.createArrayNode();
+        for (int i = 0; i < NODES; i++) {
+            nodes.addObject().put("id", "n" + i).put("label", "Clase" + i)
+                    .putObject("position").put("x", i * 10).put("y", i * 5);
+        }
+        return nodes.toString();
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
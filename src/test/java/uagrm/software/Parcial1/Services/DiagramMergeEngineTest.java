@@ -0,0 +1,227 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import uagrm.software.Parcial1.Models.DiagramDocument;
+import uagrm.software.Parcial1.Models.DiagramDocument.Kind;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Services.DiagramMergeEngine.MergeResult;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Convergencia del merge por nodo/campo: ediciones concurrentes sobre la misma base,
+ * réplicas que solo aplican los deltas emitidos y salas recargadas desde BD.
+ */
+class DiagramMergeEngineTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final DiagramPatchService patches = new DiagramPatchService(mapper);
+    private final DiagramMergeEngine engine = new DiagramMergeEngine(patches, mapper);
+
+    @Test
+    void concurrentEditsOnDifferentNodesAreBothKept() {
+        DiagramDocument doc = engine.parse("[" + node("a", "A") + "," + node("b", "B") + "]", "[]");
+
+        engine.mergeSnapshot(doc, nodes(node("a", "A2"), node("b", "B")), null, 0, 0, 1);
+        MergeResult second = engine.mergeSnapshot(doc, nodes(node("a", "A"), node("b", "B2")), null, 0, 1, 2);
+
+        assertEquals("A2", doc.get(Kind.NODE, "a").path("label").asText());
+        assertEquals("B2", doc.get(Kind.NODE, "b").path("label").asText());
+        assertEquals(1, second.keptFromServer());
+    }
+
+    @Test
+    void staleRemovalDoesNotDeleteNodeEditedAfterBase() {
+        DiagramDocument doc = engine.parse("[" + node("a", "A") + "," + node("b", "B") + "]", "[]");
+
+        engine.mergeSnapshot(doc, nodes(node("a", "A"), node("b", "B2")), null, 0, 0, 1);
+        engine.mergeSnapshot(doc, nodes(node("a", "A")), null, 0, 1, 2);
+
+        assertNotNull(doc.get(Kind.NODE, "b"));
+        assertEquals("B2", doc.get(Kind.NODE, "b").path("label").asText());
+    }
+
+    @Test
+    void staleSnapshotDoesNotResurrectNodeRemovedAfterBase() {
+        DiagramDocument doc = engine.parse("[" + node("a", "A") + "," + node("b", "B") + "]", "[]");
+
+        engine.mergeSnapshot(doc, nodes(node("a", "A")), null, 0, 0, 1);
+        engine.mergeSnapshot(doc, nodes(node("a", "A"), node("b", "B")), null, 0, 1, 2);
+
+        assertNull(doc.get(Kind.NODE, "b"));
+    }
+
+    /** Sala recargada desde BD en la versión 5: una base anterior no puede pisar lo guardado. */
+    @Test
+    void reloadedDocumentRejectsStaleSnapshot() {
+        DiagramDocument doc = engine.parse("[" + node("a", "A5") + "," + node("c", "C") + "]", "[]");
+        doc.setBaseline(5);
+
+        // El cliente quedó en la versión 3: no conoce "c" y tiene "a" viejo
+        MergeResult stale = engine.mergeSnapshot(doc, nodes(node("a", "A3")), null, 3, 5, 6);
+
+        assertTrue(stale.patch().isEmpty());
+        assertEquals("A5", doc.get(Kind.NODE, "a").path("label").asText());
+        assertNotNull(doc.get(Kind.NODE, "c"));
+    }
+
+    /** Tras la recarga, lo que el cliente creó con una base anterior no se descarta: no hay lápida. */
+    @Test
+    void reloadedDocumentAcceptsNewElementsFromStaleBase() {
+        DiagramDocument doc = engine.parse("[" + node("a", "A5") + "]", "[]");
+        doc.setBaseline(5);
+
+        MergeResult stale = engine.mergeSnapshot(doc, nodes(node("a", "A5"), node("n", "N")), null, 3, 5, 6);
+
+        assertEquals("N", doc.get(Kind.NODE, "n").path("label").asText());
+        assertEquals(0, stale.keptFromServer());
+    }
+
+    /** Una lápida explícita posterior a la base sigue impidiendo el alta, aunque la sala se haya recargado. */
+    @Test
+    void reloadedDocumentStillRejectsIdRemovedAfterBase() {
+        DiagramDocument doc = engine.parse("[" + node("a", "A5") + "," + node("b", "B") + "]", "[]");
+        doc.setBaseline(5);
+        engine.mergeSnapshot(doc, nodes(node("a", "A5")), null, 5, 5, 6);
+
+        MergeResult stale = engine.mergeSnapshot(doc, nodes(node("a", "A5"), node("b", "B")), null, 5, 6, 7);
+
+        assertNull(doc.get(Kind.NODE, "b"));
+        assertEquals(1, stale.keptFromServer());
+    }
+
+    @Test
+    void reloadedDocumentAcceptsSnapshotOnLoadedVersion() {
+        DiagramDocument doc = engine.parse("[" + node("a", "A5") + "," + node("c", "C") + "]", "[]");
+        doc.setBaseline(5);
+
+        engine.mergeSnapshot(doc, nodes(node("a", "A6"), node("d", "D")), null, 5, 5, 6);
+
+        assertEquals("A6", doc.get(Kind.NODE, "a").path("label").asText());
+        assertNull(doc.get(Kind.NODE, "c"));
+        assertNotNull(doc.get(Kind.NODE, "d"));
+    }
+
+    /** Lo mismo, a través de la sala: recarga tras quedar vacía o tras {@code release}. */
+    @Test
+    void roomLoadedFromDatabaseKeepsStoredState() {
+        DiagramSnapshot stored = new DiagramSnapshot(1L, "D", "[" + node("a", "A5") + "]", "[]", null,
+                null, null, 5);
+        DiagramRoom room = DiagramRoom.from(stored);
+
+        room.applySnapshot("c1", 2, null, "[" + node("b", "B") + "]", "[]", null, engine);
+
+        DiagramDocument reparsed = engine.parse(room.snapshot(engine).nodes(), "[]");
+        assertNotNull(reparsed.get(Kind.NODE, "a"));
+        assertNotNull(reparsed.get(Kind.NODE, "b"));
+        assertEquals(6, room.getVersion());
+    }
+
+    /**
+     * Varios clientes con bases atrasadas envían snapshots completos. Tras cada merge:
+     * nada que el servidor cambió después de la base del cliente se pierde, y una réplica
+     * que solo aplica los deltas emitidos queda igual al servidor. A mitad de camino la
+     * sala se recarga desde su JSON, como tras desalojarla.
+     */
+    @Test
+    void randomizedClientsConverge() {
+        Random random = new Random(42);
+        DiagramDocument server = engine.parse("[" + node("n0", "x") + "," + node("n1", "x") + "]", "[]");
+        DiagramDocument replica = engine.parse(engine.writeNodes(server), "[]");
+        Map<Integer, String> history = new HashMap<>();
+        int version = 0;
+        history.put(version, engine.writeNodes(server));
+
+        int clients = 4;
+        int[] bases = new int[clients];
+        int nextId = 2;
+
+        for (int step = 0; step < 2000; step++) {
+            if (step == 1000) {
+                server = engine.parse(engine.writeNodes(server), "[]");
+                server.setBaseline(version);
+            }
+            int c = random.nextInt(clients);
+            if (random.nextInt(4) == 0) {
+                bases[c] = version; // resync
+                continue;
+            }
+            int base = bases[c];
+            ArrayNode local = engine.readArray(history.get(base));
+            switch (random.nextInt(3)) {
+                case 0 -> local.add(mapper.createObjectNode().put("id", "n" + nextId++).put("label", "new"));
+                case 1 -> { if (!local.isEmpty()) local.remove(random.nextInt(local.size())); }
+                default -> {
+                    if (!local.isEmpty()) {
+                        ((ObjectNode) local.get(random.nextInt(local.size()))).put("label", "c" + c + "s" + step);
+                    }
+                }
+            }
+
+            Map<String, String> protectedFields = protectedState(server, base);
+            MergeResult merge = engine.mergeSnapshot(server, local, null, base, version, version + 1);
+            if (!merge.patch().isEmpty()) {
+                version++;
+                history.put(version, engine.writeNodes(server));
+                patches.apply(replica, merge.patch().applied());
+            }
+            bases[c] = version;
+
+            DiagramDocument merged = server;
+            protectedFields.forEach((key, value) -> assertEquals(value, fieldValue(merged, key), key));
+            assertEquals(engine.writeNodes(server), engine.writeNodes(replica));
+        }
+        assertTrue(version > 0);
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private static String node(String id, String label) {
+        return "{\"id\":\"" + id + "\",\"label\":\"" + label + "\"}";
+    }
+
+    private ArrayNode nodes(String... json) {
+        return engine.readArray("[" + String.join(",", json) + "]");
+    }
+
+    /** Campos (y existencia de elementos) que el servidor cambió después de {@code base}. */
+    private Map<String, String> protectedState(DiagramDocument doc, int base) {
+        Map<String, String> state = new HashMap<>();
+        doc.elements(Kind.NODE).forEach((id, el) -> {
+            if (doc.elementClock(Kind.NODE, id) > base) state.put(id + "#", "present");
+            Iterator<String> names = el.fieldNames();
+            List<String> fields = new ArrayList<>();
+            names.forEachRemaining(fields::add);
+            for (String f : fields) {
+                if (doc.fieldClock(Kind.NODE, id, f) > base) state.put(id + "#" + f, el.get(f).toString());
+            }
+        });
+        return state;
+    }
+
+    private static String fieldValue(DiagramDocument doc, String key) {
+        String id = key.substring(0, key.indexOf('#'));
+        String field = key.substring(key.indexOf('#') + 1);
+        ObjectNode el = doc.get(Kind.NODE, id);
+        if (field.isEmpty()) return el == null ? null : "present";
+        JsonNode value = el == null ? null : el.get(field);
+        return value == null ? null : value.toString();
+    }
+}
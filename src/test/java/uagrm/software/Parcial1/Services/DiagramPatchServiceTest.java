@@ -0,0 +1,164 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.junit.jupiter.api.Test;
+
+import uagrm.software.Parcial1.Models.DiagramDocument;
+import uagrm.software.Parcial1.Models.DiagramDocument.Kind;
+import uagrm.software.Parcial1.Services.DiagramPatchService.PatchResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiagramPatchServiceTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final DiagramPatchService patches = new DiagramPatchService(mapper);
+
+    @Test
+    void appliesAddMoveUpdateAndRemove() throws Exception {
+        DiagramDocument doc = patches.parse("[{\"id\":\"a\",\"label\":\"A\"}]", "[]");
+
+        PatchResult result = patches.apply(doc, ops("""
+                [
+                  {"op":"add","element":{"id":"b","label":"B"}},
+                  {"op":"move","id":"a","position":{"x":10,"y":20}},
+                  {"op":"update","id":"b","fields":{"label":"B2","color":"red"}},
+                  {"op":"update","id":"b","fields":{"color":null}}
+                ]"""));
+
+        assertTrue(result.rejected().isEmpty());
+        assertEquals(4, result.applied().size());
+        assertEquals(10.0, doc.get(Kind.NODE, "a").path("position").path("x").asDouble());
+        assertEquals("B2", doc.get(Kind.NODE, "b").path("label").asText());
+        assertFalse(doc.get(Kind.NODE, "b").has("color"));
+        assertEquals("[{\"id\":\"a\",\"label\":\"A\",\"position\":{\"x\":10.0,\"y\":20.0}},"
+                + "{\"id\":\"b\",\"label\":\"B2\"}]", patches.writeNodes(doc));
+    }
+
+    @Test
+    void removingNodeRemovesIncidentEdges() throws Exception {
+        DiagramDocument doc = patches.parse("[{\"id\":\"a\"},{\"id\":\"b\"}]",
+                "[{\"id\":\"e1\",\"source\":\"a\",\"target\":\"b\"},{\"id\":\"e2\",\"source\":\"b\",\"target\":\"b\"}]");
+
+        PatchResult result = patches.apply(doc, ops("[{\"op\":\"remove\",\"id\":\"a\"}]"));
+
+        assertEquals(2, result.applied().size());
+        assertEquals("edge", result.applied().get(1).path("kind").asText());
+        assertNull(doc.get(Kind.EDGE, "e1"));
+        assertEquals(1, doc.edgeCount());
+    }
+
+    @Test
+    void rejectsOperationsOnMissingElementsAndKeepsTheRest() throws Exception {
+        DiagramDocument doc = patches.parse("[{\"id\":\"a\"}]", "[]");
+
+        PatchResult result = patches.apply(doc, ops("""
+                [
+                  {"op":"update","id":"ghost","fields":{"label":"x"}},
+                  {"op":"move","id":"a","position":{"x":"no"}},
+                  {"op":"explode","id":"a"},
+                  {"op":"update","id":"a","fields":{"id":"renamed","label":"ok"}}
+                ]"""));
+
+        assertEquals(3, result.rejected().size());
+        assertEquals(List.of(0, 1, 2), result.rejected().stream().map(r -> r.get("index")).toList());
+        assertEquals("a", doc.get(Kind.NODE, "a").path("id").asText());
+        assertEquals("ok", doc.get(Kind.NODE, "a").path("label").asText());
+    }
+
+    /** Dos clientes crean el mismo id: el segundo "add" se rechaza y no pisa al primero. */
+    @Test
+    void addOnExistingIdIsRejected() throws Exception {
+        DiagramDocument doc = patches.parse("[{\"id\":\"a\",\"label\":\"A\"}]", "[]");
+
+        PatchResult result = patches.apply(doc, ops("""
+                [
+                  {"op":"add","element":{"id":"a","label":"otro"}},
+                  {"op":"add","element":{"id":"b","label":"B"}}
+                ]"""));
+
+        assertEquals(List.of(0), result.rejected().stream().map(r -> r.get("index")).toList());
+        assertEquals("el elemento ya existe: a", result.rejected().get(0).get("reason"));
+        assertEquals("A", doc.get(Kind.NODE, "a").path("label").asText());
+        assertEquals(1, result.applied().size());
+    }
+
+    /** El log se reaplica tal cual se escribió: ahí un "add" sobre un id existente lo reemplaza. */
+    @Test
+    void replayReplacesOnAdd() throws Exception {
+        DiagramDocument doc = patches.parse("[{\"id\":\"a\",\"label\":\"A\"}]", "[]");
+
+        PatchResult result = patches.replay(doc, ops("[{\"op\":\"add\",\"element\":{\"id\":\"a\",\"label\":\"A2\"}}]"));
+
+        assertTrue(result.rejected().isEmpty());
+        assertEquals("A2", doc.get(Kind.NODE, "a").path("label").asText());
+    }
+
+    @Test
+    void elementsWithoutIdSurviveRoundTrip() {
+        DiagramDocument doc = patches.parse("[{\"label\":\"sin id\"},{\"id\":\"a\"}]", null);
+
+        assertEquals("[{\"label\":\"sin id\"},{\"id\":\"a\"}]", patches.writeNodes(doc));
+        assertEquals("[]", patches.writeEdges(doc));
+    }
+
+    @Test
+    void byteBudgetRejectsOnlyTheOpsThatExceedIt() throws Exception {
+        DiagramDocument doc = patches.parse("[{\"id\":\"a\",\"label\":\"A\"}]", "[]");
+        long[] bytesLeft = {40, 0};
+
+        PatchResult result = patches.apply(doc, ops("""
+                [
+                  {"op":"add","element":{"id":"b","label":"B"}},
+                  {"op":"update","id":"a","fields":{"label":"%s"}},
+                  {"op":"add","kind":"edge","element":{"id":"e","source":"a","target":"b"}},
+                  {"op":"remove","id":"b"},
+                  {"op":"update","id":"a","fields":{"label":"AAAA"}}
+                ]""".formatted("x".repeat(100))), bytesLeft);
+
+        assertEquals(List.of(1, 2), result.rejected().stream().map(r -> r.get("index")).toList());
+        assertEquals("AAAA", doc.get(Kind.NODE, "a").path("label").asText());
+        assertNull(doc.get(Kind.EDGE, "e"));
+        assertEquals(40 - 3, bytesLeft[0]);
+    }
+
+    /** El presupuesto cuenta bytes UTF-8, igual que {@link DiagramStats} y el límite de los snapshots. */
+    @Test
+    void byteBudgetCountsUtf8Bytes() throws Exception {
+        DiagramDocument doc = patches.parse("[{\"id\":\"a\",\"label\":\"A\"}]", "[]");
+        long[] bytesLeft = {10, 0};
+
+        PatchResult result = patches.apply(doc, ops("""
+                [
+                  {"op":"update","id":"a","fields":{"label":"ññññññññ"}},
+                  {"op":"update","id":"a","fields":{"label":"ñññññ"}}
+                ]"""), bytesLeft);
+
+        // 8 "ñ" son 7 caracteres más pero 15 bytes más
+        assertEquals(List.of(0), result.rejected().stream().map(r -> r.get("index")).toList());
+        assertEquals(10 - 9, bytesLeft[0]);
+        assertEquals(DiagramPatchService.jsonBytes(patches.writeNodes(doc)), DiagramStats.of(doc).bytes(Kind.NODE));
+    }
+
+    @Test
+    void toOpsEnforcesShapeAndLimit() {
+        assertThrows(IllegalArgumentException.class, () -> patches.toOps(Map.of("op", "add")));
+
+        List<Map<String, Object>> tooMany = new ArrayList<>();
+        for (int i = 0; i <= DiagramPatchService.MAX_OPS_PER_PATCH; i++) tooMany.add(Map.of("op", "remove", "id", "n" + i));
+        assertThrows(IllegalArgumentException.class, () -> patches.toOps(tooMany));
+    }
+
+    private ArrayNode ops(String json) throws Exception {
+        return (ArrayNode) mapper.readTree(json);
+    }
+}
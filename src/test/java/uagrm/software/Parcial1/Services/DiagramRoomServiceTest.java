@@ -0,0 +1,128 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Services.DiagramRoom.FlushBatch;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DiagramRoomServiceTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final DiagramStore store = mock(DiagramStore.class);
+    private final LeaseFence fence = mock(LeaseFence.class);
+    private ProjectLanes lanes;
+    private DiagramRoomService service;
+
+    @BeforeEach
+    void setUp() {
+        lanes = new ProjectLanes();
+        ReflectionTestUtils.setField(lanes, "threads", 1);
+        ReflectionTestUtils.setField(lanes, "maxPending", 100);
+        lanes.start();
+        service = new DiagramRoomService(store, new DiagramMergeEngine(new DiagramPatchService(mapper), mapper),
+                mock(DiagramSnapshotCache.class), mock(ProjectStatsService.class), mock(AdmissionControl.class),
+                mock(WriteAcks.class), lanes, fence);
+
+        when(store.currentVersion(1L)).thenReturn(1);
+        when(store.load(1L)).thenReturn(new DiagramSnapshot(1L, "D", "[]", "[]", null, null, null, 1));
+        when(store.writeAll(anyList())).thenReturn(new boolean[] { true });
+    }
+
+    @AfterEach
+    void tearDown() {
+        lanes.stop();
+    }
+
+    /**
+     * La liberación espera a las escrituras ya encoladas, persiste lo último y las
+     * que llegan después fallan en vez de abrir otra sala sobre la BD.
+     */
+    @Test
+    void releasePersistsQueuedEditsAndRefusesLaterWrites() throws Exception {
+        write("A").join();
+
+        CountDownLatch hold = new CountDownLatch(1);
+        lanes.execute(1L, () -> awaitQuietly(hold));
+        CompletableFuture<Integer> before = write("B");
+        service.release(1L);
+        CompletableFuture<Integer> after = write("C");
+        hold.countDown();
+
+        assertEquals(3, before.join());
+        CompletionException e = assertThrows(CompletionException.class, after::join);
+        assertInstanceOf(DiagramRoomService.RoomReleasedException.class, e.getCause());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<FlushBatch>> written = ArgumentCaptor.forClass(List.class);
+        verify(store).writeAll(written.capture());
+        assertEquals(3, written.getValue().get(0).version());
+        assertEquals(Set.of(), service.activeProjects());
+    }
+
+    @Test
+    void reclaimedProjectLoadsItsRoomAgain() {
+        write("A").join();
+        service.release(1L);
+        assertThrows(CompletionException.class, () -> write("B").join());
+
+        service.reclaim(1L);
+
+        assertEquals(2, write("C").join());
+        verify(store, times(2)).load(1L);
+    }
+
+    /**
+     * Escritura no aplicada porque la concesión ya es de otra instancia: no se
+     * sobrescribe a la nueva dueña, se suelta la sala y no se recarga aquí.
+     */
+    @Test
+    void fencedWriteReleasesTheRoomInsteadOfOverwriting() {
+        when(fence.isActive()).thenReturn(true);
+        when(store.writeAll(anyList())).thenReturn(new boolean[] { false });
+        write("A").join();
+
+        service.flushDirty();
+
+        assertEquals(Set.of(), service.activeProjects());
+        CompletionException e = assertThrows(CompletionException.class, () -> write("B").join());
+        assertInstanceOf(DiagramRoomService.RoomReleasedException.class, e.getCause());
+        verify(store).writeAll(anyList());
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private CompletableFuture<Integer> write(String name) {
+        return lanes.submit(1L, () -> service.applySnapshot(1L, "c", null, name, "[]", "[]", null)
+                .snapshot().version());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.AutowireCapableBeanFactory;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import uagrm.software.Parcial1.Bench;
+import uagrm.software.Parcial1.GeneradorApplication;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Los dos modos de persistencia contra un Postgres real, por el mismo camino que en
+ * producción: {@link DiagramRoomService#applyPatch} mueve un nodo y
+ * {@link DiagramRoomService#flush} lo escribe con {@link DiagramStore#writeAll}.
+ * "snapshot" reescribe las columnas TEXT de "diagrams"; "elements" hace upsert de la
+ * fila del nodo. Con 100, 1.000 y 10.000 clases; la primera escritura de "elements"
+ * (migración completa) cae en el calentamiento.
+ *
+ * Se omite si no está {@code BENCH_DB_URL}. Crea el esquema con JPA y borra lo que inserta:
+ *
+ * <pre>
+ *   docker run --rm -d -p 5432:5432 -e POSTGRES_PASSWORD=postgres --name pg-bench postgres:16
+ *   BENCH_DB_URL=jdbc:postgresql://localhost:5432/postgres \
+ *   BENCH_DB_USER=postgres BENCH_DB_PASSWORD=postgres \
+ *   ./mvnw -Pbench test -Dtest=DiagramStoreBenchmark
+ * </pre>
+ */
+@Tag("benchmark")
+@EnabledIfEnvironmentVariable(named = "BENCH_DB_URL", matches = ".+")
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ContextConfiguration(classes = GeneradorApplication.class)
+@Import(DiagramStoreBenchmark.Fence.class)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class DiagramStoreBenchmark {
+
+    private static final int OPS_PER_ROUND = 20;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final DiagramMergeEngine engine = new DiagramMergeEngine(new DiagramPatchService(mapper), mapper);
+
+    @Autowired
+    private AutowireCapableBeanFactory beans;
+
+    @Autowired
+    private JdbcTemplate jdbc;
+
+    @Autowired
+    private LeaseFence fence;
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> System.getenv("BENCH_DB_URL"));
+        registry.add("spring.datasource.username", () -> System.getenv().getOrDefault("BENCH_DB_USER", "postgres"));
+        registry.add("spring.datasource.password", () -> System.getenv().getOrDefault("BENCH_DB_PASSWORD", ""));
+        registry.add("spring.jpa.show-sql", () -> "false");
+    }
+
+    @TestConfiguration
+    static class Fence {
+        @Bean
+        LeaseFence leaseFence(JdbcTemplate jdbc) {
+            // Sin cluster: la condición de concesión queda en "owner is null"
+            return new LeaseFence(mock(ClusterBus.class), jdbc, false);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = { 100, 1_000, 10_000 })
+    void flushAfterSingleNodeMove(int classes) {
+        // createBean aplica @Value y el proxy de @Transactional, como al levantar la aplicación
+        run("snapshot", beans.createBean(SnapshotDiagramStore.class), classes);
+        run("elements", beans.createBean(ElementDiagramStore.class), classes);
+    }
+
+    private void run(String name, DiagramStore store, int classes) {
+        Long projectId = insertDiagram(classes);
+        ProjectLanes lanes = new ProjectLanes();
+        ReflectionTestUtils.setField(lanes, "threads", 1);
+        ReflectionTestUtils.setField(lanes, "maxPending", 100);
+        lanes.start();
+        try {
+            DiagramRoomService service = new DiagramRoomService(store, engine, mock(DiagramSnapshotCache.class),
+                    mock(ProjectStatsService.class), mock(AdmissionControl.class), mock(WriteAcks.class), lanes, fence);
+            ReflectionTestUtils.setField(service, "idleEvictMillis", Long.MAX_VALUE);
+            Bench.nsPerOp("store/" + classes + " clases/" + name, OPS_PER_ROUND, i -> {
+                ArrayNode ops = mapper.createArrayNode();
+                ops.addObject().put("op", "move").put("id", "n" + (i % classes)).putObject("position")
+                        .put("x", i).put("y", i);
+                int version = service.applyPatch(projectId, "bench", ops, null, null).version();
+                if (!service.flush(projectId)) throw new IllegalStateException("flush sin aplicar: " + name);
+                return version;
+            });
+        } finally {
+            lanes.stop();
+            jdbc.update("delete from diagram_elements where diagram_id = ?", projectId);
+            jdbc.update("delete from diagrams where id = ?", projectId);
+            jdbc.update("delete from projects where id = ?", projectId);
+        }
+    }
+
+    /** Proyecto nuevo con el diagrama en las columnas TEXT, como lo deja el modo snapshot. */
+    private Long insertDiagram(int classes) {
+        Long id = jdbc.queryForObject("insert into projects (name, created_at, updated_at, last_edited_at) "
+                + "values ('bench', now(), now(), now()) returning id", Long.class);
+        DiagramSnapshot d = ElementStorageBenchmark.classDiagram(id, classes);
+        jdbc.update("insert into diagrams (id, name, nodes, edges, version, created_at, updated_at) "
+                + "values (?, ?, ?, ?, 1, now(), now())", id, d.name(), d.nodes(), d.edges());
+        return id;
+    }
+}
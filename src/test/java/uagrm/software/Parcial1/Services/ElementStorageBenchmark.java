@@ -0,0 +1,76 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import uagrm.software.Parcial1.Bench;
+import uagrm.software.Parcial1.Models.DiagramSnapshot;
+import uagrm.software.Parcial1.Services.DiagramRoom.ElementChange;
+import uagrm.software.Parcial1.Services.DiagramRoom.FlushBatch;
+
+/**
+ * Modo "elements" frente a snapshot completo: costo de capturar un flush y bytes que
+ * van a BD cuando cambia un solo nodo, con 100, 1.000 y 10.000 clases. La parte de BD
+ * (upsert por fila frente a reescribir las columnas TEXT) se mide en
+ * {@link DiagramStoreBenchmark}.
+ */
+@Tag("benchmark")
+class ElementStorageBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final DiagramMergeEngine engine = new DiagramMergeEngine(new DiagramPatchService(mapper), mapper);
+
+    @ParameterizedTest
+    @ValueSource(ints = { 100, 1_000, 10_000 })
+    void flushAfterSingleNodeMove(int classes) {
+        run("snapshot completo", classes, true, false, Math.max(20, 300_000 / classes));
+        run("elementos cambiados", classes, false, true, 2000);
+    }
+
+    private void run(String name, int classes, boolean fullState, boolean withElements, int opsPerRound) {
+        DiagramRoom room = DiagramRoom.from(classDiagram(1L, classes));
+        long[] bytes = new long[1];
+        String label = "elements/" + classes + " clases/" + name;
+        Bench.nsPerOp(label, opsPerRound, i -> {
+            ArrayNode ops = mapper.createArrayNode();
+            ops.addObject().put("op", "move").put("id", "n" + (i % classes)).putObject("position")
+                    .put("x", i).put("y", i);
+            room.applyPatch("bench", ops, null, null, engine);
+            FlushBatch batch = room.captureDirty(engine, fullState, withElements);
+            room.markPersisted(batch.version());
+            bytes[0] = written(batch);
+            return bytes[0];
+        });
+        Bench.report(label + " (bytes por flush)", "%d", bytes[0]);
+    }
+
+    private static long written(FlushBatch batch) {
+        if (batch.hasFullState()) return batch.nodes().length() + batch.edges().length();
+        long n = 0;
+        for (ElementChange el : batch.elements()) n += el.json() == null ? 0 : el.json().length();
+        return n;
+    }
+
+    /** Diagrama de {@code classes} clases con dos atributos cada una y una arista entre consecutivas. */
+    static DiagramSnapshot classDiagram(Long projectId, int classes) {
+        StringBuilder nodes = new StringBuilder("[");
+        for (int i = 0; i < classes; i++) {
+            if (i > 0) nodes.append(',');
+            nodes.append("{\"id\":\"n").append(i).append("\",\"type\":\"class\",\"position\":{\"x\":")
+                    .append(i).append(",\"y\":").append(i)
+                    .append("},\"data\":{\"name\":\"Clase").append(i)
+                    .append("\",\"attributes\":[{\"name\":\"id\",\"type\":\"Long\"},{\"name\":\"nombre\",\"type\":\"String\"}]}}");
+        }
+        StringBuilder edges = new StringBuilder("[");
+        for (int i = 0; i < classes - 1; i++) {
+            if (i > 0) edges.append(',');
+            edges.append("{\"id\":\"e").append(i).append("\",\"source\":\"n").append(i)
+                    .append("\",\"target\":\"n").append(i + 1).append("\",\"label\":\"1..*\"}");
+        }
+        return new DiagramSnapshot(projectId, "Bench", nodes.append(']').toString(), edges.append(']').toString(),
+                null, null, null, 1);
+    }
+}
@@ -0,0 +1,83 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import uagrm.software.Parcial1.Models.ClassModel;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class GenerationJobServiceTest {
+
+    private final CodeGenerationService codeGenerator = mock(CodeGenerationService.class);
+    private final DiagramRoomService diagramRooms = mock(DiagramRoomService.class);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<String> buildThreads = new CopyOnWriteArrayList<>();
+
+    private GenerationJobService service;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        service = new GenerationJobService(codeGenerator, diagramRooms, new GenerationArtifactStore(1 << 20),
+                mock(SimpMessagingTemplate.class));
+        ReflectionTestUtils.setField(service, "workers", 1);
+        ReflectionTestUtils.setField(service, "maxQueued", 10);
+        ReflectionTestUtils.setField(service, "retentionMillis", 60_000L);
+        ReflectionTestUtils.setField(service, "progressIntervalMillis", 250L);
+        service.start();
+
+        when(diagramRooms.currentVersion(1L)).thenReturn(7);
+        when(codeGenerator.buildModel(1L)).thenAnswer(inv -> {
+            buildThreads.add(Thread.currentThread().getName());
+            release.await(5, TimeUnit.SECONDS);
+            return new ClassModel(1L, 7, "P", "p", "com.p", List.of());
+        });
+        doAnswer(inv -> null).when(codeGenerator).writeZip(any(), any(), any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        service.stop();
+    }
+
+    @Test
+    void submitOnlyReadsTheVersionAndDeduplicates() {
+        GenerationJob first = service.submit(1L, null);
+        GenerationJob second = service.submit(1L, null);
+
+        assertSame(first, second);
+        assertEquals(7, first.getVersion());
+        release.countDown();
+        verify(codeGenerator, timeout(5000)).buildModel(1L);
+        assertEquals(1, buildThreads.size());
+        assertTrue(buildThreads.get(0).startsWith("codegen-job-"), buildThreads.get(0));
+        assertNotEquals(Thread.currentThread().getName(), buildThreads.get(0));
+    }
+
+    @Test
+    void unknownProjectIsNotQueued() {
+        when(diagramRooms.currentVersion(2L)).thenReturn(null);
+
+        assertNull(service.submit(2L, null));
+        assertEquals(0L, service.getStats().get("submitted"));
+    }
+}
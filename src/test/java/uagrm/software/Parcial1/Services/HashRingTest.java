@@ -0,0 +1,78 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashRingTest {
+
+    private static final int PROJECTS = 10_000;
+    private static final int REPLICAS = 64;
+
+    @Test
+    void emptyRingHasNoOwner() {
+        HashRing ring = new HashRing(List.of(), REPLICAS);
+
+        assertTrue(ring.isEmpty());
+        assertNull(ring.lookup(1L));
+    }
+
+    /** Todas las instancias construyen el mismo anillo, sin importar el orden en que ven a las vivas. */
+    @Test
+    void lookupsDoNotDependOnInstanceOrder() {
+        HashRing ring = new HashRing(List.of("a", "b", "c"), REPLICAS);
+        HashRing reordered = new HashRing(List.of("c", "a", "b"), REPLICAS);
+
+        for (long p = 0; p < PROJECTS; p++) assertEquals(ring.lookup(p), reordered.lookup(p));
+    }
+
+    @Test
+    void projectsAreSpreadAcrossInstances() {
+        Map<String, Integer> counts = owners(new HashRing(List.of("a", "b", "c", "d"), REPLICAS));
+
+        assertEquals(4, counts.size());
+        // Con 64 réplicas ninguna queda lejos de la cuarta parte
+        for (int n : counts.values()) assertTrue(n > PROJECTS / 8 && n < PROJECTS / 2, counts.toString());
+    }
+
+    /** Al entrar una instancia solo le pasan proyectos a ella (~1/N); los demás no se mueven. */
+    @Test
+    void addingAnInstanceOnlyMovesProjectsToIt() {
+        HashRing before = new HashRing(List.of("a", "b", "c"), REPLICAS);
+        HashRing after = new HashRing(List.of("a", "b", "c", "d"), REPLICAS);
+
+        int moved = 0;
+        for (long p = 0; p < PROJECTS; p++) {
+            String was = before.lookup(p);
+            String now = after.lookup(p);
+            if (!was.equals(now)) {
+                assertEquals("d", now);
+                moved++;
+            }
+        }
+        assertTrue(moved > PROJECTS / 8 && moved < PROJECTS * 2 / 5, "movidos: " + moved);
+    }
+
+    @Test
+    void removingAnInstanceOnlyMovesItsProjects() {
+        HashRing before = new HashRing(List.of("a", "b", "c"), REPLICAS);
+        HashRing after = new HashRing(List.of("a", "c"), REPLICAS);
+
+        for (long p = 0; p < PROJECTS; p++) {
+            String was = before.lookup(p);
+            if (!was.equals("b")) assertEquals(was, after.lookup(p));
+        }
+    }
+
+    private static Map<String, Integer> owners(HashRing ring) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (long p = 0; p < PROJECTS; p++) counts.merge(ring.lookup(p), 1, Integer::sum);
+        return counts;
+    }
+}
@@ -0,0 +1,139 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Más sesiones trabadas en el envío que {@code diagram.outbound.threads}: las sanas
+ * siguen recibiendo y las trabadas se cortan al pasar el límite por envío.
+ */
+class OutboundConflatorSlowSessionTest {
+
+    private static final int THREADS = 2;
+    private static final int STALLED = 5;
+
+    private final CountDownLatch unblock = new CountDownLatch(1);
+    private final CountDownLatch stalled = new CountDownLatch(STALLED);
+    private final List<Message<?>> delivered = new CopyOnWriteArrayList<>();
+    private final Map<String, WebSocketSession> sessions = new HashMap<>();
+
+    private OutboundConflator conflator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        WebSocketHandler handler = mock(WebSocketHandler.class, withSettings().extraInterfaces(MessageHandler.class));
+        doAnswer(inv -> {
+            Message<?> m = inv.getArgument(0);
+            if (SimpMessageHeaderAccessor.getSessionId(m.getHeaders()).startsWith("slow")) {
+                // Cliente que no lee: la escritura al socket no vuelve
+                stalled.countDown();
+                unblock.await(10, TimeUnit.SECONDS);
+            }
+            delivered.add(m);
+            return null;
+        }).when((MessageHandler) handler).handleMessage(any());
+        ObjectProvider<WebSocketHandler> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(handler);
+
+        conflator = new OutboundConflator(provider, new ObjectMapper(), new MockEnvironment());
+        ReflectionTestUtils.setField(conflator, "enabled", true);
+        ReflectionTestUtils.setField(conflator, "threads", THREADS);
+        ReflectionTestUtils.setField(conflator, "maxThreads", 64);
+        ReflectionTestUtils.setField(conflator, "maxQueued", 1000);
+        ReflectionTestUtils.setField(conflator, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(conflator, "sendTimeLimitMillis", 200L);
+        conflator.start();
+
+        for (int i = 0; i < STALLED; i++) connect("slow-" + i);
+        connect("fast");
+    }
+
+    @AfterEach
+    void tearDown() {
+        unblock.countDown();
+        conflator.stop();
+    }
+
+    @Test
+    void healthySessionIsNotStuckBehindStalledOnes() throws Exception {
+        for (int i = 0; i < STALLED; i++) send("slow-" + i, i);
+        assertTrue(stalled.await(5, TimeUnit.SECONDS), "las sesiones lentas ocupan más hilos que el pool base");
+
+        for (int i = 0; i < 20; i++) send("fast", i);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (delivered.size() < 20 && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        assertEquals(20, delivered.size());
+        for (Message<?> m : delivered) assertEquals("fast", SimpMessageHeaderAccessor.getSessionId(m.getHeaders()));
+    }
+
+    @Test
+    void sessionsStuckPastTheSendLimitAreClosedWithoutNewTraffic() throws Exception {
+        for (int i = 0; i < STALLED; i++) send("slow-" + i, i);
+        send("fast", 0);
+        assertTrue(stalled.await(5, TimeUnit.SECONDS));
+        Thread.sleep(300);
+
+        conflator.closeStalled();
+
+        for (int i = 0; i < STALLED; i++) {
+            verify(sessions.get("slow-" + i), timeout(2000)).close(CloseStatus.SESSION_NOT_RELIABLE);
+        }
+        verify(sessions.get("fast"), never()).close(any());
+        assertEquals((long) STALLED, conflator.getStats().get("slowClosed"));
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private void connect(String sessionId) throws Exception {
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn(sessionId);
+        sessions.put(sessionId, session);
+        conflator.decoratorFactory().decorate(mock(WebSocketHandler.class)).afterConnectionEstablished(session);
+    }
+
+    private void send(String sessionId, int seq) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId(sessionId);
+        accessor.setDestination("/topic/projects/1");
+        accessor.setSubscriptionId("sub-1");
+        accessor.setLeaveMutable(true);
+        byte[] payload = ("{\"type\":\"patch\",\"seq\":" + seq + "}").getBytes(StandardCharsets.UTF_8);
+        conflator.outboundInterceptor().preSend(MessageBuilder.createMessage(payload, accessor.getMessageHeaders()), null);
+    }
+}
@@ -0,0 +1,167 @@
+package uagrm.software.Parcial1.Services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageHandler;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Fusiones de la cola de salida de una sesión: el primer mensaje queda retenido en
+ * el envío (cliente lento) y lo que llega mientras tanto se fusiona o se descarta.
+ */
+class OutboundConflatorTest {
+
+    private static final String TOPIC = "/topic/projects/1";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final CountDownLatch sending = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final List<Message<?>> delivered = new CopyOnWriteArrayList<>();
+
+    private OutboundConflator conflator;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        WebSocketHandler handler = mock(WebSocketHandler.class, withSettings().extraInterfaces(MessageHandler.class));
+        doAnswer(inv -> {
+            Message<?> m = inv.getArgument(0);
+            if (TOPIC.equals(SimpMessageHeaderAccessor.getDestination(m.getHeaders())) && delivered.isEmpty()) {
+                sending.countDown();
+                release.await(5, TimeUnit.SECONDS);
+            }
+            delivered.add(m);
+            return null;
+        }).when((MessageHandler) handler).handleMessage(any());
+        ObjectProvider<WebSocketHandler> provider = mock(ObjectProvider.class);
+        when(provider.getObject()).thenReturn(handler);
+
+        conflator = new OutboundConflator(provider, mapper, new MockEnvironment());
+        ReflectionTestUtils.setField(conflator, "enabled", true);
+        ReflectionTestUtils.setField(conflator, "threads", 1);
+        ReflectionTestUtils.setField(conflator, "maxQueued", 1000);
+        ReflectionTestUtils.setField(conflator, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(conflator, "sendTimeLimitMillis", 30_000L);
+        conflator.start();
+
+        WebSocketSession session = mock(WebSocketSession.class);
+        when(session.getId()).thenReturn("s1");
+        conflator.decoratorFactory().decorate(mock(WebSocketHandler.class)).afterConnectionEstablished(session);
+
+        // Retiene el envío: lo siguiente queda en cola
+        send(message(TOPIC, "{\"type\":\"first\"}", false));
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        conflator.stop();
+    }
+
+    @Test
+    void pendingCursorFramesKeepLastMovePerClientAndNode() throws Exception {
+        send(message(TOPIC + "/cursors", """
+                {"moves":[{"clientId":"a","id":"n1","x":1},{"clientId":"b","id":"n2","x":5}]}""", false));
+        send(message(TOPIC + "/cursors", """
+                {"moves":[{"clientId":"a","id":"n1","x":2},{"clientId":"a","id":"n3","x":7}]}""", false));
+
+        List<JsonNode> frames = drained(2);
+
+        JsonNode moves = frames.get(1).get("moves");
+        assertEquals(3, moves.size());
+        assertEquals("n2", moves.get(0).get("id").asText());
+        assertEquals("n1", moves.get(1).get("id").asText());
+        assertEquals(2, moves.get(1).get("x").asInt());
+        assertEquals("n3", moves.get(2).get("id").asText());
+        assertEquals(1L, conflator.getStats().get("conflatedCursors"));
+    }
+
+    @Test
+    void pendingPresenceDiffsCollapseIntoOne() throws Exception {
+        send(message(TOPIC + "/presence", """
+                {"joined":[{"sessionId":"s2","status":"active"}],"left":["s4"],"updated":[{"sessionId":"s3","status":"idle"}]}""", false));
+        send(message(TOPIC + "/presence", """
+                {"joined":[{"sessionId":"s4","status":"active"}],"left":["s2"],"updated":[{"sessionId":"s3","status":"active"}]}""", false));
+
+        List<JsonNode> frames = drained(2);
+
+        JsonNode diff = frames.get(1);
+        // s2 entró y salió: se anula; s4 salió y volvió: queda como alta
+        assertEquals(1, diff.get("joined").size());
+        assertEquals("s4", diff.get("joined").get(0).get("sessionId").asText());
+        assertEquals(0, diff.get("left").size());
+        assertEquals(1, diff.get("updated").size());
+        assertEquals("active", diff.get("updated").get(0).get("status").asText());
+    }
+
+    @Test
+    void snapshotSupersedesPendingMessagesOfSameSubscription() throws Exception {
+        send(message(TOPIC, "{\"type\":\"patch\",\"v\":2}", false));
+        send(message(TOPIC, "{\"type\":\"update\",\"v\":3}", true));
+        send(message("/topic/projects/2", "{\"type\":\"patch\"}", false));
+        send(message(TOPIC, "{\"type\":\"update\",\"v\":4}", true));
+
+        List<JsonNode> frames = drained(3);
+
+        assertEquals("patch", frames.get(1).get("type").asText());
+        assertEquals(4, frames.get(2).get("v").asInt());
+        assertEquals(2L, conflator.getStats().get("superseded"));
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    private void send(Message<?> message) {
+        conflator.outboundInterceptor().preSend(message, null);
+    }
+
+    /** Libera el envío retenido y espera {@code count} mensajes entregados en total. */
+    private List<JsonNode> drained(int count) throws Exception {
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (delivered.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(5);
+        Thread.sleep(20);
+        assertEquals(count, delivered.size());
+        List<JsonNode> frames = new ArrayList<>();
+        for (Message<?> m : delivered) frames.add(mapper.readTree((byte[]) m.getPayload()));
+        return frames;
+    }
+
+    private static Message<byte[]> message(String destination, String json, boolean snapshot) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(SimpMessageType.MESSAGE);
+        accessor.setSessionId("s1");
+        accessor.setDestination(destination);
+        accessor.setSubscriptionId("sub-" + destination);
+        if (snapshot) accessor.setHeader(DiagramEventEncoder.SNAPSHOT_HEADER, Boolean.TRUE);
+        accessor.setLeaveMutable(true);
+        return MessageBuilder.createMessage(json.getBytes(StandardCharsets.UTF_8), accessor.getMessageHeaders());
+    }
+}
@@ -0,0 +1,103 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import uagrm.software.Parcial1.Bench;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Contención sobre un proyecto muy activo: 32 hilos de entrada envían 2000
+ * actualizaciones cada uno, con 20 µs de trabajo bajo el monitor de la sala.
+ * "directo" aplica y hace broadcast en el hilo de entrada; "carriles" lo encola
+ * en {@link ProjectLanes} (8 hilos). Se mide el throughput, el tiempo que el hilo
+ * de entrada queda ocupado por mensaje y los broadcasts que salen fuera de orden.
+ */
+@Tag("benchmark")
+class ProjectLanesBenchmark {
+
+    private static final int INBOUND_THREADS = 32;
+    private static final int UPDATES_PER_THREAD = 2000;
+    private static final long WORK_NANOS = 20_000;
+
+    private ProjectLanes lanes;
+
+    @BeforeEach
+    void setUp() {
+        lanes = new ProjectLanes();
+        ReflectionTestUtils.setField(lanes, "threads", 8);
+        ReflectionTestUtils.setField(lanes, "maxPending", Integer.MAX_VALUE);
+        lanes.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        lanes.stop();
+    }
+
+    @Test
+    void hotProject() throws Exception {
+        for (int round = 0; round < 2; round++) {
+            boolean report = round == 1; // la primera calienta el JIT
+            run("directo", Runnable::run, report);
+            run("carriles", task -> lanes.execute(1L, task), report);
+        }
+    }
+
+    private void run(String name, Consumer<Runnable> dispatch, boolean report) throws Exception {
+        Room room = new Room();
+        int total = INBOUND_THREADS * UPDATES_PER_THREAD;
+        CountDownLatch applied = new CountDownLatch(total);
+        LongAdder inboundNanos = new LongAdder();
+        Thread[] inbound = new Thread[INBOUND_THREADS];
+
+        long start = System.nanoTime();
+        for (int t = 0; t < INBOUND_THREADS; t++) {
+            inbound[t] = new Thread(() -> {
+                for (int i = 0; i < UPDATES_PER_THREAD; i++) {
+                    long s = System.nanoTime();
+                    dispatch.accept(() -> {
+                        room.broadcast(room.apply());
+                        applied.countDown();
+                    });
+                    inboundNanos.add(System.nanoTime() - s);
+                }
+            });
+            inbound[t].start();
+        }
+        for (Thread t : inbound) t.join();
+        if (!applied.await(2, TimeUnit.MINUTES)) throw new IllegalStateException("actualizaciones sin aplicar");
+        long elapsed = System.nanoTime() - start;
+
+        if (!report) return;
+        Bench.report("lanes/" + name + " (actualizaciones/s)", "%.0f", total * 1e9 / elapsed);
+        Bench.report("lanes/" + name + " (hilo de entrada por mensaje)", "%.1f µs", inboundNanos.sum() / 1e3 / total);
+        Bench.report("lanes/" + name + " (broadcasts fuera de orden)", "%d", room.outOfOrder.get());
+    }
+
+    /** Sala mínima: versión bajo su monitor y broadcast fuera de él, como en el controlador. */
+    private static final class Room {
+        private int version;
+        private final AtomicInteger lastSent = new AtomicInteger();
+        final AtomicInteger outOfOrder = new AtomicInteger();
+
+        synchronized int apply() {
+            long until = System.nanoTime() + WORK_NANOS;
+            while (System.nanoTime() < until) Thread.onSpinWait();
+            return ++version;
+        }
+
+        void broadcast(int v) {
+            int prev = lastSent.getAndAccumulate(v, Math::max);
+            if (v < prev) outOfOrder.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProjectLanesTest {
+
+    private ProjectLanes lanes;
+
+    @BeforeEach
+    void setUp() {
+        lanes = new ProjectLanes();
+        ReflectionTestUtils.setField(lanes, "threads", 4);
+        ReflectionTestUtils.setField(lanes, "maxPending", 100);
+        lanes.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        lanes.stop();
+    }
+
+    @Test
+    void tasksOfOneProjectRunOneAtATimeInArrivalOrder() throws Exception {
+        List<Integer> order = new ArrayList<>();
+        int[] running = new int[1];
+        boolean[] overlapped = new boolean[1];
+        for (int i = 0; i < 50; i++) {
+            int n = i;
+            lanes.execute(1L, () -> {
+                if (++running[0] > 1) overlapped[0] = true;
+                order.add(n);
+                running[0]--;
+            });
+        }
+
+        assertEquals(50, lanes.submit(1L, order::size).get(5, TimeUnit.SECONDS));
+        assertFalse(overlapped[0]);
+        for (int i = 0; i < 50; i++) assertEquals(i, order.get(i));
+    }
+
+    @Test
+    void busyProjectDoesNotBlockOthers() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        lanes.execute(1L, () -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        assertEquals("ok", lanes.submit(2L, () -> "ok").get(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    void fullLaneRejects() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        lanes.execute(1L, () -> {
+            started.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) lanes.execute(1L, () -> { });
+
+        assertThrows(RejectedExecutionException.class, () -> lanes.execute(1L, () -> { }));
+        release.countDown();
+        assertEquals(1L, lanes.getStats().get("rejected"));
+    }
+}
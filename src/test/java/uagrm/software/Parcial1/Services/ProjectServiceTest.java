@@ -0,0 +1,36 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.Test;
+
+import uagrm.software.Parcial1.Models.DiagramEntity;
+import uagrm.software.Parcial1.Repository.ProjectRepository;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class ProjectServiceTest {
+
+    private final ProjectRepository projects = mock(ProjectRepository.class);
+    private final DiagramRoomService diagramRooms = mock(DiagramRoomService.class);
+    private final ProjectLanes lanes = mock(ProjectLanes.class);
+    private final RoomOwnership ownership = mock(RoomOwnership.class);
+    private final ProjectService service = new ProjectService(projects, diagramRooms, mock(DiagramStore.class),
+            mock(CodegenCache.class), mock(ProjectStatsService.class), lanes, ownership);
+
+    /** En cluster, el PUT en una instancia que no es dueña no toca la sala ni la BD. */
+    @Test
+    void restUpdateIsRefusedOutsideTheOwnerInstance() {
+        when(projects.existsById(1L)).thenReturn(true);
+        when(ownership.ownerOf(1L)).thenReturn("otra");
+        when(ownership.isLocal("otra")).thenReturn(false);
+
+        RoomOwnership.NotOwnerException e = assertThrows(RoomOwnership.NotOwnerException.class,
+                () -> service.actualizarDiagrama(1L, new DiagramEntity()));
+
+        assertEquals("otra", e.getOwner());
+        verifyNoInteractions(lanes, diagramRooms);
+    }
+}
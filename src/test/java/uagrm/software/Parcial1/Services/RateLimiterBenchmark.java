@@ -0,0 +1,62 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import uagrm.software.Parcial1.Bench;
+import uagrm.software.Parcial1.Services.RateLimiter.Traffic;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link RateLimiter#tryAcquire} en un hilo (buckets ya creados, sin límite que
+ * rechace) y el tope por proyecto con 8 hilos compitiendo durante 2 s.
+ */
+@Tag("benchmark")
+class RateLimiterBenchmark {
+
+    private static final int SESSIONS = 1000;
+
+    @Test
+    void singleThread() {
+        RateLimiter limiter = RateLimiterTest.limiter(1, 1);
+        ReflectionTestUtils.setField(limiter, "updateSessionRate", 1e9);
+        ReflectionTestUtils.setField(limiter, "updateSessionBurst", 1_000_000);
+        ReflectionTestUtils.setField(limiter, "updateProjectRate", 1e9);
+        ReflectionTestUtils.setField(limiter, "updateProjectBurst", 1_000_000);
+        limiter.configure();
+        String[] ids = new String[SESSIONS];
+        for (int i = 0; i < SESSIONS; i++) ids[i] = "s" + i;
+
+        Bench.nsPerOp("ratelimit/tryAcquire", 1_000_000,
+                i -> limiter.tryAcquire(Traffic.UPDATE, ids[i % SESSIONS], (long) (i % 10)) ? 1 : 0);
+    }
+
+    @Test
+    void projectCapUnderContention() throws Exception {
+        RateLimiter limiter = RateLimiterTest.limiter(1, 1);
+        ReflectionTestUtils.setField(limiter, "cursorSessionRate", 0.0);
+        ReflectionTestUtils.setField(limiter, "cursorProjectRate", 1000.0);
+        ReflectionTestUtils.setField(limiter, "cursorProjectBurst", 1000);
+        limiter.configure();
+
+        long millis = 2000;
+        LongAdder allowed = new LongAdder();
+        Thread[] threads = new Thread[8];
+        long end = System.currentTimeMillis() + millis;
+        for (int t = 0; t < threads.length; t++) {
+            String session = "s" + t;
+            threads[t] = new Thread(() -> {
+                while (System.currentTimeMillis() < end) {
+                    if (limiter.tryAcquire(Traffic.CURSOR, session, 1L)) allowed.increment();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+
+        Bench.report("ratelimit/8 hilos, tope 1000/s + ráfaga 1000", "%d permitidos en %d ms (máx. %d)",
+                allowed.sum(), millis, 1000 * millis / 1000 + 1000);
+    }
+}
@@ -0,0 +1,105 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import uagrm.software.Parcial1.Services.RateLimiter.Traffic;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tasas de 1 mensaje cada 100 s: dentro de un test ningún bucket se recarga y solo
+ * cuenta la ráfaga.
+ */
+class RateLimiterTest {
+
+    private static final double SLOW = 0.01;
+
+    @Test
+    void sessionAllowsItsBurstThenRejects() {
+        RateLimiter limiter = limiter(3, 100);
+
+        for (int i = 0; i < 3; i++) assertTrue(limiter.tryAcquire(Traffic.UPDATE, "a", 1L));
+        assertFalse(limiter.tryAcquire(Traffic.UPDATE, "a", 1L));
+
+        // Otra sesión y otra clase de tráfico tienen sus propios buckets
+        assertTrue(limiter.tryAcquire(Traffic.UPDATE, "b", 1L));
+        assertTrue(limiter.tryAcquire(Traffic.CURSOR, "a", 1L));
+        assertEquals(1L, update(limiter).get("rejectedSession"));
+    }
+
+    @Test
+    void projectBurstIsSharedBySessions() {
+        RateLimiter limiter = limiter(10, 2);
+
+        assertTrue(limiter.tryAcquire(Traffic.UPDATE, "a", 1L));
+        assertTrue(limiter.tryAcquire(Traffic.UPDATE, "b", 1L));
+        assertFalse(limiter.tryAcquire(Traffic.UPDATE, "c", 1L));
+        assertEquals(1L, update(limiter).get("rejectedProject"));
+    }
+
+    /** Un rechazo del proyecto no le cuesta el token a la sesión. */
+    @Test
+    void sessionTokenIsRefundedWhenProjectRejects() {
+        RateLimiter limiter = limiter(3, 1);
+
+        assertTrue(limiter.tryAcquire(Traffic.UPDATE, "a", 1L));
+        for (int i = 0; i < 5; i++) assertFalse(limiter.tryAcquire(Traffic.UPDATE, "a", 1L));
+
+        // Le quedan los 2 tokens restantes de su ráfaga de 3
+        assertTrue(limiter.tryAcquire(Traffic.UPDATE, "a", 2L));
+        assertTrue(limiter.tryAcquire(Traffic.UPDATE, "a", 3L));
+        assertFalse(limiter.tryAcquire(Traffic.UPDATE, "a", 4L));
+        assertEquals(5L, update(limiter).get("rejectedProject"));
+        assertEquals(1L, update(limiter).get("rejectedSession"));
+    }
+
+    @Test
+    void forgottenBucketsStartFull() {
+        RateLimiter limiter = limiter(1, 1);
+        assertTrue(limiter.tryAcquire(Traffic.UPDATE, "a", 1L));
+        assertFalse(limiter.tryAcquire(Traffic.UPDATE, "a", 2L));
+
+        limiter.onSessionExpired(new SessionExpiredEvent("a"));
+        assertFalse(limiter.tryAcquire(Traffic.UPDATE, "a", 1L));
+        limiter.onRoomEmpty(new RoomEmptyEvent(1L));
+        assertTrue(limiter.tryAcquire(Traffic.UPDATE, "a", 1L));
+        assertEquals(1, limiter.getStats().get("sessions"));
+    }
+
+    @Test
+    void zeroRateMeansNoLimit() {
+        RateLimiter limiter = limiter(1, 1);
+        ReflectionTestUtils.setField(limiter, "cursorSessionRate", 0.0);
+        ReflectionTestUtils.setField(limiter, "cursorProjectRate", 0.0);
+        limiter.configure();
+
+        for (int i = 0; i < 1000; i++) assertTrue(limiter.tryAcquire(Traffic.CURSOR, "a", 1L));
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    static RateLimiter limiter(int sessionBurst, int projectBurst) {
+        RateLimiter limiter = new RateLimiter();
+        ReflectionTestUtils.setField(limiter, "enabled", true);
+        for (String traffic : new String[] { "update", "cursor" }) {
+            ReflectionTestUtils.setField(limiter, traffic + "SessionRate", SLOW);
+            ReflectionTestUtils.setField(limiter, traffic + "SessionBurst", sessionBurst);
+            ReflectionTestUtils.setField(limiter, traffic + "ProjectRate", SLOW);
+            ReflectionTestUtils.setField(limiter, traffic + "ProjectBurst", projectBurst);
+        }
+        limiter.configure();
+        return limiter;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> update(RateLimiter limiter) {
+        return (Map<String, Object>) limiter.getStats().get("update");
+    }
+}
@@ -0,0 +1,141 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.simp.SimpMessageHeaderAccessor;
+import org.springframework.messaging.simp.SimpMessageType;
+import org.springframework.messaging.simp.SimpMessagingTemplate;
+import org.springframework.messaging.simp.broker.SimpleBrokerMessageHandler;
+import org.springframework.messaging.support.ExecutorSubscribableChannel;
+import org.springframework.messaging.support.MessageBuilder;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Con el broker real: {@link SimpMessagingTemplate} -> brokerChannel -> SimpleBroker
+ * con el registro de {@link RoomBroker} -> clientOutboundChannel. Canales síncronos.
+ */
+class RoomBrokerTest {
+
+    private final ExecutorSubscribableChannel inbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel outbound = new ExecutorSubscribableChannel();
+    private final ExecutorSubscribableChannel brokerChannel = new ExecutorSubscribableChannel();
+    private final List<Message<?>> sent = new CopyOnWriteArrayList<>();
+    private final RoomBroker roomBroker = new RoomBroker(true);
+    private final Set<String> connected = new HashSet<>();
+    private SimpleBrokerMessageHandler broker;
+    private SimpMessagingTemplate template;
+
+    @BeforeEach
+    void setUp() {
+        outbound.subscribe(sent::add);
+        broker = new SimpleBrokerMessageHandler(inbound, outbound, brokerChannel, List.of("/topic", "/queue"));
+        broker.setSubscriptionRegistry(roomBroker.registry(broker.getSubscriptionRegistry()));
+        broker.start();
+        template = new SimpMessagingTemplate(brokerChannel);
+    }
+
+    @AfterEach
+    void tearDown() {
+        broker.stop();
+    }
+
+    /** El envío a un tópico de sala no lanza y llega solo a los suscritos a esa sala y canal. */
+    @Test
+    void roomBroadcastIsDeliveredThroughTheTemplate() {
+        subscribe("a", "s1", "/topic/projects/1");
+        subscribe("b", "s1", "/topic/projects/1");
+        subscribe("c", "s1", "/topic/projects/1/cursors");
+        subscribe("d", "s1", "/topic/projects/2");
+
+        template.convertAndSend("/topic/projects/1", "{\"type\":\"update\"}".getBytes());
+
+        assertEquals(Set.of("a", "b"), sessions());
+        for (Message<?> m : messages()) {
+            assertEquals("s1", SimpMessageHeaderAccessor.getSubscriptionId(m.getHeaders()));
+            assertEquals("/topic/projects/1", SimpMessageHeaderAccessor.getDestination(m.getHeaders()));
+        }
+        assertEquals(1L, roomBroker.getStats().get("routed"));
+    }
+
+    /** Sin suscriptores el envío tampoco falla (p. ej. los ticks de cursores y presencia). */
+    @Test
+    void broadcastWithoutSubscribersIsNotAnError() {
+        template.convertAndSend("/topic/projects/7/presence", "{}".getBytes());
+        assertTrue(messages().isEmpty());
+    }
+
+    @Test
+    void otherDestinationsStayInTheSimpleBrokerRegistry() {
+        subscribe("a", "s1", "/topic/announcements");
+        subscribe("b", "s1", "/queue/errors");
+
+        template.convertAndSend("/topic/announcements", "hola".getBytes());
+
+        assertEquals(Set.of("a"), sessions());
+        assertEquals(0L, roomBroker.getStats().get("routed"));
+    }
+
+    @Test
+    void unsubscribeAndDisconnectRemoveRoomSubscriptions() {
+        subscribe("a", "s1", "/topic/projects/1");
+        subscribe("b", "s1", "/topic/projects/1");
+        subscribe("c", "s1", "/topic/projects/1");
+
+        SimpMessageHeaderAccessor unsubscribe = accessor(SimpMessageType.UNSUBSCRIBE, "a");
+        unsubscribe.setSubscriptionId("s1");
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], unsubscribe.getMessageHeaders()));
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0],
+                accessor(SimpMessageType.DISCONNECT, "b").getMessageHeaders()));
+
+        template.convertAndSend("/topic/projects/1", "{}".getBytes());
+
+        assertEquals(Set.of("c"), sessions());
+        assertEquals(1, roomBroker.getStats().get("subscriptions"));
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    /** CONNECT (el broker solo entrega a sesiones conectadas) y SUBSCRIBE, como los reenvía el clientInboundChannel. */
+    private void subscribe(String sessionId, String subscriptionId, String destination) {
+        if (connected.add(sessionId)) {
+            broker.handleMessage(MessageBuilder.createMessage(new byte[0],
+                    accessor(SimpMessageType.CONNECT, sessionId).getMessageHeaders()));
+        }
+        SimpMessageHeaderAccessor accessor = accessor(SimpMessageType.SUBSCRIBE, sessionId);
+        accessor.setSubscriptionId(subscriptionId);
+        accessor.setDestination(destination);
+        broker.handleMessage(MessageBuilder.createMessage(new byte[0], accessor.getMessageHeaders()));
+    }
+
+    private static SimpMessageHeaderAccessor accessor(SimpMessageType type, String sessionId) {
+        SimpMessageHeaderAccessor accessor = SimpMessageHeaderAccessor.create(type);
+        accessor.setSessionId(sessionId);
+        accessor.setLeaveMutable(true);
+        return accessor;
+    }
+
+    /** Lo enviado a los clientes sin los CONNECT_ACK. */
+    private List<Message<?>> messages() {
+        return sent.stream()
+                .filter(m -> SimpMessageHeaderAccessor.getMessageType(m.getHeaders()) == SimpMessageType.MESSAGE)
+                .toList();
+    }
+
+    private Set<String> sessions() {
+        return messages().stream()
+                .map(m -> SimpMessageHeaderAccessor.getSessionId(m.getHeaders()))
+                .collect(Collectors.toSet());
+    }
+}
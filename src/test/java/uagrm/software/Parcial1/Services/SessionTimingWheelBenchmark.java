@@ -0,0 +1,83 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import uagrm.software.Parcial1.Bench;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 100k sesiones con timeout de 60 s y ticks de 1 s: el 90% manda heartbeat cada
+ * 10 s y el 10% queda en silencio. Tiempo simulado. Se compara con el barrido
+ * completo de un mapa sessionId -> última actividad que reemplazó la rueda.
+ */
+@Tag("benchmark")
+class SessionTimingWheelBenchmark {
+
+    private static final int SESSIONS = 100_000;
+    private static final long TIMEOUT = 60_000;
+    private static final long TICK = 1_000;
+
+    private final String[] ids = new String[SESSIONS];
+
+    @Test
+    void wheelAgainstFullScan() {
+        for (int i = 0; i < SESSIONS; i++) ids[i] = "s" + i;
+
+        SessionTimingWheel tracked = populated();
+        Bench.nsPerOp("wheel/touch", SESSIONS, i -> tracked.touch(ids[i], 1) ? 1 : 0);
+
+        SessionTimingWheel empty = new SessionTimingWheel(TIMEOUT, TICK, 0);
+        Bench.nsPerOp("wheel/track + cancel", SESSIONS, i -> {
+            empty.track(ids[i], i);
+            return empty.cancel(ids[i]) ? 1 : 0;
+        });
+
+        for (int round = 0; round < 3; round++) {
+            SessionTimingWheel wheel = populated();
+            long expired = 0;
+            long ticks = 0;
+            long spent = 0;
+            long worst = 0;
+            for (long now = TICK; now <= 3 * TIMEOUT; now += TICK) {
+                // El 90% activo manda heartbeat cada 10 s, repartido entre los ticks
+                long phase = (now / TICK) % 10;
+                if (phase != 9) {
+                    for (int i = (int) phase; i < SESSIONS; i += 10) wheel.touch(ids[i], now);
+                }
+                long start = System.nanoTime();
+                expired += wheel.advance(now).size();
+                long elapsed = System.nanoTime() - start;
+                spent += elapsed;
+                worst = Math.max(worst, elapsed);
+                ticks++;
+            }
+            assertEquals(SESSIONS / 10, expired);
+            if (round == 2) {
+                Bench.report("wheel/advance (por tick)", "%.1f µs promedio, %.1f µs peor", spent / 1e3 / ticks, worst / 1e3);
+                Bench.report("wheel/sesiones vencidas", "%d de %d (solo las calladas)", expired, SESSIONS);
+            }
+        }
+
+        Map<String, Long> lastSeen = new HashMap<>();
+        for (int i = 0; i < SESSIONS; i++) lastSeen.put(ids[i], (long) i % 1000);
+        Bench.nsPerOp("barrido completo (por pasada)", 1, r -> {
+            long now = TIMEOUT + 500;
+            long n = 0;
+            for (Map.Entry<String, Long> e : lastSeen.entrySet()) {
+                if (now - e.getValue() > TIMEOUT) n++;
+            }
+            return n;
+        });
+    }
+
+    private SessionTimingWheel populated() {
+        SessionTimingWheel wheel = new SessionTimingWheel(TIMEOUT, TICK, 0);
+        for (String id : ids) wheel.track(id, 0);
+        return wheel;
+    }
+}
@@ -0,0 +1,93 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SessionTimingWheelTest {
+
+    private static final long TIMEOUT = 60_000;
+    private static final long TICK = 1_000;
+
+    @Test
+    void silentSessionExpiresWithinOneTickOfTimeout() {
+        SessionTimingWheel wheel = new SessionTimingWheel(TIMEOUT, TICK, 0);
+        wheel.track("s1", 500);
+
+        assertEquals(List.of(), advanceUntil(wheel, 500 + TIMEOUT - 1));
+        List<String> expired = advanceUntil(wheel, 500 + TIMEOUT + TICK);
+
+        assertEquals(List.of("s1"), expired);
+        assertEquals(0, wheel.size());
+        assertFalse(wheel.touch("s1", 70_000));
+    }
+
+    @Test
+    void activityPostponesExpiry() {
+        SessionTimingWheel wheel = new SessionTimingWheel(TIMEOUT, TICK, 0);
+        wheel.track("s1", 0);
+        wheel.track("s2", 0);
+
+        List<String> expired = new ArrayList<>();
+        for (long now = 0; now <= 100_000; now += TICK) {
+            if (now % 10_000 == 0) assertTrue(wheel.touch("s1", now));
+            expired.addAll(wheel.advance(now));
+        }
+
+        assertEquals(List.of("s2"), expired);
+        assertEquals(1, wheel.size());
+        assertEquals(List.of("s1"), wheel.advance(100_000 + TIMEOUT + TICK));
+    }
+
+    @Test
+    void cancelledSessionNeverExpires() {
+        SessionTimingWheel wheel = new SessionTimingWheel(TIMEOUT, TICK, 0);
+        wheel.track("s1", 0);
+
+        assertTrue(wheel.cancel("s1"));
+        assertFalse(wheel.cancel("s1"));
+        assertEquals(List.of(), advanceUntil(wheel, 3 * TIMEOUT));
+    }
+
+    /** Tras una pausa de varias vueltas, un solo advance vence a todas las sesiones calladas. */
+    @Test
+    void longPauseExpiresEverySilentSessionInOneCall() {
+        SessionTimingWheel wheel = new SessionTimingWheel(TIMEOUT, TICK, 0);
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < 500; i++) {
+            wheel.track("s" + i, i * 37L);
+            ids.add("s" + i);
+        }
+
+        List<String> expired = wheel.advance(5 * wheel.slotCount() * TICK);
+
+        assertEquals(ids, new HashSet<>(expired));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void rejectsNonPositiveSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new SessionTimingWheel(0, TICK, 0));
+        assertThrows(IllegalArgumentException.class, () -> new SessionTimingWheel(TIMEOUT, 0, 0));
+    }
+
+    /* =========================================================
+     *                        HELPERS
+     * ========================================================= */
+
+    /** Avanza tick a tick hasta {@code until}, como el scheduler. */
+    private static List<String> advanceUntil(SessionTimingWheel wheel, long until) {
+        List<String> expired = new ArrayList<>();
+        for (long t = 0; t < until; t += TICK) expired.addAll(wheel.advance(t));
+        expired.addAll(wheel.advance(until));
+        return expired;
+    }
+}
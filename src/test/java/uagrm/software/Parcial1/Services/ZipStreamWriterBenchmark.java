@@ -0,0 +1,73 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import uagrm.software.Parcial1.Bench;
+import uagrm.software.Parcial1.Services.JavaSourceRenderer.GeneratedFile;
+import uagrm.software.Parcial1.Services.ZipStreamWriter.Entry;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * ZIP de un proyecto generado (500 archivos de ~3 KB) escrito a un stream nulo:
+ * {@link ZipOutputStream} (comprime al escribir), {@link ZipStreamWriter} comprimiendo
+ * cada archivo, y {@link ZipStreamWriter} con entradas ya comprimidas (acierto de caché).
+ */
+@Tag("benchmark")
+class ZipStreamWriterBenchmark {
+
+    private static final int FILES = 500;
+
+    @Test
+    void projectArchive() {
+        List<GeneratedFile> files = new ArrayList<>(FILES);
+        for (int i = 0; i < FILES; i++) files.add(new GeneratedFile("src/main/java/demo/Clase" + i + ".java", source(i)));
+        List<Entry> cached = files.stream().map(ZipStreamWriter::deflate).toList();
+
+        Bench.nsPerOp("zip/ZipOutputStream (ZIP completo)", 1, i -> jdkZip(files));
+        Bench.nsPerOp("zip/ZipStreamWriter + deflate (ZIP completo)", 1, i -> streamZip(files.stream().map(ZipStreamWriter::deflate).toList()));
+        Bench.nsPerOp("zip/ZipStreamWriter desde caché (ZIP completo)", 1, i -> streamZip(cached));
+    }
+
+    private static long jdkZip(List<GeneratedFile> files) {
+        try (ZipOutputStream zip = new ZipOutputStream(OutputStream.nullOutputStream())) {
+            for (GeneratedFile f : files) {
+                zip.putNextEntry(new ZipEntry(f.path()));
+                zip.write(f.content().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+            return files.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long streamZip(List<Entry> entries) {
+        try {
+            ZipStreamWriter zip = new ZipStreamWriter(OutputStream.nullOutputStream());
+            for (Entry e : entries) zip.write(e);
+            zip.finish();
+            return entries.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String source(int i) {
+        StringBuilder sb = new StringBuilder("package demo;\n\nimport jakarta.persistence.*;\n\n@Entity\npublic class Clase")
+                .append(i).append(" {\n");
+        for (int f = 0; f < 20; f++) {
+            sb.append("    private String campo").append(f).append(";\n");
+            sb.append("    public String getCampo").append(f).append("() { return campo").append(f).append("; }\n");
+        }
+        return sb.append("}\n").toString();
+    }
+}
@@ -0,0 +1,104 @@
+package uagrm.software.Parcial1.Services;
+
+import org.junit.jupiter.api.Test;
+
+import uagrm.software.Parcial1.Services.JavaSourceRenderer.GeneratedFile;
+import uagrm.software.Parcial1.Services.ZipStreamWriter.Entry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ZipStreamWriterTest {
+
+    @Test
+    void archiveReadsBackWithJdkZip() throws IOException {
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put("pom.xml", "<project/>");
+        files.put("src/main/java/demo/Clase.java", "package demo;\n\npublic class Clase {}\n".repeat(50));
+        files.put("src/main/java/demo/Ñandú.java", "// nombre con caracteres UTF-8\n");
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipStreamWriter zip = new ZipStreamWriter(out);
+        for (Map.Entry<String, String> f : files.entrySet()) {
+            zip.write(ZipStreamWriter.deflate(new GeneratedFile(f.getKey(), f.getValue())));
+        }
+        zip.finish();
+        byte[] archive = out.toByteArray();
+
+        // Lectura secuencial (cabeceras locales)
+        Map<String, String> streamed = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive), StandardCharsets.UTF_8)) {
+            for (ZipEntry e = in.getNextEntry(); e != null; e = in.getNextEntry()) {
+                streamed.put(e.getName(), new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        assertEquals(files, streamed);
+
+        // Lectura por directorio central (offsets, CRC y tamaños)
+        Path tmp = Files.createTempFile("zipstream", ".zip");
+        try {
+            Files.write(tmp, archive);
+            try (ZipFile zf = new ZipFile(tmp.toFile(), StandardCharsets.UTF_8)) {
+                assertEquals(files.size(), zf.size());
+                for (Map.Entry<String, String> f : files.entrySet()) {
+                    ZipEntry e = zf.getEntry(f.getKey());
+                    assertEquals(f.getValue().getBytes(StandardCharsets.UTF_8).length, e.getSize());
+                    assertArrayEquals(f.getValue().getBytes(StandardCharsets.UTF_8), zf.getInputStream(e).readAllBytes());
+                }
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    @Test
+    void sameContentProducesSameBytes() throws IOException {
+        assertArrayEquals(zipOf("A.java", "class A {}"), zipOf("A.java", "class A {}"));
+    }
+
+    /** Tras escribir una entrada, el escritor solo retiene su registro del directorio central. */
+    @Test
+    void writtenDataIsNotRetained() throws IOException {
+        ZipStreamWriter zip = new ZipStreamWriter(OutputStream.nullOutputStream());
+        List<WeakReference<byte[]>> data = new ArrayList<>();
+        for (int i = 0; i < 10; i++) data.add(writeAndForget(zip, i));
+
+        for (int i = 0; i < 20 && data.stream().anyMatch(r -> r.get() != null); i++) {
+            System.gc();
+            Thread.onSpinWait();
+        }
+        data.forEach(r -> assertNull(r.get()));
+        zip.finish();
+    }
+
+    private static WeakReference<byte[]> writeAndForget(ZipStreamWriter zip, int i) throws IOException {
+        Entry e = ZipStreamWriter.deflate(new GeneratedFile("F" + i + ".java", "class F" + i + " {}".repeat(1000)));
+        zip.write(e);
+        return new WeakReference<>(e.data());
+    }
+
+    private static byte[] zipOf(String name, String content) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ZipStreamWriter zip = new ZipStreamWriter(out);
+        zip.write(ZipStreamWriter.deflate(new GeneratedFile(name, content)));
+        zip.finish();
+        return out.toByteArray();
+    }
+}